@@ -55,8 +55,12 @@ import java.io.*;
 import java.util.logging.*;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -161,8 +165,67 @@ public class HessianProxy implements InvocationHandler, Serializable {
       }
     }
 
+    if (CompletableFuture.class.equals(method.getReturnType()))
+      return invokeAsync(method, mangleName, args);
+
+    return call(method.getReturnType(), mangleName, args);
+  }
+
+  /**
+   * Calls a method returning a CompletableFuture on the factory's async
+   * executor.  The remote method returns the future's value type.
+   */
+  private CompletableFuture<Object> invokeAsync(Method method,
+                                                final String mangleName,
+                                                final Object []args)
+  {
+    final Class<?> returnType = getAsyncReturnType(method);
+    final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+    try {
+      _factory.getAsyncExecutor().execute(new Runnable() {
+          public void run()
+          {
+            try {
+              future.complete(call(returnType, mangleName, args));
+            } catch (Throwable e) {
+              future.completeExceptionally(e);
+            }
+          }
+        });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+
+    return future;
+  }
+
+  private static Class<?> getAsyncReturnType(Method method)
+  {
+    Type type = method.getGenericReturnType();
+
+    if (type instanceof ParameterizedType)
+      type = ((ParameterizedType) type).getActualTypeArguments()[0];
+
+    if (type instanceof ParameterizedType)
+      type = ((ParameterizedType) type).getRawType();
+
+    if (type instanceof Class<?>)
+      return (Class<?>) type;
+    else
+      return Object.class;
+  }
+
+  /**
+   * Sends the call and reads the reply.  The connection is released for
+   * keepalive after a complete reply, and destroyed otherwise.
+   */
+  private Object call(Class<?> returnType, String mangleName, Object []args)
+    throws Throwable
+  {
     InputStream is = null;
     HessianConnection conn = null;
+    boolean isComplete = false;
     
     try {
       if (log.isLoggable(Level.FINER))
@@ -192,7 +255,9 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in = _factory.getHessian2Input(is);
 
-        Object value = in.readReply(method.getReturnType());
+        Object value = in.readReply(returnType);
+
+        isComplete = true;
 
         return value;
       }
@@ -204,16 +269,19 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in.startReplyBody();
 
-        Object value = in.readObject(method.getReturnType());
+        Object value = in.readObject(returnType);
 
         if (value instanceof InputStream) {
           value = new ResultInputStream(conn, is, in, (InputStream) value);
           is = null;
           conn = null;
         }
-        else
+        else {
           in.completeReply();
 
+          isComplete = true;
+        }
+
         return value;
       }
       else
@@ -229,8 +297,12 @@ public class HessianProxy implements InvocationHandler, Serializable {
       }
       
       try {
-        if (conn != null)
-          conn.destroy();
+        if (conn != null) {
+          if (isComplete)
+            conn.close();
+          else
+            conn.destroy();
+        }
       } catch (Exception e) {
         log.log(Level.FINE, e.toString(), e);
       }
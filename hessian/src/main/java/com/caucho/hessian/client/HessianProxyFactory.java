@@ -56,6 +56,12 @@ import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Hashtable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.naming.Context;
@@ -116,6 +122,18 @@ import com.caucho.services.client.ServiceProxyFactory;
  *
  * <p>The proxy can use HTTP basic authentication if the user and the
  * password are set.
+ *
+ * <h3>Asynchronous calls</h3>
+ *
+ * <p>API methods returning a <code>CompletableFuture</code> are called
+ * asynchronously on the factory's executor.  The remote method returns
+ * the future's value type:
+ * <pre>
+ * CompletableFuture&lt;String> hello();  // calls String hello()
+ * </pre>
+ *
+ * <p>The default executor is bounded by the JDK's keepalive cache size,
+ * so each worker can reuse a cached HTTP connection.
  */
 public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   protected static Logger log
@@ -144,6 +162,9 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   private long _readTimeout = -1;
   private long _connectTimeout = -1;
 
+  private Executor _asyncExecutor;
+  private int _asyncThreadMax = Integer.getInteger("http.maxConnections", 5);
+
   /**
    * Creates the new proxy factory.
    */
@@ -293,6 +314,53 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     _connectTimeout = timeout;
   }
 
+  /**
+   * Sets the executor for asynchronous calls.
+   */
+  public synchronized void setAsyncExecutor(Executor executor)
+  {
+    _asyncExecutor = executor;
+  }
+
+  /**
+   * Returns the executor for asynchronous calls, creating a bounded
+   * pool of daemon threads if none is set.
+   */
+  public synchronized Executor getAsyncExecutor()
+  {
+    if (_asyncExecutor == null) {
+      ThreadPoolExecutor executor
+        = new ThreadPoolExecutor(_asyncThreadMax, _asyncThreadMax,
+                                 60, TimeUnit.SECONDS,
+                                 new LinkedBlockingQueue<Runnable>(),
+                                 new AsyncThreadFactory());
+
+      executor.allowCoreThreadTimeOut(true);
+
+      _asyncExecutor = executor;
+    }
+
+    return _asyncExecutor;
+  }
+
+  /**
+   * The maximum number of concurrent asynchronous calls for the
+   * default executor.
+   */
+  public synchronized void setAsyncThreadMax(int max)
+  {
+    _asyncThreadMax = max;
+  }
+
+  /**
+   * The maximum number of concurrent asynchronous calls for the
+   * default executor.
+   */
+  public synchronized int getAsyncThreadMax()
+  {
+    return _asyncThreadMax;
+  }
+
   /**
    * True if the proxy can read Hessian 2 responses.
    */
@@ -609,5 +677,18 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     else
       return '/';
   }
-}
 
+  static class AsyncThreadFactory implements ThreadFactory {
+    private static final AtomicInteger _count = new AtomicInteger();
+
+    public Thread newThread(Runnable task)
+    {
+      Thread thread = new Thread(task, "hessian-async-"
+                                 + _count.incrementAndGet());
+
+      thread.setDaemon(true);
+
+      return thread;
+    }
+  }
+}
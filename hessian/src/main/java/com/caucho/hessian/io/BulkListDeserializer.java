@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Deserializing a bulk list written by Hessian2Output.writeBulkList.
+ *
+ * A bulk list is a list of binary chunks, each an independent Hessian 2
+ * stream of an element count followed by the elements.  The chunks are
+ * decoded in parallel.  The objects of each chunk are then added to the
+ * enclosing stream's references in chunk order, matching the writer, so
+ * later references to them resolve as usual.
+ */
+public class BulkListDeserializer extends AbstractListDeserializer {
+  public static final String TYPE = "hessian.bulk";
+
+  static final BulkListDeserializer DESER = new BulkListDeserializer();
+
+  private ForkJoinPool _pool;
+
+  public BulkListDeserializer()
+  {
+  }
+
+  /**
+   * Creates a deserializer decoding on the given pool instead of the
+   * common pool.
+   */
+  public BulkListDeserializer(ForkJoinPool pool)
+  {
+    _pool = pool;
+  }
+
+  @Override
+  public Class<?> getType()
+  {
+    return ArrayList.class;
+  }
+
+  @Override
+  public Object readList(AbstractHessianInput in, int length)
+    throws IOException
+  {
+    ArrayList<Object> list = new ArrayList<Object>();
+
+    in.addRef(list);
+
+    ArrayList<byte[]> chunks = new ArrayList<byte[]>();
+
+    while (! in.isEnd())
+      chunks.add(in.readBytes());
+
+    in.readEnd();
+
+    readChunks(in, list, chunks);
+
+    return list;
+  }
+
+  @Override
+  public Object readLengthList(AbstractHessianInput in, int length)
+    throws IOException
+  {
+    ArrayList<Object> list = new ArrayList<Object>();
+
+    in.addRef(list);
+
+    ArrayList<byte[]> chunks = new ArrayList<byte[]>();
+
+    for (; length > 0; length--)
+      chunks.add(in.readBytes());
+
+    readChunks(in, list, chunks);
+
+    return list;
+  }
+
+  private void readChunks(AbstractHessianInput in,
+                          ArrayList<Object> list,
+                          ArrayList<byte[]> chunks)
+    throws IOException
+  {
+    SerializerFactory factory;
+
+    if (in instanceof Hessian2Input)
+      factory = ((Hessian2Input) in).findSerializerFactory();
+    else
+      factory = SerializerFactory.createDefault();
+
+    HessianRemoteResolver resolver = in.getRemoteResolver();
+
+    int size = chunks.size();
+
+    ArrayList<ForkJoinTask<Hessian2Input>> tasks
+      = new ArrayList<ForkJoinTask<Hessian2Input>>();
+
+    ForkJoinPool pool = _pool;
+
+    // on a single processor, handing chunks to the pool only adds overhead
+    if (pool == null && Runtime.getRuntime().availableProcessors() > 1)
+      pool = ForkJoinPool.commonPool();
+
+    // the first chunk is decoded by the calling thread
+    if (pool != null) {
+      for (int i = 1; i < size; i++) {
+        tasks.add(pool.submit(new ChunkTask(chunks.get(i), factory, resolver)));
+      }
+    }
+
+    ArrayList<Hessian2Input> inputs = new ArrayList<Hessian2Input>();
+
+    if (pool != null && size > 0)
+      inputs.add(new ChunkTask(chunks.get(0), factory, resolver).call());
+    else {
+      for (byte []chunk : chunks) {
+        inputs.add(new ChunkTask(chunk, factory, resolver).call());
+      }
+    }
+
+    try {
+      for (ForkJoinTask<Hessian2Input> task : tasks) {
+        inputs.add(task.get());
+      }
+    } catch (InterruptedException e) {
+      throw new IOExceptionWrapper(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      else
+        throw new IOExceptionWrapper(e.getCause());
+    }
+
+    for (Hessian2Input chunkIn : inputs) {
+      list.addAll(((ChunkInput) chunkIn).getValues());
+
+      if (chunkIn._refs != null) {
+        for (Object ref : chunkIn._refs) {
+          in.addRef(ref);
+        }
+      }
+    }
+  }
+
+  static class ChunkTask implements Callable<Hessian2Input> {
+    private final byte []_chunk;
+    private final SerializerFactory _factory;
+    private final HessianRemoteResolver _resolver;
+
+    ChunkTask(byte []chunk,
+              SerializerFactory factory,
+              HessianRemoteResolver resolver)
+    {
+      _chunk = chunk;
+      _factory = factory;
+      _resolver = resolver;
+    }
+
+    @Override
+    public Hessian2Input call()
+      throws IOException
+    {
+      ChunkInput in = new ChunkInput(new ByteArrayInputStream(_chunk));
+
+      in.setSerializerFactory(_factory);
+      in.setRemoteResolver(_resolver);
+
+      in.readValues();
+
+      return in;
+    }
+  }
+
+  static class ChunkInput extends Hessian2Input {
+    private ArrayList<Object> _values;
+
+    ChunkInput(ByteArrayInputStream is)
+    {
+      super(is);
+    }
+
+    void readValues()
+      throws IOException
+    {
+      int length = readInt();
+
+      _values = new ArrayList<Object>(length);
+
+      for (int i = 0; i < length; i++) {
+        _values.add(readObject());
+      }
+    }
+
+    ArrayList<Object> getValues()
+    {
+      return _values;
+    }
+  }
+}
@@ -51,6 +51,7 @@ package com.caucho.hessian.io;
 import java.io.*;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.logging.*;
@@ -98,6 +99,9 @@ public class Hessian2Input
     = new ArrayList<ObjectDefinition>();
   protected ArrayList<String> _types
     = new ArrayList<String>();
+
+  // keeps class definitions and types across messages
+  private boolean _isSession;
   
   // the underlying input stream
   private InputStream _is;
@@ -213,8 +217,35 @@ public class Hessian2Input
     }
     
     _is = is;
-    
-    reset();
+
+    if (_isSession)
+      resetReferences();
+    else
+      reset();
+  }
+
+  /**
+   * Sets session mode, where class definitions and types read from
+   * earlier messages are kept when the input is reinitialized.  Must
+   * match the session mode of the peer's Hessian2Output.
+   */
+  public void setSession(boolean isSession)
+  {
+    _isSession = isSession;
+  }
+
+  public boolean isSession()
+  {
+    return _isSession;
+  }
+
+  /**
+   * Clears the session's class definitions and types.
+   */
+  public void resetSession()
+  {
+    _classDefs.clear();
+    _types.clear();
   }
 
   public void initPacket(InputStream is)
@@ -1417,16 +1448,34 @@ public class Hessian2Input
 
     case BC_BINARY:
     case BC_BINARY_CHUNK:
-      _isLastChunk = tag == BC_BINARY;
-      _chunkLength = (read() << 8) + read();
+      {
+        _isLastChunk = tag == BC_BINARY;
+        _chunkLength = (read() << 8) + read();
+
+        byte []buffer = new byte[Math.max(_chunkLength, 256)];
+        int offset = 0;
+
+        while (true) {
+          if (offset == buffer.length) {
+            if (_isLastChunk && _chunkLength <= 0)
+              return buffer;
 
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+          }
 
-      int data;
-      while ((data = parseByte()) >= 0)
-        bos.write(data);
+          int sublen = read(buffer, offset, buffer.length - offset);
 
-      return bos.toByteArray();
+          if (sublen < 0)
+            break;
+
+          offset += sublen;
+        }
+
+        if (offset == buffer.length)
+          return buffer;
+        else
+          return Arrays.copyOf(buffer, offset);
+      }
 
     case 0x20: case 0x21: case 0x22: case 0x23:
     case 0x24: case 0x25: case 0x26: case 0x27:
@@ -2132,8 +2181,7 @@ public class Hessian2Input
         int ref = tag - 0x60;
 
         if (_classDefs.size() <= ref)
-          throw error("No classes defined at reference '"
-                      + Integer.toHexString(tag) + "'");
+          throw error("'" + ref + "' is an unknown class definition");
 
         ObjectDefinition def = _classDefs.get(ref);
 
@@ -2144,8 +2192,8 @@ public class Hessian2Input
       {
         int ref = readInt();
 
-        if (_classDefs.size() <= ref)
-          throw error("Illegal object reference #" + ref);
+        if (ref < 0 || _classDefs.size() <= ref)
+          throw error("'" + ref + "' is an unknown class definition");
 
         ObjectDefinition def = _classDefs.get(ref);
 
@@ -2946,6 +2994,8 @@ public class Hessian2Input
   public void free()
   {
     reset();
+
+    _isSession = false;
   }
 
   @Override
@@ -50,10 +50,16 @@ package com.caucho.hessian.io;
 
 import com.caucho.hessian.util.IdentityIntMap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 
 /**
  * Output stream for Hessian 2 requests.
@@ -81,9 +87,18 @@ public class Hessian2Output
   // should match Resin buffer size for perf
   public final static int SIZE = 8 * 1024;
 
+  // default number of elements in a bulk list chunk
+  public final static int BULK_CHUNK_SIZE = 1024;
+
   // the output stream/
   protected OutputStream _os;
 
+  // channel sink, written without an intermediate OutputStream
+  private WritableByteChannel _channel;
+
+  // memory sink, replaced by a larger buffer when it fills up
+  private ByteBuffer _sinkBuffer;
+
   // map of references
   private final IdentityIntMap _refs
     = new IdentityIntMap(256);
@@ -100,12 +115,16 @@ public class Hessian2Output
   private HashMap<String,Integer> _typeRefs;
 
   private final byte []_buffer = new byte[SIZE];
+  private final ByteBuffer _channelBuffer = ByteBuffer.wrap(_buffer);
   private int _offset;
 
   private boolean _isPacket;
   
   private boolean _isUnshared;
 
+  // keeps class definitions and types across messages
+  private boolean _isSession;
+
   /**
    * Creates a new Hessian output stream, initialized with an
    * underlying output stream.
@@ -130,9 +149,50 @@ public class Hessian2Output
   @Override
   public void init(OutputStream os)
   {
-    reset();
+    resetMessage();
 
     _os = os;
+    _channel = null;
+    _sinkBuffer = null;
+  }
+
+  /**
+   * Initializes the output to write directly to a channel.
+   */
+  public void initChannel(WritableByteChannel channel)
+  {
+    resetMessage();
+
+    _os = null;
+    _channel = channel;
+    _sinkBuffer = null;
+  }
+
+  /**
+   * Initializes the output to write into a byte buffer.  The buffer is
+   * replaced by a larger one when a payload does not fit, so callers
+   * must use {@link #getByteBuffer} after writing.
+   */
+  public void initByteBuffer(ByteBuffer buffer)
+  {
+    resetMessage();
+
+    _os = null;
+    _channel = null;
+    _sinkBuffer = buffer;
+  }
+
+  /**
+   * Returns the byte buffer sink, flushing any pending data into it.
+   * The buffer is left in write mode, positioned after the written data,
+   * so callers must flip() it before reading.
+   */
+  public ByteBuffer getByteBuffer()
+    throws IOException
+  {
+    flushBuffer();
+
+    return _sinkBuffer;
   }
 
   public void initPacket(OutputStream os)
@@ -147,6 +207,32 @@ public class Hessian2Output
     _isCloseStreamOnClose = isClose;
   }
 
+  /**
+   * Sets session mode.  In a session, class definitions and types written
+   * by earlier messages are kept when the output is reinitialized for the
+   * next message, which refers to them by number.  The peer must read
+   * every message of the session with a Hessian2Input in session mode.
+   */
+  public void setSession(boolean isSession)
+  {
+    _isSession = isSession;
+  }
+
+  public boolean isSession()
+  {
+    return _isSession;
+  }
+
+  /**
+   * Clears the session's class definitions and types, so the next message
+   * is self-contained, e.g. when the peer has lost its session.
+   */
+  public void resetSession()
+  {
+    _classRefs.clear();
+    _typeRefs = null;
+  }
+
   public boolean isCloseStreamOnClose()
   {
     return _isCloseStreamOnClose;
@@ -465,6 +551,94 @@ public class Hessian2Output
     serializer.writeObject(object, this);
   }
 
+  /**
+   * Writes a list as a bulk list, which Hessian2Input decodes in
+   * parallel.
+   */
+  public void writeBulkList(List<?> list)
+    throws IOException
+  {
+    writeBulkList(list, BULK_CHUNK_SIZE);
+  }
+
+  /**
+   * Writes a list as a bulk list of independently decodable chunks.
+   *
+   * <code><pre>
+   * list  ::= x57 "hessian.bulk" int binary*
+   * chunk ::= int value*
+   * </pre></code>
+   *
+   * Each chunk is a complete Hessian 2 stream with its own class
+   * definitions and references.  The objects of each chunk are added
+   * to this stream's references in chunk order, so later values may
+   * refer to them.  If a chunk refers to an object written before it,
+   * the list is written with writeObject instead.
+   *
+   * The list is read back as an ArrayList.
+   *
+   * @param chunkSize the number of elements in a chunk
+   */
+  public void writeBulkList(List<?> list, int chunkSize)
+    throws IOException
+  {
+    if (chunkSize <= 0)
+      throw new IllegalArgumentException("chunk size must be positive: "
+                                         + chunkSize);
+
+    if (list == null || list.size() <= chunkSize || getRef(list) >= 0) {
+      writeObject(list);
+      return;
+    }
+
+    int size = list.size();
+
+    IdentityHashMap<Object,Object> written
+      = new IdentityHashMap<Object,Object>();
+    written.put(list, list);
+
+    ArrayList<BulkChunkOutput> chunks = new ArrayList<BulkChunkOutput>();
+
+    for (int i = 0; i < size; i += chunkSize) {
+      int end = Math.min(size, i + chunkSize);
+
+      BulkChunkOutput chunk = new BulkChunkOutput(this, written);
+
+      chunk.writeInt(end - i);
+
+      for (int j = i; j < end; j++) {
+        chunk.writeObject(list.get(j));
+      }
+
+      chunk.flush();
+
+      if (chunk._isShared) {
+        writeObject(list);
+        return;
+      }
+
+      for (Object ref : chunk._chunkRefs) {
+        written.put(ref, ref);
+      }
+
+      chunks.add(chunk);
+    }
+
+    addRef(list);
+
+    writeListBegin(chunks.size(), BulkListDeserializer.TYPE);
+
+    for (BulkChunkOutput chunk : chunks) {
+      byte []data = chunk._bos.toByteArray();
+
+      writeBytes(data, 0, data.length);
+
+      for (Object ref : chunk._chunkRefs) {
+        addRef(ref, _refCount++, false);
+      }
+    }
+  }
+
   /**
    * Writes the list header to the stream.  List writers will call
    * <code>writeListBegin</code> followed by the list contents and then
@@ -1458,9 +1632,7 @@ public class Hessian2Output
   {
     int offset = _offset;
 
-    OutputStream os = _os;
-
-    if (os == null) {
+    if (! hasSink()) {
       _offset = 0;
       return;
     }
@@ -1479,13 +1651,11 @@ public class Hessian2Output
     _isPacket = false;
     _offset = 0;
 
-    if (os == null) {
-    }
-    else if (len < 0x7e) {
-      os.write(_buffer, 2, offset - 2);
+    if (len < 0x7e) {
+      writeSink(2, offset - 2);
     }
     else {
-      os.write(_buffer, 0, offset);
+      writeSink(0, offset);
     }
   }
 
@@ -1620,12 +1790,9 @@ public class Hessian2Output
   {
     int offset = _offset;
 
-    OutputStream os = _os;
-
     if (! _isPacket && offset > 0) {
       _offset = 0;
-      if (os != null)
-        os.write(_buffer, 0, offset);
+      writeSink(0, offset);
     }
     else if (_isPacket && offset > 4) {
       int len = offset - 4;
@@ -1636,8 +1803,7 @@ public class Hessian2Output
       _buffer[3] = (byte) (len);
       _offset = 4;
 
-      if (os != null)
-        os.write(_buffer, 0, offset);
+      writeSink(0, offset);
 
       _buffer[0] = (byte) 0x00;
       _buffer[1] = (byte) 0x56;
@@ -1646,6 +1812,53 @@ public class Hessian2Output
     }
   }
 
+  private boolean hasSink()
+  {
+    return _os != null || _channel != null || _sinkBuffer != null;
+  }
+
+  /**
+   * Writes part of the buffer to the stream, channel or byte buffer.
+   */
+  private void writeSink(int offset, int length)
+    throws IOException
+  {
+    if (_os != null) {
+      _os.write(_buffer, offset, length);
+    }
+    else if (_channel != null) {
+      ByteBuffer buffer = _channelBuffer;
+
+      buffer.clear();
+      buffer.position(offset);
+      buffer.limit(offset + length);
+
+      while (buffer.hasRemaining()) {
+        _channel.write(buffer);
+      }
+    }
+    else if (_sinkBuffer != null) {
+      ByteBuffer sink = _sinkBuffer;
+
+      if (sink.remaining() < length) {
+        int capacity = Math.max(2 * sink.capacity(),
+                                sink.position() + length);
+
+        ByteBuffer newSink = (sink.isDirect()
+                              ? ByteBuffer.allocateDirect(capacity)
+                              : ByteBuffer.allocate(capacity));
+
+        sink.flip();
+        newSink.put(sink);
+
+        sink = newSink;
+        _sinkBuffer = sink;
+      }
+
+      sink.put(_buffer, offset, length);
+    }
+  }
+
   @Override
   public void close()
     throws IOException
@@ -1660,13 +1873,24 @@ public class Hessian2Output
       if (_isCloseStreamOnClose)
         os.close();
     }
+
+    WritableByteChannel channel = _channel;
+    _channel = null;
+
+    if (channel != null) {
+      if (_isCloseStreamOnClose)
+        channel.close();
+    }
   }
 
   public void free()
   {
     reset();
 
+    _isSession = false;
     _os = null;
+    _channel = null;
+    _sinkBuffer = null;
     _isCloseStreamOnClose = false;
   }
 
@@ -1699,6 +1923,23 @@ public class Hessian2Output
     _isUnshared = false;
   }
 
+  /**
+   * Resets for a new message, keeping the definitions of a session.
+   */
+  private void resetMessage()
+  {
+    if (! _isSession) {
+      reset();
+      return;
+    }
+
+    resetReferences();
+
+    _offset = 0;
+    _isPacket = false;
+    _isUnshared = false;
+  }
+
   class BytesOutputStream extends OutputStream {
     private int _startOffset;
 
@@ -1785,4 +2026,73 @@ public class Hessian2Output
       Hessian2Output.this.flushBuffer();
     }
   }
+
+  /**
+   * Output for a single bulk list chunk, noting the objects it adds
+   * and whether it refers to an object outside the chunk.
+   */
+  private static class BulkChunkOutput extends Hessian2Output {
+    private final Hessian2Output _parent;
+    private final IdentityHashMap<Object,Object> _written;
+    private final ByteArrayOutputStream _bos;
+
+    private final ArrayList<Object> _chunkRefs = new ArrayList<Object>();
+    private boolean _isShared;
+
+    BulkChunkOutput(Hessian2Output parent,
+                    IdentityHashMap<Object,Object> written)
+    {
+      this(parent, written, new ByteArrayOutputStream());
+    }
+
+    private BulkChunkOutput(Hessian2Output parent,
+                            IdentityHashMap<Object,Object> written,
+                            ByteArrayOutputStream bos)
+    {
+      super(bos);
+
+      _parent = parent;
+      _written = written;
+      _bos = bos;
+
+      setSerializerFactory(parent.findSerializerFactory());
+      setUnshared(parent._isUnshared);
+    }
+
+    @Override
+    public boolean addRef(Object object)
+      throws IOException
+    {
+      if (super.addRef(object))
+        return true;
+
+      if (_parent._isUnshared)
+        return false;
+
+      if (_parent.getRef(object) >= 0 || _written.containsKey(object))
+        _isShared = true;
+
+      _chunkRefs.add(object);
+
+      return false;
+    }
+
+    @Override
+    public boolean replaceRef(Object oldRef, Object newRef)
+      throws IOException
+    {
+      _isShared = true;
+
+      return super.replaceRef(oldRef, newRef);
+    }
+
+    @Override
+    public boolean removeRef(Object obj)
+      throws IOException
+    {
+      _isShared = true;
+
+      return super.removeRef(obj);
+    }
+  }
 }
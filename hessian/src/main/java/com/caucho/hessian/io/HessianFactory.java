@@ -50,6 +50,8 @@ package com.caucho.hessian.io;
 
 import java.util.logging.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import com.caucho.hessian.util.HessianFreeList;
 
 /**
@@ -166,6 +168,32 @@ public class HessianFactory
     return out;
   }
 
+  /**
+   * Creates a new Hessian 2.0 serializer writing directly to a channel.
+   */
+  public Hessian2Output createHessian2Output(WritableByteChannel channel)
+  {
+    Hessian2Output out = createHessian2Output();
+
+    out.initChannel(channel);
+
+    return out;
+  }
+
+  /**
+   * Creates a new Hessian 2.0 serializer writing into a byte buffer,
+   * which grows as needed.  The result is returned by getByteBuffer(),
+   * not yet flipped.
+   */
+  public Hessian2Output createHessian2Output(ByteBuffer buffer)
+  {
+    Hessian2Output out = createHessian2Output();
+
+    out.initByteBuffer(buffer);
+
+    return out;
+  }
+
   /**
    * Creates a new Hessian 2.0 serializer.
    */
@@ -82,7 +82,7 @@ public class SerializerFactory extends AbstractSerializerFactory
 
   private static final ClassLoader _systemClassLoader;
 
-  private static final HashMap _staticTypeMap;
+  private static final HashMap<String,Deserializer> _staticTypeMap;
 
   private static final
     WeakHashMap<ClassLoader,SoftReference<SerializerFactory>>
@@ -665,7 +665,7 @@ public class SerializerFactory extends AbstractSerializerFactory
     }
 
 
-    deserializer = (Deserializer) _staticTypeMap.get(type);
+    deserializer = _staticTypeMap.get(type);
     if (deserializer != null)
       return deserializer;
 
@@ -708,7 +708,7 @@ public class SerializerFactory extends AbstractSerializerFactory
   }
 
   static {
-    _staticTypeMap = new HashMap();
+    _staticTypeMap = new HashMap<String,Deserializer>();
 
     addBasic(void.class, "void", BasicSerializer.NULL);
 
@@ -749,6 +749,7 @@ public class SerializerFactory extends AbstractSerializerFactory
     _staticTypeMap.put("object", objectDeserializer);
     _staticTypeMap.put(HessianRemote.class.getName(),
                        RemoteDeserializer.DESER);
+    _staticTypeMap.put(BulkListDeserializer.TYPE, BulkListDeserializer.DESER);
 
 
     ClassLoader systemClassLoader = null;
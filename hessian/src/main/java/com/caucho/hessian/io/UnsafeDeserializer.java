@@ -54,6 +54,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import java.util.logging.*;
@@ -78,6 +79,11 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
   private HashMap<String,FieldDeserializer> _fieldMap;
   private Method _readResolve;
 
+  // generated reader for streams listing the fields in serializer order
+  private UnsafeFieldReader _fieldReader;
+  private FieldDeserializer []_readerFields;
+  private volatile boolean _isReaderInit;
+
   public UnsafeDeserializer(Class<?> cl)
   {
     _type = cl;
@@ -235,8 +241,15 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     try {
       int ref = in.addRef(obj);
 
-      for (FieldDeserializer reader : fields) {
-        reader.deserialize(in, obj);
+      UnsafeFieldReader fieldReader = getFieldReader(fields);
+
+      if (fieldReader != null) {
+        fieldReader.readFields(in, obj);
+      }
+      else {
+        for (FieldDeserializer reader : fields) {
+          reader.deserialize(in, obj);
+        }
       }
 
       Object resolve = resolve(in, obj);
@@ -282,6 +295,110 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     }
   }
 
+  /**
+   * Returns the generated reader if the stream's fields are in the order
+   * UnsafeSerializer writes them.
+   */
+  private UnsafeFieldReader getFieldReader(FieldDeserializer []fields)
+  {
+    if (! _isReaderInit)
+      initFieldReader();
+
+    UnsafeFieldReader fieldReader = _fieldReader;
+    FieldDeserializer []readerFields = _readerFields;
+
+    if (fieldReader == null || readerFields.length != fields.length)
+      return null;
+
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i] != readerFields[i])
+        return null;
+    }
+
+    return fieldReader;
+  }
+
+  private synchronized void initFieldReader()
+  {
+    if (_isReaderInit)
+      return;
+
+    try {
+      // subclasses may override the field map
+      if (getClass() == UnsafeDeserializer.class
+          && UnsafeFieldGenerator.isEnabled()) {
+        createFieldReader();
+      }
+    } finally {
+      _isReaderInit = true;
+    }
+  }
+
+  /**
+   * Generates a reader for the fields in UnsafeSerializer's order,
+   * each mapped to the field getFieldMap() chose for its name.
+   */
+  @SuppressWarnings("restriction")
+  private void createFieldReader()
+  {
+    HashMap<String,Field> fieldMap = new HashMap<String,Field>();
+    ArrayList<Field> primitiveFields = new ArrayList<Field>();
+    ArrayList<Field> compoundFields = new ArrayList<Field>();
+
+    for (Class<?> cl = _type; cl != null; cl = cl.getSuperclass()) {
+      for (Field field : cl.getDeclaredFields()) {
+        if (Modifier.isTransient(field.getModifiers())
+            || Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+
+        if (! fieldMap.containsKey(field.getName()))
+          fieldMap.put(field.getName(), field);
+
+        if (field.getType().isPrimitive()
+            || (field.getType().getName().startsWith("java.lang.")
+                && ! field.getType().equals(Object.class))) {
+          primitiveFields.add(field);
+        }
+        else {
+          compoundFields.add(field);
+        }
+      }
+    }
+
+    ArrayList<Field> fields = new ArrayList<Field>();
+    fields.addAll(primitiveFields);
+    fields.addAll(compoundFields);
+
+    int length = fields.size();
+
+    int []ops = new int[length];
+    long []offsets = new long[length];
+    Class<?> []types = new Class<?>[length];
+    Field []javaFields = new Field[length];
+    FieldDeserializer []readerFields = new FieldDeserializer[length];
+
+    for (int i = 0; i < length; i++) {
+      String name = fields.get(i).getName();
+      Field field = fieldMap.get(name);
+
+      readerFields[i] = _fieldMap.get(name);
+
+      if (readerFields[i] == null)
+        return;
+
+      ops[i] = UnsafeFieldGenerator.getOp(field.getType());
+      offsets[i] = _unsafe.objectFieldOffset(field);
+      types[i] = field.getType();
+      javaFields[i] = field;
+    }
+
+    _readerFields = readerFields;
+    _fieldReader = UnsafeFieldGenerator.createReader(_type, ops, offsets,
+                                                     types, javaFields,
+                                                     readerFields);
+  }
+
   protected Object resolve(AbstractHessianInput in, Object obj)
     throws Exception
   {
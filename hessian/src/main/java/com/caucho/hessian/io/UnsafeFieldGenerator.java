@@ -0,0 +1,736 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates straight-line field writers and readers for the unsafe
+ * serializers, so each field is encoded without a virtual call per field
+ * and without boxing primitives.
+ *
+ * The generated classes only refer to hessian classes and sun.misc.Unsafe,
+ * never to the serialized class, and each is defined in its own loader so
+ * it can be unloaded with its serializer.  Generation can be disabled with
+ * -Dcom.caucho.hessian.generate=false; the serializers fall back to their
+ * field tables when it is disabled or fails.
+ *
+ * A field whose table (de)serializer reports errors with the field's name
+ * gets an exception handler that calls back into the generated class's
+ * base, so the exceptions are the same as on the table path.
+ */
+final class UnsafeFieldGenerator
+{
+  private static final Logger log
+    = Logger.getLogger(UnsafeFieldGenerator.class.getName());
+
+  static final int OP_DELEGATE = 0;
+  static final int OP_BOOLEAN = 1;
+  static final int OP_BYTE = 2;
+  static final int OP_SHORT = 3;
+  static final int OP_INT = 4;
+  static final int OP_LONG = 5;
+  static final int OP_FLOAT = 6;
+  static final int OP_DOUBLE = 7;
+  static final int OP_STRING = 8;
+  static final int OP_OBJECT = 9;
+
+  private static final String UNSAFE = "sun/misc/Unsafe";
+  private static final String OUT = "com/caucho/hessian/io/AbstractHessianOutput";
+  private static final String IN = "com/caucho/hessian/io/AbstractHessianInput";
+  private static final String WRITER = "com/caucho/hessian/io/UnsafeFieldWriter";
+  private static final String READER = "com/caucho/hessian/io/UnsafeFieldReader";
+  private static final String EXCEPTION = "java/lang/Exception";
+
+  private static final String []UNSAFE_TYPE = {
+    null, "Boolean", "Byte", "Short", "Int", "Long", "Float", "Double",
+    "Object", "Object"
+  };
+
+  private static final String []UNSAFE_DESC = {
+    null, "Z", "B", "S", "I", "J", "F", "D",
+    "Ljava/lang/Object;", "Ljava/lang/Object;"
+  };
+
+  private static final boolean _isEnabled;
+
+  private static final AtomicInteger _count = new AtomicInteger();
+
+  private final ConstantPool _cp = new ConstantPool();
+  private final ByteArrayOutputStream _code = new ByteArrayOutputStream();
+
+  // start, end and field index of each field with an exception handler
+  private final ArrayList<int[]> _handlers = new ArrayList<int[]>();
+
+  private UnsafeFieldGenerator()
+  {
+  }
+
+  static boolean isEnabled()
+  {
+    return _isEnabled;
+  }
+
+  /**
+   * Returns the direct encoding of a field type, matching the
+   * field serializers and deserializers.
+   */
+  static int getOp(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return OP_BOOLEAN;
+    else if (byte.class.equals(type))
+      return OP_BYTE;
+    else if (short.class.equals(type))
+      return OP_SHORT;
+    else if (int.class.equals(type))
+      return OP_INT;
+    else if (long.class.equals(type))
+      return OP_LONG;
+    else if (float.class.equals(type))
+      return OP_FLOAT;
+    else if (double.class.equals(type))
+      return OP_DOUBLE;
+    else if (String.class.equals(type))
+      return OP_STRING;
+    else if (char.class.equals(type)
+             || java.util.Date.class.isAssignableFrom(type))
+      return OP_DELEGATE;
+    else if (type.isPrimitive())
+      return OP_DELEGATE;
+    else
+      return OP_OBJECT;
+  }
+
+  /**
+   * Creates a field writer for the class, or returns null if the
+   * writer cannot be generated.
+   */
+  static UnsafeFieldWriter createWriter(Class<?> cl,
+                                        int []ops,
+                                        long []offsets,
+                                        UnsafeSerializer.FieldSerializer []fields)
+  {
+    if (! _isEnabled)
+      return null;
+
+    try {
+      String name = getClassName(WRITER, cl);
+
+      byte []bytecode = new UnsafeFieldGenerator().generate(name, WRITER,
+                                                            ops, offsets,
+                                                            true);
+
+      if (bytecode == null)
+        return null;
+
+      UnsafeFieldWriter writer
+        = (UnsafeFieldWriter) define(name, bytecode)
+            .getDeclaredConstructor().newInstance();
+
+      writer.init(fields);
+
+      return writer;
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Creates a field reader for the class, or returns null if the
+   * reader cannot be generated.
+   */
+  static UnsafeFieldReader createReader(Class<?> cl,
+                                        int []ops,
+                                        long []offsets,
+                                        Class<?> []types,
+                                        java.lang.reflect.Field []javaFields,
+                                        UnsafeDeserializer.FieldDeserializer []fields)
+  {
+    if (! _isEnabled)
+      return null;
+
+    try {
+      String name = getClassName(READER, cl);
+
+      byte []bytecode = new UnsafeFieldGenerator().generate(name, READER,
+                                                            ops, offsets,
+                                                            false);
+
+      if (bytecode == null)
+        return null;
+
+      UnsafeFieldReader reader
+        = (UnsafeFieldReader) define(name, bytecode)
+            .getDeclaredConstructor().newInstance();
+
+      reader.init(types, javaFields, fields);
+
+      return reader;
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  private static String getClassName(String base, Class<?> cl)
+  {
+    return (base + "$" + cl.getName().replace('.', '_').replace('$', '_')
+            + "$" + _count.incrementAndGet());
+  }
+
+  private static Class<?> define(String name, byte []bytecode)
+  {
+    CodecLoader loader
+      = new CodecLoader(UnsafeFieldGenerator.class.getClassLoader());
+
+    return loader.define(name.replace('/', '.'), bytecode);
+  }
+
+  private byte []generate(String name,
+                          String superName,
+                          int []ops,
+                          long []offsets,
+                          boolean isWrite)
+    throws IOException
+  {
+    int thisClass = _cp.classRef(name);
+    int superClass = _cp.classRef(superName);
+
+    int initName = _cp.utf8("<init>");
+    int initDesc = _cp.utf8("()V");
+    int superInit = _cp.methodRef(superName, "<init>", "()V");
+
+    writeByte(0x2a); // aload_0
+    writeByte(0xb7); // invokespecial
+    writeShort(superInit);
+    writeByte(0xb1); // return
+
+    byte []initCode = _code.toByteArray();
+    _code.reset();
+
+    int methodName;
+    int methodDesc;
+
+    if (isWrite) {
+      methodName = _cp.utf8("writeFields");
+      methodDesc = _cp.utf8("(Ljava/lang/Object;L" + OUT + ";)V");
+
+      for (int i = 0; i < ops.length; i++) {
+        int start = _code.size();
+
+        generateWrite(i, ops[i], offsets[i]);
+
+        // only object fields report the field on a write error
+        if (ops[i] == OP_OBJECT)
+          _handlers.add(new int[] { start, _code.size(), i });
+      }
+    }
+    else {
+      methodName = _cp.utf8("readFields");
+      methodDesc = _cp.utf8("(L" + IN + ";Ljava/lang/Object;)V");
+
+      for (int i = 0; i < ops.length; i++) {
+        int start = _code.size();
+
+        generateRead(i, ops[i], offsets[i]);
+
+        // delegated fields report errors themselves
+        if (ops[i] != OP_DELEGATE)
+          _handlers.add(new int[] { start, _code.size(), i });
+      }
+    }
+
+    writeByte(0xb1); // return
+
+    byte []exceptionTable = generateHandlers(isWrite);
+
+    byte []code = _code.toByteArray();
+
+    if (code.length > 0xffff)
+      return null;
+
+    int codeName = _cp.utf8("Code");
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream os = new DataOutputStream(bos);
+
+    os.writeInt(0xcafebabe);
+    os.writeShort(0);
+    os.writeShort(49);
+
+    _cp.write(os);
+
+    os.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+    os.writeShort(thisClass);
+    os.writeShort(superClass);
+    os.writeShort(0); // interfaces
+    os.writeShort(0); // fields
+
+    os.writeShort(2); // methods
+    writeMethod(os, initName, initDesc, codeName, 1, 1, initCode,
+                new byte[0]);
+    writeMethod(os, methodName, methodDesc, codeName, 8, 4, code,
+                exceptionTable);
+
+    os.writeShort(0); // attributes
+
+    os.close();
+
+    return bos.toByteArray();
+  }
+
+  /**
+   * Generates the exception handlers after the method's code and returns
+   * the exception table.  A handler is
+   * throw fieldError(index, ..., e), with the exception in local 3.
+   */
+  private byte []generateHandlers(boolean isWrite)
+  {
+    int exception = _cp.classRef(EXCEPTION);
+
+    ByteArrayOutputStream table = new ByteArrayOutputStream();
+
+    for (int []handler : _handlers) {
+      int handlerPc = _code.size();
+
+      writeByte(0x4e); // astore_3
+      writeByte(0x2a); // aload_0
+      pushInt(handler[2]);
+
+      if (isWrite) {
+        writeByte(0x2d); // aload_3
+        invokevirtual(WRITER, "fieldError",
+                      "(IL" + EXCEPTION + ";)L" + EXCEPTION + ";");
+      }
+      else {
+        writeByte(0x2c); // aload_2
+        writeByte(0x2d); // aload_3
+        invokevirtual(READER, "fieldError",
+                      "(ILjava/lang/Object;L" + EXCEPTION
+                      + ";)Ljava/io/IOException;");
+      }
+
+      writeByte(0xbf); // athrow
+
+      writeShort(table, handler[0]);
+      writeShort(table, handler[1]);
+      writeShort(table, handlerPc);
+      writeShort(table, exception);
+    }
+
+    return table.toByteArray();
+  }
+
+  private static void writeShort(ByteArrayOutputStream os, int value)
+  {
+    os.write(value >> 8);
+    os.write(value);
+  }
+
+  /**
+   * Generates out.writeX(_unsafe.getX(obj, offset)), with locals
+   * this=0, obj=1, out=2.
+   */
+  private void generateWrite(int index, int op, long offset)
+  {
+    if (op == OP_DELEGATE) {
+      writeByte(0x2a); // aload_0
+      pushInt(index);
+      writeByte(0x2c); // aload_2
+      writeByte(0x2b); // aload_1
+      invokevirtual(WRITER, "writeField",
+                    "(IL" + OUT + ";Ljava/lang/Object;)V");
+      return;
+    }
+
+    writeByte(0x2c); // aload_2
+    writeByte(0xb2); // getstatic
+    writeShort(_cp.fieldRef(WRITER, "_unsafe", "L" + UNSAFE + ";"));
+    writeByte(0x2b); // aload_1
+    writeByte(0x14); // ldc2_w
+    writeShort(_cp.longConst(offset));
+    invokevirtual(UNSAFE, "get" + UNSAFE_TYPE[op],
+                  "(Ljava/lang/Object;J)" + UNSAFE_DESC[op]);
+
+    switch (op) {
+    case OP_BOOLEAN:
+      invokevirtual(OUT, "writeBoolean", "(Z)V");
+      break;
+
+    case OP_BYTE:
+    case OP_SHORT:
+    case OP_INT:
+      invokevirtual(OUT, "writeInt", "(I)V");
+      break;
+
+    case OP_LONG:
+      invokevirtual(OUT, "writeLong", "(J)V");
+      break;
+
+    case OP_FLOAT:
+      writeByte(0x8d); // f2d
+      invokevirtual(OUT, "writeDouble", "(D)V");
+      break;
+
+    case OP_DOUBLE:
+      invokevirtual(OUT, "writeDouble", "(D)V");
+      break;
+
+    case OP_STRING:
+      writeByte(0xc0); // checkcast
+      writeShort(_cp.classRef("java/lang/String"));
+      invokevirtual(OUT, "writeString", "(Ljava/lang/String;)V");
+      break;
+
+    default:
+      invokevirtual(OUT, "writeObject", "(Ljava/lang/Object;)V");
+      break;
+    }
+  }
+
+  /**
+   * Generates _unsafe.putX(obj, offset, in.readX()), with locals
+   * this=0, in=1, obj=2.
+   */
+  private void generateRead(int index, int op, long offset)
+  {
+    if (op == OP_DELEGATE) {
+      writeByte(0x2a); // aload_0
+      pushInt(index);
+      writeByte(0x2b); // aload_1
+      writeByte(0x2c); // aload_2
+      invokevirtual(READER, "readField",
+                    "(IL" + IN + ";Ljava/lang/Object;)V");
+      return;
+    }
+
+    writeByte(0xb2); // getstatic
+    writeShort(_cp.fieldRef(READER, "_unsafe", "L" + UNSAFE + ";"));
+    writeByte(0x2c); // aload_2
+    writeByte(0x14); // ldc2_w
+    writeShort(_cp.longConst(offset));
+    writeByte(0x2b); // aload_1
+
+    switch (op) {
+    case OP_BOOLEAN:
+      invokevirtual(IN, "readBoolean", "()Z");
+      break;
+
+    case OP_BYTE:
+      invokevirtual(IN, "readInt", "()I");
+      writeByte(0x91); // i2b
+      break;
+
+    case OP_SHORT:
+      invokevirtual(IN, "readInt", "()I");
+      writeByte(0x93); // i2s
+      break;
+
+    case OP_INT:
+      invokevirtual(IN, "readInt", "()I");
+      break;
+
+    case OP_LONG:
+      invokevirtual(IN, "readLong", "()J");
+      break;
+
+    case OP_FLOAT:
+      invokevirtual(IN, "readDouble", "()D");
+      writeByte(0x90); // d2f
+      break;
+
+    case OP_DOUBLE:
+      invokevirtual(IN, "readDouble", "()D");
+      break;
+
+    case OP_STRING:
+      invokevirtual(IN, "readString", "()Ljava/lang/String;");
+      break;
+
+    default:
+      writeByte(0x2a); // aload_0
+      writeByte(0xb4); // getfield
+      writeShort(_cp.fieldRef(READER, "_types", "[Ljava/lang/Class;"));
+      pushInt(index);
+      writeByte(0x32); // aaload
+      invokevirtual(IN, "readObject",
+                    "(Ljava/lang/Class;)Ljava/lang/Object;");
+      break;
+    }
+
+    invokevirtual(UNSAFE, "put" + UNSAFE_TYPE[op],
+                  "(Ljava/lang/Object;J" + UNSAFE_DESC[op] + ")V");
+  }
+
+  private void invokevirtual(String owner, String name, String desc)
+  {
+    writeByte(0xb6);
+    writeShort(_cp.methodRef(owner, name, desc));
+  }
+
+  private void pushInt(int value)
+  {
+    if (value <= 5) {
+      writeByte(0x03 + value); // iconst_n
+    }
+    else if (value <= 127) {
+      writeByte(0x10); // bipush
+      writeByte(value);
+    }
+    else {
+      writeByte(0x11); // sipush
+      writeShort(value);
+    }
+  }
+
+  private void writeByte(int value)
+  {
+    _code.write(value);
+  }
+
+  private void writeShort(int value)
+  {
+    _code.write(value >> 8);
+    _code.write(value);
+  }
+
+  private static void writeMethod(DataOutputStream os,
+                                  int name,
+                                  int desc,
+                                  int codeName,
+                                  int maxStack,
+                                  int maxLocals,
+                                  byte []code,
+                                  byte []exceptionTable)
+    throws IOException
+  {
+    os.writeShort(0x0001); // public
+    os.writeShort(name);
+    os.writeShort(desc);
+    os.writeShort(1);
+
+    os.writeShort(codeName);
+    os.writeInt(12 + code.length + exceptionTable.length);
+    os.writeShort(maxStack);
+    os.writeShort(maxLocals);
+    os.writeInt(code.length);
+    os.write(code);
+    os.writeShort(exceptionTable.length / 8);
+    os.write(exceptionTable);
+    os.writeShort(0); // attributes
+  }
+
+  /**
+   * Minimal class file constant pool.
+   */
+  static class ConstantPool {
+    private final ByteArrayOutputStream _bos = new ByteArrayOutputStream();
+    private final DataOutputStream _os = new DataOutputStream(_bos);
+    private final HashMap<String,Integer> _map = new HashMap<String,Integer>();
+
+    private int _count = 1;
+
+    int utf8(String value)
+    {
+      Integer index = _map.get("U" + value);
+
+      if (index != null)
+        return index;
+
+      try {
+        _os.writeByte(1);
+        _os.writeUTF(value);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+
+      return add("U" + value, 1);
+    }
+
+    int classRef(String name)
+    {
+      Integer index = _map.get("C" + name);
+
+      if (index != null)
+        return index;
+
+      int nameIndex = utf8(name);
+
+      writeEntry(7, nameIndex, -1);
+
+      return add("C" + name, 1);
+    }
+
+    int fieldRef(String owner, String name, String desc)
+    {
+      return memberRef(9, owner, name, desc);
+    }
+
+    int methodRef(String owner, String name, String desc)
+    {
+      return memberRef(10, owner, name, desc);
+    }
+
+    int longConst(long value)
+    {
+      Integer index = _map.get("J" + value);
+
+      if (index != null)
+        return index;
+
+      try {
+        _os.writeByte(5);
+        _os.writeLong(value);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+
+      // long constants take two slots
+      return add("J" + value, 2);
+    }
+
+    private int memberRef(int tag, String owner, String name, String desc)
+    {
+      String key = "M" + tag + owner + "." + name + desc;
+
+      Integer index = _map.get(key);
+
+      if (index != null)
+        return index;
+
+      int classIndex = classRef(owner);
+      int typeIndex = nameAndType(name, desc);
+
+      writeEntry(tag, classIndex, typeIndex);
+
+      return add(key, 1);
+    }
+
+    private int nameAndType(String name, String desc)
+    {
+      String key = "N" + name + desc;
+
+      Integer index = _map.get(key);
+
+      if (index != null)
+        return index;
+
+      int nameIndex = utf8(name);
+      int descIndex = utf8(desc);
+
+      writeEntry(12, nameIndex, descIndex);
+
+      return add(key, 1);
+    }
+
+    private void writeEntry(int tag, int a, int b)
+    {
+      try {
+        _os.writeByte(tag);
+        _os.writeShort(a);
+
+        if (b >= 0)
+          _os.writeShort(b);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private int add(String key, int slots)
+    {
+      int index = _count;
+
+      _count += slots;
+
+      _map.put(key, index);
+
+      return index;
+    }
+
+    void write(DataOutputStream os)
+      throws IOException
+    {
+      if (_count > 0xffff)
+        throw new IllegalStateException("constant pool overflow");
+
+      os.writeShort(_count);
+      os.write(_bos.toByteArray());
+    }
+  }
+
+  static class CodecLoader extends ClassLoader {
+    CodecLoader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte []bytecode)
+    {
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+
+  static {
+    String prop = System.getProperty("com.caucho.hessian.generate");
+
+    _isEnabled = (UnsafeSerializer.isEnabled()
+                  && ! "false".equals(prop));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * Base class for the generated field readers of UnsafeDeserializer.
+ *
+ * A generated reader deserializes the fields of one class in straight-line
+ * code, when the stream's class definition lists the fields in the order
+ * the local serializer writes them.
+ */
+@SuppressWarnings("restriction")
+public abstract class UnsafeFieldReader
+{
+  protected static final Unsafe _unsafe = UnsafeSerializer.getUnsafe();
+
+  // expected classes of the object fields, by field index
+  protected Class<?> []_types;
+
+  private Field []_javaFields;
+  private UnsafeDeserializer.FieldDeserializer []_fields;
+
+  protected UnsafeFieldReader()
+  {
+  }
+
+  void init(Class<?> []types,
+            Field []javaFields,
+            UnsafeDeserializer.FieldDeserializer []fields)
+  {
+    _types = types;
+    _javaFields = javaFields;
+    _fields = fields;
+  }
+
+  /**
+   * Reads the instance fields of the object.
+   */
+  abstract public void readFields(AbstractHessianInput in, Object obj)
+    throws IOException;
+
+  /**
+   * Reads a field using its original field deserializer.
+   */
+  protected final void readField(int index,
+                                 AbstractHessianInput in,
+                                 Object obj)
+    throws IOException
+  {
+    _fields[index].deserialize(in, obj);
+  }
+
+  /**
+   * Returns the exception for a failed read of a field, as the field's
+   * deserializer reports it.
+   */
+  protected final IOException fieldError(int index, Object obj, Exception e)
+  {
+    Class<?> type = _types[index];
+    Object value;
+
+    // the value the field deserializer had when the read failed
+    if (boolean.class.equals(type))
+      value = false;
+    else if (long.class.equals(type))
+      value = 0L;
+    else if (float.class.equals(type) || double.class.equals(type))
+      value = 0.0;
+    else if (type.isPrimitive())
+      value = 0;
+    else
+      value = null;
+
+    try {
+      UnsafeDeserializer.logDeserializeError(_javaFields[index], obj, value, e);
+    } catch (IOException fieldException) {
+      return fieldException;
+    }
+
+    return new IOExceptionWrapper(e);
+  }
+}
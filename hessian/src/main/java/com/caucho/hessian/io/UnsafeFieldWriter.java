@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+
+import sun.misc.Unsafe;
+
+/**
+ * Base class for the generated field writers of UnsafeSerializer.
+ *
+ * A generated writer serializes the fields of one class in straight-line
+ * code.  Field types without a direct encoding call back to the
+ * serializer's own field serializers.
+ */
+@SuppressWarnings("restriction")
+public abstract class UnsafeFieldWriter
+{
+  protected static final Unsafe _unsafe = UnsafeSerializer.getUnsafe();
+
+  private UnsafeSerializer.FieldSerializer []_fields;
+
+  protected UnsafeFieldWriter()
+  {
+  }
+
+  void init(UnsafeSerializer.FieldSerializer []fields)
+  {
+    _fields = fields;
+  }
+
+  /**
+   * Writes the instance fields of the object.
+   */
+  abstract public void writeFields(Object obj, AbstractHessianOutput out)
+    throws IOException;
+
+  /**
+   * Writes a field using its original field serializer.
+   */
+  protected final void writeField(int index,
+                                  AbstractHessianOutput out,
+                                  Object obj)
+    throws IOException
+  {
+    _fields[index].serialize(out, obj);
+  }
+
+  /**
+   * Returns the exception for a failed write of an object field, as the
+   * field's serializer reports it.
+   */
+  protected final Exception fieldError(int index, Exception e)
+  {
+    UnsafeSerializer.FieldSerializer field = _fields[index];
+
+    if (field instanceof UnsafeSerializer.ObjectFieldSerializer)
+      return ((UnsafeSerializer.ObjectFieldSerializer) field).createFieldException(e);
+    else
+      return e;
+  }
+}
@@ -77,12 +77,21 @@ public class UnsafeSerializer extends AbstractSerializer
 
   private Field []_fields;
   private FieldSerializer []_fieldSerializers;
+
+  // generated straight-line writer, or null for the field table
+  private UnsafeFieldWriter _fieldWriter;
   
   public static boolean isEnabled()
   {
     return _isEnabled;
   }
 
+  @SuppressWarnings("restriction")
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
+  }
+
   public UnsafeSerializer(Class<?> cl)
   {
     introspect(cl);
@@ -110,8 +119,11 @@ public class UnsafeSerializer extends AbstractSerializer
     }
   }
 
+  @SuppressWarnings("restriction")
   protected void introspect(Class<?> cl)
   {
+    Class<?> type = cl;
+
     ArrayList<Field> primitiveFields = new ArrayList<Field>();
     ArrayList<Field> compoundFields = new ArrayList<Field>();
 
@@ -152,6 +164,19 @@ public class UnsafeSerializer extends AbstractSerializer
     for (int i = 0; i < _fields.length; i++) {
       _fieldSerializers[i] = getFieldSerializer(_fields[i]);
     }
+
+    if (UnsafeFieldGenerator.isEnabled()) {
+      int []ops = new int[_fields.length];
+      long []offsets = new long[_fields.length];
+
+      for (int i = 0; i < _fields.length; i++) {
+        ops[i] = UnsafeFieldGenerator.getOp(_fields[i].getType());
+        offsets[i] = _unsafe.objectFieldOffset(_fields[i]);
+      }
+
+      _fieldWriter = UnsafeFieldGenerator.createWriter(type, ops, offsets,
+                                                       _fieldSerializers);
+    }
   }
 
   @Override
@@ -209,6 +234,13 @@ public class UnsafeSerializer extends AbstractSerializer
     throws IOException
   {
     try {
+      UnsafeFieldWriter fieldWriter = _fieldWriter;
+
+      if (fieldWriter != null) {
+        fieldWriter.writeFields(obj, out);
+        return;
+      }
+
       FieldSerializer []fieldSerializers = _fieldSerializers;
       int length = fieldSerializers.length;
       
@@ -296,17 +328,26 @@ public class UnsafeSerializer extends AbstractSerializer
         
         out.writeObject(value);
       } catch (RuntimeException e) {
-        throw new RuntimeException(e.getMessage() + "\n field: "
-                                   + _field.getDeclaringClass().getName()
-                                   + '.' + _field.getName(),
-                                   e);
+        throw (RuntimeException) createFieldException(e);
       } catch (IOException e) {
-        throw new IOExceptionWrapper(e.getMessage() + "\n field: "
-                                     + _field.getDeclaringClass().getName()
-                                     + '.' + _field.getName(),
-                                     e);
+        throw (IOException) createFieldException(e);
       }
     }
+
+    /**
+     * Wraps an exception from writing the field with the field's name.
+     */
+    Exception createFieldException(Exception e)
+    {
+      String message = (e.getMessage() + "\n field: "
+                        + _field.getDeclaringClass().getName()
+                        + '.' + _field.getName());
+
+      if (e instanceof IOException)
+        return new IOExceptionWrapper(message, e);
+      else
+        return new RuntimeException(message, e);
+    }
   }
 
   final static class BooleanFieldSerializer extends FieldSerializer {
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.hessian.client;
+
+import com.caucho.hessian.server.HessianSkeleton;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calls a HessianSkeleton behind the JDK HttpServer through proxies,
+ * synchronously and with CompletableFuture methods.
+ */
+public class HessianProxyAsyncTest {
+  private HttpServer _server;
+  private ExecutorService _serverExecutor;
+  private String _url;
+
+  // client ports seen by the server, one per connection
+  private final Set<Integer> _ports
+    = Collections.synchronizedSet(new HashSet<Integer>());
+
+  @Before
+  public void setUp()
+    throws IOException
+  {
+    final HessianSkeleton skeleton
+      = new HessianSkeleton(new HelloImpl(), Hello.class);
+
+    _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 100);
+
+    _server.createContext("/hello", new HttpHandler() {
+        public void handle(HttpExchange exchange)
+          throws IOException
+        {
+          _ports.add(exchange.getRemoteAddress().getPort());
+
+          ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+          try {
+            skeleton.invoke(exchange.getRequestBody(), bos);
+          } catch (Exception e) {
+            throw new IOException(e);
+          }
+
+          exchange.getResponseHeaders().add("Content-Type",
+                                            "x-application/hessian");
+          exchange.sendResponseHeaders(200, bos.size());
+          exchange.getResponseBody().write(bos.toByteArray());
+          exchange.close();
+        }
+      });
+
+    _serverExecutor = Executors.newFixedThreadPool(8);
+    _server.setExecutor(_serverExecutor);
+    _server.start();
+
+    _url = "http://127.0.0.1:" + _server.getAddress().getPort() + "/hello";
+  }
+
+  @After
+  public void tearDown()
+  {
+    _server.stop(0);
+    _serverExecutor.shutdown();
+  }
+
+  /**
+   * Synchronous calls reuse one kept-alive connection.
+   */
+  @Test
+  public void testSync()
+    throws Exception
+  {
+    HessianProxyFactory factory = new HessianProxyFactory();
+    Hello hello = (Hello) factory.create(Hello.class, _url);
+
+    assertEquals("hello, world", hello.hello("world"));
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i + 1, hello.add(i, 1));
+    }
+
+    assertEquals(1, _ports.size());
+  }
+
+  @Test
+  public void testAsync()
+    throws Exception
+  {
+    HessianProxyFactory factory = new HessianProxyFactory();
+    factory.setAsyncThreadMax(3);
+
+    HelloAsync hello = (HelloAsync) factory.create(HelloAsync.class, _url);
+
+    assertEquals("hello, world", hello.hello("world").get());
+    assertEquals(Arrays.asList("0", "1", "2"), hello.list(3).get());
+
+    List<CompletableFuture<Integer>> futures
+      = new ArrayList<CompletableFuture<Integer>>();
+
+    for (int i = 0; i < 200; i++) {
+      futures.add(hello.add(i, 1));
+    }
+
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals(Integer.valueOf(i + 1), futures.get(i).get());
+    }
+
+    // each worker reuses its own connection
+    assertTrue(String.valueOf(_ports), _ports.size() <= 3);
+  }
+
+  /**
+   * A remote exception completes the future exceptionally.
+   */
+  @Test
+  public void testAsyncFault()
+    throws Exception
+  {
+    HessianProxyFactory factory = new HessianProxyFactory();
+    HelloAsync hello = (HelloAsync) factory.create(HelloAsync.class, _url);
+
+    CompletableFuture<Integer> future = hello.fail("bad");
+
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(future.isCompletedExceptionally());
+      assertTrue(String.valueOf(e.getCause()),
+                 String.valueOf(e.getCause()).contains("bad"));
+    }
+
+    // the connection is still usable after a fault
+    assertEquals(Integer.valueOf(3), hello.add(1, 2).get());
+  }
+
+  @Test
+  public void testAsyncExecutor()
+    throws Exception
+  {
+    final AtomicInteger count = new AtomicInteger();
+
+    HessianProxyFactory factory = new HessianProxyFactory();
+
+    factory.setAsyncExecutor(new Executor() {
+        public void execute(Runnable task)
+        {
+          count.incrementAndGet();
+
+          task.run();
+        }
+      });
+
+    HelloAsync hello = (HelloAsync) factory.create(HelloAsync.class, _url);
+
+    CompletableFuture<Integer> future = hello.add(2, 3);
+
+    assertTrue(future.isDone());
+    assertEquals(Integer.valueOf(5), future.get());
+    assertEquals(1, count.get());
+  }
+
+  public interface Hello {
+    public String hello(String name);
+
+    public int add(int a, int b);
+
+    public int fail(String message);
+
+    public List<String> list(int length);
+  }
+
+  /**
+   * The same service with CompletableFuture results.
+   */
+  public interface HelloAsync {
+    public CompletableFuture<String> hello(String name);
+
+    public CompletableFuture<Integer> add(int a, int b);
+
+    public CompletableFuture<Integer> fail(String message);
+
+    public CompletableFuture<List<String>> list(int length);
+  }
+
+  static class HelloImpl implements Hello {
+    public String hello(String name)
+    {
+      return "hello, " + name;
+    }
+
+    public int add(int a, int b)
+    {
+      return a + b;
+    }
+
+    public int fail(String message)
+    {
+      throw new IllegalStateException(message);
+    }
+
+    public List<String> list(int length)
+    {
+      ArrayList<String> list = new ArrayList<String>();
+
+      for (int i = 0; i < length; i++) {
+        list.add(String.valueOf(i));
+      }
+
+      return list;
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.hessian.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips of bulk lists, checking that the object graph and the
+ * references around the list survive the chunking.
+ */
+public class BulkListTest {
+  private static final int CHUNK = 16;
+
+  /**
+   * Peers inside a chunk are written as a bulk list and read back with
+   * their identity.
+   */
+  @Test
+  public void testRoundTrip()
+    throws IOException
+  {
+    List<Item> list = createList(10 * CHUNK + 3);
+
+    // i ^ 1 stays inside an even-sized chunk
+    for (int i = 0; i < list.size() - 1; i++) {
+      list.get(i)._peer = list.get(i ^ 1);
+    }
+
+    byte []bulk = write(list, true);
+
+    assertFalse(Arrays.equals(write(list, false), bulk));
+
+    for (SerializerFactory factory : createFactories()) {
+      checkRead(bulk, factory, list.size());
+    }
+  }
+
+  /**
+   * An element referring to an element of an earlier chunk is written
+   * as a plain list, and the shared references are kept.
+   */
+  @Test
+  public void testSharedAcrossChunks()
+    throws IOException
+  {
+    List<Item> list = createList(10 * CHUNK);
+
+    for (int i = 0; i < list.size(); i++) {
+      list.get(i)._peer = list.get((i + 3 * CHUNK / 2) % list.size());
+    }
+
+    byte []bulk = write(list, true);
+
+    assertArrayEquals(write(list, false), bulk);
+
+    Object []values = read(bulk, new SerializerFactory());
+
+    checkList(values, list.size());
+  }
+
+  /**
+   * An element referring to an object written before the list makes it
+   * a plain list.
+   */
+  @Test
+  public void testSharedBeforeList()
+    throws IOException
+  {
+    List<Item> list = createList(4 * CHUNK);
+
+    Item head = new Item();
+    list.get(3 * CHUNK)._peer = head;
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+
+    out.writeObject(head);
+    out.writeBulkList(list, CHUNK);
+    out.close();
+
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+
+    Item headValue = (Item) in.readObject();
+    List<?> listValue = (List<?>) in.readObject();
+
+    assertSame(headValue, ((Item) listValue.get(3 * CHUNK))._peer);
+    assertEquals(4 * CHUNK, listValue.size());
+  }
+
+  /**
+   * Values after the list may refer to objects nested in any chunk.
+   */
+  @Test
+  public void testRefsAfterList()
+    throws IOException
+  {
+    List<Item> list = createList(5 * CHUNK + 1);
+    Item last = list.get(list.size() - 1);
+
+    for (SerializerFactory factory : createFactories()) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Hessian2Output out = new Hessian2Output(bos);
+
+      out.writeBulkList(list, CHUNK);
+      out.writeObject(last._tags);
+      out.writeObject(list.get(2 * CHUNK));
+      out.writeObject(list);
+      out.writeObject(last);
+      out.close();
+
+      Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+      in.setSerializerFactory(factory);
+
+      List<?> listValue = (List<?>) in.readObject();
+      Item lastValue = (Item) listValue.get(list.size() - 1);
+
+      assertSame(lastValue._tags, in.readObject());
+      assertSame(listValue.get(2 * CHUNK), in.readObject());
+      assertSame(listValue, in.readObject());
+      assertSame(lastValue, in.readObject());
+    }
+  }
+
+  /**
+   * Unshared output has no references to share, so it is always bulk.
+   */
+  @Test
+  public void testUnshared()
+    throws IOException
+  {
+    List<Item> list = createList(3 * CHUNK);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.setUnshared(true);
+
+    out.writeBulkList(list, CHUNK);
+    out.writeObject("tail");
+    out.close();
+
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+
+    List<?> listValue = (List<?>) in.readObject();
+
+    assertEquals(3 * CHUNK, listValue.size());
+    assertEquals(3 * CHUNK - 1, ((Item) listValue.get(3 * CHUNK - 1))._id);
+    assertEquals("tail", in.readObject());
+  }
+
+  @Test
+  public void testSmallList()
+    throws IOException
+  {
+    List<Item> list = createList(CHUNK);
+
+    assertArrayEquals(write(list, false), write(list, true));
+  }
+
+  private static List<Item> createList(int size)
+  {
+    ArrayList<Item> list = new ArrayList<Item>();
+
+    for (int i = 0; i < size; i++) {
+      Item item = new Item();
+      item._id = i;
+      item._name = "item-" + i;
+      item._values = new double[] { i, 2.0 * i };
+      item._tags = new ArrayList<String>(Arrays.asList("a" + i, "b" + i % 7));
+
+      list.add(item);
+    }
+
+    return list;
+  }
+
+  /**
+   * Writes a string, the list, the sixth element and the list again.
+   */
+  private static byte []write(List<Item> list, boolean isBulk)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+
+    out.writeObject("head");
+
+    if (isBulk)
+      out.writeBulkList(list, CHUNK);
+    else
+      out.writeObject(list);
+
+    out.writeObject(list.get(5));
+    out.writeObject(list);
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static Object []read(byte []data, SerializerFactory factory)
+    throws IOException
+  {
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+    in.setSerializerFactory(factory);
+
+    Object []values = new Object[] {
+      in.readObject(), in.readObject(), in.readObject(), in.readObject()
+    };
+
+    in.close();
+
+    return values;
+  }
+
+  private static void checkRead(byte []data,
+                                SerializerFactory factory,
+                                int size)
+    throws IOException
+  {
+    Object []values = read(data, factory);
+
+    assertEquals("head", values[0]);
+
+    checkList(values, size);
+  }
+
+  private static void checkList(Object []values, int size)
+  {
+    List<?> list = (List<?>) values[1];
+
+    assertEquals(size, list.size());
+
+    for (int i = 0; i < size; i++) {
+      Item item = (Item) list.get(i);
+
+      assertEquals(i, item._id);
+      assertEquals("item-" + i, item._name);
+      assertEquals(2.0 * i, item._values[1], 0);
+      assertEquals("a" + i, item._tags.get(0));
+
+      if (item._peer != null)
+        assertSame(item._peer, list.get(item._peer._id));
+    }
+
+    assertSame(list.get(5), values[2]);
+    assertSame(list, values[3]);
+  }
+
+  /**
+   * The default factory, and one decoding on a pool even on a single
+   * processor.
+   */
+  private static SerializerFactory []createFactories()
+  {
+    final BulkListDeserializer deser
+      = new BulkListDeserializer(new ForkJoinPool(4));
+
+    SerializerFactory poolFactory = new SerializerFactory() {
+      @Override
+      public Deserializer getDeserializer(String type)
+        throws HessianProtocolException
+      {
+        if (BulkListDeserializer.TYPE.equals(type))
+          return deser;
+        else
+          return super.getDeserializer(type);
+      }
+    };
+
+    return new SerializerFactory[] { new SerializerFactory(), poolFactory };
+  }
+
+  public static class Item implements Serializable {
+    private int _id;
+    private String _name;
+    private double []_values;
+    private List<String> _tags;
+    private Item _peer;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+
+
+package com.caucho.hessian.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the channel and byte buffer sinks write the same bytes as
+ * an output stream, for payloads smaller and larger than the buffer.
+ */
+public class Hessian2OutputSinkTest {
+  @Test
+  public void testChannel()
+    throws IOException
+  {
+    for (Object []values : createPayloads()) {
+      byte []expected = writeStream(values);
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+      Hessian2Output out = new Hessian2Output();
+      out.initChannel(Channels.newChannel(bos));
+      writeValues(out, values);
+      out.close();
+
+      assertArrayEquals(expected, bos.toByteArray());
+      checkRead(bos.toByteArray(), values);
+    }
+  }
+
+  /**
+   * A channel that accepts only part of each write must still get the
+   * whole buffer.
+   */
+  @Test
+  public void testChannelPartialWrite()
+    throws IOException
+  {
+    for (Object []values : createPayloads()) {
+      byte []expected = writeStream(values);
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+      Hessian2Output out = new Hessian2Output();
+      out.initChannel(new PartialChannel(bos, 100));
+      writeValues(out, values);
+      out.close();
+
+      assertArrayEquals(expected, bos.toByteArray());
+    }
+  }
+
+  @Test
+  public void testChannelCloseStream()
+    throws IOException
+  {
+    PartialChannel channel
+      = new PartialChannel(new ByteArrayOutputStream(), 1000);
+
+    Hessian2Output out = new Hessian2Output();
+    out.initChannel(channel);
+    out.writeInt(1);
+    out.close();
+
+    assertTrue(channel.isOpen());
+
+    out = new Hessian2Output();
+    out.setCloseStreamOnClose(true);
+    out.initChannel(channel);
+    out.writeInt(1);
+    out.close();
+
+    assertFalse(channel.isOpen());
+  }
+
+  /**
+   * A small buffer is replaced by larger ones, and the result is
+   * returned in write mode.
+   */
+  @Test
+  public void testByteBuffer()
+    throws IOException
+  {
+    for (Object []values : createPayloads()) {
+      byte []expected = writeStream(values);
+
+      checkByteBuffer(ByteBuffer.allocate(16), values, expected);
+      checkByteBuffer(ByteBuffer.allocateDirect(16), values, expected);
+      checkByteBuffer(ByteBuffer.allocate(2 * expected.length),
+                      values, expected);
+    }
+  }
+
+  /**
+   * Data already in the buffer before initByteBuffer() is kept.
+   */
+  @Test
+  public void testByteBufferAppend()
+    throws IOException
+  {
+    Object []values = createPayloads().get(1);
+    byte []expected = writeStream(values);
+
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.put(new byte[] { 1, 2, 3 });
+
+    Hessian2Output out = new Hessian2Output();
+    out.initByteBuffer(buffer);
+    writeValues(out, values);
+
+    ByteBuffer result = out.getByteBuffer();
+    result.flip();
+
+    assertEquals(3 + expected.length, result.remaining());
+    assertEquals(1, result.get());
+    assertEquals(2, result.get());
+    assertEquals(3, result.get());
+
+    byte []data = new byte[expected.length];
+    result.get(data);
+
+    assertArrayEquals(expected, data);
+  }
+
+  /**
+   * getByteBuffer() flushes what has been written so far.
+   */
+  @Test
+  public void testByteBufferFlush()
+    throws IOException
+  {
+    Hessian2Output out = new Hessian2Output();
+    out.initByteBuffer(ByteBuffer.allocate(64));
+
+    out.writeString("first");
+
+    int position = out.getByteBuffer().position();
+    assertTrue(position > 0);
+
+    out.writeString("second");
+
+    ByteBuffer result = out.getByteBuffer();
+    assertTrue(position < result.position());
+
+    result.flip();
+
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(toBytes(result)));
+
+    assertEquals("first", in.readObject());
+    assertEquals("second", in.readObject());
+  }
+
+  /**
+   * Switching from a sink to a stream doesn't leave the old sink in use.
+   */
+  @Test
+  public void testReinit()
+    throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    Hessian2Output out = new Hessian2Output();
+    out.initByteBuffer(buffer);
+    out.writeString("buffer");
+    out.flush();
+
+    int position = buffer.position();
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    out.init(bos);
+    out.writeString("stream");
+    out.flush();
+
+    assertEquals(position, buffer.position());
+
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    assertEquals("stream", in.readObject());
+  }
+
+  @Test
+  public void testFactory()
+    throws IOException
+  {
+    Object []values = createPayloads().get(2);
+    byte []expected = writeStream(values);
+
+    HessianFactory factory = new HessianFactory();
+
+    Hessian2Output out = factory.createHessian2Output(ByteBuffer.allocate(32));
+    writeValues(out, values);
+
+    ByteBuffer result = out.getByteBuffer();
+    result.flip();
+
+    assertArrayEquals(expected, toBytes(result));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    out = factory.createHessian2Output(Channels.newChannel(bos));
+    writeValues(out, values);
+    out.close();
+
+    assertArrayEquals(expected, bos.toByteArray());
+  }
+
+  private void checkByteBuffer(ByteBuffer buffer,
+                               Object []values,
+                               byte []expected)
+    throws IOException
+  {
+    Hessian2Output out = new Hessian2Output();
+    out.initByteBuffer(buffer);
+    writeValues(out, values);
+
+    ByteBuffer result = out.getByteBuffer();
+
+    assertEquals(buffer.isDirect(), result.isDirect());
+    assertEquals(expected.length, result.position());
+
+    result.flip();
+
+    byte []data = toBytes(result);
+
+    assertArrayEquals(expected, data);
+    checkRead(data, values);
+  }
+
+  private static List<Object []> createPayloads()
+  {
+    List<Object []> payloads = new ArrayList<Object []>();
+
+    payloads.add(new Object[] { 1 });
+
+    Map<String,Object> map = new HashMap<String,Object>();
+    map.put("a", 1);
+    map.put("b", Arrays.asList("x", "y", 3.5));
+
+    payloads.add(new Object[] { "hello", map, 17L });
+
+    // larger than the output buffer
+    byte []bytes = new byte[3 * Hessian2Output.SIZE + 17];
+
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+
+    char []chars = new char[2 * Hessian2Output.SIZE + 5];
+    Arrays.fill(chars, '\u00e9');
+
+    List<Object> list = new ArrayList<Object>();
+
+    for (int i = 0; i < 5000; i++) {
+      list.add("item-" + i);
+    }
+
+    payloads.add(new Object[] { bytes, new String(chars), list });
+
+    return payloads;
+  }
+
+  private static void writeValues(Hessian2Output out, Object []values)
+    throws IOException
+  {
+    for (Object value : values) {
+      out.writeObject(value);
+    }
+  }
+
+  private static byte []writeStream(Object []values)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    Hessian2Output out = new Hessian2Output(bos);
+    writeValues(out, values);
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static void checkRead(byte []data, Object []values)
+    throws IOException
+  {
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+
+    for (Object value : values) {
+      Object result = in.readObject();
+
+      if (value instanceof byte[])
+        assertArrayEquals((byte []) value, (byte []) result);
+      else if (value instanceof Long)
+        assertEquals(((Long) value).longValue(), ((Number) result).longValue());
+      else
+        assertEquals(value, result);
+    }
+  }
+
+  private static byte []toBytes(ByteBuffer buffer)
+  {
+    byte []data = new byte[buffer.remaining()];
+
+    buffer.get(data);
+
+    return data;
+  }
+
+  /**
+   * A channel writing at most a fixed number of bytes per call.
+   */
+  static class PartialChannel implements WritableByteChannel {
+    private final ByteArrayOutputStream _os;
+    private final int _max;
+    private boolean _isOpen = true;
+
+    PartialChannel(ByteArrayOutputStream os, int max)
+    {
+      _os = os;
+      _max = max;
+    }
+
+    public int write(ByteBuffer buffer)
+    {
+      int length = Math.min(_max, buffer.remaining());
+
+      for (int i = 0; i < length; i++) {
+        _os.write(buffer.get());
+      }
+
+      return length;
+    }
+
+    public boolean isOpen()
+    {
+      return _isOpen;
+    }
+
+    public void close()
+    {
+      _isOpen = false;
+    }
+  }
+}
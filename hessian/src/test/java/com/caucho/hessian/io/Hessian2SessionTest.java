@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+
+
+
+package com.caucho.hessian.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that session mode keeps class definitions and types across
+ * messages, and that resetSession() and free() leave it.
+ */
+public class Hessian2SessionTest {
+  private static final String POINT = Point.class.getName();
+  private static final String LINE = Line.class.getName();
+
+  @Test
+  public void testDefinitionsReused()
+    throws IOException
+  {
+    Hessian2Output out = new Hessian2Output();
+    out.setSession(true);
+
+    byte []first = write(out, new Point(1, 2), new Point[] { new Point(3, 4) });
+    byte []second = write(out, new Point(5, 6), new Point[] { new Point(7, 8) });
+    byte []third = write(out, new Line(new Point(9, 10), new Point(11, 12)));
+
+    assertTrue(contains(first, POINT));
+    assertFalse(contains(second, POINT));
+    assertTrue(second.length < first.length);
+
+    // a new class is defined in the message that first uses it,
+    // numbered after the session's earlier definitions
+    assertTrue(contains(third, LINE));
+    assertFalse(contains(third, POINT));
+
+    Hessian2Input in = new Hessian2Input();
+    in.setSession(true);
+
+    Object []values = read(in, first);
+    assertEquals(new Point(1, 2), values[0]);
+    assertEquals(new Point(3, 4), ((Point []) values[1])[0]);
+
+    values = read(in, second);
+    assertEquals(new Point(5, 6), values[0]);
+    assertEquals(new Point(7, 8), ((Point []) values[1])[0]);
+
+    Line line = (Line) read(in, third)[0];
+    assertEquals(new Point(9, 10), line._a);
+    assertEquals(new Point(11, 12), line._b);
+
+    // the session reader also takes a Point defined by number again
+    values = read(in, write(out, new Point(13, 14)));
+    assertEquals(new Point(13, 14), values[0]);
+  }
+
+  @Test
+  public void testResetSession()
+    throws IOException
+  {
+    Hessian2Output out = new Hessian2Output();
+    out.setSession(true);
+
+    Hessian2Input in = new Hessian2Input();
+    in.setSession(true);
+
+    read(in, write(out, new Line(new Point(1, 2), new Point(3, 4))));
+    read(in, write(out, new Point(5, 6), new Point[0]));
+
+    out.resetSession();
+
+    // the first message after the reset is self-contained
+    byte []message = write(out, new Point(7, 8), new Point[0]);
+
+    assertTrue(contains(message, POINT));
+    assertTrue(out.isSession());
+
+    Object []values = read(new Hessian2Input(), message);
+    assertEquals(new Point(7, 8), values[0]);
+    assertEquals(0, ((Point []) values[1]).length);
+
+    in.resetSession();
+
+    values = read(in, message);
+    assertEquals(new Point(7, 8), values[0]);
+    assertEquals(0, ((Point []) values[1]).length);
+
+    // both sides continue the new session
+    message = write(out, new Point(9, 10), new Line(null, new Point(11, 12)));
+
+    assertFalse(contains(message, POINT));
+    assertTrue(contains(message, LINE));
+
+    values = read(in, message);
+    assertEquals(new Point(9, 10), values[0]);
+    assertEquals(new Point(11, 12), ((Line) values[1])._b);
+  }
+
+  @Test
+  public void testLostSession()
+    throws IOException
+  {
+    Hessian2Output out = new Hessian2Output();
+    out.setSession(true);
+
+    byte []first = write(out, new Point(1, 2));
+    byte []second = write(out, new Point(3, 4));
+
+    Hessian2Input in = new Hessian2Input();
+    in.setSession(true);
+
+    read(in, first);
+
+    // a reader that restarted
+    assertUnknownDefinition(new Hessian2Input(), second);
+
+    // a reader whose session was reset
+    in.resetSession();
+    assertUnknownDefinition(in, second);
+
+    // a reader that is not in session mode drops definitions per message
+    Hessian2Input plain = new Hessian2Input();
+    read(plain, first);
+    assertUnknownDefinition(plain, second);
+  }
+
+  @Test
+  public void testFree()
+    throws IOException
+  {
+    Hessian2Output out = new Hessian2Output();
+    out.setSession(true);
+
+    write(out, new Point(1, 2));
+
+    out.free();
+
+    assertFalse(out.isSession());
+
+    // each message defines its classes again
+    byte []first = write(out, new Point(3, 4));
+    byte []second = write(out, new Point(5, 6));
+
+    assertTrue(contains(first, POINT));
+    assertTrue(contains(second, POINT));
+
+    Hessian2Input in = new Hessian2Input();
+    in.setSession(true);
+
+    read(in, first);
+
+    in.free();
+
+    assertFalse(in.isSession());
+
+    assertEquals(new Point(5, 6), read(in, second)[0]);
+    assertEquals(new Point(3, 4), read(in, first)[0]);
+  }
+
+  private static void assertUnknownDefinition(Hessian2Input in, byte []data)
+    throws IOException
+  {
+    try {
+      read(in, data);
+
+      fail("expected unknown class definition");
+    } catch (HessianProtocolException e) {
+      assertTrue(e.getMessage(),
+                 e.getMessage().contains("unknown class definition"));
+    }
+  }
+
+  /**
+   * Writes a message of values closed by a null.
+   */
+  private static byte []write(Hessian2Output out, Object ...values)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    out.init(bos);
+
+    for (Object value : values) {
+      out.writeObject(value);
+    }
+
+    out.writeNull();
+    out.flush();
+
+    return bos.toByteArray();
+  }
+
+  /**
+   * Reads the values of a message up to its closing null.
+   */
+  private static Object []read(Hessian2Input in, byte []data)
+    throws IOException
+  {
+    in.init(new ByteArrayInputStream(data));
+
+    ArrayList<Object> values = new ArrayList<Object>();
+    Object value;
+
+    while ((value = in.readObject()) != null) {
+      values.add(value);
+    }
+
+    return values.toArray();
+  }
+
+  private static boolean contains(byte []data, String name)
+  {
+    String text = new String(data, StandardCharsets.ISO_8859_1);
+
+    return text.contains(name);
+  }
+
+  static class Point implements Serializable {
+    int _x;
+    int _y;
+
+    Point(int x, int y)
+    {
+      _x = x;
+      _y = y;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (! (o instanceof Point))
+        return false;
+
+      Point point = (Point) o;
+
+      return _x == point._x && _y == point._y;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * _x + _y;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Point[" + _x + "," + _y + "]";
+    }
+  }
+
+  static class Line implements Serializable {
+    Point _a;
+    Point _b;
+
+    Line(Point a, Point b)
+    {
+      _a = a;
+      _b = b;
+    }
+  }
+}
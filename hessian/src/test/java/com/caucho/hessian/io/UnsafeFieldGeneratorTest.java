@@ -0,0 +1,705 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+
+
+
+package com.caucho.hessian.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trips objects through the generated field writers and readers
+ * and checks them against the table-driven field serializers.
+ */
+public class UnsafeFieldGeneratorTest {
+  @Test
+  public void testKinds()
+    throws IOException
+  {
+    Kinds min = new Kinds();
+    min.fill(true);
+
+    Kinds max = new Kinds();
+    max.fill(false);
+
+    checkRoundTrip(new Kinds());
+    checkRoundTrip(min);
+    checkRoundTrip(max);
+  }
+
+  @Test
+  public void testSelfReference()
+    throws IOException
+  {
+    Kinds kinds = new Kinds();
+    kinds.fill(true);
+    kinds._self = kinds;
+    kinds._object = kinds;
+
+    for (boolean isGenerated : new boolean[] { true, false }) {
+      Kinds value = (Kinds) read(write(kinds, isGenerated), isGenerated);
+
+      assertSame(value, value._self);
+      assertSame(value, value._object);
+    }
+  }
+
+  @Test
+  public void testFinalTransient()
+    throws IOException
+  {
+    Finals finals = new Finals(-17, "final", Arrays.asList("a", "b"), 1L << 40);
+    finals._transientInt = 13;
+    finals._transientString = "transient";
+
+    checkRoundTrip(finals);
+
+    Finals value = (Finals) read(write(finals, true), true);
+
+    assertEquals(-17, value._int);
+    assertEquals("final", value._string);
+    assertEquals(Arrays.asList("a", "b"), value._object);
+    assertEquals(1L << 40, value._long);
+    assertEquals(0, value._transientInt);
+    assertNull(value._transientString);
+  }
+
+  @Test
+  public void testInherited()
+    throws IOException
+  {
+    Child child = new Child();
+    child._a = 3;
+    child._name = "parent";
+    child._items = new ArrayList<Object>(Arrays.asList(1, "two", 3.5));
+    child._b = -5L;
+    child._extra = new Parent();
+
+    checkRoundTrip(child);
+
+    Child value = (Child) read(write(child, true), true);
+
+    assertEquals(3, value._a);
+    assertEquals("parent", value._name);
+    assertEquals(child._items, value._items);
+    assertEquals(-5L, value._b);
+    assertEquals(Parent.class, value._extra.getClass());
+  }
+
+  /**
+   * The generated writer produces the same bytes as the table writer,
+   * and the generated reader is actually in use.
+   */
+  @Test
+  public void testGeneratedPath()
+    throws Exception
+  {
+    Kinds kinds = new Kinds();
+    kinds.fill(false);
+
+    assertArrayEquals(write(kinds, false), write(kinds, true));
+
+    if (! UnsafeFieldGenerator.isEnabled())
+      return;
+
+    SerializerFactory factory = createFactory(true);
+
+    read(write(kinds, true), factory);
+
+    UnsafeSerializer serializer
+      = (UnsafeSerializer) factory.getSerializer(Kinds.class);
+    UnsafeDeserializer deserializer
+      = (UnsafeDeserializer) factory.getDeserializer(Kinds.class);
+
+    assertNotNull(getField(UnsafeSerializer.class, "_fieldWriter",
+                           serializer));
+    assertNotNull(getField(UnsafeDeserializer.class, "_fieldReader",
+                           deserializer));
+  }
+
+  /**
+   * Streams whose field list differs from the reader's order fall back
+   * to the field table.
+   */
+  @Test
+  public void testOrderFallback()
+    throws IOException
+  {
+    OrderB orderB = new OrderB();
+    orderB._a = 7;
+    orderB._b = "b";
+    orderB._c = 1L << 33;
+    orderB._d = Arrays.asList("d");
+    orderB._e = new Date(1000);
+
+    OrderC orderC = new OrderC();
+    orderC._a = 8;
+    orderC._b = "c";
+    orderC._c = -1;
+    orderC._d = Arrays.asList("extra");
+    orderC._e = new Date(2000);
+    orderC._f = "extra";
+
+    OrderD orderD = new OrderD();
+    orderD._a = 9;
+    orderD._c = 99;
+
+    for (boolean isGenerated : new boolean[] { true, false }) {
+      SerializerFactory factory = createFactory(isGenerated);
+
+      // a matching stream first, so the generated reader exists
+      OrderA orderA = new OrderA();
+      orderA._a = 1;
+      orderA._b = "a";
+
+      OrderA value = (OrderA) read(write(orderA, isGenerated), factory);
+      assertEquals(1, value._a);
+      assertEquals("a", value._b);
+
+      value = (OrderA) read(rename(write(orderB, isGenerated)), factory);
+      assertEquals(7, value._a);
+      assertEquals("b", value._b);
+      assertEquals(1L << 33, value._c);
+      assertEquals(Arrays.asList("d"), value._d);
+      assertEquals(new Date(1000), value._e);
+
+      value = (OrderA) read(rename(write(orderC, isGenerated)), factory);
+      assertEquals(8, value._a);
+      assertEquals("c", value._b);
+      assertEquals(-1, value._c);
+      assertEquals(Arrays.asList("extra"), value._d);
+      assertEquals(new Date(2000), value._e);
+
+      value = (OrderA) read(rename(write(orderD, isGenerated)), factory);
+      assertEquals(9, value._a);
+      assertNull(value._b);
+      assertEquals(99, value._c);
+      assertNull(value._d);
+      assertNull(value._e);
+
+      // the matching stream still reads after the fallbacks
+      value = (OrderA) read(write(orderA, isGenerated), factory);
+      assertEquals(1, value._a);
+      assertEquals("a", value._b);
+    }
+  }
+
+  @Test
+  public void testWriteRuntimeException()
+    throws IOException
+  {
+    Holder holder = new Holder();
+    holder._value = new Bang();
+
+    Exception generated = writeError(holder, true);
+    Exception table = writeError(holder, false);
+
+    assertEquals(table.getClass(), generated.getClass());
+    assertEquals(table.getMessage(), generated.getMessage());
+
+    assertTrue(generated instanceof RuntimeException);
+    assertTrue(generated.getMessage(), generated.getMessage().startsWith("bang"));
+    assertTrue(generated.getMessage(),
+               generated.getMessage().contains("\n field: "
+                                               + Holder.class.getName()
+                                               + "._value"));
+    assertTrue(generated.getMessage(),
+               generated.getMessage().contains("\n class: "
+                                               + Holder.class.getName()));
+  }
+
+  @Test
+  public void testWriteIOException()
+    throws IOException
+  {
+    Holder holder = new Holder();
+    holder._value = new Boom();
+
+    Exception generated = writeError(holder, true);
+    Exception table = writeError(holder, false);
+
+    assertEquals(table.getClass(), generated.getClass());
+    assertEquals(table.getMessage(), generated.getMessage());
+
+    assertTrue(generated instanceof IOException);
+    assertTrue(generated.getMessage(), generated.getMessage().startsWith("boom"));
+    assertTrue(generated.getMessage(),
+               generated.getMessage().contains("\n field: "
+                                               + Holder.class.getName()
+                                               + "._value"));
+    assertTrue(generated.getMessage(),
+               generated.getMessage().contains("\n class: "
+                                               + Holder.class.getName()));
+  }
+
+  @Test
+  public void testReadException()
+    throws IOException
+  {
+    BadB bad = new BadB();
+    bad._x = "abc";
+    bad._y = "list";
+
+    byte []data = rename(write(bad, true));
+
+    Exception generated = readError(data, true);
+    Exception table = readError(data, false);
+
+    assertTrue(String.valueOf(generated),
+               generated instanceof HessianFieldException);
+    assertEquals(table.getClass(), generated.getClass());
+    assertEquals(table.getMessage(), generated.getMessage());
+    assertTrue(generated.getMessage(),
+               generated.getMessage().startsWith(BadA.class.getName()
+                                                 + "._x: "));
+  }
+
+  private void checkRoundTrip(Object obj)
+    throws IOException
+  {
+    byte []generatedData = write(obj, true);
+    byte []tableData = write(obj, false);
+
+    assertArrayEquals(tableData, generatedData);
+
+    Object generated = read(generatedData, true);
+    Object table = read(generatedData, false);
+
+    assertSameFields(obj, generated);
+    assertSameFields(obj, table);
+  }
+
+  private static void assertSameFields(Object expected, Object value)
+  {
+    assertEquals(expected.getClass(), value.getClass());
+
+    for (Class<?> cl = expected.getClass();
+         cl != null && cl != Object.class;
+         cl = cl.getSuperclass()) {
+      for (Field field : cl.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+
+        if (Modifier.isStatic(modifiers)
+            || Modifier.isTransient(modifiers)
+            || field.getName().equals("_self")) {
+          continue;
+        }
+
+        Object expectedValue = getField(cl, field.getName(), expected);
+        Object actualValue = getField(cl, field.getName(), value);
+
+        if (expectedValue instanceof Serializable
+            && expectedValue.getClass().getEnclosingClass()
+               == UnsafeFieldGeneratorTest.class) {
+          assertSameFields(expectedValue, actualValue);
+        }
+        else {
+          assertTrue(field + ": " + expectedValue + " " + actualValue,
+                     Arrays.deepEquals(new Object[] { expectedValue },
+                                       new Object[] { actualValue }));
+        }
+      }
+    }
+  }
+
+  private static Object getField(Class<?> cl, String name, Object obj)
+  {
+    try {
+      Field field = cl.getDeclaredField(name);
+      field.setAccessible(true);
+
+      return field.get(obj);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte []write(Object obj, boolean isGenerated)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    Hessian2Output out = new Hessian2Output(bos);
+    out.setSerializerFactory(createFactory(isGenerated));
+    out.writeObject(obj);
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static Object read(byte []data, boolean isGenerated)
+    throws IOException
+  {
+    return read(data, createFactory(isGenerated));
+  }
+
+  private static Object read(byte []data, SerializerFactory factory)
+    throws IOException
+  {
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+    in.setSerializerFactory(factory);
+
+    Object value = in.readObject();
+    in.close();
+
+    return value;
+  }
+
+  private static Exception writeError(Object obj, boolean isGenerated)
+  {
+    try {
+      write(obj, isGenerated);
+    } catch (Exception e) {
+      return e;
+    }
+
+    fail("expected exception for " + obj);
+
+    return null;
+  }
+
+  private static Exception readError(byte []data, boolean isGenerated)
+  {
+    try {
+      read(data, isGenerated);
+    } catch (Exception e) {
+      return e;
+    }
+
+    fail("expected exception");
+
+    return null;
+  }
+
+  /**
+   * Renames the class of a written OrderB, OrderC, OrderD or BadB
+   * so it's read back as OrderA or BadA.
+   */
+  private static byte []rename(byte []data)
+  {
+    data = data.clone();
+
+    for (int i = 0; i + 5 < data.length; i++) {
+      if ((data[i] == 'O' && data[i + 1] == 'r' && data[i + 2] == 'd'
+           && data[i + 3] == 'e' && data[i + 4] == 'r'
+           && data[i + 5] >= 'B' && data[i + 5] <= 'D')) {
+        data[i + 5] = 'A';
+      }
+      else if (data[i] == '$' && data[i + 1] == 'B' && data[i + 2] == 'a'
+               && data[i + 3] == 'd' && data[i + 4] == 'B') {
+        data[i + 4] = 'A';
+      }
+    }
+
+    return data;
+  }
+
+  /**
+   * A factory using UnsafeSerializer and UnsafeDeserializer for the test
+   * classes, either with the generated field code or with the field
+   * tables alone.
+   */
+  private static SerializerFactory createFactory(final boolean isGenerated)
+  {
+    return new SerializerFactory() {
+      private final HashMap<Class<?>,Serializer> _serializerMap
+        = new HashMap<Class<?>,Serializer>();
+      private final HashMap<Class<?>,Deserializer> _deserializerMap
+        = new HashMap<Class<?>,Deserializer>();
+
+      @Override
+      public Serializer getSerializer(Class cl)
+        throws HessianProtocolException
+      {
+        if (cl == Boom.class)
+          return new BoomSerializer();
+        else if (cl == Bang.class)
+          return new BangSerializer();
+        else if (cl.getEnclosingClass() != UnsafeFieldGeneratorTest.class)
+          return super.getSerializer(cl);
+
+        Serializer serializer = _serializerMap.get(cl);
+
+        if (serializer == null) {
+          UnsafeSerializer unsafeSerializer = new UnsafeSerializer(cl);
+
+          if (! isGenerated)
+            clearFieldWriter(unsafeSerializer);
+
+          serializer = unsafeSerializer;
+          _serializerMap.put(cl, serializer);
+        }
+
+        return serializer;
+      }
+
+      @Override
+      public Deserializer getDeserializer(Class cl)
+        throws HessianProtocolException
+      {
+        if (cl.getEnclosingClass() != UnsafeFieldGeneratorTest.class)
+          return super.getDeserializer(cl);
+
+        Deserializer deserializer = _deserializerMap.get(cl);
+
+        if (deserializer == null) {
+          if (isGenerated)
+            deserializer = new UnsafeDeserializer(cl);
+          else {
+            // subclasses never use the generated reader
+            deserializer = new UnsafeDeserializer(cl) {};
+          }
+
+          _deserializerMap.put(cl, deserializer);
+        }
+
+        return deserializer;
+      }
+    };
+  }
+
+  private static void clearFieldWriter(UnsafeSerializer serializer)
+  {
+    try {
+      Field field = UnsafeSerializer.class.getDeclaredField("_fieldWriter");
+      field.setAccessible(true);
+      field.set(serializer, null);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static class Kinds implements Serializable {
+    boolean _boolean;
+    byte _byte;
+    short _short;
+    int _int;
+    long _long;
+    float _float;
+    double _double;
+    char _char;
+
+    Boolean _booleanObject;
+    Byte _byteObject;
+    Short _shortObject;
+    Integer _intObject;
+    Long _longObject;
+    Float _floatObject;
+    Double _doubleObject;
+    Character _charObject;
+
+    String _string;
+    Object _object;
+    Date _date;
+    Kinds _self;
+
+    boolean []_booleanArray;
+    byte []_byteArray;
+    short []_shortArray;
+    int []_intArray;
+    long []_longArray;
+    float []_floatArray;
+    double []_doubleArray;
+    char []_charArray;
+    String []_stringArray;
+    Object []_objectArray;
+    List<Object> _list;
+
+    void fill(boolean isMin)
+    {
+      _boolean = ! isMin;
+      _byte = isMin ? Byte.MIN_VALUE : Byte.MAX_VALUE;
+      _short = isMin ? Short.MIN_VALUE : Short.MAX_VALUE;
+      _int = isMin ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+      _long = isMin ? Long.MIN_VALUE : Long.MAX_VALUE;
+      _float = isMin ? -Float.MAX_VALUE : Float.NaN;
+      _double = isMin ? -Double.MAX_VALUE : Double.POSITIVE_INFINITY;
+      _char = isMin ? '\u20ac' : '\uffff';
+
+      _booleanObject = _boolean;
+      _byteObject = _byte;
+      _shortObject = _short;
+      _intObject = _int;
+      _longObject = _long;
+      _floatObject = _float;
+      _doubleObject = _double;
+      _charObject = _char;
+
+      _string = isMin ? "" : "a\u00e9\u20ac\ud83d\ude00";
+      _object = isMin ? (Object) Long.valueOf(12) : "object";
+      _date = new Date(isMin ? 0 : 1234567890123L);
+
+      _booleanArray = new boolean[] { true, false };
+      _byteArray = new byte[] { Byte.MIN_VALUE, 0, Byte.MAX_VALUE };
+      _shortArray = new short[] { Short.MIN_VALUE, Short.MAX_VALUE };
+      _intArray = new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE };
+      _longArray = new long[] { Long.MIN_VALUE, Long.MAX_VALUE };
+      _floatArray = new float[] { 1.5f, -Float.MAX_VALUE };
+      _doubleArray = new double[] { 0.1, Double.NEGATIVE_INFINITY };
+      _charArray = "chars".toCharArray();
+      _stringArray = new String[] { "a", null, "c" };
+      _objectArray = new Object[] { 1, "two", null };
+      _list = new ArrayList<Object>(Arrays.asList(1, "two"));
+    }
+  }
+
+  static class Finals implements Serializable {
+    final int _int;
+    final String _string;
+    final Object _object;
+    final long _long;
+
+    transient int _transientInt;
+    transient String _transientString;
+
+    Finals(int intValue, String string, Object object, long longValue)
+    {
+      _int = intValue;
+      _string = string;
+      _object = object;
+      _long = longValue;
+    }
+  }
+
+  static class Parent implements Serializable {
+    int _a;
+    String _name;
+    List<Object> _items;
+  }
+
+  static class Child extends Parent {
+    long _b;
+    Object _extra;
+  }
+
+  static class OrderA implements Serializable {
+    int _a;
+    String _b;
+    long _c;
+    List<Object> _d;
+    Date _e;
+  }
+
+  // same fields in a different order
+  static class OrderB implements Serializable {
+    Date _e;
+    long _c;
+    List<Object> _d;
+    String _b;
+    int _a;
+  }
+
+  // an extra field
+  static class OrderC implements Serializable {
+    int _a;
+    String _b;
+    long _c;
+    String _f;
+    List<Object> _d;
+    Date _e;
+  }
+
+  // missing fields
+  static class OrderD implements Serializable {
+    int _a;
+    long _c;
+  }
+
+  static class Holder implements Serializable {
+    Object _value;
+  }
+
+  static class BadA implements Serializable {
+    int _x;
+    List<Object> _y;
+  }
+
+  static class BadB implements Serializable {
+    String _x;
+    String _y;
+  }
+
+  static class Boom implements Serializable {
+  }
+
+  static class Bang implements Serializable {
+  }
+
+  static class BangSerializer extends AbstractSerializer {
+    @Override
+    public void writeObject(Object obj, AbstractHessianOutput out)
+      throws IOException
+    {
+      throw new IllegalStateException("bang");
+    }
+  }
+
+  static class BoomSerializer extends AbstractSerializer {
+    @Override
+    public void writeObject(Object obj, AbstractHessianOutput out)
+      throws IOException
+    {
+      throw new IOException("boom");
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+
+
+package com.caucho.hessian.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IdentityIntMapTest {
+  @Test
+  public void testPutGet()
+  {
+    IdentityIntMap map = new IdentityIntMap(16);
+
+    Object []keys = createKeys(100);
+
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(i, map.put(keys[i], i, false));
+    }
+
+    assertEquals(keys.length, map.size());
+
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(i, map.get(keys[i]));
+    }
+
+    assertEquals(IdentityIntMap.NULL, map.get(new Object()));
+
+    // an equal but different key is another entry
+    String a = new String("a");
+    String b = new String("a");
+
+    map.put(a, 1, false);
+
+    assertEquals(IdentityIntMap.NULL, map.get(b));
+    assertEquals(1, map.put(a, 2, false));
+    assertEquals(1, map.put(a, 2, true));
+    assertEquals(2, map.get(a));
+  }
+
+  @Test
+  public void testClear()
+  {
+    IdentityIntMap map = new IdentityIntMap(16);
+
+    Object []keys = createKeys(10);
+
+    for (int i = 0; i < keys.length; i++) {
+      map.put(keys[i], i, false);
+    }
+
+    map.clear();
+
+    assertEquals(0, map.size());
+
+    for (Object key : keys) {
+      assertEquals(IdentityIntMap.NULL, map.get(key));
+    }
+
+    map.clear();
+
+    assertEquals(0, map.size());
+  }
+
+  /**
+   * A removed key stays in the table with a NULL value, so clearing a
+   * map whose entries were all removed must still reset the table.
+   */
+  @Test
+  public void testClearAfterRemove()
+  {
+    IdentityIntMap map = new IdentityIntMap(16);
+
+    Object a = new Object();
+    Object b = new Object();
+
+    map.put(a, 1, false);
+    map.remove(a);
+
+    assertEquals(0, map.size());
+    assertEquals(IdentityIntMap.NULL, map.get(a));
+
+    // re-adding a removed key reuses its slot
+    map.put(a, 2, true);
+    map.put(b, 3, false);
+
+    map.remove(b);
+    map.clear();
+
+    assertEquals(IdentityIntMap.NULL, map.get(a));
+    assertEquals(IdentityIntMap.NULL, map.get(b));
+
+    assertEquals(4, map.put(a, 4, false));
+    assertEquals(4, map.get(a));
+  }
+
+  private static Object []createKeys(int length)
+  {
+    Object []keys = new Object[length];
+
+    for (int i = 0; i < length; i++) {
+      keys[i] = new Object();
+    }
+
+    return keys;
+  }
+}
@@ -0,0 +1,681 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed length cache with an approximate LRU replacement policy, for
+ * caches shared by many threads.  It has the API of LruCache, but a
+ * lookup never takes a lock.
+ *
+ * <p>The entries are striped over segments, each a concurrent hash map
+ * with its own CLOCK hand.  A hit only sets the entry's reference bit.
+ * When a segment is over its share of the capacity, the hand removes
+ * the first entry whose bit is clear, clearing the bits it passes, so
+ * entries seen once are removed before entries seen again, as in
+ * LruCache.  Only one thread sweeps a segment at a time and other
+ * writers don't wait for it, so a segment can briefly hold a few more
+ * entries than its share.
+ *
+ * <p>A null key is stored under a private sentinel key, as in LruCache.
+ */
+public final class ConcurrentLruCache<K,V> {
+  private static final Object NULL = new Object();
+
+  // small caches use fewer segments to keep the policy close to LRU
+  private static final int MIN_SEGMENT_CAPACITY = 64;
+  private static final int MAX_SEGMENTS = 16;
+
+  private final int _capacity;
+
+  private final Segment<K,V> []_segments;
+  private final int _segmentMask;
+
+  private volatile boolean _isEnableListeners = true;
+  private volatile boolean _isEnableStatistics;
+
+  private final LongAdder _hitCount = new LongAdder();
+  private final LongAdder _missCount = new LongAdder();
+
+  /**
+   * Create the LRU cache with a specific capacity.
+   *
+   * @param initialCapacity minimum capacity of the cache
+   */
+  public ConcurrentLruCache(int initialCapacity)
+  {
+    this(initialCapacity, false);
+  }
+
+  /**
+   * Create the LRU cache with a specific capacity.
+   *
+   * @param initialCapacity minimum capacity of the cache
+   */
+  @SuppressWarnings("unchecked")
+  public ConcurrentLruCache(int initialCapacity, boolean isStatistics)
+  {
+    int count = 1;
+
+    while (count < MAX_SEGMENTS
+           && 2 * count * MIN_SEGMENT_CAPACITY <= initialCapacity) {
+      count *= 2;
+    }
+
+    _segments = (Segment<K,V> []) new Segment<?,?>[count];
+    _segmentMask = count - 1;
+
+    for (int i = 0; i < count; i++) {
+      int capacity = initialCapacity / count;
+
+      if (i < initialCapacity % count)
+        capacity++;
+
+      _segments[i] = new Segment<K,V>(Math.max(1, capacity));
+    }
+
+    _capacity = initialCapacity;
+    _isEnableStatistics = isStatistics;
+  }
+
+  /**
+   * Disable the listeners
+   */
+  public void setEnableListeners(boolean isEnable)
+  {
+    _isEnableListeners = isEnable;
+  }
+
+  public void setEnableStatistics(boolean isEnable)
+  {
+    _isEnableStatistics = isEnable;
+  }
+
+  /**
+   * Returns the current number of entries in the cache.
+   */
+  public int size()
+  {
+    int size = 0;
+
+    for (Segment<K,V> segment : _segments) {
+      size += segment._map.size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns the LRU cache capacity
+   */
+  public int getCapacity()
+  {
+    return _capacity;
+  }
+
+  /**
+   * Clears the cache
+   */
+  public void clear()
+  {
+    for (Segment<K,V> segment : _segments) {
+      for (Item<K,V> item : segment._map.values()) {
+        if (segment._map.remove(item._key, item))
+          notifyRemove(item._value);
+      }
+    }
+  }
+
+  /**
+   * Get an item from the cache and mark it as recently used.
+   *
+   * @param key key to lookup the item
+   * @return the matching object in the cache
+   */
+  public V get(K key)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    Item<K,V> item = getSegment(okey)._map.get(okey);
+
+    if (item != null) {
+      item.hit();
+
+      if (_isEnableStatistics)
+        _hitCount.increment();
+
+      return item._value;
+    }
+
+    if (_isEnableStatistics)
+      _missCount.increment();
+
+    return null;
+  }
+
+  /**
+   * Puts a new item in the cache.  If the cache is full, remove an
+   * old item.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return old value stored under the key
+   */
+  @SuppressWarnings("unchecked")
+  public V put(K key, V value)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    Segment<K,V> segment = getSegment(okey);
+
+    Item<K,V> item = new Item<K,V>((K) okey, value);
+
+    Item<K,V> oldItem = segment._map.put(okey, item);
+
+    if (oldItem == null) {
+      segment.evict(this);
+
+      return null;
+    }
+
+    item.hit();
+
+    V oldValue = oldItem._value;
+
+    if (oldValue == value)
+      return null;
+
+    notifyRemove(oldValue);
+
+    return oldValue;
+  }
+
+  /**
+   * Puts a new item in the cache.  If the cache is full, remove an
+   * old item.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return the value actually stored
+   */
+  @SuppressWarnings("unchecked")
+  public V putIfNew(K key, V value)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    Segment<K,V> segment = getSegment(okey);
+
+    Item<K,V> oldItem
+      = segment._map.putIfAbsent(okey, new Item<K,V>((K) okey, value));
+
+    if (oldItem == null) {
+      segment.evict(this);
+
+      return value;
+    }
+
+    oldItem.hit();
+
+    if (oldItem._value != null)
+      return oldItem._value;
+    else
+      return value;
+  }
+
+  /**
+   * Puts a new item in the cache if the current value matches testValue.
+   *
+   * @param key the key
+   * @param value the new value
+   * @param testValue the value to test against the current
+   *
+   * @return true if the put succeeds
+   */
+  @SuppressWarnings("unchecked")
+  public boolean compareAndPut(V testValue, K key, V value)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    Segment<K,V> segment = getSegment(okey);
+
+    Item<K,V> item = new Item<K,V>((K) okey, value);
+
+    if (testValue == null) {
+      if (segment._map.putIfAbsent(okey, item) != null)
+        return false;
+
+      segment.evict(this);
+
+      return true;
+    }
+
+    Item<K,V> oldItem = segment._map.get(okey);
+
+    if (oldItem == null || oldItem._value != testValue)
+      return false;
+
+    if (! segment._map.replace(okey, oldItem, item))
+      return false;
+
+    item.hit();
+
+    if (value != testValue)
+      notifyRemove(testValue);
+
+    return true;
+  }
+
+  /**
+   * Remove an old item from the largest segment.
+   */
+  public boolean removeTail()
+  {
+    Segment<K,V> tailSegment = null;
+    int tailSize = 0;
+
+    for (Segment<K,V> segment : _segments) {
+      int size = segment._map.size();
+
+      if (tailSize < size) {
+        tailSegment = segment;
+        tailSize = size;
+      }
+    }
+
+    return tailSegment != null && tailSegment.removeTail(this);
+  }
+
+  /**
+   * Removes an item from the cache
+   *
+   * @param key the key to remove
+   *
+   * @return the value removed
+   */
+  public V remove(K key)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    Item<K,V> item = getSegment(okey)._map.remove(okey);
+
+    if (item == null)
+      return null;
+
+    notifyRemove(item._value);
+
+    return item._value;
+  }
+
+  private Segment<K,V> getSegment(Object key)
+  {
+    // the high bits, since the segment maps hash on the low bits
+    int hash = key.hashCode() * 0x9e3779b9;
+
+    return _segments[(hash >>> 16) & _segmentMask];
+  }
+
+  private void notifyEvict(V value)
+  {
+    if (value instanceof LruListener)
+      ((LruListener) value).lruEvent();
+
+    notifyRemove(value);
+  }
+
+  private void notifyRemove(V value)
+  {
+    if (! _isEnableListeners)
+      return;
+
+    if (value instanceof SyncCacheListener)
+      ((SyncCacheListener) value).syncRemoveEvent();
+
+    if (value instanceof CacheListener)
+      ((CacheListener) value).removeEvent();
+  }
+
+  /**
+   * Returns the keys stored in the cache
+   */
+  public Iterator<K> keys()
+  {
+    return new KeyIterator();
+  }
+
+  /**
+   * Returns keys stored in the cache.  The old iterator is not reused.
+   */
+  public Iterator<K> keys(Iterator<K> oldIter)
+  {
+    return keys();
+  }
+
+  /**
+   * Returns the values in the cache
+   */
+  public Iterator<V> values()
+  {
+    return new ValueIterator();
+  }
+
+  /**
+   * Returns the values in the cache.  The old iterator is not reused.
+   */
+  public Iterator<V> values(Iterator<V> oldIter)
+  {
+    return values();
+  }
+
+  /**
+   * Returns the entries
+   */
+  public Iterator<LruCache.Entry<K,V>> iterator()
+  {
+    return new EntryIterator();
+  }
+
+  /**
+   * Returns the hit count.
+   */
+  public long getHitCount()
+  {
+    return _hitCount.sum();
+  }
+
+  /**
+   * Returns the miss count.
+   */
+  public long getMissCount()
+  {
+    return _missCount.sum();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[size=" + size()
+            + ",capacity=" + _capacity
+            + ",segments=" + _segments.length + "]");
+  }
+
+  /**
+   * A stripe of the cache with its own clock hand.
+   */
+  static final class Segment<K,V> {
+    final ConcurrentHashMap<Object,Item<K,V>> _map;
+    private final int _capacity;
+
+    // only one thread moves the hand at a time
+    private final AtomicBoolean _isEvicting = new AtomicBoolean();
+    private Iterator<Item<K,V>> _hand;
+
+    Segment(int capacity)
+    {
+      _capacity = capacity;
+      _map = new ConcurrentHashMap<Object,Item<K,V>>(2 * capacity);
+    }
+
+    /**
+     * Removes items until the segment is within its capacity.
+     */
+    void evict(ConcurrentLruCache<K,V> cache)
+    {
+      // a put that skipped the sweep just before it ended is caught by
+      // the check after the release
+      while (_capacity < _map.size()) {
+        if (! _isEvicting.compareAndSet(false, true))
+          return;
+
+        boolean isStuck = false;
+
+        try {
+          while (_capacity < _map.size()) {
+            if (! removeNext(cache)) {
+              isStuck = true;
+              break;
+            }
+          }
+        } finally {
+          _isEvicting.set(false);
+        }
+
+        if (isStuck)
+          return;
+      }
+    }
+
+    boolean removeTail(ConcurrentLruCache<K,V> cache)
+    {
+      if (! _isEvicting.compareAndSet(false, true))
+        return false;
+
+      try {
+        return removeNext(cache);
+      } finally {
+        _isEvicting.set(false);
+      }
+    }
+
+    /**
+     * Moves the hand to the next item that wasn't used since the hand
+     * last passed it and removes it.
+     */
+    private boolean removeNext(ConcurrentLruCache<K,V> cache)
+    {
+      // the rest of the current turn, then two full turns, which clear
+      // every reference bit
+      for (int turn = 0; turn < 3; turn++) {
+        Iterator<Item<K,V>> hand = _hand;
+
+        if (hand == null)
+          hand = _map.values().iterator();
+
+        while (hand.hasNext()) {
+          Item<K,V> item = hand.next();
+
+          if (item._isReferenced)
+            item._isReferenced = false;
+          else if (_map.remove(item._key, item)) {
+            _hand = hand;
+
+            cache.notifyEvict(item._value);
+
+            return true;
+          }
+        }
+
+        _hand = null;
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * A cache item
+   */
+  static final class Item<K,V> implements LruCache.Entry<K,V> {
+    final K _key;
+    final V _value;
+
+    // set on a hit, cleared by the clock hand
+    volatile boolean _isReferenced;
+
+    Item(K key, V value)
+    {
+      if (key == null)
+        throw new NullPointerException();
+
+      _key = key;
+      _value = value;
+    }
+
+    void hit()
+    {
+      // avoid the write when the bit is already set
+      if (! _isReferenced)
+        _isReferenced = true;
+    }
+
+    /**
+     * Returns the key.
+     */
+    @Override
+    public K getKey()
+    {
+      if (_key == NULL)
+        return null;
+      else
+        return _key;
+    }
+
+    /**
+     * Returns the value.
+     */
+    @Override
+    public V getValue()
+    {
+      return _value;
+    }
+  }
+
+  /**
+   * Iterator of cache entries
+   */
+  class EntryIterator implements Iterator<LruCache.Entry<K,V>> {
+    private int _index;
+    private Iterator<Item<K,V>> _iter = _segments[0]._map.values().iterator();
+    private Item<K,V> _last;
+
+    @Override
+    public boolean hasNext()
+    {
+      while (! _iter.hasNext() && _index + 1 < _segments.length) {
+        _index++;
+        _iter = _segments[_index]._map.values().iterator();
+      }
+
+      return _iter.hasNext();
+    }
+
+    @Override
+    public Item<K,V> next()
+    {
+      if (! hasNext())
+        throw new NoSuchElementException();
+
+      _last = _iter.next();
+
+      return _last;
+    }
+
+    @Override
+    public void remove()
+    {
+      Item<K,V> last = _last;
+
+      if (last == null)
+        throw new IllegalStateException();
+
+      _last = null;
+
+      if (getSegment(last._key)._map.remove(last._key, last))
+        notifyRemove(last._value);
+    }
+  }
+
+  /**
+   * Iterator of cache keys
+   */
+  class KeyIterator implements Iterator<K> {
+    private final EntryIterator _iter = new EntryIterator();
+
+    @Override
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    @Override
+    public K next()
+    {
+      return _iter.next().getKey();
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Iterator of cache values
+   */
+  class ValueIterator implements Iterator<V> {
+    private final EntryIterator _iter = new EntryIterator();
+
+    @Override
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    @Override
+    public V next()
+    {
+      return _iter.next().getValue();
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -96,6 +96,14 @@ public class TimedCache<K,V> {
     }
   }
 
+  /**
+   * Removes all entries.
+   */
+  public void clear()
+  {
+    _cache.clear();
+  }
+
   /**
    * Class representing a cached entry.
    */
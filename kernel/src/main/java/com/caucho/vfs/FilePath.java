@@ -35,6 +35,9 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.AccessControlException;
@@ -596,6 +599,78 @@ public class FilePath extends FilesystemPath {
     return new FileReadStream(new FileInputStream(getFile()), this);
   }
 
+  /**
+   * Maps a read-only region of the file.  The mapping stays valid after
+   * the channel is closed.  Devices, pipes and directories aren't
+   * mapped, since their length doesn't describe their contents.
+   */
+  @Override
+  public ByteBuffer mapRead(long offset, long length) throws IOException
+  {
+    if (! isFile())
+      return null;
+
+    RandomAccessFile file = new RandomAccessFile(getFile(), "r");
+
+    try {
+      FileChannel channel = file.getChannel();
+
+      long size = channel.size();
+
+      if (size <= offset)
+        return ByteBuffer.allocate(0);
+
+      if (size - offset < length)
+        length = size - offset;
+
+      if (Integer.MAX_VALUE < length)
+        length = Integer.MAX_VALUE;
+
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Transfers a region of the file with FileChannel.transferTo, which
+   * lets the kernel copy directly to files and sockets.  Like mapRead,
+   * it only handles regular files.
+   */
+  @Override
+  public long transferTo(long offset, long length, WritableByteChannel out)
+    throws IOException
+  {
+    if (! isFile())
+      return -1;
+
+    FileInputStream is = new FileInputStream(getFile());
+
+    try {
+      FileChannel channel = is.getChannel();
+
+      long size = channel.size();
+
+      if (size - offset < length)
+        length = size - offset;
+
+      long total = 0;
+
+      while (total < length) {
+        long sublen = channel.transferTo(offset + total, length - total, out);
+
+        if (sublen <= 0)
+          break;
+
+        total += sublen;
+      }
+
+      return total;
+    } finally {
+      is.close();
+    }
+  }
+
   public StreamImpl openWriteImpl() throws IOException
   {
     FileWriteStream fws = new FileWriteStream(
@@ -36,6 +36,7 @@ import java.io.InputStream;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -89,6 +90,20 @@ public class FileWriteStream extends VfsStream
     super.close();
   }
 
+  /**
+   * Returns the file's channel for direct transfers.
+   */
+  @Override
+  public WritableByteChannel getWritableChannel()
+  {
+    FileOutputStream os = _os;
+
+    if (os != null)
+      return os.getChannel();
+    else
+      return null;
+  }
+
   public boolean lock(boolean shared, boolean block)
   {
     unlock();
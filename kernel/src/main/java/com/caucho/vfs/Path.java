@@ -40,6 +40,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -1518,6 +1520,30 @@ public abstract class Path implements Comparable<Path> {
     throw new UnsupportedOperationException("openRead:" + getClass().getName());
   }
 
+  /**
+   * Maps a read-only region of the file into memory.  The region is
+   * truncated at the end of the file.
+   *
+   * @return the mapped region, or null if the path can't be mapped
+   */
+  public ByteBuffer mapRead(long offset, long length) throws IOException
+  {
+    return null;
+  }
+
+  /**
+   * Transfers a region of the file to the channel without copying it
+   * through the heap.
+   *
+   * @return the number of bytes transferred, or -1 if the path doesn't
+   *   support channel transfers
+   */
+  public long transferTo(long offset, long length, WritableByteChannel out)
+    throws IOException
+  {
+    return -1;
+  }
+
   public StreamImpl openWriteImpl() throws IOException
   {
     throw new UnsupportedOperationException("openWrite:" + getClass().getName());
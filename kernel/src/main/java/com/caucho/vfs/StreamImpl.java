@@ -32,6 +32,7 @@ package com.caucho.vfs;
 import com.caucho.util.NullIterator;
 
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 
 /**
@@ -380,6 +381,16 @@ public class StreamImpl {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
+  /**
+   * Returns a channel writing directly to the stream's target, or null
+   * if the stream has no such channel.  Callers must flush any
+   * buffered data before writing to the channel.
+   */
+  public WritableByteChannel getWritableChannel()
+  {
+    return null;
+  }
+
   /**
    * Closes the write half of the stream.
    */
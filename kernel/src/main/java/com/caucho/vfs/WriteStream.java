@@ -34,6 +34,8 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 import java.util.Locale;
 
@@ -1358,6 +1360,106 @@ public class WriteStream extends OutputStreamWithBuffer
     }
   }
 
+  /**
+   * Copies a region of a file to the stream.  The file is transferred
+   * through the stream's channel when it has one, and read through a
+   * memory-mapped buffer otherwise, so the data is copied at most once.
+   *
+   * @return the number of bytes written
+   */
+  public long writeFile(Path path, long offset, long length)
+    throws IOException
+  {
+    if (length <= 0)
+      return 0;
+
+    WritableByteChannel channel = _source.getWritableChannel();
+
+    if (channel != null) {
+      if (_writeLength > 0) {
+        int tmplen = _writeLength;
+        _writeLength = 0;
+        _source.write(_writeBuffer, 0, tmplen, false);
+        _position += tmplen;
+      }
+
+      _source.flush();
+
+      long sublen = path.transferTo(offset, length, channel);
+
+      if (sublen >= 0) {
+        _position += sublen;
+
+        return sublen;
+      }
+    }
+
+    long total = 0;
+
+    while (total < length) {
+      ByteBuffer buf = path.mapRead(offset + total, length - total);
+
+      if (buf == null)
+        return total + writeFileStream(path, offset + total, length - total);
+      else if (! buf.hasRemaining())
+        break;
+
+      total += buf.remaining();
+
+      int bufferLength = _writeBuffer.length;
+
+      while (buf.hasRemaining()) {
+        int sublen = Math.min(buf.remaining(), bufferLength - _writeLength);
+
+        buf.get(_writeBuffer, _writeLength, sublen);
+        _writeLength += sublen;
+
+        if (bufferLength <= _writeLength) {
+          int tmplen = _writeLength;
+          _writeLength = 0;
+          _source.write(_writeBuffer, 0, tmplen, false);
+          _isFlushRequired = true;
+          _position += tmplen;
+        }
+      }
+    }
+
+    if (_isFlushOnNewline || _implicitFlush)
+      flush();
+
+    return total;
+  }
+
+  private long writeFileStream(Path path, long offset, long length)
+    throws IOException
+  {
+    ReadStream is = path.openRead();
+
+    try {
+      is.skip(offset);
+
+      long total = 0;
+
+      while (total < length) {
+        int sublen = (int) Math.min(length - total, Integer.MAX_VALUE);
+        long start = _position + _writeLength;
+
+        writeStream(is, sublen);
+
+        long writeLength = _position + _writeLength - start;
+
+        if (writeLength <= 0)
+          break;
+
+        total += writeLength;
+      }
+
+      return total;
+    } finally {
+      is.close();
+    }
+  }
+
   /**
    * Disables close.  Sometimes an application will pass a stream
    * to a client that may close the stream at an inappropriate time.
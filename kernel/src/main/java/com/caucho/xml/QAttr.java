@@ -129,6 +129,9 @@ public class QAttr extends QNode implements Attr {
   public void setNodeValue(String value)
   {
     _value = value;
+
+    if (_owner != null)
+      _owner._changeCount++;
   }
 
   public String getValue()
@@ -139,6 +142,9 @@ public class QAttr extends QNode implements Attr {
   public void setValue(String value)
   {
     _value = value;
+
+    if (_owner != null)
+      _owner._changeCount++;
   }
 
   public boolean getSpecified()
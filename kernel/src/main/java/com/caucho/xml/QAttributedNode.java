@@ -222,6 +222,9 @@ public abstract class QAttributedNode extends QNode {
 
     qAttr._parent = this;
 
+    if (_owner != null)
+      _owner._changeCount++;
+
     // remove any matching old attribute
     QAttr old = unlink(attr.getNodeName());
 
@@ -259,6 +262,9 @@ public abstract class QAttributedNode extends QNode {
     
     qAttr._parent = this;
 
+    if (_owner != null)
+      _owner._changeCount++;
+
     qAttr._next = _firstAttribute;
     _firstAttribute = qAttr;
 
@@ -318,6 +324,9 @@ public abstract class QAttributedNode extends QNode {
     if (ptr == null)
       return null;
 
+    if (_owner != null)
+      _owner._changeCount++;
+
     if (prev == null)
       _firstAttribute = (QAttr) ptr._next;
     else
@@ -349,6 +358,9 @@ public abstract class QAttributedNode extends QNode {
     if (ptr == null)
       return null;
 
+    if (_owner != null)
+      _owner._changeCount++;
+
     if (prev == null)
       _firstAttribute = (QAttr) ptr._next;
     else
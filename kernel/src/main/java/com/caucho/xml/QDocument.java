@@ -846,6 +846,15 @@ public class QDocument extends QDocumentFragment implements CauchoDocument {
     _standalone = true;
   }
 
+  /**
+   * Returns a counter that changes whenever the tree or an attribute
+   * is modified, for caches built from the document.
+   */
+  public int getChangeCount()
+  {
+    return _changeCount;
+  }
+
   public String getXmlVersion()
   {
     return _version;
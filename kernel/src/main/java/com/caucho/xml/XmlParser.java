@@ -333,6 +333,12 @@ public class XmlParser extends AbstractParser {
 
       default:
         addText((char) ch);
+
+        // copy the rest of an ASCII run without per-character reads
+        _textLength += _reader.readText(_textBuffer, _textLength,
+                                        _textCapacity - _textLength,
+                                        ! _normalizeWhitespace);
+
         ch = _reader.read();
         break;
 
@@ -30,7 +30,9 @@ package com.caucho.xml.readers;
 
 import com.caucho.util.CharBuffer;
 import com.caucho.vfs.ReadStream;
+import com.caucho.xml.XmlChar;
 import com.caucho.xml.XmlParser;
+import org.xml.sax.SAXException;
 
 import java.io.CharConversionException;
 import java.io.EOFException;
@@ -38,8 +40,14 @@ import java.io.IOException;
 
 /**
  * A fast reader to convert bytes to characters for parsing XML.
+ *
+ * Names and runs of ASCII text are scanned directly in the read
+ * stream's byte buffer, since ASCII bytes are their own characters.
  */
 public class Utf8Reader extends XmlReader {
+  // ASCII bytes that are plain text inside an element
+  private static final boolean []_isTextChar = new boolean[128];
+
   /**
    * Create a new reader.
    */
@@ -89,6 +97,86 @@ public class Utf8Reader extends XmlReader {
       return readSecond(ch1);
   }
     
+  /**
+   * Parses a name, copying ASCII name bytes straight from the buffer.
+   */
+  @Override
+  public int parseName(CharBuffer name, int ch)
+    throws IOException, SAXException
+  {
+    name.clear();
+    name.append((char) ch);
+
+    while (true) {
+      ReadStream is = _is;
+      byte []buffer = is.getBuffer();
+      int start = is.getOffset();
+      int end = is.getLength();
+      int offset = start;
+
+      for (; offset < end; offset++) {
+        int b = buffer[offset];
+
+        // non-ASCII bytes are negative
+        if (b <= 0 || ! isAsciiNameChar[b])
+          break;
+      }
+
+      if (start < offset) {
+        int length = name.length();
+        int sublen = offset - start;
+
+        name.setLength(length + sublen);
+        char []chars = name.getBuffer();
+
+        for (int i = 0; i < sublen; i++) {
+          chars[length + i] = (char) buffer[start + i];
+        }
+
+        is.setOffset(offset);
+      }
+
+      ch = read();
+
+      if (ch > 0 && ch < 128 && isAsciiNameChar[ch]
+          || XmlChar.isNameChar(ch)) {
+        name.append((char) ch);
+      }
+      else
+        return ch;
+    }
+  }
+
+  @Override
+  public int readText(char []chars, int offset, int length, boolean isSpace)
+    throws IOException
+  {
+    ReadStream is = _is;
+    byte []buffer = is.getBuffer();
+    int start = is.getOffset();
+    int end = Math.min(is.getLength(), start + length);
+    int i = start;
+
+    for (; i < end; i++) {
+      int b = buffer[i];
+
+      if (b <= 0)
+        break;
+      else if (_isTextChar[b]) {
+      }
+      else if (isSpace && (b == ' ' || b == '\t')) {
+      }
+      else
+        break;
+
+      chars[offset++] = (char) b;
+    }
+
+    is.setOffset(i);
+
+    return i - start;
+  }
+
   private int readSecond(int ch1)
     throws IOException
   {
@@ -160,5 +248,15 @@ public class Utf8Reader extends XmlReader {
     else
       return new CharConversionException(msg);
   }
-}
 
+  static {
+    for (int ch = 0x21; ch < 0x7f; ch++) {
+      _isTextChar[ch] = true;
+    }
+
+    // markup, references and the '/' of special tags
+    _isTextChar['<'] = false;
+    _isTextChar['&'] = false;
+    _isTextChar['/'] = false;
+  }
+}
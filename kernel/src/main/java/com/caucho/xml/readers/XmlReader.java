@@ -233,6 +233,20 @@ public class XmlReader {
     return ch;
   }
 
+  /**
+   * Copies a run of plain ASCII text directly into the buffer, stopping
+   * before any markup, entity, line end or non-ASCII character, which
+   * must go through read().  Readers that decode characters return 0.
+   *
+   * @param isSpace true if spaces and tabs are plain text
+   * @return the number of characters copied
+   */
+  public int readText(char []buffer, int offset, int length, boolean isSpace)
+    throws IOException
+  {
+    return 0;
+  }
+
   /**
    * Finish reading.
    */
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLruCacheTest
+{
+  @Test
+  public void testPutGet()
+  {
+    ConcurrentLruCache<String,String> cache
+      = new ConcurrentLruCache<String,String>(16);
+
+    assertNull(cache.get("a"));
+    assertNull(cache.put("a", "1"));
+    assertEquals("1", cache.get("a"));
+
+    assertEquals("1", cache.put("a", "2"));
+    assertEquals("2", cache.get("a"));
+
+    assertEquals("2", cache.putIfNew("a", "3"));
+    assertEquals("4", cache.putIfNew("b", "4"));
+
+    assertFalse(cache.compareAndPut("x", "a", "5"));
+    assertTrue(cache.compareAndPut("2", "a", "5"));
+    assertEquals("5", cache.get("a"));
+
+    assertEquals(2, cache.size());
+
+    assertEquals("5", cache.remove("a"));
+    assertNull(cache.remove("a"));
+    assertNull(cache.get("a"));
+    assertEquals(1, cache.size());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testNullKey()
+  {
+    ConcurrentLruCache<String,String> cache
+      = new ConcurrentLruCache<String,String>(16);
+
+    cache.put(null, "null");
+
+    assertEquals("null", cache.get(null));
+    assertNull(cache.keys().next());
+    assertEquals("null", cache.remove(null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testStatistics()
+  {
+    ConcurrentLruCache<String,String> cache
+      = new ConcurrentLruCache<String,String>(16, true);
+
+    cache.put("a", "1");
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  /**
+   * Entries seen again survive the entries seen once.
+   */
+  @Test
+  public void testEvictionOrder()
+  {
+    ConcurrentLruCache<Integer,String> cache
+      = new ConcurrentLruCache<Integer,String>(4);
+
+    for (int i = 0; i < 4; i++) {
+      cache.put(i, "v" + i);
+    }
+
+    cache.get(0);
+    cache.get(1);
+
+    cache.put(4, "v4");
+    cache.put(5, "v5");
+
+    assertEquals(4, cache.size());
+    assertEquals("v0", cache.get(0));
+    assertEquals("v1", cache.get(1));
+
+    int count = 0;
+
+    for (int i = 2; i < 6; i++) {
+      if (cache.get(i) != null)
+        count++;
+    }
+
+    assertEquals(2, count);
+  }
+
+  @Test
+  public void testEvictionListeners()
+  {
+    ConcurrentLruCache<Integer,TestValue> cache
+      = new ConcurrentLruCache<Integer,TestValue>(2);
+
+    TestValue a = new TestValue();
+    TestValue b = new TestValue();
+    TestValue c = new TestValue();
+
+    cache.put(1, a);
+    cache.put(2, b);
+    cache.put(3, c);
+
+    assertEquals(2, cache.size());
+    assertEquals(1, a._lruCount + b._lruCount + c._lruCount);
+    assertEquals(1, a._removeCount + b._removeCount + c._removeCount);
+
+    TestValue d = new TestValue();
+    TestValue old = cache.get(3) != null ? c : (cache.get(2) != null ? b : a);
+    Integer key = old == c ? 3 : (old == b ? 2 : 1);
+
+    // a replaced value is removed, but not evicted
+    cache.put(key, d);
+
+    assertEquals(1, old._removeCount);
+    assertEquals(0, old._lruCount);
+
+    cache.setEnableListeners(false);
+    cache.remove(key);
+    assertEquals(0, d._removeCount);
+  }
+
+  @Test
+  public void testRemoveTail()
+  {
+    ConcurrentLruCache<Integer,String> cache
+      = new ConcurrentLruCache<Integer,String>(1024);
+
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, "v" + i);
+    }
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(cache.removeTail());
+    }
+
+    assertEquals(0, cache.size());
+    assertFalse(cache.removeTail());
+  }
+
+  @Test
+  public void testRemoveDuringIteration()
+  {
+    ConcurrentLruCache<Integer,String> cache
+      = new ConcurrentLruCache<Integer,String>(1024);
+
+    for (int i = 0; i < 500; i++) {
+      cache.put(i, "v" + i);
+    }
+
+    HashSet<Integer> seen = new HashSet<Integer>();
+    Iterator<LruCache.Entry<Integer,String>> iter = cache.iterator();
+
+    while (iter.hasNext()) {
+      LruCache.Entry<Integer,String> entry = iter.next();
+      int key = entry.getKey();
+
+      assertEquals("v" + key, entry.getValue());
+      assertTrue(seen.add(key));
+
+      if (key % 2 == 0)
+        iter.remove();
+      else if (key % 3 == 0)
+        cache.remove(key);
+    }
+
+    assertEquals(500, seen.size());
+
+    for (int i = 0; i < 500; i++) {
+      if (i % 2 == 0 || i % 3 == 0)
+        assertNull(cache.get(i));
+      else
+        assertEquals("v" + i, cache.get(i));
+    }
+
+    iter = cache.iterator();
+    int key = iter.next().getKey();
+    iter.remove();
+
+    assertNull(cache.get(key));
+
+    try {
+      iter.remove();
+      fail();
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  /**
+   * Readers, writers and removers on an undersized cache.
+   */
+  @Test
+  public void testConcurrentAccess()
+    throws Exception
+  {
+    final ConcurrentLruCache<Integer,String> cache
+      = new ConcurrentLruCache<Integer,String>(256, true);
+
+    final int threadCount = 8;
+    final int opCount = 20000;
+
+    final AtomicInteger getCount = new AtomicInteger();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+
+    for (int i = 0; i < threadCount; i++) {
+      final int seed = i;
+
+      Thread thread = new Thread() {
+        @Override
+        public void run()
+        {
+          try {
+            Random random = new Random(seed);
+
+            for (int j = 0; j < opCount; j++) {
+              int key = random.nextInt(1000);
+              int op = random.nextInt(10);
+
+              if (op < 6) {
+                String value = cache.get(key);
+                getCount.incrementAndGet();
+
+                if (value != null && ! value.equals("v" + key))
+                  throw new IllegalStateException(key + " " + value);
+              }
+              else if (op < 9)
+                cache.put(key, "v" + key);
+              else
+                cache.remove(key);
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    if (failure.get() != null)
+      throw new AssertionError(failure.get());
+
+    assertEquals(getCount.get(), cache.getHitCount() + cache.getMissCount());
+
+    // writers don't wait for a sweep, so a segment can be a little over
+    assertTrue(cache.size() <= cache.getCapacity() + threadCount);
+
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, "v" + i);
+    }
+
+    assertTrue(cache.size() <= cache.getCapacity());
+  }
+
+  static class TestValue implements LruListener, CacheListener {
+    int _lruCount;
+    int _removeCount;
+
+    @Override
+    public void lruEvent()
+    {
+      _lruCount++;
+    }
+
+    @Override
+    public void removeEvent()
+    {
+      _removeCount++;
+    }
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.vfs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests WriteStream.writeFile and the FilePath mapRead and transferTo
+ * it's built on, with both the channel and the mapped-buffer paths.
+ */
+public class WriteFileTest
+{
+  // bigger than the 256k threshold of file_get_contents and the write buffer
+  private static final int LARGE = 320 * 1024 + 17;
+
+  private File _dir;
+
+  @Before
+  public void setUp()
+    throws IOException
+  {
+    _dir = Files.createTempDirectory("write-file").toFile();
+  }
+
+  @After
+  public void tearDown()
+  {
+    File []files = _dir.listFiles();
+
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+
+    _dir.delete();
+  }
+
+  @Test
+  public void testEmpty()
+    throws IOException
+  {
+    Path path = createFile("empty", new byte[0]);
+
+    ByteBuffer buf = path.mapRead(0, 10);
+    assertNotNull(buf);
+    assertEquals(0, buf.remaining());
+
+    assertEquals(0, path.transferTo(0, 10, new ByteArrayChannel()));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+    out.print("ab");
+
+    assertEquals(0, out.writeFile(path, 0, 0));
+    assertEquals(0, out.writeFile(path, 0, 10));
+    out.close();
+
+    assertEquals("ab", bos.toString());
+
+    Path target = Vfs.lookup(new File(_dir, "target").getPath());
+    out = target.openWrite();
+    out.print("ab");
+
+    assertEquals(0, out.writeFile(path, 0, 10));
+    assertEquals(2, out.getPosition());
+    out.close();
+
+    assertEquals("ab", new String(readFile(target), "ISO-8859-1"));
+  }
+
+  @Test
+  public void testLargeMapped()
+    throws IOException
+  {
+    byte []data = createData(LARGE);
+    Path path = createFile("large", data);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+    out.print("ab");
+
+    assertEquals(LARGE, out.writeFile(path, 0, LARGE + 100));
+    assertEquals(LARGE + 2, out.getPosition());
+
+    out.print("cd");
+    out.close();
+
+    assertArrayEquals(concat("ab", data, "cd"), bos.toByteArray());
+
+    bos = new ByteArrayOutputStream();
+    out = Vfs.openWrite(bos);
+
+    assertEquals(1000, out.writeFile(path, LARGE - 1000, 1000));
+    assertEquals(0, out.writeFile(path, LARGE, 10));
+    out.close();
+
+    assertArrayEquals(Arrays.copyOfRange(data, LARGE - 1000, LARGE),
+                      bos.toByteArray());
+  }
+
+  @Test
+  public void testLargeTransfer()
+    throws IOException
+  {
+    byte []data = createData(LARGE);
+    Path path = createFile("large", data);
+
+    ByteArrayChannel channel = new ByteArrayChannel();
+    assertEquals(LARGE, path.transferTo(0, LARGE + 100, channel));
+    assertArrayEquals(data, channel.toByteArray());
+
+    // the buffered prefix is written before the transferred file
+    Path target = Vfs.lookup(new File(_dir, "target").getPath());
+    WriteStream out = target.openWrite();
+    out.print("ab");
+
+    assertEquals(LARGE, out.writeFile(path, 0, LARGE));
+    assertEquals(LARGE + 2, out.getPosition());
+
+    out.print("cd");
+    assertEquals(10, out.writeFile(path, 5, 10));
+    out.close();
+
+    ByteArrayOutputStream expect = new ByteArrayOutputStream();
+    expect.write(concat("ab", data, "cd"));
+    expect.write(data, 5, 10);
+
+    assertArrayEquals(expect.toByteArray(), readFile(target));
+  }
+
+  @Test
+  public void testNonRegular()
+    throws IOException
+  {
+    Path dir = Vfs.lookup(_dir.getPath());
+
+    assertNull(dir.mapRead(0, 10));
+    assertEquals(-1, dir.transferTo(0, 10, new ByteArrayChannel()));
+
+    Path zero = Vfs.lookup("/dev/zero");
+
+    if (! zero.exists())
+      return;
+
+    // a device reports no length, so it's read as a stream
+    assertNull(zero.mapRead(0, 10));
+    assertEquals(-1, zero.transferTo(0, 10, new ByteArrayChannel()));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    assertEquals(LARGE, out.writeFile(zero, 0, LARGE));
+    out.close();
+
+    assertArrayEquals(new byte[LARGE], bos.toByteArray());
+
+    Path target = Vfs.lookup(new File(_dir, "target").getPath());
+    out = target.openWrite();
+
+    assertEquals(100, out.writeFile(zero, 0, 100));
+    out.close();
+
+    assertArrayEquals(new byte[100], readFile(target));
+
+    Path devNull = Vfs.lookup("/dev/null");
+
+    bos = new ByteArrayOutputStream();
+    out = Vfs.openWrite(bos);
+
+    assertEquals(0, out.writeFile(devNull, 0, 100));
+    out.close();
+
+    assertEquals(0, bos.size());
+  }
+
+  private Path createFile(String name, byte []data)
+    throws IOException
+  {
+    File file = new File(_dir, name);
+
+    FileOutputStream os = new FileOutputStream(file);
+
+    try {
+      os.write(data);
+    } finally {
+      os.close();
+    }
+
+    return Vfs.lookup(file.getPath());
+  }
+
+  private static byte []readFile(Path path)
+    throws IOException
+  {
+    return Files.readAllBytes(new File(path.getNativePath()).toPath());
+  }
+
+  private static byte []createData(int length)
+  {
+    byte []data = new byte[length];
+
+    for (int i = 0; i < length; i++)
+      data[i] = (byte) (i * 31 + (i >> 8));
+
+    return data;
+  }
+
+  private static byte []concat(String head, byte []data, String tail)
+  {
+    byte []result = new byte[head.length() + data.length + tail.length()];
+
+    for (int i = 0; i < head.length(); i++)
+      result[i] = (byte) head.charAt(i);
+
+    System.arraycopy(data, 0, result, head.length(), data.length);
+
+    for (int i = 0; i < tail.length(); i++)
+      result[head.length() + data.length + i] = (byte) tail.charAt(i);
+
+    return result;
+  }
+
+  /**
+   * A channel collecting the transferred bytes.
+   */
+  static class ByteArrayChannel implements WritableByteChannel
+  {
+    private final ByteArrayOutputStream _bos = new ByteArrayOutputStream();
+
+    public int write(ByteBuffer buf)
+    {
+      int len = buf.remaining();
+
+      while (buf.hasRemaining())
+        _bos.write(buf.get());
+
+      return len;
+    }
+
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    public void close()
+    {
+    }
+
+    byte []toByteArray()
+    {
+      return _bos.toByteArray();
+    }
+  }
+}
@@ -43,6 +43,7 @@ import com.caucho.quercus.lib.session.QuercusSessionManager;
 import com.caucho.quercus.module.*;
 import com.caucho.quercus.page.InterpretedPage;
 import com.caucho.quercus.page.PageManager;
+import com.caucho.quercus.page.PageWatcher;
 import com.caucho.quercus.page.QuercusPage;
 import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.program.ClassDef;
@@ -54,6 +55,7 @@ import com.caucho.quercus.servlet.api.QuercusHttpServletResponse;
 import com.caucho.quercus.servlet.api.QuercusServletContext;
 import com.caucho.util.IntMap;
 import com.caucho.util.L10N;
+import com.caucho.util.ConcurrentLruCache;
 import com.caucho.util.LruCache;
 import com.caucho.util.TimedCache;
 import com.caucho.vfs.Path;
@@ -66,6 +68,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.cache.Cache;
 import javax.sql.DataSource;
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.sql.Connection;
@@ -95,11 +98,11 @@ public class QuercusContext
 
   private ModuleContext _moduleContext;
 
-  private static LruCache<String, UnicodeBuilderValue> _unicodeMap
-    = new LruCache<String, UnicodeBuilderValue>(8 * 1024);
+  private static ConcurrentLruCache<String, UnicodeBuilderValue> _unicodeMap
+    = new ConcurrentLruCache<String, UnicodeBuilderValue>(8 * 1024);
 
-  private static LruCache<String, ConstStringValue> _stringMap
-    = new LruCache<String, ConstStringValue>(8 * 1024);
+  private static ConcurrentLruCache<String, ConstStringValue> _stringMap
+    = new ConcurrentLruCache<String, ConstStringValue>(8 * 1024);
 
   private HashMap<String, ModuleInfo> _modules
     = new HashMap<String, ModuleInfo>();
@@ -157,8 +160,8 @@ public class QuercusContext
 
   private AbstractFunction []_functionMap = new AbstractFunction[256];
 
-  private LruCache<StringValue, QuercusProgram> _evalCache
-    = new LruCache<StringValue, QuercusProgram>(4096);
+  private ConcurrentLruCache<StringValue, QuercusProgram> _evalCache
+    = new ConcurrentLruCache<StringValue, QuercusProgram>(4096);
 
   private int _includeCacheMax = 8192;
   private long _includeCacheTimeout = 10000L;
@@ -216,8 +219,14 @@ public class QuercusContext
 
   private long _dependencyCheckInterval = 2000L;
 
+  private boolean _isPageWatch;
+  private PageWatcher _pageWatcher;
+
   private boolean _isClosed;
 
+  // resources closed with the context
+  private final ArrayList<Closeable> _closeList = new ArrayList<Closeable>();
+
   private JdbcDriverContext _jdbcDriverContext;
 
   private Boolean _isUnicodeSemantics;
@@ -320,6 +329,28 @@ public class QuercusContext
     _dependencyCheckInterval = ms;
   }
 
+  /**
+   * Set true if source changes are pushed by a PageWatcher instead of
+   * being checked by requests.
+   */
+  public void setPageWatch(boolean isPageWatch)
+  {
+    _isPageWatch = isPageWatch;
+  }
+
+  public boolean isPageWatch()
+  {
+    return _isPageWatch;
+  }
+
+  /**
+   * Returns the page watcher, or null if pages are checked by requests.
+   */
+  public PageWatcher getPageWatcher()
+  {
+    return _pageWatcher;
+  }
+
   public int getIncludeCacheMax()
   {
     return _includeCacheMax;
@@ -1124,6 +1155,33 @@ public class QuercusContext
     IncludeKey key = new IncludeKey(include, includePath, pwd, scriptPwd);
 
     _includeCache.put(key, path);
+
+    PageWatcher watcher = _pageWatcher;
+
+    if (watcher != null) {
+      // a new file at an earlier candidate changes the resolution.  The
+      // candidates can be in subdirectories of the include path, so
+      // each candidate's own directory is watched
+      String name = include.toString();
+
+      for (String dir : includePath.split(java.io.File.pathSeparator)) {
+        if (! "".equals(dir)) {
+          watcher.watchParent(pwd.lookup(dir).lookup(name));
+          watcher.watchParent(scriptPwd.lookup(dir).lookup(name));
+        }
+      }
+
+      watcher.watchParent(scriptPwd.lookup(name));
+      watcher.watchDirectory(path.getParent());
+    }
+  }
+
+  /**
+   * Clears the include path cache.
+   */
+  public void clearIncludeCache()
+  {
+    _includeCache.clear();
   }
 
   /**
@@ -2019,7 +2077,8 @@ public class QuercusContext
       ConstStringValue value = _stringMap.get(name);
 
       if (value == null) {
-        value = new ConstStringValue(name);
+        value = (ConstStringValue) ConstStringValue.intern(
+          new ConstStringValue(name));
 
         _stringMap.put(name, value);
       }
@@ -2100,6 +2159,16 @@ public class QuercusContext
     _specialMap.put(key, value);
   }
 
+  /**
+   * Adds a resource to be closed when the context closes.
+   */
+  public void addCloseListener(Closeable resource)
+  {
+    synchronized (_closeList) {
+      _closeList.add(resource);
+    }
+  }
+
   public static Value objectToValue(Object obj)
   {
     if (obj == null)
@@ -2152,6 +2221,17 @@ public class QuercusContext
 
       _envTimeoutThread = new EnvTimeoutThread();
       _envTimeoutThread.start();
+
+      if (_isPageWatch) {
+        _pageWatcher = PageWatcher.create(this);
+
+        // resolved includes are cleared by the watcher when files are
+        // created or removed
+        if (_pageWatcher.isWatchService()) {
+          _includeCache = new TimedCache<IncludeKey, Path>(
+            getIncludeCacheMax(), Long.MAX_VALUE / 2);
+        }
+      }
     } catch (Exception e) {
       log.log(Level.FINE, e.getMessage(), e);
     }
@@ -2210,12 +2290,34 @@ public class QuercusContext
       envTimeoutThread.shutdown();
     }
 
+    PageWatcher pageWatcher = _pageWatcher;
+    _pageWatcher = null;
+
+    if (pageWatcher != null) {
+      pageWatcher.close();
+    }
+
     QuercusTimer quercusTimer = _quercusTimer;
     _quercusTimer = null;
 
     if (quercusTimer != null) {
       quercusTimer.shutdown();
     }
+
+    ArrayList<Closeable> closeList;
+
+    synchronized (_closeList) {
+      closeList = new ArrayList<Closeable>(_closeList);
+      _closeList.clear();
+    }
+
+    for (Closeable resource : closeList) {
+      try {
+        resource.close();
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
   }
 
   /**
@@ -1480,7 +1480,8 @@ abstract public class ArrayValue extends Value {
         sb.append(',');
       }
 
-      value.getOne().jsonEncode(env, context, sb);
+      context.encode(env, value.getValue(), sb);
+      context.flush(sb);
       length++;
     }
 
@@ -1505,7 +1506,8 @@ abstract public class ArrayValue extends Value {
 
       entry.getKey().toStringValue(env).jsonEncode(env, context, sb);
       sb.append(':');
-      entry.getEnvVar().getValue().foreach((a) -> a.jsonEncode(env, context, sb));
+      context.encode(env, entry.getEnvVar().getValue(), sb);
+      context.flush(sb);
       length++;
     }
 
@@ -31,7 +31,9 @@ package com.caucho.quercus.env;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
 import java.util.Locale;
+import java.util.WeakHashMap;
 
 /**
  * Represents a StringValue that is never modified.
@@ -42,6 +44,14 @@ public class ConstStringValue
 {
   public static final ConstStringValue EMPTY = new ConstStringValue();
 
+  // canonical instances of parsed literals and names, see intern()
+  private static final WeakHashMap<StringValue,WeakReference<ConstStringValue>>
+    _internTable = new WeakHashMap<StringValue,WeakReference<ConstStringValue>>();
+
+  // not serialized: a deserialized copy is a distinct instance with the
+  // same contents, so it must not take the interned equals() fast path
+  private transient boolean _isInterned;
+
   private LongValue _longValue;
   private DoubleValue _doubleValue;
   private String _string;
@@ -139,6 +149,44 @@ public class ConstStringValue
     super(v1, v2, v3);
   }
 
+  /**
+   * Returns the canonical instance for a parsed literal or name.  The
+   * table is weak, so a literal lives only as long as the code that uses
+   * it.  Interned strings have their hash code computed up front, and two
+   * interned strings are equal only if they are the same instance.
+   */
+  public static StringValue intern(StringValue value)
+  {
+    if (value.getClass() != ConstStringValue.class
+        && value.getClass() != StringBuilderValue.class) {
+      return value;
+    }
+    else if (value instanceof ConstStringValue
+             && ((ConstStringValue) value)._isInterned) {
+      return value;
+    }
+
+    synchronized (_internTable) {
+      WeakReference<ConstStringValue> ref = _internTable.get(value);
+      ConstStringValue s = ref != null ? ref.get() : null;
+
+      if (s != null)
+        return s;
+
+      if (value instanceof ConstStringValue)
+        s = (ConstStringValue) value;
+      else
+        s = new ConstStringValue((StringBuilderValue) value);
+
+      s.hashCode();
+      s._isInterned = true;
+
+      _internTable.put(s, new WeakReference<ConstStringValue>(s));
+
+      return s;
+    }
+  }
+
   public boolean isStatic()
   {
     return true;
@@ -229,6 +277,27 @@ public class ConstStringValue
     return _valueType;
   }
 
+  @Override
+  public boolean equals(Object o)
+  {
+    if (o == this) {
+      return true;
+    }
+    else if (o instanceof ConstStringValue) {
+      ConstStringValue s = (ConstStringValue) o;
+
+      // there is at most one interned instance for any contents
+      if (_isInterned && s._isInterned)
+        return false;
+
+      // the cached hash codes are stable because neither is modified
+      if (hashCode() != s.hashCode())
+        return false;
+    }
+
+    return super.equals(o);
+  }
+
   /**
    * Converts to a key.
    */
@@ -212,8 +212,8 @@ public class Env
   private static final FreeList<QDate> _freeLocalDateList
     = new FreeList<QDate>(256);
 
-  private static final LruCache<String,StringValue> _internStringMap
-    = new LruCache<String,StringValue>(4096);
+  private static final ConcurrentLruCache<String,StringValue> _internStringMap
+    = new ConcurrentLruCache<String,StringValue>(4096);
 
   protected final QuercusContext _quercus;
 
@@ -275,6 +275,10 @@ public class Env
   private HashMap<Path,QuercusPage> _includeMap
     = new HashMap<Path,QuercusPage>();
 
+  // condition under which each page in _includeMap has been included
+  private HashMap<Path,FeatureExpr> _includeCondMap
+    = new HashMap<Path,FeatureExpr>();
+
   private Value _this = NullThisValue.NULL;
 
   private Closure _closure;
@@ -499,6 +503,7 @@ public class Env
 
       // php/0b32
       _includeMap.put(_selfPath, _page);
+      _includeCondMap.put(_selfPath, VHelper.True());
     }
 
     _internalAutoload
@@ -4588,6 +4593,11 @@ public class Env
     Map<Path,QuercusPage> includeMap = saveState.getIncludeMap();
     _includeMap = new HashMap<Path,QuercusPage>(includeMap);
 
+    _includeCondMap = new HashMap<Path,FeatureExpr>();
+    for (Path path : includeMap.keySet()) {
+      _includeCondMap.put(path, VHelper.True());
+    }
+
     // php/404l
     // XXX: import and namespaces
 
@@ -5818,18 +5828,43 @@ public class Env
       }
 
       QuercusPage page = _includeMap.get(path);
+      FeatureExpr included = _includeCondMap.get(path);
+
+      if (included == null)
+        included = VHelper.False();
+
+      // configurations that have not included the page yet
+      FeatureExpr remaining = ctx.and(included.not());
+
+      if (isOnce) {
+        if (! remaining.isSatisfiable())
+          return VHelper.toV(BooleanValue.TRUE);
+      }
 
-      if (page != null && isOnce)
-        return VHelper.toV(BooleanValue.TRUE);
-      else if (page == null || page.isModified()) {
+      if (page == null || page.isModified()) {
         page = _quercus.parse(path);
 
-        pageInit(ctx, page);
+        pageInit(isOnce ? remaining : ctx, page);
 
         _includeMap.put(path, page);
+        included = included.or(ctx);
+      }
+      else if (remaining.isSatisfiable()) {
+        // the parsed page is shared, only its definitions are new
+        // for the remaining configurations
+        pageInit(remaining, page);
+
+        included = included.or(remaining);
       }
 
-      return executePage(page, ctx);
+      _includeCondMap.put(path, included);
+
+      if (! isOnce || ctx.implies(remaining).isTautology())
+        return executePage(page, ctx);
+
+      V<? extends Value> result = executePage(page, remaining);
+
+      return V.choice(remaining, result, V.one(BooleanValue.TRUE));
     } catch (IOException e) {
       throw new QuercusModuleException(e);
     }
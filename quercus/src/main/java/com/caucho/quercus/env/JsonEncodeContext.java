@@ -29,8 +29,21 @@
 
 package com.caucho.quercus.env;
 
+import com.caucho.quercus.lib.json.JsonModule;
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.One;
+import edu.cmu.cs.varex.V;
+import edu.cmu.cs.varex.VHelper;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
 public class JsonEncodeContext
 {
+  // characters buffered before a streaming encoder writes them out
+  private static final int FLUSH_SIZE = 8 * 1024;
+
   private final boolean _isEscapeTag;
   private final boolean _isEscapeAmp;
   private final boolean _isEscapeApos;
@@ -38,6 +51,16 @@ public class JsonEncodeContext
   private final boolean _isCheckNumeric;
   private final boolean _isBigIntAsString;
 
+  // non-null when the encoding is written directly to the output
+  private Env _env;
+
+  // condition of the text being encoded
+  private FeatureExpr _ctx = VHelper.True();
+
+  // encodings per configuration, once an encoded value differs between
+  // configurations of a non-streaming encoder
+  private ArrayList<Part> _parts;
+
   public JsonEncodeContext(boolean isEscapeTag,
                            boolean isEscapeAmp,
                            boolean isEscapeApos,
@@ -53,6 +76,20 @@ public class JsonEncodeContext
     _isBigIntAsString = isBigIntAsString;
   }
 
+  /**
+   * Creates a context from json_encode() options.
+   */
+  public static JsonEncodeContext create(int options)
+  {
+    return new JsonEncodeContext(
+      (options & JsonModule.JSON_HEX_TAG) > 0,
+      (options & JsonModule.JSON_HEX_AMP) > 0,
+      (options & JsonModule.JSON_HEX_APOS) > 0,
+      (options & JsonModule.JSON_HEX_QUOT) > 0,
+      (options & JsonModule.JSON_NUMERIC_CHECK) > 0,
+      (options & JsonModule.JSON_BIGINT_AS_STRING) > 0);
+  }
+
   public boolean isEscapeTag()
   {
     return _isEscapeTag;
@@ -82,4 +119,231 @@ public class JsonEncodeContext
   {
     return _isBigIntAsString;
   }
+
+  /**
+   * Writes the encoding to the env's output under ctx instead of
+   * returning it as a string.  The builder passed to jsonEncode() is
+   * then only a chunk buffer that is flushed as it fills up.
+   */
+  public void setOutput(Env env, FeatureExpr ctx)
+  {
+    _env = env;
+    _ctx = ctx;
+  }
+
+  /**
+   * Restricts a non-streaming encoder to the configurations of ctx.
+   */
+  public void setContext(FeatureExpr ctx)
+  {
+    _ctx = ctx;
+  }
+
+  public boolean isStreaming()
+  {
+    return _env != null;
+  }
+
+  /**
+   * Returns true if the value can be encoded directly to the output.
+   * Encoding must not run any script code, since its output or an
+   * exception would end up inside a partly written document: a
+   * JsonSerializable, a Traversable or a Java object is buffered.
+   */
+  public static boolean isStreamable(Env env, V<? extends Value> value)
+  {
+    return isStreamable(env, value, new IdentityHashMap<Value,Value>());
+  }
+
+  private static boolean isStreamable(Env env,
+                                      V<? extends Value> value,
+                                      IdentityHashMap<Value,Value> checked)
+  {
+    boolean []isStreamable = new boolean[] { true };
+
+    value.foreach(a -> {
+      if (isStreamable[0] && ! isStreamable(env, a, checked))
+        isStreamable[0] = false;
+    });
+
+    return isStreamable[0];
+  }
+
+  private static boolean isStreamable(Env env,
+                                      Value value,
+                                      IdentityHashMap<Value,Value> checked)
+  {
+    if (value instanceof StringValue
+        || value instanceof NumberValue
+        || value instanceof BooleanValue
+        || value instanceof NullValue) {
+      return true;
+    }
+    else if (checked.put(value, value) != null) {
+      return true;
+    }
+    else if (value instanceof ArrayValue) {
+      for (EnvVar var : ((ArrayValue) value).values()) {
+        if (! isStreamable(env, var.getValue(), checked))
+          return false;
+      }
+
+      return true;
+    }
+    else if (value instanceof ObjectValue
+             && ! (value instanceof JavaValue)) {
+      ObjectValue obj = (ObjectValue) value;
+
+      if (obj.isA(env, "JsonSerializable")
+          || obj.getQuercusClass().getTraversableDelegate() != null) {
+        return false;
+      }
+
+      Iterator<VEntry> iter = obj.getBaseIterator(env);
+
+      while (iter.hasNext()) {
+        if (! isStreamable(env, iter.next().getEnvVar().getValue(), checked))
+          return false;
+      }
+
+      return true;
+    }
+    else
+      return false;
+  }
+
+  /**
+   * Returns the encoding of a non-streaming encoder, ending with the
+   * text still in sb.
+   */
+  public V<? extends StringValue> getResult(StringValue sb)
+  {
+    if (_parts == null)
+      return V.one(sb);
+
+    flushAll(sb);
+
+    V<? extends StringValue> result = null;
+
+    for (Part part : _parts) {
+      if (result == null)
+        result = V.one(part._sb);
+      else
+        result = V.choice(part._cond, V.one(part._sb), result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes out the buffered chunk if it is large enough.
+   */
+  public void flush(StringValue sb)
+  {
+    if (_env != null && FLUSH_SIZE <= sb.length())
+      flushAll(sb);
+  }
+
+  /**
+   * Writes out the buffered chunk.
+   */
+  public void flushAll(StringValue sb)
+  {
+    if (sb.length() == 0)
+      return;
+
+    if (_env != null)
+      _env.getOut().print(_ctx, sb.toString());
+    else if (_parts != null)
+      append(sb);
+    else
+      return;
+
+    sb.setLength(0);
+  }
+
+  /**
+   * Appends the text to the encodings of the configurations in the
+   * current condition, splitting the encodings it only partly covers.
+   */
+  private void append(StringValue text)
+  {
+    ArrayList<Part> added = null;
+
+    for (Part part : _parts) {
+      FeatureExpr inside = part._cond.and(_ctx);
+
+      if (! inside.isSatisfiable())
+        continue;
+
+      FeatureExpr outside = part._cond.and(_ctx.not());
+
+      if (outside.isSatisfiable()) {
+        StringValue copy = part._sb.createStringBuilder();
+        copy.append(part._sb);
+
+        if (added == null)
+          added = new ArrayList<Part>();
+
+        added.add(new Part(outside, copy));
+
+        part._cond = inside;
+      }
+
+      part._sb.append(text);
+    }
+
+    if (added != null)
+      _parts.addAll(added);
+  }
+
+  /**
+   * Encodes a possibly variational value.  Only values that differ
+   * between configurations branch the encoding: a streaming encoder
+   * writes them under their own condition, and a non-streaming one
+   * continues a separate encoding per condition.  Everything before and
+   * after is encoded once.
+   */
+  public void encode(Env env, V<? extends Value> value, StringValue sb)
+  {
+    if (! (value instanceof One))
+      value = value.select(_ctx);
+
+    if (value instanceof One) {
+      value.getOne().jsonEncode(env, this, sb);
+      return;
+    }
+
+    if (_env == null && _parts == null) {
+      _parts = new ArrayList<Part>();
+      _parts.add(new Part(_ctx, sb.createStringBuilder()));
+    }
+
+    flushAll(sb);
+
+    FeatureExpr oldCtx = _ctx;
+
+    try {
+      value.sforeach(oldCtx, (c, a) -> {
+        _ctx = c;
+
+        a.jsonEncode(env, this, sb);
+
+        flushAll(sb);
+      });
+    } finally {
+      _ctx = oldCtx;
+    }
+  }
+
+  static class Part {
+    private FeatureExpr _cond;
+    private final StringValue _sb;
+
+    Part(FeatureExpr cond, StringValue sb)
+    {
+      _cond = cond;
+      _sb = sb;
+    }
+  }
 }
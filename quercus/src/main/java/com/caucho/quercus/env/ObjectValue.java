@@ -889,7 +889,7 @@ abstract public class ObjectValue extends Callback {
 
       V<? extends ValueOrVar> value = fun.callMethod(env, VHelper.noCtx(), getQuercusClass(), this);
 
-      value.foreach((a)->a.toValue().jsonEncode(env, context, sb));
+      context.encode(env, value.map((a) -> a.toValue()), sb);
 
       return;
     }
@@ -916,7 +916,8 @@ abstract public class ObjectValue extends Callback {
 
         key.jsonEncode(env, context, sb);
         sb.append(':');
-        value.getOne().jsonEncode(env, context, sb);
+        context.encode(env, value.getValue(), sb);
+        context.flush(sb);
         length++;
       }
 
@@ -31,6 +31,7 @@ package com.caucho.quercus.env;
 
 import com.caucho.quercus.lib.OutputModule;
 import com.caucho.vfs.TempBuffer;
+import de.fosd.typechef.featureexpr.FeatureExpr;
 import edu.cmu.cs.varex.*;
 
 import java.io.IOException;
@@ -124,22 +125,31 @@ public class OutputBuffer {
    * Returns the buffer contents.
    */
   public Value getContents()
+  {
+    return getContents(VHelper.noCtx()).getOne();
+  }
+
+  /**
+   * Returns the buffer contents in each configuration of ctx.  The
+   * contents share the written chunks instead of copying them.
+   */
+  public V<? extends Value> getContents(FeatureExpr ctx)
   {
     try {
       _out.flush();
 
-      StringValue bb = _env.createBinaryBuilder();
-
-      for (Opt<String> frag: _tempStream.getContent()) {
+      V<? extends OutputBufferValue.Chunk> tail
+        = VList.<OutputBufferValue.Chunk,String>foldRight(
+            _tempStream.getContent().iterator(),
+            V.<OutputBufferValue.Chunk>one(ctx, null),
+            ctx,
+            (c, value, prev) -> V.one(c, new OutputBufferValue.Chunk(prev, value)));
 
-        bb.append(frag.getCondition(), frag.getValue());
-      }
-
-      return bb;
+      return tail.map(t -> OutputBufferValue.create(t));
     } catch (Exception e) {
       _env.error(e.toString(), e);
 
-      return BooleanValue.FALSE;
+      return V.one(ctx, BooleanValue.FALSE);
     }
   }
 
@@ -147,15 +157,23 @@ public class OutputBuffer {
    * Returns the buffer length.
    */
   public long getLength()
+  {
+    return getLength(VHelper.noCtx()).getOne();
+  }
+
+  /**
+   * Returns the buffer length in each configuration of ctx.
+   */
+  public V<? extends Long> getLength(FeatureExpr ctx)
   {
     try {
       _out.flush();
 
-      return _tempStream.getLength().getOne();
+      return _tempStream.getLength().smap(ctx, len -> (long) len);
     } catch (Exception e) {
       _env.error(e.toString(), e);
 
-      return -1L;
+      return V.one(ctx, -1L);
     }
   }
 
@@ -291,7 +309,8 @@ public class OutputBuffer {
   }
 
   /**
-   * Flushes the data without calling the callback.
+   * Flushes the data without calling the callback.  The written chunks
+   * move to the next buffer without being copied.
    */
   private void doFlush()
   {
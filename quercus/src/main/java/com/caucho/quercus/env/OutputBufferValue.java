@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.VHelper;
+import edu.cmu.cs.varex.VWriteStream;
+
+/**
+ * Read-only view of the contents of an output buffer, returned by
+ * ob_get_contents() and passed to output callbacks.
+ *
+ * The chunks written to the buffer are shared, not copied.  Printing
+ * the value writes the chunks directly, so contents that are only
+ * echoed again are never copied into a byte buffer.  Any other access
+ * materializes the bytes once and releases the chunks.
+ */
+public class OutputBufferValue
+  extends StringSliceValue
+{
+  private Chunk _tail;
+
+  private OutputBufferValue(Chunk tail)
+  {
+    super(null, 0, tail._length);
+
+    _tail = tail;
+  }
+
+  /**
+   * Returns the value for the chunks ending at the tail.
+   */
+  static StringValue create(Chunk tail)
+  {
+    if (tail == null)
+      return StringBuilderValue.EMPTY;
+    else
+      return new OutputBufferValue(tail);
+  }
+
+  /**
+   * Returns the materialized buffer.
+   */
+  @Override
+  public byte []getBuffer()
+  {
+    if (_tail != null)
+      materialize();
+
+    return super.getBuffer();
+  }
+
+  private void materialize()
+  {
+    byte []buffer = new byte[_length];
+
+    for (Chunk chunk = _tail; chunk != null; chunk = chunk._prev) {
+      String value = chunk._value;
+      int offset = chunk._length - value.length();
+
+      for (int i = value.length() - 1; i >= 0; i--) {
+        buffer[offset + i] = (byte) value.charAt(i);
+      }
+    }
+
+    setBuffer(buffer, 0);
+
+    _tail = null;
+  }
+
+  private static String []toArray(Chunk tail)
+  {
+    int count = 0;
+
+    for (Chunk chunk = tail; chunk != null; chunk = chunk._prev) {
+      count++;
+    }
+
+    String []values = new String[count];
+
+    for (Chunk chunk = tail; chunk != null; chunk = chunk._prev) {
+      values[--count] = chunk._value;
+    }
+
+    return values;
+  }
+
+  /**
+   * Prints the value.
+   * @param env
+   * @param ctx
+   */
+  @Override
+  public void print(Env env, FeatureExpr ctx)
+  {
+    Chunk tail = _tail;
+
+    if (tail == null) {
+      super.print(env, ctx);
+      return;
+    }
+
+    for (String value : toArray(tail)) {
+      env.print(ctx, value);
+    }
+  }
+
+  /**
+   * Prints the value.
+   * @param env
+   * @param out
+   */
+  @Override
+  public void print(Env env, VWriteStream out)
+  {
+    Chunk tail = _tail;
+
+    if (tail == null) {
+      super.print(env, out);
+      return;
+    }
+
+    for (String value : toArray(tail)) {
+      out.print(VHelper.noCtx(), value);
+    }
+  }
+
+  /**
+   * A chunk of output, linked to the chunks before it.  Chunks are
+   * immutable, so the contents of several configurations share their
+   * common chunks.
+   */
+  static final class Chunk {
+    private final Chunk _prev;
+    private final String _value;
+
+    // length up to and including this chunk
+    private final int _length;
+
+    Chunk(Chunk prev, String value)
+    {
+      _prev = prev;
+      _value = value;
+
+      if (prev != null)
+        _length = prev._length + value.length();
+      else
+        _length = value.length();
+    }
+  }
+}
@@ -823,15 +823,10 @@ public class StringBuilderValue
   @Override
   public int indexOf(char match)
   {
-    final int length = _length;
-    final byte []buffer = _buffer;
-
-    for (int head = 0; head < length; head++) {
-      if (buffer[head] == match)
-        return head;
-    }
+    if (0xff < match)
+      return -1;
 
-    return -1;
+    return StringKernel.indexOf(_buffer, 0, _length, match);
   }
 
   /**
@@ -840,15 +835,12 @@ public class StringBuilderValue
   @Override
   public int indexOf(char match, int head)
   {
-    int length = _length;
-    byte []buffer = _buffer;
-
-    for (; head < length; head++) {
-      if (buffer[head] == match)
-        return head;
-    }
+    if (0xff < match)
+      return -1;
+    else if (head < 0)
+      head = 0;
 
-    return -1;
+    return StringKernel.indexOf(_buffer, head, _length, match);
   }
 
   /**
@@ -865,6 +857,15 @@ public class StringBuilderValue
     return createStringBuilder(_buffer, start, end - start);
   }
 
+  /**
+   * Returns a read-only substring sharing the buffer.
+   */
+  @Override
+  public StringValue slice(int start, int end)
+  {
+    return StringSliceValue.create(_buffer, start, end - start);
+  }
+
   /**
    * Returns a subsequence
    */
@@ -891,38 +892,15 @@ public class StringBuilderValue
   {
     int length = _length;
 
-    boolean isUpperCase = false;
-
     byte []srcBuffer = _buffer;
 
-    for (int i = 0; i < length; i++) {
-      byte ch = srcBuffer[i];
-
-      if ('a' <= ch && ch <= 'z') {
-      }
-      else if ('A' <= ch && ch <= 'Z') {
-        isUpperCase = true;
-        break;
-      }
-    }
-
-    if (! isUpperCase) {
+    if (! StringKernel.hasUpperCase(srcBuffer, 0, length)) {
       return this;
     }
 
     StringBuilderValue string = createStringBuilder(length);
-    byte []dstBuffer = string._buffer;
-
-    for (int i = 0; i < length; i++) {
-      byte ch = srcBuffer[i];
 
-      if ('A' <= ch && ch <= 'Z') {
-        dstBuffer[i] = (byte) (ch + 'a' - 'A');
-      }
-      else {
-        dstBuffer[i] = ch;
-      }
-    }
+    StringKernel.toLowerCase(srcBuffer, 0, string._buffer, 0, length);
 
     string._length = length;
 
@@ -1300,6 +1278,16 @@ public class StringBuilderValue
 
       return this;
     }
+    else if (buf instanceof StringSliceValue) {
+      StringSliceValue slice = (StringSliceValue) buf;
+
+      System.arraycopy(slice.getBuffer(), slice.getOffset() + head,
+                       _buffer, _length, length);
+
+      _length += length;
+
+      return this;
+    }
     else {
       byte []buffer = _buffer;
       int bufferLength = _length;
@@ -1369,6 +1357,20 @@ public class StringBuilderValue
       return -1;
     }
 
+    if (match instanceof StringBuilderValue) {
+      StringBuilderValue sb = (StringBuilderValue) match;
+
+      return StringKernel.indexOf(_buffer, head, _length,
+                                  sb._buffer, 0, matchLength);
+    }
+    else if (match instanceof StringSliceValue) {
+      StringSliceValue slice = (StringSliceValue) match;
+
+      return StringKernel.indexOf(_buffer, head, _length,
+                                  slice.getBuffer(), slice.getOffset(),
+                                  matchLength);
+    }
+
     final int length = _length;
     final int end = length - matchLength;
     final char first = match.charAt(0);
@@ -1832,8 +1834,6 @@ public class StringBuilderValue
         hash = 65521 * hash + toLower(buffer[i]);
       }
 
-      _hashCode = hash;
-
       return hash;
     }
 
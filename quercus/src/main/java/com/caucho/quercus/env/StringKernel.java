@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Byte-array primitives for 8-bit strings (unicode.semantics = off).
+ *
+ * Scans read eight bytes at a time (SWAR) through little-endian
+ * ByteBuffer views where unaligned word reads are cheap, and fall back
+ * to byte loops otherwise.  Long needles are searched with
+ * Boyer-Moore-Horspool.
+ */
+public final class StringKernel
+{
+  private static final Logger log
+    = Logger.getLogger(StringKernel.class.getName());
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long LOWS = 0x7f7f7f7f7f7f7f7fL;
+  private static final long HIGHS = 0x8080808080808080L;
+
+  // needles at least this long use Boyer-Moore-Horspool
+  private static final int BMH_MIN_NEEDLE = 8;
+  private static final int BMH_MIN_HAYSTACK = 256;
+
+  // Horspool skip table, reused by each thread's searches
+  private static final ThreadLocal<int[]> _skipLocal
+    = new ThreadLocal<int[]>();
+
+  private static final boolean _isEnabled;
+
+  private StringKernel()
+  {
+  }
+
+  /**
+   * Returns true if the word-at-a-time scans are enabled.
+   */
+  public static boolean isSwarEnabled()
+  {
+    return _isEnabled;
+  }
+
+  //
+  // search
+  //
+
+  /**
+   * Returns the index of the first byte equal to b in [start, end),
+   * or -1.
+   */
+  public static int indexOf(byte []buffer, int start, int end, int b)
+  {
+    b &= 0xff;
+
+    int i = start;
+
+    if (_isEnabled) {
+      ByteBuffer words = wrap(buffer);
+      long pattern = b * ONES;
+
+      for (; i + 8 <= end; i += 8) {
+        long match = zeroBytes(words.getLong(i) ^ pattern);
+
+        if (match != 0)
+          return i + firstByte(match);
+      }
+    }
+
+    for (; i < end; i++) {
+      if ((buffer[i] & 0xff) == b)
+        return i;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the index of the first occurrence of the needle in
+   * [start, end), or -1.
+   */
+  public static int indexOf(byte []buffer, int start, int end,
+                            byte []needle, int needleOffset, int needleLength)
+  {
+    if (needleLength <= 0)
+      return -1;
+    else if (needleLength == 1)
+      return indexOf(buffer, start, end, needle[needleOffset]);
+    else if (BMH_MIN_NEEDLE <= needleLength
+             && BMH_MIN_HAYSTACK <= end - start)
+      return indexOfHorspool(buffer, start, end,
+                             needle, needleOffset, needleLength);
+
+    byte first = needle[needleOffset];
+    int last = end - needleLength;
+
+    while (start <= last) {
+      int i = indexOf(buffer, start, last + 1, first);
+
+      if (i < 0)
+        return -1;
+
+      if (regionMatches(buffer, i + 1, needle, needleOffset + 1,
+                        needleLength - 1))
+        return i;
+
+      start = i + 1;
+    }
+
+    return -1;
+  }
+
+  private static int indexOfHorspool(byte []buffer, int start, int end,
+                                     byte []needle, int needleOffset,
+                                     int needleLength)
+  {
+    int []skip = _skipLocal.get();
+
+    if (skip == null) {
+      skip = new int[256];
+      _skipLocal.set(skip);
+    }
+
+    Arrays.fill(skip, needleLength);
+
+    int lastIndex = needleLength - 1;
+
+    for (int i = 0; i < lastIndex; i++) {
+      skip[needle[needleOffset + i] & 0xff] = lastIndex - i;
+    }
+
+    byte lastByte = needle[needleOffset + lastIndex];
+    int last = end - needleLength;
+
+    for (int i = start; i <= last; ) {
+      byte ch = buffer[i + lastIndex];
+
+      if (ch == lastByte
+          && regionMatches(buffer, i, needle, needleOffset, lastIndex))
+        return i;
+
+      i += skip[ch & 0xff];
+    }
+
+    return -1;
+  }
+
+  private static boolean regionMatches(byte []buffer, int offset,
+                                       byte []match, int matchOffset,
+                                       int length)
+  {
+    for (int i = 0; i < length; i++) {
+      if (buffer[offset + i] != match[matchOffset + i])
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the index of the first byte in [start, end) that is in the
+   * set, or -1.
+   */
+  public static int indexOf(byte []buffer, int start, int end, ByteSet set)
+  {
+    int i = start;
+
+    long []patterns = set._patterns;
+
+    if (_isEnabled && patterns != null) {
+      ByteBuffer words = wrap(buffer);
+
+      for (; i + 8 <= end; i += 8) {
+        long word = words.getLong(i);
+        long match = 0;
+
+        for (long pattern : patterns) {
+          match |= zeroBytes(word ^ pattern);
+        }
+
+        if (match != 0)
+          return i + firstByte(match);
+      }
+    }
+
+    boolean []table = set._table;
+
+    for (; i < end; i++) {
+      if (table[buffer[i] & 0xff])
+        return i;
+    }
+
+    return -1;
+  }
+
+  //
+  // trim
+  //
+
+  /**
+   * Returns the index of the first byte in [start, end) not in the
+   * table, or end.
+   */
+  public static int skip(byte []buffer, int start, int end, boolean []table)
+  {
+    for (; start < end; start++) {
+      if (! table[buffer[start] & 0xff])
+        break;
+    }
+
+    return start;
+  }
+
+  /**
+   * Returns one past the index of the last byte in [start, end) not in
+   * the table, or start.
+   */
+  public static int skipBackward(byte []buffer, int start, int end,
+                                 boolean []table)
+  {
+    for (; start < end; end--) {
+      if (! table[buffer[end - 1] & 0xff])
+        break;
+    }
+
+    return end;
+  }
+
+  //
+  // case conversion
+  //
+
+  /**
+   * Returns true if [start, end) has an ASCII upper case letter.
+   */
+  public static boolean hasUpperCase(byte []buffer, int start, int end)
+  {
+    int i = start;
+
+    if (_isEnabled) {
+      ByteBuffer words = wrap(buffer);
+
+      for (; i + 8 <= end; i += 8) {
+        if (upperBytes(words.getLong(i)) != 0)
+          return true;
+      }
+    }
+
+    for (; i < end; i++) {
+      byte ch = buffer[i];
+
+      if ('A' <= ch && ch <= 'Z')
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Copies the bytes, converting ASCII upper case letters to lower case.
+   */
+  public static void toLowerCase(byte []src, int srcOffset,
+                                 byte []dst, int dstOffset, int length)
+  {
+    int i = 0;
+
+    if (_isEnabled) {
+      ByteBuffer srcWords = wrap(src);
+      ByteBuffer dstWords = wrap(dst);
+
+      for (; i + 8 <= length; i += 8) {
+        long word = srcWords.getLong(srcOffset + i);
+
+        // 0x80 >>> 2 is the 0x20 case bit
+        dstWords.putLong(dstOffset + i, word | (upperBytes(word) >>> 2));
+      }
+    }
+
+    for (; i < length; i++) {
+      byte ch = src[srcOffset + i];
+
+      if ('A' <= ch && ch <= 'Z')
+        ch = (byte) (ch + 'a' - 'A');
+
+      dst[dstOffset + i] = ch;
+    }
+  }
+
+  //
+  // SWAR helpers
+  //
+
+  /**
+   * Returns a word with the high bit set in each zero byte of the word.
+   */
+  private static long zeroBytes(long word)
+  {
+    long t = (word & LOWS) + LOWS;
+
+    return ~(t | word | LOWS);
+  }
+
+  /**
+   * Returns a word with the high bit set in each byte in 'A'-'Z'.
+   */
+  private static long upperBytes(long word)
+  {
+    long low = word & LOWS;
+    long isAtLeastA = low + (0x80 - 'A') * ONES;
+    long isAboveZ = low + (0x80 - 'Z' - 1) * ONES;
+
+    return isAtLeastA & ~isAboveZ & ~word & HIGHS;
+  }
+
+  /**
+   * Returns the index of the first byte with its high bit set, for a
+   * little-endian word.
+   */
+  private static int firstByte(long match)
+  {
+    return Long.numberOfTrailingZeros(match) >>> 3;
+  }
+
+  /**
+   * Returns a little-endian view of the buffer, so the first byte in
+   * memory is the low byte of the word.
+   */
+  private static ByteBuffer wrap(byte []buffer)
+  {
+    return ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * A set of bytes, with precomputed patterns for the word scan when the
+   * set is small.
+   */
+  public static final class ByteSet
+  {
+    // sets larger than this are only scanned through the table
+    private static final int MAX_PATTERNS = 6;
+
+    private final boolean []_table = new boolean[256];
+    private final long []_patterns;
+
+    public ByteSet(char ...chars)
+    {
+      for (char ch : chars) {
+        _table[ch & 0xff] = true;
+      }
+
+      int count = 0;
+
+      for (boolean isSet : _table) {
+        if (isSet)
+          count++;
+      }
+
+      if (count <= MAX_PATTERNS) {
+        _patterns = new long[count];
+
+        for (int i = 0, j = 0; i < 256; i++) {
+          if (_table[i])
+            _patterns[j++] = i * ONES;
+        }
+      }
+      else
+        _patterns = null;
+    }
+
+    public boolean contains(int b)
+    {
+      return _table[b & 0xff];
+    }
+  }
+
+  static {
+    boolean isEnabled = false;
+
+    try {
+      String arch = System.getProperty("os.arch");
+
+      // only architectures with cheap unaligned word reads
+      boolean isUnaligned = ("amd64".equals(arch)
+                             || "x86_64".equals(arch)
+                             || "x86".equals(arch)
+                             || "i386".equals(arch)
+                             || "aarch64".equals(arch));
+
+      isEnabled = isUnaligned;
+
+      if ("false".equals(System.getProperty("com.caucho.quercus.swar")))
+        isEnabled = false;
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    _isEnabled = isEnabled;
+  }
+}
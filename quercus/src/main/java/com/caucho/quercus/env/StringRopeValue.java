@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.VHelper;
+import edu.cmu.cs.varex.VWriteStream;
+
+/**
+ * Represents the read-only concatenation of two large 8-bit strings
+ * (unicode.semantics = off) without copying them.
+ *
+ * Printing and appending the rope walk its parts.  Any other access
+ * flattens the rope into a single buffer once and releases the parts.
+ */
+public class StringRopeValue
+  extends StringSliceValue
+{
+  // concatenations with a shorter tail are copied
+  static final int MIN_ROPE_LENGTH = LargeStringBuilderValue.SIZE;
+
+  // deeper ropes are copied to bound the cost of walking them
+  private static final int MAX_DEPTH = 32;
+
+  private StringValue _left;
+  private StringValue _right;
+  private final int _depth;
+
+  private StringRopeValue(StringValue left, StringValue right, int depth)
+  {
+    super(null, 0, left.length() + right.length());
+
+    _left = left;
+    _right = right;
+    _depth = depth;
+  }
+
+  /**
+   * Returns the concatenation of the two values as a rope, or null if
+   * the concatenation should be copied into a builder.
+   */
+  public static StringValue create(StringValue left, Value right)
+  {
+    return create(left, right, false);
+  }
+
+  /**
+   * Returns the concatenation as a rope if either value is large, or
+   * null.  Used when the left value is appended to by several
+   * configurations, so they all refer to it instead of copying it.
+   */
+  public static StringValue createShared(StringValue left, Value right)
+  {
+    return create(left, right, true);
+  }
+
+  private static StringValue create(StringValue left, Value right,
+                                    boolean isShared)
+  {
+    if (! (right instanceof StringValue))
+      return null;
+
+    StringValue tail = (StringValue) right;
+
+    if (left.length() == 0 || tail.length() == 0)
+      return null;
+    else if (tail.length() < MIN_ROPE_LENGTH
+             && (! isShared || left.length() < MIN_ROPE_LENGTH))
+      return null;
+    else if (! isBinary(left) || ! isBinary(tail))
+      return null;
+    else if (Integer.MAX_VALUE - left.length() < tail.length())
+      return null;
+
+    int depth = Math.max(getDepth(left), getDepth(tail)) + 1;
+
+    if (MAX_DEPTH < depth)
+      return null;
+
+    return new StringRopeValue(left, tail, depth);
+  }
+
+  private static boolean isBinary(StringValue s)
+  {
+    return (s instanceof StringBuilderValue
+            || s instanceof StringSliceValue
+            || s instanceof LargeStringBuilderValue);
+  }
+
+  private static int getDepth(StringValue s)
+  {
+    if (s instanceof StringRopeValue)
+      return ((StringRopeValue) s).getDepth();
+    else
+      return 0;
+  }
+
+  private int getDepth()
+  {
+    return _left != null ? _depth : 0;
+  }
+
+  /**
+   * Returns the left part, or null once flattened.
+   */
+  StringValue getLeft()
+  {
+    return _left;
+  }
+
+  /**
+   * Returns the right part, or null once flattened.
+   */
+  StringValue getRight()
+  {
+    return _right;
+  }
+
+  /**
+   * Returns the flattened buffer.
+   */
+  @Override
+  public byte []getBuffer()
+  {
+    if (_left != null)
+      flatten();
+
+    return super.getBuffer();
+  }
+
+  private void flatten()
+  {
+    byte []buffer = new byte[_length];
+
+    copy(this, buffer, 0);
+
+    setBuffer(buffer, 0);
+
+    _left = null;
+    _right = null;
+  }
+
+  private static void copy(StringValue s, byte []buffer, int offset)
+  {
+    if (s instanceof StringRopeValue && ((StringRopeValue) s)._left != null) {
+      StringRopeValue rope = (StringRopeValue) s;
+
+      copy(rope._left, buffer, offset);
+      copy(rope._right, buffer, offset + rope._left.length());
+    }
+    else if (s instanceof StringSliceValue) {
+      StringSliceValue slice = (StringSliceValue) s;
+
+      System.arraycopy(slice.getBuffer(), slice.getOffset(),
+                       buffer, offset, slice.length());
+    }
+    else if (s instanceof StringBuilderValue) {
+      StringBuilderValue sb = (StringBuilderValue) s;
+
+      System.arraycopy(sb.getBuffer(), 0, buffer, offset, sb.length());
+    }
+    else {
+      int length = s.length();
+
+      for (int i = 0; i < length; i++) {
+        buffer[offset + i] = (byte) s.charAt(i);
+      }
+    }
+  }
+
+  /**
+   * Returns a slice of this string, using a single part if possible.
+   */
+  @Override
+  public StringValue slice(int start, int end)
+  {
+    StringValue left = _left;
+    StringValue right = _right;
+
+    if (left != null) {
+      int leftLength = left.length();
+
+      if (end <= leftLength)
+        return left.slice(start, end);
+      else if (leftLength <= start)
+        return right.slice(start - leftLength, end - leftLength);
+    }
+
+    return super.slice(start, end);
+  }
+
+  /**
+   * Converts to a string builder without flattening.
+   */
+  @Override
+  public StringValue toStringBuilder()
+  {
+    if (_left == null)
+      return super.toStringBuilder();
+
+    StringBuilderValue sb = new StringBuilderValue(_length);
+
+    return appendTo(VHelper.noCtx(), sb);
+  }
+
+  /**
+   * Converts to a string builder without flattening.
+   */
+  @Override
+  public StringValue toStringBuilder(Env env)
+  {
+    return toStringBuilder();
+  }
+
+  /**
+   * Append to a string builder.
+   */
+  @Override
+  public StringValue appendTo(FeatureExpr ctx, StringBuilderValue sb)
+  {
+    StringValue left = _left;
+
+    if (left == null)
+      return super.appendTo(ctx, sb);
+
+    left.appendTo(ctx, sb);
+    _right.appendTo(ctx, sb);
+
+    return sb;
+  }
+
+  /**
+   * Append to a binary builder.
+   */
+  @Override
+  public StringValue appendTo(BinaryBuilderValue sb)
+  {
+    StringValue left = _left;
+
+    if (left == null)
+      return super.appendTo(sb);
+
+    left.appendTo(sb);
+    _right.appendTo(sb);
+
+    return sb;
+  }
+
+  /**
+   * Append to a string builder.
+   */
+  @Override
+  public StringValue appendTo(LargeStringBuilderValue sb)
+  {
+    StringValue left = _left;
+
+    if (left == null)
+      return super.appendTo(sb);
+
+    left.appendTo(sb);
+    _right.appendTo(sb);
+
+    return sb;
+  }
+
+  /**
+   * Append to a string builder.
+   */
+  @Override
+  public StringValue appendTo(UnicodeBuilderValue sb)
+  {
+    StringValue left = _left;
+
+    if (left == null)
+      return super.appendTo(sb);
+
+    left.appendTo(sb);
+    _right.appendTo(sb);
+
+    return sb;
+  }
+
+  /**
+   * Prints the value.
+   * @param env
+   * @param ctx
+   */
+  @Override
+  public void print(Env env, FeatureExpr ctx)
+  {
+    StringValue left = _left;
+
+    if (left == null) {
+      super.print(env, ctx);
+      return;
+    }
+
+    left.print(env, ctx);
+    _right.print(env, ctx);
+  }
+
+  /**
+   * Prints the value.
+   * @param env
+   * @param out
+   */
+  @Override
+  public void print(Env env, VWriteStream out)
+  {
+    StringValue left = _left;
+
+    if (left == null) {
+      super.print(env, out);
+      return;
+    }
+
+    left.print(env, out);
+    _right.print(env, out);
+  }
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.VHelper;
+import edu.cmu.cs.varex.VWriteStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.IdentityHashMap;
+
+/**
+ * Represents a read-only 8-bit string (unicode.semantics = off) sharing
+ * a range of another string's buffer, used by substr() and explode() to
+ * avoid copying.
+ *
+ * Slices are immutable: appends and character updates go through
+ * toStringBuilder() or createStringBuilder(), which copy the range.
+ * Short slices and slices of much larger buffers are copied instead, so
+ * a small substring never keeps a large parent buffer alive.
+ */
+public class StringSliceValue
+  extends StringValue
+{
+  // shorter ranges are cheaper to copy than to share
+  static final int MIN_SLICE_LENGTH = 64;
+
+  // largest buffer to slice length ratio that is shared
+  static final int MAX_SLICE_RATIO = 8;
+
+  private byte []_buffer;
+  private int _offset;
+  protected int _length;
+
+  private int _hashCode;
+
+  protected StringSliceValue(byte []buffer, int offset, int length)
+  {
+    _buffer = buffer;
+    _offset = offset;
+    _length = length;
+  }
+
+  /**
+   * Returns a value for the range of the buffer, sharing the buffer if
+   * the range is large enough.  The buffer must not be modified in the
+   * range afterwards.
+   */
+  public static StringValue create(byte []buffer, int offset, int length)
+  {
+    if (length <= 0)
+      return StringBuilderValue.EMPTY;
+    else if (length == 1)
+      return StringBuilderValue.create((char) (buffer[offset] & 0xff));
+    else if (length < MIN_SLICE_LENGTH
+             || length < buffer.length / MAX_SLICE_RATIO)
+      return new StringBuilderValue(buffer, offset, length);
+    else
+      return new StringSliceValue(buffer, offset, length);
+  }
+
+  /**
+   * Returns the shared buffer.
+   */
+  public byte []getBuffer()
+  {
+    return _buffer;
+  }
+
+  /**
+   * Returns the offset of the string in the shared buffer.
+   */
+  public int getOffset()
+  {
+    return _offset;
+  }
+
+  /**
+   * Sets the buffer, used by subclasses that create it lazily.
+   */
+  protected void setBuffer(byte []buffer, int offset)
+  {
+    _buffer = buffer;
+    _offset = offset;
+  }
+
+  /**
+   * Returns the value.
+   */
+  public String getValue()
+  {
+    return toString();
+  }
+
+  /**
+   * Returns the type.
+   */
+  @Override
+  public String getType()
+  {
+    return "string";
+  }
+
+  /**
+   * Returns the ValueType.
+   */
+  @Override
+  public ValueType getValueType()
+  {
+    int offset = getOffset();
+
+    // getValueType takes the end of the range
+    return StringBuilderValue.getValueType(getBuffer(),
+                                           offset, offset + _length);
+  }
+
+  /**
+   * Converts to a long.
+   */
+  @Override
+  public long toLong()
+  {
+    return parseLong(getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Converts to a key.  String keys are copied, since arrays usually
+   * outlive the string they were sliced from.
+   */
+  @Override
+  public Value toKey()
+  {
+    Value key = super.toKey();
+
+    if (key == this)
+      return new StringBuilderValue(getBuffer(), getOffset(), _length);
+    else
+      return key;
+  }
+
+  /**
+   * Convert to an input stream.
+   */
+  @Override
+  public InputStream toInputStream()
+  {
+    return new ByteArrayInputStream(getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Converts to a string.
+   */
+  @Override
+  public String toString()
+  {
+    byte []buffer = getBuffer();
+    int offset = getOffset();
+
+    char []chars = new char[_length];
+
+    for (int i = _length - 1; i >= 0; i--) {
+      chars[i] = (char) (buffer[offset + i] & 0xff);
+    }
+
+    return new String(chars, 0, _length);
+  }
+
+  /**
+   * Converts to an object.
+   */
+  @Override
+  public Object toJavaObject()
+  {
+    return toString();
+  }
+
+  /**
+   * Converts to a string builder
+   */
+  @Override
+  public StringValue toStringBuilder()
+  {
+    return new StringBuilderValue(getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Converts to a string builder
+   */
+  @Override
+  public StringValue toStringBuilder(Env env)
+  {
+    return new StringBuilderValue(getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Converts to a BinaryValue.
+   */
+  @Override
+  public StringValue toBinaryValue(Env env)
+  {
+    return this;
+  }
+
+  /**
+   * Converts to a BinaryValue in desired charset.
+   */
+  @Override
+  public StringValue toBinaryValue(String charset)
+  {
+    return this;
+  }
+
+  /**
+   * Converts to a byte array, with no consideration of character encoding.
+   */
+  @Override
+  public byte[] toBytes()
+  {
+    byte []bytes = new byte[_length];
+
+    System.arraycopy(getBuffer(), getOffset(), bytes, 0, _length);
+
+    return bytes;
+  }
+
+  //
+  // Operations
+  //
+
+  /**
+   * Returns the character at an index
+   */
+  @Override
+  public EnvVar get(Value key)
+  {
+    return EnvVar._gen(charValueAt(key.toLong()));
+  }
+
+  /**
+   * Returns the character at an index
+   */
+  @Override
+  public Value charValueAt(long index)
+  {
+    if (index < 0 || _length <= index)
+      return UnsetStringValue.UNSET;
+    else
+      return StringBuilderValue.create(charAt((int) index));
+  }
+
+  /**
+   * Returns a slice of this string.
+   */
+  @Override
+  public StringValue slice(int start, int end)
+  {
+    if (start == 0 && end == _length)
+      return this;
+
+    return create(getBuffer(), getOffset() + start, end - start);
+  }
+
+  //
+  // CharSequence
+  //
+
+  /**
+   * Returns the length of the string.
+   */
+  @Override
+  public int length()
+  {
+    return _length;
+  }
+
+  /**
+   * Returns the character at a particular location
+   */
+  @Override
+  public char charAt(int index)
+  {
+    if (index < 0 || _length <= index) {
+      throw new ArrayIndexOutOfBoundsException(_length + ", " + index);
+    }
+
+    return (char) (getBuffer()[getOffset() + index] & 0xff);
+  }
+
+  /**
+   * Returns a subsequence
+   */
+  @Override
+  public CharSequence subSequence(int start, int end)
+  {
+    if (end <= start)
+      return StringBuilderValue.EMPTY;
+    else if (end - start == 1)
+      return StringBuilderValue.create(charAt(start));
+
+    return new StringBuilderValue(getBuffer(), getOffset() + start,
+                                  end - start);
+  }
+
+  /**
+   * Returns the first index of the match character, starting from the head.
+   */
+  @Override
+  public int indexOf(char match, int head)
+  {
+    if (0xff < match)
+      return -1;
+    else if (head < 0)
+      head = 0;
+
+    byte []buffer = getBuffer();
+    int offset = getOffset();
+
+    int i = StringKernel.indexOf(buffer, offset + head, offset + _length, match);
+
+    return i < 0 ? -1 : i - offset;
+  }
+
+  /**
+   * Returns the first index of the match string, starting from the head.
+   */
+  @Override
+  public int indexOf(CharSequence match, int head)
+  {
+    int matchLength = match.length();
+
+    if (matchLength <= 0)
+      return -1;
+    else if (head < 0)
+      head = 0;
+
+    byte []buffer = getBuffer();
+    int offset = getOffset();
+
+    if (match instanceof StringBuilderValue) {
+      StringBuilderValue sb = (StringBuilderValue) match;
+
+      int i = StringKernel.indexOf(buffer, offset + head, offset + _length,
+                                   sb.getBuffer(), 0, matchLength);
+
+      return i < 0 ? -1 : i - offset;
+    }
+
+    int end = _length - matchLength;
+    char first = match.charAt(0);
+
+    loop:
+    for (int i = head; i <= end; i++) {
+      if ((buffer[offset + i] & 0xff) != first)
+        continue;
+
+      for (int j = 1; j < matchLength; j++) {
+        if ((buffer[offset + i + j] & 0xff) != match.charAt(j))
+          continue loop;
+      }
+
+      return i;
+    }
+
+    return -1;
+  }
+
+  //
+  // append code
+  //
+
+  /**
+   * Creates a string builder of the same type.
+   */
+  @Override
+  public StringValue createStringBuilder()
+  {
+    return new StringBuilderValue();
+  }
+
+  /**
+   * Creates a string builder of the same type.
+   */
+  @Override
+  public StringValue createStringBuilder(int length)
+  {
+    return new StringBuilderValue(length);
+  }
+
+  /**
+   * Append to a string builder.
+   */
+  @Override
+  public StringValue appendTo(FeatureExpr ctx, StringBuilderValue sb)
+  {
+    return sb.append(getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Append to a binary builder.
+   */
+  @Override
+  public StringValue appendTo(BinaryBuilderValue sb)
+  {
+    return sb.append(getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Append to a string builder.
+   */
+  @Override
+  public StringValue appendTo(LargeStringBuilderValue sb)
+  {
+    return sb.append(getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Append to a string builder.
+   */
+  @Override
+  public StringValue appendTo(UnicodeBuilderValue sb)
+  {
+    return sb.append(getBuffer(), getOffset(), _length);
+  }
+
+  //
+  // Java generator code
+  //
+
+  /**
+   * Prints the value.
+   * @param env
+   * @param ctx
+   */
+  @Override
+  public void print(Env env, FeatureExpr ctx)
+  {
+    env.write(ctx, getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Prints the value.
+   * @param env
+   * @param out
+   */
+  @Override
+  public void print(Env env, VWriteStream out)
+  {
+    out.write(VHelper.noCtx(), getBuffer(), getOffset(), _length);
+  }
+
+  /**
+   * Returns the hash code, matching StringBuilderValue so slices and
+   * builders with the same bytes are interchangeable as map keys.
+   */
+  @Override
+  public int hashCode()
+  {
+    int hash = _hashCode;
+
+    if (hash != 0)
+      return hash;
+
+    hash = 37;
+
+    byte []buffer = getBuffer();
+    int offset = getOffset();
+    int length = _length;
+
+    if (length > 256) {
+      for (int i = 127; i >= 0; i--) {
+        hash = 65521 * hash + buffer[offset + i];
+      }
+
+      for (int i = length - 128; i < length; i++) {
+        hash = 65521 * hash + buffer[offset + i];
+      }
+    }
+    else {
+      for (int i = length - 1; i >= 0; i--) {
+        hash = 65521 * hash + buffer[offset + i];
+      }
+    }
+
+    _hashCode = hash;
+
+    return hash;
+  }
+
+  @Override
+  public String toDebugString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    int length = length();
+
+    sb.append("string(");
+    sb.append(length);
+    sb.append(") \"");
+
+    int appendLength = length > 256 ? 256 : length;
+
+    for (int i = 0; i < appendLength; i++)
+      sb.append(charAt(i));
+
+    if (length > 256)
+      sb.append(" ...");
+
+    sb.append('"');
+
+    return sb.toString();
+  }
+
+  @Override
+  public void varDumpImpl(Env env, FeatureExpr ctx,
+                          VWriteStream out,
+                          int depth,
+                          IdentityHashMap<Value, String> valueSet)
+  {
+    int length = length();
+
+    out.print(ctx, "string(");
+    out.print(ctx, length);
+    out.print(ctx, ") \"");
+
+    for (int i = 0; i < length; i++) {
+      out.print(ctx, charAt(i));
+    }
+
+    out.print(ctx, "\"");
+  }
+}
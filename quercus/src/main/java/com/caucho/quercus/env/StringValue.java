@@ -35,7 +35,7 @@ import com.caucho.quercus.lib.file.BinaryInput;
 import com.caucho.quercus.lib.i18n.Decoder;
 import com.caucho.quercus.marshal.Marshal;
 import com.caucho.util.ByteAppendable;
-import com.caucho.util.LruCache;
+import com.caucho.util.ConcurrentLruCache;
 import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.TempBuffer;
 import de.fosd.typechef.featureexpr.FeatureExpr;
@@ -64,8 +64,8 @@ abstract public class StringValue
   protected static final int IS_LONG = 1;
   protected static final int IS_DOUBLE = 2;
 
-  private static final LruCache<StringValue,StringValue> _internMap
-    = new LruCache<StringValue,StringValue>(8192);
+  private static final ConcurrentLruCache<StringValue,StringValue> _internMap
+    = new ConcurrentLruCache<StringValue,StringValue>(8192);
 
   /**
    * Creates a string builder of the same type.
@@ -2317,6 +2317,15 @@ abstract public class StringValue
     return (StringValue) subSequence(begin, end);
   }
 
+  /**
+   * Returns a read-only substring, which may share this string's buffer.
+   * Unlike substring(), the result must not be appended to.
+   */
+  public StringValue slice(int begin, int end)
+  {
+    return substring(begin, end);
+  }
+
   /**
    * Returns a String substring
    */
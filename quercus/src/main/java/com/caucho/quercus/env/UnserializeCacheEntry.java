@@ -38,7 +38,7 @@ import java.lang.ref.SoftReference;
  */
 public class UnserializeCacheEntry
 {
-  private FreeList<SoftReference<CopyRoot>> _freeList;
+  private volatile FreeList<SoftReference<CopyRoot>> _freeList;
   private SoftReference<Value> _valueRef;
 
   public UnserializeCacheEntry(Value value)
@@ -59,8 +59,10 @@ public class UnserializeCacheEntry
   {
     SoftReference<CopyRoot> copyRef = null;
 
-    if (_freeList != null)
-      copyRef = _freeList.allocate();
+    FreeList<SoftReference<CopyRoot>> freeList = _freeList;
+
+    if (freeList != null)
+      copyRef = freeList.allocate();
 
     if (copyRef != null) {
       CopyRoot copy = copyRef.get();
@@ -100,9 +102,20 @@ public class UnserializeCacheEntry
 
   void free(CopyRoot root)
   {
-    if (_freeList == null)
-      _freeList = new FreeList<SoftReference<CopyRoot>>(2);
-    
-    _freeList.free(new SoftReference<CopyRoot>(root));
+    FreeList<SoftReference<CopyRoot>> freeList = _freeList;
+
+    if (freeList == null) {
+      // entries are shared by concurrent requests
+      synchronized (this) {
+        freeList = _freeList;
+
+        if (freeList == null) {
+          freeList = new FreeList<SoftReference<CopyRoot>>(2);
+          _freeList = freeList;
+        }
+      }
+    }
+
+    freeList.free(new SoftReference<CopyRoot>(root));
   }
 }
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.One;
+import edu.cmu.cs.varex.V;
+
+import java.util.ArrayList;
+
+/**
+ * Factored view of a variational 8-bit string: the prefix and suffix
+ * shared by all configurations are kept once, and only the middle
+ * differs per condition.
+ *
+ * The values are read through their buffers, and the parts of a rope
+ * are compared by identity first, so strings built by concatenating a
+ * shared value are factored without being flattened.
+ */
+public final class VStringValue
+{
+  private final V<? extends StringValue> _value;
+
+  private final ArrayList<FeatureExpr> _conds;
+  private final ArrayList<ArrayList<Segment>> _parts;
+  private final int []_lengths;
+
+  private final int _prefixLength;
+  private final int _suffixLength;
+
+  private StringValue _prefix;
+
+  private VStringValue(V<? extends StringValue> value,
+                       ArrayList<FeatureExpr> conds,
+                       ArrayList<ArrayList<Segment>> parts,
+                       int []lengths,
+                       int prefixLength,
+                       int suffixLength)
+  {
+    _value = value;
+    _conds = conds;
+    _parts = parts;
+    _lengths = lengths;
+    _prefixLength = prefixLength;
+    _suffixLength = suffixLength;
+  }
+
+  /**
+   * Factors the value within ctx, or returns null if the value is not
+   * a choice of 8-bit strings or the strings share nothing.
+   */
+  @SuppressWarnings("unchecked")
+  public static VStringValue create(FeatureExpr ctx, V<? extends Value> value)
+  {
+    if (value instanceof One)
+      return null;
+
+    V<? extends Value> selected = value.select(ctx);
+
+    if (selected instanceof One)
+      return null;
+
+    ArrayList<FeatureExpr> conds = new ArrayList<FeatureExpr>();
+    ArrayList<ArrayList<Segment>> parts = new ArrayList<ArrayList<Segment>>();
+    boolean []isValid = new boolean[] { true };
+
+    selected.foreach((c, a) -> {
+      ArrayList<Segment> segments = new ArrayList<Segment>();
+
+      if (isValid[0] && a instanceof StringValue
+          && addSegments(segments, (StringValue) a)) {
+        conds.add(ctx.and(c));
+        parts.add(segments);
+      }
+      else
+        isValid[0] = false;
+    });
+
+    if (! isValid[0] || parts.size() < 2)
+      return null;
+
+    int size = parts.size();
+    int []lengths = new int[size];
+    int minLength = Integer.MAX_VALUE;
+
+    for (int i = 0; i < size; i++) {
+      lengths[i] = getLength(parts.get(i));
+      minLength = Math.min(minLength, lengths[i]);
+    }
+
+    ArrayList<Segment> first = parts.get(0);
+
+    int prefixLength = minLength;
+
+    for (int i = 1; i < size && prefixLength > 0; i++) {
+      prefixLength = commonPrefix(first, parts.get(i), prefixLength);
+    }
+
+    int suffixLength = minLength - prefixLength;
+
+    for (int i = 1; i < size && suffixLength > 0; i++) {
+      suffixLength = commonSuffix(first, parts.get(i), suffixLength);
+    }
+
+    if (prefixLength == 0 && suffixLength == 0)
+      return null;
+
+    return new VStringValue((V<? extends StringValue>) selected,
+                            conds, parts, lengths,
+                            prefixLength, suffixLength);
+  }
+
+  /**
+   * Returns the per-configuration values.
+   */
+  public V<? extends StringValue> getValue()
+  {
+    return _value;
+  }
+
+  /**
+   * Returns the length of the shared prefix.
+   */
+  public int getPrefixLength()
+  {
+    return _prefixLength;
+  }
+
+  /**
+   * Returns the length of the shared suffix.
+   */
+  public int getSuffixLength()
+  {
+    return _suffixLength;
+  }
+
+  /**
+   * Returns the shared prefix.
+   */
+  public StringValue getPrefix()
+  {
+    if (_prefix == null)
+      _prefix = toStringValue(_parts.get(0), 0, _prefixLength);
+
+    return _prefix;
+  }
+
+  /**
+   * Returns the index of the needle, searching the shared prefix once.
+   */
+  public V<? extends Integer> indexOf(FeatureExpr ctx,
+                                      StringValue needle,
+                                      int offset)
+  {
+    if (offset <= _prefixLength) {
+      int i = getPrefix().indexOf(needle, offset);
+
+      if (i >= 0)
+        return V.one(ctx, i);
+    }
+
+    // a match starting before this point lies within the prefix
+    int head = Math.max(offset, _prefixLength - needle.length() + 1);
+
+    return _value.smap(ctx, s -> s.indexOf(needle, head));
+  }
+
+  /**
+   * Prints the shared prefix and suffix once and the middle of each
+   * configuration under its condition.
+   */
+  public void print(Env env, FeatureExpr ctx)
+  {
+    write(env, ctx, _parts.get(0), 0, _prefixLength);
+
+    for (int i = 0; i < _parts.size(); i++) {
+      int end = _lengths[i] - _suffixLength;
+
+      if (_prefixLength < end)
+        write(env, _conds.get(i), _parts.get(i), _prefixLength, end);
+    }
+
+    int length = _lengths[0];
+
+    write(env, ctx, _parts.get(0), length - _suffixLength, length);
+  }
+
+  private static void write(Env env, FeatureExpr ctx,
+                            ArrayList<Segment> segments,
+                            int start, int end)
+  {
+    int offset = 0;
+
+    for (Segment segment : segments) {
+      int head = Math.max(start, offset);
+      int tail = Math.min(end, offset + segment._length);
+
+      if (head < tail) {
+        env.write(ctx, segment._buffer,
+                  segment._offset + head - offset, tail - head);
+      }
+
+      offset += segment._length;
+
+      if (end <= offset)
+        break;
+    }
+  }
+
+  private static StringValue toStringValue(ArrayList<Segment> segments,
+                                           int start, int end)
+  {
+    int offset = 0;
+
+    for (Segment segment : segments) {
+      if (start < offset + segment._length) {
+        if (end <= offset + segment._length) {
+          return StringSliceValue.create(segment._buffer,
+                                         segment._offset + start - offset,
+                                         end - start);
+        }
+
+        break;
+      }
+
+      offset += segment._length;
+    }
+
+    StringBuilderValue sb = new StringBuilderValue(end - start);
+
+    offset = 0;
+
+    for (Segment segment : segments) {
+      int head = Math.max(start, offset);
+      int tail = Math.min(end, offset + segment._length);
+
+      if (head < tail)
+        sb.append(segment._buffer, segment._offset + head - offset, tail - head);
+
+      offset += segment._length;
+    }
+
+    return sb;
+  }
+
+  /**
+   * Adds the buffers of the string, walking the parts of a rope.
+   */
+  private static boolean addSegments(ArrayList<Segment> segments,
+                                     StringValue s)
+  {
+    if (s instanceof StringRopeValue) {
+      StringRopeValue rope = (StringRopeValue) s;
+
+      StringValue left = rope.getLeft();
+      StringValue right = rope.getRight();
+
+      if (left != null && right != null)
+        return addSegments(segments, left) && addSegments(segments, right);
+    }
+
+    if (s instanceof StringSliceValue) {
+      StringSliceValue slice = (StringSliceValue) s;
+
+      addSegment(segments, slice.getBuffer(), slice.getOffset(), slice.length());
+
+      return true;
+    }
+    else if (s instanceof StringBuilderValue) {
+      StringBuilderValue sb = (StringBuilderValue) s;
+
+      addSegment(segments, sb.getBuffer(), 0, sb.length());
+
+      return true;
+    }
+    else
+      return false;
+  }
+
+  private static void addSegment(ArrayList<Segment> segments,
+                                 byte []buffer, int offset, int length)
+  {
+    if (length > 0)
+      segments.add(new Segment(buffer, offset, length));
+  }
+
+  private static int getLength(ArrayList<Segment> segments)
+  {
+    int length = 0;
+
+    for (Segment segment : segments) {
+      length += segment._length;
+    }
+
+    return length;
+  }
+
+  /**
+   * Returns the length of the common prefix, up to max.
+   */
+  private static int commonPrefix(ArrayList<Segment> a,
+                                  ArrayList<Segment> b,
+                                  int max)
+  {
+    int length = 0;
+
+    int i = 0;
+    int j = 0;
+    int aOffset = 0;
+    int bOffset = 0;
+
+    while (length < max && i < a.size() && j < b.size()) {
+      Segment aSeg = a.get(i);
+      Segment bSeg = b.get(j);
+
+      int sublen = Math.min(aSeg._length - aOffset, bSeg._length - bOffset);
+      sublen = Math.min(sublen, max - length);
+
+      int aHead = aSeg._offset + aOffset;
+      int bHead = bSeg._offset + bOffset;
+
+      int k = 0;
+
+      if (aSeg._buffer == bSeg._buffer && aHead == bHead)
+        k = sublen;
+      else {
+        byte []aBuffer = aSeg._buffer;
+        byte []bBuffer = bSeg._buffer;
+
+        while (k < sublen && aBuffer[aHead + k] == bBuffer[bHead + k]) {
+          k++;
+        }
+      }
+
+      length += k;
+
+      if (k < sublen)
+        break;
+
+      aOffset += k;
+      bOffset += k;
+
+      if (aOffset == aSeg._length) {
+        i++;
+        aOffset = 0;
+      }
+
+      if (bOffset == bSeg._length) {
+        j++;
+        bOffset = 0;
+      }
+    }
+
+    return length;
+  }
+
+  /**
+   * Returns the length of the common suffix, up to max.
+   */
+  private static int commonSuffix(ArrayList<Segment> a,
+                                  ArrayList<Segment> b,
+                                  int max)
+  {
+    int length = 0;
+
+    int i = a.size() - 1;
+    int j = b.size() - 1;
+    int aOffset = 0;
+    int bOffset = 0;
+
+    while (length < max && i >= 0 && j >= 0) {
+      Segment aSeg = a.get(i);
+      Segment bSeg = b.get(j);
+
+      int sublen = Math.min(aSeg._length - aOffset, bSeg._length - bOffset);
+      sublen = Math.min(sublen, max - length);
+
+      // exclusive ends of the unmatched parts
+      int aTail = aSeg._offset + aSeg._length - aOffset;
+      int bTail = bSeg._offset + bSeg._length - bOffset;
+
+      int k = 0;
+
+      if (aSeg._buffer == bSeg._buffer && aTail == bTail)
+        k = sublen;
+      else {
+        byte []aBuffer = aSeg._buffer;
+        byte []bBuffer = bSeg._buffer;
+
+        while (k < sublen
+               && aBuffer[aTail - 1 - k] == bBuffer[bTail - 1 - k]) {
+          k++;
+        }
+      }
+
+      length += k;
+
+      if (k < sublen)
+        break;
+
+      aOffset += k;
+      bOffset += k;
+
+      if (aOffset == aSeg._length) {
+        i--;
+        aOffset = 0;
+      }
+
+      if (bOffset == bSeg._length) {
+        j--;
+        bOffset = 0;
+      }
+    }
+
+    return length;
+  }
+
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[prefix=" + _prefixLength
+            + ",suffix=" + _suffixLength
+            + ",configurations=" + _parts.size() + "]");
+  }
+
+  static final class Segment {
+    private final byte []_buffer;
+    private final int _offset;
+    private final int _length;
+
+    Segment(byte []buffer, int offset, int length)
+    {
+      _buffer = buffer;
+      _offset = offset;
+      _length = length;
+    }
+  }
+}
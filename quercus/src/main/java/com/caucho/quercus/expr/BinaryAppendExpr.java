@@ -30,10 +30,12 @@
 package com.caucho.quercus.expr;
 
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.StringRopeValue;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.ValueOrVar;
 import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.One;
 import edu.cmu.cs.varex.V;
 
 import javax.annotation.Nonnull;
@@ -96,12 +98,35 @@ public class BinaryAppendExpr extends Expr
     for (BinaryAppendExpr ptr = _next; ptr != null; ptr = ptr._next) {
       V<? extends Value> ptrValue = ptr._value.eval(env, ctx);
 
-      sb = sb.sflatMap(ctx, s -> ptrValue.map(p -> s.toStringBuilder(env).appendUnicode(p)));
+      // a variational operand fans the left value out to each configuration
+      boolean isShared = ! (ptrValue instanceof One);
+
+      sb = sb.sflatMap(ctx, s -> ptrValue.map(p -> append(env, s, p, isShared)));
     }
 
     return sb;
   }
 
+  /**
+   * Appends the value, sharing large strings in a rope instead of
+   * copying them.
+   */
+  private static StringValue append(Env env, StringValue s, Value p,
+                                    boolean isShared)
+  {
+    StringValue rope;
+
+    if (isShared)
+      rope = StringRopeValue.createShared(s, p);
+    else
+      rope = StringRopeValue.create(s, p);
+
+    if (rope != null)
+      return rope;
+    else
+      return s.toStringBuilder(env).appendUnicode(p);
+  }
+
   @Override
   public V<? extends String> evalString(Env env, FeatureExpr ctx)
   {
@@ -887,7 +887,15 @@ abstract public class Expr {
   public void print(Env env, FeatureExpr ctx)
     throws IOException
   {
-    eval(env, ctx).sforeach(ctx, (c, a) -> a.print(env, c));
+    V<? extends Value> value = eval(env, ctx);
+
+    // variational strings print their shared prefix and suffix once
+    VStringValue string = VStringValue.create(ctx, value);
+
+    if (string != null)
+      string.print(env, ctx);
+    else
+      value.sforeach(ctx, (c, a) -> a.print(env, c));
   }
 
   @Override
@@ -32,6 +32,7 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.QuercusContext;
 import com.caucho.quercus.env.BinaryValue;
+import com.caucho.quercus.env.ConstStringValue;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.UnicodeValue;
 import com.caucho.quercus.env.Value;
@@ -91,7 +92,7 @@ public class ExprFactory {
    */
   public Expr createString(StringValue lexeme)
   {
-    return new LiteralStringExpr(lexeme);
+    return new LiteralStringExpr(ConstStringValue.intern(lexeme));
   }
 
   /**
@@ -1039,6 +1040,8 @@ public class ExprFactory {
       return new FunGetCalledClassExpr(loc);
     else if (name.equalsString("get_class") && args.size() == 0)
       return new FunGetClassExpr(parser);
+    else if (name.equalsString("json_encode"))
+      return new FunJsonEncodeExpr(loc, name, args);
     else if (name.equalsString("each") && args.size() == 1) {
       Expr arg = args.get(0);
 
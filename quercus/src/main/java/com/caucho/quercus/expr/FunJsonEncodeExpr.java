@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.expr;
+
+import com.caucho.quercus.Location;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.JsonEncodeContext;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.V;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A json_encode() call.  When the result is echoed, the encoding is
+ * written to the output as it is produced instead of being built up
+ * as a string first, unless encoding would call back into the script.
+ */
+public class FunJsonEncodeExpr extends CallExpr {
+  public FunJsonEncodeExpr(Location location,
+                           StringValue name,
+                           ArrayList<Expr> args)
+  {
+    super(location, name, args);
+  }
+
+  /**
+   * Prints the encoding to the output as an echo.
+   */
+  @Override
+  public void print(Env env, FeatureExpr ctx)
+    throws IOException
+  {
+    if (_args.length < 1 || 2 < _args.length) {
+      super.print(env, ctx);
+      return;
+    }
+
+    V<? extends Value> value = _args[0].eval(env, ctx);
+
+    V<? extends Value> options;
+
+    if (_args.length > 1)
+      options = _args[1].eval(env, ctx);
+    else
+      options = V.one(LongValue.ZERO);
+
+    boolean isStreamable = JsonEncodeContext.isStreamable(env, value);
+
+    options.sforeach(ctx, (c, option) -> {
+      JsonEncodeContext context = JsonEncodeContext.create(option.toInt());
+
+      StringValue sb = env.createStringBuilder();
+
+      if (isStreamable) {
+        context.setOutput(env, c);
+
+        context.encode(env, value, sb);
+        context.flushAll(sb);
+      }
+      else {
+        // jsonSerialize() may echo or throw, so nothing is written
+        // until the whole encoding is done
+        context.setContext(c);
+
+        context.encode(env, value, sb);
+
+        context.getResult(sb).sforeach(c, (c2, s) ->
+          env.getOut().print(c2, s.toString()));
+      }
+    });
+  }
+}
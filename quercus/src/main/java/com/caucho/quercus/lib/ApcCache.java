@@ -0,0 +1,736 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.EnvVar;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.SerializeMap;
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.UnserializeCacheEntry;
+import com.caucho.quercus.env.Value;
+import com.caucho.util.L10N;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Store of the APC user cache, shared by all requests of a
+ * QuercusContext.
+ *
+ * Entries are kept in a concurrent map bounded by apc.shm_size bytes,
+ * as estimated from the stored values.  When the store is full, the
+ * least recently used entries are evicted, and a background thread
+ * removes expired entries.  Scalars are shared between requests as
+ * is; arrays and objects are shared as copy-on-write trees through
+ * UnserializeCacheEntry.
+ *
+ * If apc.mmap_file_mask names a file, stores are written through to
+ * an ApcSpillFile, so JVMs on the same host see each other's entries.
+ */
+class ApcCache implements Closeable
+{
+  private static final Logger log
+    = Logger.getLogger(ApcCache.class.getName());
+  private static final L10N L = new L10N(ApcCache.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final long NO_EXPIRE = Long.MAX_VALUE / 2;
+
+  private static final long SWEEP_INTERVAL = 10000L;
+
+  // estimated bookkeeping per entry and per array element
+  private static final long ENTRY_SIZE = 128;
+  private static final long ELEMENT_SIZE = 48;
+
+  private static final String SPECIAL_KEY = "caucho.apc.cache";
+
+  private final ConcurrentHashMap<String,Entry> _entryMap;
+  private final int _capacity;
+
+  private final long _maxSize;
+  private final long _defaultTtl;
+  private final ApcSpillFile _spill;
+
+  private final long _startTime;
+
+  private final AtomicLong _size = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _insertCount = new AtomicLong();
+  private final AtomicLong _evictionCount = new AtomicLong();
+  private final AtomicLong _expireCount = new AtomicLong();
+
+  private final AtomicBoolean _isEvicting = new AtomicBoolean();
+
+  private final SweepThread _sweepThread;
+
+  private volatile boolean _isClosed;
+
+  private ApcCache(int capacity,
+                   long maxSize,
+                   long defaultTtl,
+                   ApcSpillFile spill,
+                   long startTime)
+  {
+    _entryMap = new ConcurrentHashMap<String,Entry>(capacity);
+    _capacity = capacity;
+
+    _maxSize = maxSize;
+    _defaultTtl = defaultTtl;
+    _spill = spill;
+    _startTime = startTime;
+
+    _sweepThread = new SweepThread();
+    _sweepThread.start();
+  }
+
+  /**
+   * Returns the cache of the env's QuercusContext, creating it from the
+   * env's ini settings on first use.  The cache is closed with the
+   * context.
+   */
+  static ApcCache getInstance(Env env)
+  {
+    QuercusContext quercus = env.getQuercus();
+
+    ApcCache cache = (ApcCache) quercus.getSpecial(SPECIAL_KEY);
+
+    if (cache == null) {
+      synchronized (quercus) {
+        cache = (ApcCache) quercus.getSpecial(SPECIAL_KEY);
+
+        if (cache == null) {
+          cache = create(env);
+
+          quercus.setSpecial(SPECIAL_KEY, cache);
+          quercus.addCloseListener(cache);
+        }
+      }
+    }
+
+    return cache;
+  }
+
+  private static ApcCache create(Env env)
+  {
+    long capacity = env.getIniLong("apc.user_entries_hint");
+
+    if (capacity <= 0 || Integer.MAX_VALUE < capacity)
+      capacity = 4096;
+
+    // apc.shm_size is in megabytes unless it has a unit
+    long maxSize = env.getIniBytes("apc.shm_size", 30);
+
+    if (maxSize <= 1024)
+      maxSize = maxSize * 1024 * 1024;
+
+    long defaultTtl = env.getIniLong("apc.user_ttl") * 1000L;
+
+    ApcSpillFile spill = null;
+
+    String fileName = env.getIniString("apc.mmap_file_mask");
+
+    if (fileName != null
+        && ! "".equals(fileName)
+        && ! "/dev/zero".equals(fileName)) {
+      try {
+        spill = ApcSpillFile.open(new File(fileName), maxSize);
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+
+        env.warning(L.l("apc.mmap_file_mask '{0}' cannot be mapped: {1}",
+                        fileName, e));
+      }
+    }
+
+    return new ApcCache((int) capacity, maxSize, defaultTtl,
+                        spill, env.getCurrentTime());
+  }
+
+  /**
+   * Returns the value for the key, or null if there is no live entry.
+   */
+  Value get(Env env, String key)
+  {
+    Entry entry = getEntry(env, key);
+
+    if (entry == null) {
+      _missCount.incrementAndGet();
+
+      return null;
+    }
+
+    Value value = entry.getValue(env);
+
+    if (value == null) {
+      // the soft reference to the tree was collected
+      remove(entry);
+
+      _missCount.incrementAndGet();
+
+      return null;
+    }
+
+    _hitCount.incrementAndGet();
+
+    return value;
+  }
+
+  /**
+   * Stores the value.
+   *
+   * @param isAdd if true, an existing live entry is kept
+   * @return false if isAdd and the key already has a live entry
+   */
+  boolean put(Env env, String key, Value value, int ttl, boolean isAdd)
+  {
+    long now = env.getCurrentTime();
+    long expire;
+
+    if (ttl > 0)
+      expire = now + ttl * 1000L;
+    else if (_defaultTtl > 0)
+      expire = now + _defaultTtl;
+    else
+      expire = NO_EXPIRE;
+
+    Entry entry = new Entry(env, key, value, expire);
+
+    if (isAdd) {
+      Entry oldEntry = getEntry(env, key);
+
+      if (oldEntry != null)
+        return false;
+      else if (_entryMap.putIfAbsent(key, entry) != null)
+        return false;
+    }
+    else {
+      Entry oldEntry = _entryMap.put(key, entry);
+
+      if (oldEntry != null)
+        _size.addAndGet(-oldEntry._size);
+    }
+
+    _size.addAndGet(entry._size);
+    _insertCount.incrementAndGet();
+
+    if (_spill != null)
+      writeSpill(env, entry, value);
+
+    if (_maxSize < _size.get())
+      evict();
+
+    return true;
+  }
+
+  /**
+   * Removes the entry for the key.
+   */
+  boolean delete(String key)
+  {
+    Entry entry = _entryMap.get(key);
+
+    if (_spill != null) {
+      byte []keyBytes = key.getBytes(UTF_8);
+
+      try {
+        _spill.remove(keyBytes, ApcSpillFile.hash(keyBytes));
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+
+    return entry != null && remove(entry);
+  }
+
+  /**
+   * Removes all entries.
+   */
+  void clear()
+  {
+    for (Entry entry : _entryMap.values()) {
+      remove(entry);
+    }
+
+    if (_spill != null) {
+      try {
+        _spill.clear();
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the entries.
+   */
+  ArrayList<Entry> getEntries()
+  {
+    return new ArrayList<Entry>(_entryMap.values());
+  }
+
+  private Entry getEntry(Env env, String key)
+  {
+    long now = env.getCurrentTime();
+
+    Entry entry = _entryMap.get(key);
+
+    if (entry != null && entry._expire < now) {
+      if (remove(entry))
+        _expireCount.incrementAndGet();
+
+      entry = null;
+    }
+
+    if (_spill != null)
+      entry = readSpill(env, key, entry, now);
+
+    return entry;
+  }
+
+  /**
+   * Returns the entry as last written to the spill file by any JVM.
+   */
+  private Entry readSpill(Env env, String key, Entry entry, long now)
+  {
+    byte []keyBytes = key.getBytes(UTF_8);
+    int hash = ApcSpillFile.hash(keyBytes);
+
+    // the slot is unchanged since the entry was written or read
+    if (entry != null && entry._sequence == _spill.getSequence(hash))
+      return entry;
+
+    ApcSpillFile.Slot slot;
+
+    try {
+      slot = _spill.read(keyBytes, hash);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      slot = null;
+    }
+
+    if (slot != null && entry != null
+        && entry._sequence == slot.getSequence())
+      return entry;
+
+    // the key was deleted or stored without a shared copy, or its slot
+    // was taken by a different key, so the local entry may be stale
+    if (slot == null || slot.isDeleted() || slot.getExpire() < now) {
+      if (entry != null)
+        remove(entry);
+
+      return null;
+    }
+
+    Value value;
+
+    try {
+      String data = new String(slot.getValue(), UTF_8);
+
+      value = new UnserializeReader(data).unserialize(env);
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      if (entry != null)
+        remove(entry);
+
+      return null;
+    }
+
+    Entry newEntry = new Entry(env, key, value, slot.getExpire());
+    newEntry._sequence = slot.getSequence();
+
+    Entry oldEntry = _entryMap.put(key, newEntry);
+
+    if (oldEntry != null)
+      _size.addAndGet(-oldEntry._size);
+
+    _size.addAndGet(newEntry._size);
+
+    return newEntry;
+  }
+
+  /**
+   * Writes the entry to the spill file.  A value that can't be shared,
+   * or is too large for a slot, is kept in this JVM only and leaves a
+   * tombstone, so other JVMs drop their copy of the key.
+   */
+  private void writeSpill(Env env, Entry entry, Value value)
+  {
+    byte []data;
+
+    try {
+      StringBuilder sb = new StringBuilder();
+
+      value.serialize(env, sb, new SerializeMap());
+
+      data = sb.toString().getBytes(UTF_8);
+    } catch (RuntimeException e) {
+      // resources and java objects can't be shared between processes
+      log.log(Level.FINER, e.toString(), e);
+
+      data = null;
+    }
+
+    byte []keyBytes = entry._key.getBytes(UTF_8);
+    int hash = ApcSpillFile.hash(keyBytes);
+
+    if (data != null && ! ApcSpillFile.isFit(keyBytes, data)) {
+      if (log.isLoggable(Level.FINER))
+        log.finer(L.l("{0} is too large to share: {1} bytes",
+                      entry._key, data.length));
+
+      data = null;
+    }
+
+    try {
+      entry._sequence = _spill.write(keyBytes, hash, entry._expire, data);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+  }
+
+  private boolean remove(Entry entry)
+  {
+    if (_entryMap.remove(entry._key, entry)) {
+      _size.addAndGet(-entry._size);
+
+      entry.clear();
+
+      return true;
+    }
+    else
+      return false;
+  }
+
+  /**
+   * Evicts the least recently used entries until the store is below
+   * 90% of its size.
+   */
+  private void evict()
+  {
+    if (! _isEvicting.compareAndSet(false, true))
+      return;
+
+    try {
+      long target = _maxSize - _maxSize / 10;
+
+      ArrayList<Entry> entries = getEntries();
+
+      Collections.sort(entries,
+                       (a, b) -> Long.compare(a._accessTime, b._accessTime));
+
+      for (Entry entry : entries) {
+        if (_size.get() <= target)
+          break;
+
+        if (remove(entry))
+          _evictionCount.incrementAndGet();
+      }
+    } finally {
+      _isEvicting.set(false);
+    }
+  }
+
+  /**
+   * Removes expired entries.
+   */
+  private void sweep(long now)
+  {
+    for (Entry entry : _entryMap.values()) {
+      if (entry._expire < now && remove(entry))
+        _expireCount.incrementAndGet();
+    }
+
+    if (_maxSize < _size.get())
+      evict();
+  }
+
+  /**
+   * Returns a frozen copy of a scalar that can be shared between
+   * requests, or null if the value must be copied per request.
+   */
+  private static Value freeze(Value value)
+  {
+    if (value instanceof ConstStringValue)
+      return value;
+    else if (value instanceof StringBuilderValue)
+      return new ConstStringValue((StringBuilderValue) value);
+    else if (value instanceof LongValue
+             || value instanceof DoubleValue
+             || value instanceof BooleanValue
+             || value instanceof NullValue)
+      return value;
+    else
+      return null;
+  }
+
+  /**
+   * Estimates the memory used by the value.
+   */
+  private static long sizeOf(Env env,
+                             Value value,
+                             IdentityHashMap<Value,Value> valueMap)
+  {
+    if (value instanceof StringValue)
+      return 32 + value.length();
+    else if (! value.isArray() && ! value.isObject())
+      return 16;
+    else if (valueMap.put(value, value) != null)
+      return 0;
+
+    long []size = new long[] { 64 };
+
+    Iterator<EnvVar> iter = value.getValueIterator(env);
+
+    while (iter.hasNext()) {
+      iter.next().getValue().foreach((v) -> {
+        size[0] += ELEMENT_SIZE + sizeOf(env, v, valueMap);
+      });
+    }
+
+    return size[0];
+  }
+
+  long getMaxSize()
+  {
+    return _maxSize;
+  }
+
+  long getSize()
+  {
+    return _size.get();
+  }
+
+  int getEntryCount()
+  {
+    return _entryMap.size();
+  }
+
+  /**
+   * Returns the number of slots of the spill file, or the entry count
+   * hint the store was sized with.
+   */
+  int getSlotCount()
+  {
+    return _spill != null ? _spill.getSlotCount() : _capacity;
+  }
+
+  long getDefaultTtl()
+  {
+    return _defaultTtl;
+  }
+
+  long getStartTime()
+  {
+    return _startTime;
+  }
+
+  long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  long getInsertCount()
+  {
+    return _insertCount.get();
+  }
+
+  long getEvictionCount()
+  {
+    return _evictionCount.get();
+  }
+
+  long getExpireCount()
+  {
+    return _expireCount.get();
+  }
+
+  boolean isSpill()
+  {
+    return _spill != null;
+  }
+
+  /**
+   * Stops the sweep thread and releases the spill file.
+   */
+  @Override
+  public void close()
+  {
+    if (_isClosed)
+      return;
+
+    _isClosed = true;
+
+    _sweepThread.interrupt();
+
+    _entryMap.clear();
+    _size.set(0);
+
+    if (_spill != null)
+      _spill.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[entries=" + getEntryCount()
+            + ",size=" + getSize()
+            + ",spill=" + _spill + "]");
+  }
+
+  static final class Entry extends UnserializeCacheEntry {
+    private final String _key;
+
+    // frozen scalar, returned as is
+    private final Value _value;
+
+    private final long _createTime;
+    private final long _expire;
+    private final long _size;
+
+    // sequence of the spill slot when this entry was written or read
+    private volatile int _sequence = -1;
+
+    private volatile long _accessTime;
+    private final AtomicLong _hitCount = new AtomicLong();
+
+    Entry(Env env, String key, Value value, long expire)
+    {
+      super(env, value);
+
+      _key = key;
+      _value = freeze(value);
+
+      _createTime = env.getCurrentTime();
+      _accessTime = _createTime;
+      _expire = expire;
+
+      _size = (ENTRY_SIZE + 2 * key.length()
+               + sizeOf(env, value, new IdentityHashMap<Value,Value>()));
+    }
+
+    public String getKey()
+    {
+      return _key;
+    }
+
+    public long getTTL(Env env)
+    {
+      if (_expire >= NO_EXPIRE)
+        return 0;
+      else
+        return (_expire - env.getCurrentTime()) / 1000L;
+    }
+
+    public long getCreateTime()
+    {
+      return _createTime;
+    }
+
+    public long getAccessTime()
+    {
+      return _accessTime;
+    }
+
+    public long getHitCount()
+    {
+      return _hitCount.get();
+    }
+
+    public long getSize()
+    {
+      return _size;
+    }
+
+    @Override
+    public Value getValue(Env env)
+    {
+      _accessTime = env.getCurrentTime();
+      _hitCount.incrementAndGet();
+
+      if (_value != null)
+        return _value;
+      else
+        return super.getValue(env);
+    }
+  }
+
+  class SweepThread extends Thread {
+    SweepThread()
+    {
+      super("quercus-apc-sweep");
+
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      while (! _isClosed) {
+        try {
+          Thread.sleep(SWEEP_INTERVAL);
+
+          sweep(System.currentTimeMillis());
+        } catch (InterruptedException e) {
+        } catch (Throwable e) {
+          log.log(Level.FINE, e.toString(), e);
+        }
+      }
+    }
+  }
+}
@@ -36,12 +36,10 @@ import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.quercus.module.IniDefinition;
 import com.caucho.quercus.module.IniDefinitions;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 import com.caucho.vfs.Path;
 import edu.cmu.cs.varex.VHelper;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
@@ -61,8 +59,6 @@ public class ApcModule extends AbstractQuercusModule
 
   private static final int _defaultSize = 4096;
 
-  private LruCache<String,Entry> _cache;
-
   private HashMap<String,Value> _constMap = new HashMap<String,Value>();
 
   /**
@@ -90,56 +86,47 @@ public class ApcModule extends AbstractQuercusModule
                               @Optional String type,
                               @Optional boolean limited)
   {
+    ApcCache cache = ApcCache.getInstance(env);
+
     ArrayValue value = new ArrayValueImpl();
 
-    if (_cache != null) {
-      value.put("num_slots", _cache.getCapacity());
-      value.put("ttl", 0);
-      value.put("num_hits", _cache.getHitCount());
-      value.put("num_misses", _cache.getMissCount());
-      value.put("start_time", 0);
-    }
-    else {
-      value.put("num_slots", 0);
-      value.put("ttl", 0);
-      value.put("num_hits", 0);
-      value.put("num_misses", 0);
-      value.put("start_time", 0);
-    }
+    value.put("num_slots", cache.getSlotCount());
+    value.put("ttl", cache.getDefaultTtl() / 1000L);
+    value.put("num_hits", cache.getHitCount());
+    value.put("num_misses", cache.getMissCount());
+    value.put("num_inserts", cache.getInsertCount());
+    value.put("num_entries", cache.getEntryCount());
+    value.put("expunges", cache.getEvictionCount());
+    value.put("num_expired", cache.getExpireCount());
+    value.put("start_time", cache.getStartTime() / 1000L);
+    value.put("mem_size", cache.getSize());
+    value.put(env.createString("memory_type"),
+              env.createString(cache.isSpill() ? "mmap" : "heap"));
 
     ArrayValueImpl cacheList = new ArrayValueImpl();
     value.put(env.createString("cache_list"), cacheList);
 
-    if ("user".equals(type) && _cache != null && ! limited) {
-      ArrayList<String> keys = new ArrayList<String>();
-      ArrayList<Entry> values = new ArrayList<Entry>();
-
-      synchronized (_cache) {
-        Iterator<LruCache.Entry<String,Entry>> iter = _cache.iterator();
-
-        while (iter.hasNext()) {
-          LruCache.Entry<String,Entry> lruEntry = iter.next();
-
-          keys.add(lruEntry.getKey());
-          values.add(lruEntry.getValue());
-        }
-      }
-
-      for (int i = 0; i < keys.size(); i++) {
-        String key = keys.get(i);
-        Entry entryValue = values.get(i);
-
-        if (entryValue.isValid(env)) {
-          ArrayValueImpl array = new ArrayValueImpl();
-          cacheList.put(VHelper.noCtx(), array);
-
-          array.put(env.createString("info"), env.createString(key));
-          array.put(env.createString("ttl"),
-                    LongValue.create(entryValue.getTTL(env)));
-          array.put(env.createString("type"), env.createString("user"));
-          array.put(env.createString("num_hits"),
-                    LongValue.create(entryValue.getHitCount()));
-        }
+    if ("user".equals(type) && ! limited) {
+      for (ApcCache.Entry entry : cache.getEntries()) {
+        long ttl = entry.getTTL(env);
+
+        if (ttl < 0)
+          continue;
+
+        ArrayValueImpl array = new ArrayValueImpl();
+        cacheList.put(VHelper.noCtx(), array);
+
+        array.put(env.createString("info"), env.createString(entry.getKey()));
+        array.put(env.createString("ttl"), LongValue.create(ttl));
+        array.put(env.createString("type"), env.createString("user"));
+        array.put(env.createString("num_hits"),
+                  LongValue.create(entry.getHitCount()));
+        array.put(env.createString("mem_size"),
+                  LongValue.create(entry.getSize()));
+        array.put(env.createString("creation_time"),
+                  LongValue.create(entry.getCreateTime() / 1000L));
+        array.put(env.createString("access_time"),
+                  LongValue.create(entry.getAccessTime() / 1000L));
       }
     }
 
@@ -151,8 +138,7 @@ public class ApcModule extends AbstractQuercusModule
    */
   public boolean apc_clear_cache(Env env, @Optional String type)
   {
-    if (_cache != null)
-      _cache.clear();
+    ApcCache.getInstance(env).clear();
 
     return true;
   }
@@ -195,10 +181,7 @@ public class ApcModule extends AbstractQuercusModule
    */
   public boolean apc_delete(Env env, String key)
   {
-    if (_cache == null)
-      return false;
-
-    return _cache.remove(key) != null;
+    return ApcCache.getInstance(env).delete(key);
   }
 
   /**
@@ -210,15 +193,7 @@ public class ApcModule extends AbstractQuercusModule
   {
     isSuccessful.set_(BooleanValue.FALSE);
 
-    if (_cache == null)
-      return BooleanValue.FALSE;
-
-    Entry entry = _cache.get(key);
-
-    if (entry == null)
-      return BooleanValue.FALSE;
-
-    Value value = entry.getValue(env);
+    Value value = ApcCache.getInstance(env).get(env, key);
 
     if (value != null)
       initObject(env, new IdentityHashMap<Value,Value>(), value);
@@ -299,11 +274,13 @@ public class ApcModule extends AbstractQuercusModule
    */
   public Value apc_sma_info(Env env, @Optional String type)
   {
+    ApcCache cache = ApcCache.getInstance(env);
+
     ArrayValue value = new ArrayValueImpl();
 
     value.put("num_seg", 1);
-    value.put("seg_size", 1024 * 1024);
-    value.put("avail_mem", 1024 * 1024);
+    value.put("seg_size", cache.getMaxSize());
+    value.put("avail_mem", Math.max(0, cache.getMaxSize() - cache.getSize()));
     value.put(env.createString("block_lists"), new ArrayValueImpl());
 
     return value;
@@ -313,16 +290,12 @@ public class ApcModule extends AbstractQuercusModule
                        String key,
                        Value value,
                        @Optional("0") int ttl) {
-    LruCache<String,Entry> cache = getCache(env);
-
-    if (cache.get(key) == null) {
-      cache.put(key, new Entry(env, value, ttl));
+    ApcCache cache = ApcCache.getInstance(env);
 
+    if (cache.put(env, key, value, ttl, true))
       return BooleanValue.TRUE;
-    }
-    else {
+    else
       return BooleanValue.FALSE;
-    }
   }
 
   /**
@@ -331,88 +304,11 @@ public class ApcModule extends AbstractQuercusModule
   public Value apc_store(Env env, String key, Value value,
                          @Optional("0") int ttl)
   {
-    LruCache<String,Entry> cache = getCache(env);
-
-    cache.put(key, new Entry(env, value, ttl));
+    ApcCache.getInstance(env).put(env, key, value, ttl, false);
 
     return BooleanValue.TRUE;
   }
 
-  private LruCache<String,Entry> getCache(Env env) {
-    if (_cache == null) {
-      long size = env.getIniLong("apc.user_entries_hint");
-
-      if (size <= 0)
-        size = _defaultSize;
-
-      synchronized (this) {
-        if (_cache == null) {
-          _cache = new LruCache<String,Entry>((int) size);
-        }
-      }
-    }
-
-    return _cache;
-  }
-
-  static class Entry extends UnserializeCacheEntry {
-    private long _createTime;
-    private long _accessTime;
-
-    private long _expire;
-    private int _hitCount;
-
-    Entry(Env env, Value value, int ttl)
-    {
-      super(env, value);
-
-      if (ttl <= 0)
-        _expire = Long.MAX_VALUE / 2;
-      else
-        _expire = env.getCurrentTime() + ttl * 1000L;
-
-      _createTime = env.getCurrentTime();
-    }
-
-    public long getTTL(Env env)
-    {
-      if (_expire >= Long.MAX_VALUE / 2)
-        return 0;
-      else
-        return (_expire - env.getCurrentTime()) / 1000L;
-    }
-
-    public long getHitCount()
-    {
-      return _hitCount;
-    }
-
-    public boolean isValid(Env env)
-    {
-      if (env.getCurrentTime() <= _expire)
-        return true;
-      else {
-        clear();
-
-        return false;
-      }
-    }
-
-    @Override
-    public Value getValue(Env env)
-    {
-      if (env.getCurrentTime() <= _expire) {
-        _accessTime = env.getCurrentTime();
-        _hitCount++;
-
-        return super.getValue(env);
-      }
-      else {
-        return null;
-      }
-    }
-  }
-
   static final IniDefinition INI_APC_ENABLED
     = _iniDefinitions.add("apc.enabled", true, PHP_INI_ALL);
   static final IniDefinition INI_APC_SHM_SEGMENTS
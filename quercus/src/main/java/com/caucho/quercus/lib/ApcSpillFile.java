@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+
+/**
+ * Memory-mapped file shared by the APC user caches of all JVMs on a
+ * host.
+ *
+ * The file is a direct-mapped table of fixed-size slots, each holding
+ * one serialized entry, so a store simply replaces whatever entry had
+ * the same slot.  A deleted key leaves a tombstone with the key and no
+ * value.  Values too large for a slot are not written; callers check
+ * them with isFit().
+ *
+ * Writers take an exclusive file lock on their slot and readers a
+ * shared one, which also orders the accesses to the mapped memory of
+ * other processes.  Every write increments the slot's sequence number,
+ * so a cache can check without locking whether its copy of the slot is
+ * still current.
+ *
+ * A JVM maps each file once, because file locks are held per process.
+ */
+class ApcSpillFile
+{
+  private static final int MAGIC = 0x41504331; // "APC1"
+
+  private static final int HEADER_SIZE = 64;
+  private static final int SLOT_SIZE = 4096;
+
+  // slot layout
+  private static final int SEQUENCE = 0;
+  private static final int HASH = 4;
+  private static final int EXPIRE = 8;
+  private static final int KEY_LENGTH = 16;
+  private static final int VALUE_LENGTH = 20;
+  private static final int DATA = 24;
+
+  private static final int MAX_DATA = SLOT_SIZE - DATA;
+
+  // value length of a tombstone
+  private static final int DELETED = -1;
+
+  private static final HashMap<File,ApcSpillFile> _openMap
+    = new HashMap<File,ApcSpillFile>();
+
+  private final File _file;
+  private final RandomAccessFile _raf;
+  private final FileChannel _channel;
+  private final MappedByteBuffer _buffer;
+  private final int _slotCount;
+
+  private int _refCount = 1;
+
+  // file locks belong to the process, so threads of this JVM also need
+  // to exclude each other
+  private final Object []_locks = new Object[64];
+
+  private ApcSpillFile(File file,
+                       RandomAccessFile raf,
+                       MappedByteBuffer buffer,
+                       int slotCount)
+  {
+    _file = file;
+    _raf = raf;
+    _channel = raf.getChannel();
+    _buffer = buffer;
+    _slotCount = slotCount;
+
+    for (int i = 0; i < _locks.length; i++) {
+      _locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Opens the file, creating it with about size bytes of slots unless
+   * another process already did.  A file already open in this JVM is
+   * shared, and must be closed once per open.
+   */
+  static ApcSpillFile open(File file, long size)
+    throws IOException
+  {
+    file = file.getCanonicalFile();
+
+    synchronized (_openMap) {
+      ApcSpillFile spill = _openMap.get(file);
+
+      if (spill != null) {
+        spill._refCount++;
+      }
+      else {
+        spill = create(file, size);
+
+        _openMap.put(file, spill);
+      }
+
+      return spill;
+    }
+  }
+
+  private static ApcSpillFile create(File file, long size)
+    throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    try {
+      FileChannel channel = raf.getChannel();
+      int slotCount;
+
+      FileLock lock = channel.lock(0, HEADER_SIZE, false);
+      try {
+        if (HEADER_SIZE <= raf.length()
+            && raf.readInt() == MAGIC
+            && raf.readInt() == SLOT_SIZE) {
+          slotCount = raf.readInt();
+        }
+        else {
+          long count = Math.max(1, Math.min(size / SLOT_SIZE, 1 << 18));
+          slotCount = Integer.highestOneBit((int) count);
+
+          raf.setLength(0);
+          raf.setLength(HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+
+          raf.seek(0);
+          raf.writeInt(MAGIC);
+          raf.writeInt(SLOT_SIZE);
+          raf.writeInt(slotCount);
+        }
+      } finally {
+        lock.release();
+      }
+
+      MappedByteBuffer buffer
+        = channel.map(FileChannel.MapMode.READ_WRITE,
+                      0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+
+      return new ApcSpillFile(file, raf, buffer, slotCount);
+    } catch (IOException e) {
+      raf.close();
+
+      throw e;
+    } catch (RuntimeException e) {
+      raf.close();
+
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the largest key and value that fit into a slot.
+   */
+  static int getMaxDataSize()
+  {
+    return MAX_DATA;
+  }
+
+  /**
+   * Returns true if the key and value fit into a slot.
+   */
+  static boolean isFit(byte []key, byte []value)
+  {
+    long length = key.length + (value != null ? (long) value.length : 0);
+
+    return length <= MAX_DATA;
+  }
+
+  static int hash(byte []key)
+  {
+    int hash = 0;
+
+    for (byte b : key) {
+      hash = 31 * hash + b;
+    }
+
+    return hash;
+  }
+
+  /**
+   * Returns the sequence number of the slot for the hash, which changes
+   * on every write to the slot.  The slot is not locked, so the result
+   * may lag behind a concurrent write.
+   */
+  int getSequence(int hash)
+  {
+    return _buffer.getInt(getSlotOffset(hash) + SEQUENCE);
+  }
+
+  /**
+   * Reads the entry for the key.
+   *
+   * @return the entry, or null if the slot holds a different key
+   */
+  Slot read(byte []key, int hash)
+    throws IOException
+  {
+    int offset = getSlotOffset(hash);
+
+    synchronized (getLock(hash)) {
+      FileLock lock = _channel.lock(offset, SLOT_SIZE, true);
+
+      try {
+        int sequence = _buffer.getInt(offset + SEQUENCE);
+        int slotHash = _buffer.getInt(offset + HASH);
+        long expire = _buffer.getLong(offset + EXPIRE);
+        int keyLength = _buffer.getInt(offset + KEY_LENGTH);
+        int valueLength = _buffer.getInt(offset + VALUE_LENGTH);
+
+        if (slotHash != hash || keyLength != key.length)
+          return null;
+
+        int dataLength = valueLength == DELETED ? 0 : valueLength;
+
+        if (dataLength < 0 || MAX_DATA < keyLength + dataLength)
+          return null;
+
+        byte []slotKey = new byte[keyLength];
+
+        ByteBuffer buffer = _buffer.duplicate();
+        buffer.position(offset + DATA);
+        buffer.get(slotKey);
+
+        for (int i = 0; i < keyLength; i++) {
+          if (slotKey[i] != key[i])
+            return null;
+        }
+
+        if (valueLength == DELETED)
+          return new Slot(sequence, expire, null);
+
+        byte []value = new byte[valueLength];
+        buffer.get(value);
+
+        return new Slot(sequence, expire, value);
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  /**
+   * Writes the entry into its slot, replacing the slot's previous entry.
+   * A null value writes a tombstone, or clears the slot if even the key
+   * is too large for it.
+   *
+   * @return the slot's new sequence number
+   */
+  int write(byte []key, int hash, long expire, byte []value)
+    throws IOException
+  {
+    if (value != null && ! isFit(key, value)) {
+      throw new IllegalArgumentException(
+        "value of " + value.length + " bytes does not fit into a slot");
+    }
+
+    int offset = getSlotOffset(hash);
+
+    synchronized (getLock(hash)) {
+      FileLock lock = _channel.lock(offset, SLOT_SIZE, false);
+
+      try {
+        if (MAX_DATA < key.length)
+          return clearSlot(offset);
+
+        int sequence = _buffer.getInt(offset + SEQUENCE) | 1;
+
+        _buffer.putInt(offset + SEQUENCE, sequence);
+
+        _buffer.putInt(offset + HASH, hash);
+        _buffer.putLong(offset + EXPIRE, expire);
+        _buffer.putInt(offset + KEY_LENGTH, key.length);
+        _buffer.putInt(offset + VALUE_LENGTH,
+                       value != null ? value.length : DELETED);
+
+        ByteBuffer buffer = _buffer.duplicate();
+        buffer.position(offset + DATA);
+        buffer.put(key);
+
+        if (value != null)
+          buffer.put(value);
+
+        _buffer.putInt(offset + SEQUENCE, sequence + 1);
+
+        return sequence + 1;
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  /**
+   * Replaces the entry for the key with a tombstone.
+   *
+   * @return the slot's new sequence number
+   */
+  int remove(byte []key, int hash)
+    throws IOException
+  {
+    return write(key, hash, 0, null);
+  }
+
+  /**
+   * Removes all entries.
+   */
+  void clear()
+    throws IOException
+  {
+    for (int i = 0; i < _slotCount; i++) {
+      int offset = HEADER_SIZE + i * SLOT_SIZE;
+
+      if (_buffer.getInt(offset + KEY_LENGTH) == 0)
+        continue;
+
+      synchronized (getLock(i)) {
+        FileLock lock = _channel.lock(offset, SLOT_SIZE, false);
+
+        try {
+          clearSlot(offset);
+        } finally {
+          lock.release();
+        }
+      }
+    }
+  }
+
+  private int clearSlot(int offset)
+  {
+    int sequence = _buffer.getInt(offset + SEQUENCE) | 1;
+
+    _buffer.putInt(offset + SEQUENCE, sequence);
+    _buffer.putInt(offset + HASH, 0);
+    _buffer.putInt(offset + KEY_LENGTH, 0);
+    _buffer.putInt(offset + VALUE_LENGTH, 0);
+    _buffer.putInt(offset + SEQUENCE, sequence + 1);
+
+    return sequence + 1;
+  }
+
+  int getSlotCount()
+  {
+    return _slotCount;
+  }
+
+  long getSize()
+  {
+    return (long) _slotCount * SLOT_SIZE;
+  }
+
+  private int getSlotOffset(int hash)
+  {
+    return HEADER_SIZE + (hash & (_slotCount - 1)) * SLOT_SIZE;
+  }
+
+  private Object getLock(int hash)
+  {
+    return _locks[(hash & (_slotCount - 1)) & (_locks.length - 1)];
+  }
+
+  void close()
+  {
+    synchronized (_openMap) {
+      if (--_refCount > 0)
+        return;
+
+      _openMap.remove(_file);
+    }
+
+    try {
+      _raf.close();
+    } catch (IOException e) {
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _file + "]";
+  }
+
+  static final class Slot {
+    private final int _sequence;
+    private final long _expire;
+    private final byte []_value;
+
+    Slot(int sequence, long expire, byte []value)
+    {
+      _sequence = sequence;
+      _expire = expire;
+      _value = value;
+    }
+
+    int getSequence()
+    {
+      return _sequence;
+    }
+
+    long getExpire()
+    {
+      return _expire;
+    }
+
+    /**
+     * Returns true for a tombstone of a deleted key.
+     */
+    boolean isDeleted()
+    {
+      return _value == null;
+    }
+
+    byte []getValue()
+    {
+      return _value;
+    }
+  }
+}
@@ -67,6 +67,14 @@ public class HtmlModule extends AbstractQuercusModule {
 
   private static StringValue []HTML_SPECIALCHARS_MAP;
 
+  // escaped bytes, indexed by the quote style
+  private static final StringKernel.ByteSet []HTML_SPECIALCHARS_SETS = {
+    new StringKernel.ByteSet('&', '<', '>'),
+    new StringKernel.ByteSet('&', '<', '>', '\''),
+    new StringKernel.ByteSet('&', '<', '>', '"'),
+    new StringKernel.ByteSet('&', '<', '>', '\'', '"'),
+  };
+
   private static ArrayValue HTML_SPECIALCHARS_ARRAY;
   private static ArrayValue HTML_ENTITIES_ARRAY;
   private static ArrayValue HTML_ENTITIES_ARRAY_ENTITY_KEY;
@@ -256,6 +264,11 @@ public class HtmlModule extends AbstractQuercusModule {
                                        @Optional String charset,
                                        @Optional("true") boolean isDoubleEncode)
   {
+    if (string instanceof StringBuilderValue) {
+      return htmlspecialchars((StringBuilderValue) string,
+                              quoteStyle, isDoubleEncode);
+    }
+
     int len = string.length();
 
     StringValue sb = string.createStringBuilder(len * 5 / 4);
@@ -309,6 +322,70 @@ public class HtmlModule extends AbstractQuercusModule {
     return sb;
   }
 
+  /**
+   * Escapes HTML in an 8-bit string, copying the runs between the
+   * escaped bytes.
+   */
+  private static StringValue htmlspecialchars(StringBuilderValue string,
+                                              int quoteStyle,
+                                              boolean isDoubleEncode)
+  {
+    byte []buffer = string.getBuffer();
+    int len = string.length();
+
+    StringKernel.ByteSet set = HTML_SPECIALCHARS_SETS[quoteStyle & ENT_QUOTES];
+
+    int i = StringKernel.indexOf(buffer, 0, len, set);
+
+    if (i < 0)
+      return string;
+
+    StringValue sb = string.createStringBuilder(len * 5 / 4);
+
+    int head = 0;
+
+    for (; i >= 0; i = StringKernel.indexOf(buffer, head, len, set)) {
+      sb.append(buffer, head, i - head);
+
+      head = i + 1;
+
+      switch (buffer[i]) {
+        case '&':
+          if (! isDoubleEncode) {
+            int end = Math.min(len, i + 12);
+            int j = StringKernel.indexOf(buffer, i + 1, end, ';');
+
+            if (j >= 0) {
+              sb.append(buffer, i, j + 1 - i);
+
+              head = j + 1;
+
+              continue;
+            }
+          }
+
+          sb.append("&amp;");
+          break;
+        case '"':
+          sb.append("&quot;");
+          break;
+        case '\'':
+          sb.append("&#039;");
+          break;
+        case '<':
+          sb.append("&lt;");
+          break;
+        case '>':
+          sb.append("&gt;");
+          break;
+      }
+    }
+
+    sb.append(buffer, head, len - head);
+
+    return sb;
+  }
+
   /**
    * Escapes HTML
    *
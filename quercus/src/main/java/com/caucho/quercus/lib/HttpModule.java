@@ -32,6 +32,7 @@ package com.caucho.quercus.lib;
 import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.annotation.Reference;
 import com.caucho.quercus.env.*;
+import com.caucho.quercus.lib.zlib.ZlibModule;
 import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.quercus.servlet.api.QuercusCookie;
 import com.caucho.quercus.servlet.api.QuercusCookieImpl;
@@ -106,6 +107,12 @@ public class HttpModule extends AbstractQuercusModule {
       String key = header.substring(0, colonIndex).trim();
       String value = header.substring(colonIndex + 1).trim();
 
+      // the page's length is not the length of the compressed body
+      if (key.equalsIgnoreCase("Content-Length")
+          && ZlibModule.isOutputCompression(env)) {
+        return NullValue.NULL;
+      }
+
       if (key.equalsIgnoreCase("Location")) {
         // do not use sendRedirect because sendRedirect commits the response,
         // preventing Wordpress from sending a second Location header that
@@ -32,12 +32,17 @@ package com.caucho.quercus.lib;
 import com.caucho.quercus.annotation.Hide;
 import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.env.*;
+import com.caucho.quercus.lib.zlib.ZlibModule;
 import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.quercus.module.IniDefinition;
 import com.caucho.quercus.module.IniDefinitions;
 import com.caucho.quercus.module.ModuleStartupListener;
 import com.caucho.util.L10N;
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.V;
 import edu.cmu.cs.varex.VHelper;
+import edu.cmu.cs.varex.annotation.VParamType;
+import edu.cmu.cs.varex.annotation.VVariational;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -157,44 +162,50 @@ public class OutputModule extends AbstractQuercusModule
    *  Gets the current buffer contents and delete current output buffer.
    *  ob_get_clean() essentially executes both ob_get_contents() and ob_end_clean()
    */
-  public static Value ob_get_clean(Env env)
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> ob_get_clean(Env env, FeatureExpr ctx)
   {
     OutputBuffer ob = env.getOutputBuffer();
 
     if (ob != null) {
-      Value result = ob.getContents();
+      V<? extends Value> result = ob.getContents(ctx);
 
       ob_end_clean(env);
 
       return result;
     }
     else
-      return BooleanValue.FALSE;
+      return V.one(ctx, BooleanValue.FALSE);
   }
 
   /**
    * Returns the contents of the current output buffer.
    */
-  public static Value ob_get_contents(Env env)
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> ob_get_contents(Env env, FeatureExpr ctx)
   {
     OutputBuffer ob = env.getOutputBuffer();
 
     if (ob != null)
-      return ob.getContents();
+      return ob.getContents(ctx);
     else
-      return BooleanValue.FALSE;
+      return V.one(ctx, BooleanValue.FALSE);
   }
 
   /**
    * Pops the output buffer and returns the contents.
    */
-  public static Value ob_get_flush(Env env)
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> ob_get_flush(Env env, FeatureExpr ctx)
   {
     OutputBuffer ob = env.getOutputBuffer();
 
-    Value result = BooleanValue.FALSE;
+    V<? extends Value> result = V.one(ctx, BooleanValue.FALSE);
     if (ob != null) {
-      result = ob.getContents();
+      result = ob.getContents(ctx);
     }
 
     env.popOutputBuffer();
@@ -224,14 +235,16 @@ public class OutputModule extends AbstractQuercusModule
   /**
    * Pushes the output buffer
    */
-  public static Value ob_get_length(Env env)
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> ob_get_length(Env env, FeatureExpr ctx)
   {
     OutputBuffer ob = env.getOutputBuffer();
 
     if (ob != null)
-      return LongValue.create(ob.getLength());
+      return ob.getLength(ctx).map(len -> LongValue.create(len));
     else
-      return BooleanValue.FALSE;
+      return V.one(ctx, BooleanValue.FALSE);
   }
 
   /**
@@ -431,6 +444,12 @@ public class OutputModule extends AbstractQuercusModule
           return false;
         }
       }
+
+      if (ZlibModule.isOutputCompression(env)) {
+        env.warning(L.l("output handler 'ob_gzhandler' conflicts with "
+                        + "'zlib output compression'"));
+        return false;
+      }
     }
 
     env.pushOutputBuffer(callback, chunkSize, erase);
@@ -32,7 +32,7 @@ package com.caucho.quercus.lib;
 import com.caucho.quercus.env.*;
 import com.caucho.quercus.function.AbstractFunction;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
+import com.caucho.util.ConcurrentLruCache;
 import edu.cmu.cs.varex.V;
 import edu.cmu.cs.varex.VHelper;
 
@@ -45,8 +45,8 @@ public final class UnserializeReader {
   private static final Logger log
     = Logger.getLogger(UnserializeReader.class.getName());
 
-  private static final LruCache<StringKey,StringValue> _keyCache
-    = new LruCache<StringKey,StringValue>(4096);
+  private static final ConcurrentLruCache<StringKey,StringValue> _keyCache
+    = new ConcurrentLruCache<StringKey,StringValue>(4096);
 
   private final char []_buffer;
   private final int _length;
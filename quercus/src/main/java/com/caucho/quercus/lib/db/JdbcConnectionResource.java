@@ -33,7 +33,7 @@ import com.caucho.quercus.UnimplementedException;
 import com.caucho.quercus.env.*;
 import com.caucho.util.JdbcUtil;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
+import com.caucho.util.ConcurrentLruCache;
 import com.caucho.util.SQLExceptionWrapper;
 
 import java.sql.*;
@@ -50,8 +50,10 @@ public abstract class JdbcConnectionResource
   private static final Logger log
     = Logger.getLogger(JdbcConnectionResource.class.getName());
 
-  private static LruCache<TableKey,JdbcTableMetaData> _tableMetadataMap
-    = new LruCache<TableKey,JdbcTableMetaData>(256);
+  private static ConcurrentLruCache<TableKey,JdbcTableMetaData> _tableMetadataMap
+    = new ConcurrentLruCache<TableKey,JdbcTableMetaData>(256);
+
+  private static final int STATEMENT_CACHE_SIZE = 32;
 
   protected ConnectionEntry _conn;
 
@@ -60,6 +62,12 @@ public abstract class JdbcConnectionResource
 
   private Statement _freeStmt;
 
+  // prepared statements for realQuery, keyed on the normalized sql
+  private JdbcStatementCache _stmtCache;
+
+  // per-configuration isolation for variational queries
+  private VJdbcConnection _vconn;
+
   private DatabaseMetaData _dmd;
 
   private JdbcResultResource _rs;
@@ -425,6 +433,55 @@ public abstract class JdbcConnectionResource
     }
   }
 
+  /**
+   * Returns the current JDBC connection without warnings, or null if
+   * the connection is closed.
+   */
+  Connection getJdbcConnection()
+  {
+    ConnectionEntry conn = _conn;
+
+    return conn != null ? conn.getConnection() : null;
+  }
+
+  /**
+   * Returns the variational view of this connection.
+   */
+  VJdbcConnection getVariational()
+  {
+    if (_vconn == null)
+      _vconn = new VJdbcConnection(this);
+
+    return _vconn;
+  }
+
+  /**
+   * Returns false with a warning if the connection state has been split
+   * per configuration.  Only mysql_query() and mysqli_query() switch to
+   * the state of the calling configuration.
+   */
+  boolean checkIsolated(Env env)
+  {
+    VJdbcConnection vconn = _vconn;
+
+    if (vconn == null || ! vconn.isSplit())
+      return true;
+
+    env.warning(L.l("only mysql_query() and mysqli_query() are isolated "
+                    + "per configuration after a conditional write"));
+
+    return false;
+  }
+
+  /**
+   * Executes a query from a PHP string, used by the variational view
+   * of the connection.
+   */
+  protected Value executeQuery(Env env, StringValue sql)
+  {
+    return realQuery(env, sql.toString());
+  }
+
   /**
    * Returns the unwrapped SQL connection
    * associated to this statement.
@@ -572,6 +629,10 @@ public abstract class JdbcConnectionResource
     // php/1418
     // cleanup();
 
+    cleanupVariational();
+
+    closeStatementCache();
+
     ConnectionEntry conn = _conn;
     _conn = null;
 
@@ -604,6 +665,10 @@ public abstract class JdbcConnectionResource
     closeStatement(savedStmt, false);
     closeStatement(freeStmt, false);
 
+    cleanupVariational();
+
+    closeStatementCache();
+
     ConnectionEntry conn = _conn;
     _conn = null;
 
@@ -643,6 +708,12 @@ public abstract class JdbcConnectionResource
       if (checkSql(env, _conn, sql))
         return BooleanValue.TRUE;
 
+      String cacheKey = getStatementCacheKey(sql);
+
+      if (cacheKey != null) {
+        return realQueryCached(env, conn, sql, cacheKey);
+      }
+
       // statement reuse does not gain performance significantly (< 1%)
       // php/142v
       if (true || stmt == null) {
@@ -736,6 +807,135 @@ public abstract class JdbcConnectionResource
     return env.wrapJava(_rs);
   }
 
+  /**
+   * Executes a query through the prepared statement cache.
+   */
+  private Value realQueryCached(Env env,
+                                Connection conn,
+                                String sql,
+                                String cacheKey)
+  {
+    JdbcStatementCache cache = getStatementCache();
+    PreparedStatement stmt = null;
+
+    try {
+      stmt = cache.take(cacheKey);
+
+      if (stmt == null) {
+        if (! isSeekable()) {
+          stmt = conn.prepareStatement(sql,
+                                       ResultSet.TYPE_FORWARD_ONLY,
+                                       ResultSet.CONCUR_READ_ONLY);
+        }
+        else {
+          stmt = conn.prepareStatement(sql,
+                                       ResultSet.TYPE_SCROLL_INSENSITIVE,
+                                       ResultSet.CONCUR_READ_ONLY);
+        }
+      }
+
+      if (stmt.execute()) {
+        ResultSet rs = stmt.getResultSet();
+        _rs = createResult(stmt, rs);
+        _rs.initQuery(cache, cacheKey, stmt);
+        _affectedRows = 0;
+
+        return env.wrapJava(_rs);
+      }
+      else {
+        _affectedRows = stmt.getUpdateCount();
+
+        cache.release(cacheKey, stmt);
+
+        return BooleanValue.TRUE;
+      }
+    } catch (DataTruncation truncationError) {
+      saveErrors(truncationError);
+
+      try {
+        _affectedRows = stmt.getUpdateCount();
+      } catch (SQLException e) {
+        log.log(Level.FINEST, e.toString(), e);
+        return BooleanValue.FALSE;
+      } finally {
+        cache.release(cacheKey, stmt);
+      }
+
+      return BooleanValue.TRUE;
+    } catch (SQLException e) {
+      saveErrors(e);
+      log.log(Level.FINEST, e.toString(), e);
+
+      // a failed execution, e.g. a duplicate key, leaves the
+      // prepared statement usable
+      if (stmt != null)
+        cache.release(cacheKey, stmt);
+
+      return BooleanValue.FALSE;
+    } catch (IllegalStateException e) {
+      // #2184, some drivers return this on closed connection
+      saveErrors(new SQLExceptionWrapper(e));
+
+      return BooleanValue.FALSE;
+    }
+  }
+
+  /**
+   * Returns the statement cache key for the query, or null if the query
+   * must be executed with a plain statement.
+   */
+  private String getStatementCacheKey(String sql)
+  {
+    if (keepStatementOpen())
+      return null;
+
+    SqlParseToken tok = parseSqlToken(sql, null);
+
+    if (tok == null)
+      return null;
+
+    if (tok.matchesToken("SELECT")
+        || tok.matchesToken("INSERT")
+        || tok.matchesToken("UPDATE")
+        || tok.matchesToken("DELETE")
+        || tok.matchesToken("REPLACE")) {
+      return JdbcStatementCache.normalize(sql);
+    }
+    else
+      return null;
+  }
+
+  private JdbcStatementCache getStatementCache()
+  {
+    if (_stmtCache == null)
+      _stmtCache = new JdbcStatementCache(STATEMENT_CACHE_SIZE);
+
+    return _stmtCache;
+  }
+
+  private void cleanupVariational()
+  {
+    VJdbcConnection vconn = _vconn;
+    _vconn = null;
+
+    if (vconn != null)
+      vconn.cleanup();
+  }
+
+  private void closeStatementCache()
+  {
+    JdbcStatementCache cache = _stmtCache;
+    _stmtCache = null;
+
+    if (cache != null) {
+      if (log.isLoggable(Level.FINE)) {
+        log.fine(this + " " + cache);
+      }
+
+      cache.close();
+    }
+  }
+
   protected Statement createStatement(Env env)
     throws SQLException
   {
@@ -985,6 +1185,8 @@ public abstract class JdbcConnectionResource
     _savedStmt = null;
     _freeStmt = null;
 
+    closeStatementCache();
+
     if (! _isUsed && _isCatalogOptimEnabled) {
       // The database is only connected, but not used, reopen with
       // a real catalog
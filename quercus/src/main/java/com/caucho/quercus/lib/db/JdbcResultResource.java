@@ -80,6 +80,11 @@ public class JdbcResultResource
 
   private int _affectedRows;
 
+  // statement checked out of the statement cache, released on close
+  private JdbcStatementCache _stmtCache;
+  private String _cacheKey;
+  private PreparedStatement _cachedStmt;
+
   /**
    * Constructor for JdbcResultResource
    *
@@ -118,6 +123,22 @@ public class JdbcResultResource
   }
 
 
+  /**
+   * Associates the result with the cached statement that produced it.
+   *
+   * @param cache the statement cache the statement was taken from
+   * @param cacheKey statement cache key
+   * @param stmt the cached statement to release on close
+   */
+  void initQuery(JdbcStatementCache cache,
+                 String cacheKey,
+                 PreparedStatement stmt)
+  {
+    _stmtCache = cache;
+    _cacheKey = cacheKey;
+    _cachedStmt = stmt;
+  }
+
   /**
    * Closes the result set.
    */
@@ -134,6 +155,18 @@ public class JdbcResultResource
     catch (SQLException e) {
       log.log(Level.FINE, e.toString(), e);
     }
+
+    releaseStatement();
+  }
+
+  private void releaseStatement()
+  {
+    PreparedStatement stmt = _cachedStmt;
+    _cachedStmt = null;
+
+    if (stmt != null) {
+      _stmtCache.release(_cacheKey, stmt);
+    }
   }
 
   /**
@@ -170,14 +203,9 @@ public class JdbcResultResource
 
         int count = md.getColumnCount();
 
-        if ((type & FETCH_ASSOC) != 0) {
-          _columnNames = new Value[count];
-
-          for (int i = 0; i < count; i++) {
-            String columnName = getColumnLabel(md, i + 1);
-
-            _columnNames[i] = env.createString(columnName);
-          }
+        if ((type & FETCH_ASSOC) != 0 && _columnNames == null) {
+          // column names are shared by all rows of the result
+          _columnNames = createColumnNames(env, md);
         }
 
         for (int i = 0; i < count; i++) {
@@ -215,6 +243,22 @@ public class JdbcResultResource
     }
   }
 
+  private Value []createColumnNames(Env env, ResultSetMetaData md)
+    throws SQLException
+  {
+    int count = md.getColumnCount();
+
+    Value []columnNames = new Value[count];
+
+    for (int i = 0; i < count; i++) {
+      String columnName = getColumnLabel(md, i + 1);
+
+      columnNames[i] = env.createString(columnName);
+    }
+
+    return columnNames;
+  }
+
   /**
    * Returns an associative array representing the row.
    *
@@ -352,11 +396,15 @@ public class JdbcResultResource
 
         int count = md.getColumnCount();
 
+        if (_columnNames == null) {
+          _columnNames = createColumnNames(env, md);
+        }
+
         for (int i = 0; i < count; i++) {
-          String name = getColumnLabel(md, i + 1);
+          StringValue name = (StringValue) _columnNames[i];
           Value value = getColumnValue(env, i + 1);
 
-          result.putField(env, name, value);
+          result.putThisField(env, VHelper.noCtx(), name, V.one(value));
         }
 
         return result;
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import com.caucho.util.CacheListener;
+import com.caucho.util.JdbcUtil;
+import com.caucho.util.LruCache;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Per-connection LRU cache of prepared statements, keyed on the
+ * normalized SQL text.
+ *
+ * A statement is checked out of the cache with take() while its
+ * result set is in use and returned with release(), so two open result
+ * sets never share a statement.  The cache is owned by a single
+ * connection resource and is therefore not synchronized.
+ */
+class JdbcStatementCache
+{
+  private final LruCache<String,Item> _cache;
+
+  private long _hitCount;
+  private long _missCount;
+  private long _evictionCount;
+
+  private boolean _isClosed;
+
+  JdbcStatementCache(int capacity)
+  {
+    _cache = new LruCache<String,Item>(capacity);
+  }
+
+  /**
+   * Returns the cache key for the sql, or null if the statement must
+   * not go through a PreparedStatement, i.e. it has a '?', a JDBC
+   * escape '{' or a comment outside of a quoted section.
+   *
+   * Whitespace runs outside of quotes are collapsed to a single space,
+   * so statements that differ only by formatting share an entry.  A
+   * backslash in a quoted section is only an escape in some SQL modes,
+   * so the end of the quote and the key would be ambiguous: such
+   * statements are not cached either.
+   */
+  static String normalize(String sql)
+  {
+    final int len = sql.length();
+
+    StringBuilder sb = null;
+    char quote = 0;
+    boolean isSpace = false;
+
+    int start = 0;
+    while (start < len && Character.isWhitespace(sql.charAt(start))) {
+      start++;
+    }
+
+    int end = len;
+    while (start < end && Character.isWhitespace(sql.charAt(end - 1))) {
+      end--;
+    }
+
+    if (start == end)
+      return null;
+
+    for (int i = start; i < end; i++) {
+      char ch = sql.charAt(i);
+
+      if (! Character.isWhitespace(ch)) {
+        isSpace = false;
+      }
+
+      if (quote != 0) {
+        if (ch == '\\')
+          return null;
+        else if (ch == quote)
+          quote = 0;
+      }
+      else if (ch == '\'' || ch == '"' || ch == '`') {
+        quote = ch;
+      }
+      else if (ch == '?' || ch == '{' || ch == '#') {
+        return null;
+      }
+      else if (ch == '-' && i + 1 < end && sql.charAt(i + 1) == '-') {
+        // line comments end at a newline, which would be collapsed
+        return null;
+      }
+      else if (ch == '/' && i + 1 < end && sql.charAt(i + 1) == '*') {
+        // block comments may hold driver hints or quote characters
+        return null;
+      }
+      else if (Character.isWhitespace(ch)) {
+        if (isSpace) {
+          if (sb == null) {
+            sb = new StringBuilder(end - start);
+            sb.append(sql, start, i);
+          }
+
+          continue;
+        }
+
+        isSpace = true;
+
+        if (ch != ' ') {
+          if (sb == null) {
+            sb = new StringBuilder(end - start);
+            sb.append(sql, start, i);
+          }
+
+          sb.append(' ');
+          continue;
+        }
+      }
+
+      if (sb != null)
+        sb.append(ch);
+    }
+
+    if (sb != null)
+      return sb.toString();
+    else if (start == 0 && end == len)
+      return sql;
+    else
+      return sql.substring(start, end);
+  }
+
+  /**
+   * Checks a statement out of the cache.
+   *
+   * @return the cached statement, or null if there is no idle statement
+   */
+  PreparedStatement take(String key)
+  {
+    Item item = _cache.get(key);
+
+    if (item == null || item._isTaken) {
+      _missCount++;
+
+      return null;
+    }
+
+    item._isTaken = true;
+    _hitCount++;
+
+    return item._stmt;
+  }
+
+  /**
+   * Returns a statement to the cache after its result is closed.
+   */
+  void release(String key, PreparedStatement stmt)
+  {
+    if (_isClosed) {
+      JdbcUtil.close(stmt);
+      return;
+    }
+
+    Item item = _cache.get(key);
+
+    if (item == null) {
+      _cache.put(key, new Item(stmt));
+    }
+    else if (item._stmt == stmt) {
+      item._isTaken = false;
+    }
+    else {
+      // a second statement for the same sql was needed while the
+      // cached one was taken
+      JdbcUtil.close(stmt);
+    }
+  }
+
+  /**
+   * Closes all idle statements.  Taken statements are closed when
+   * their owner releases them.
+   */
+  void close()
+  {
+    _isClosed = true;
+
+    ArrayList<Item> items = new ArrayList<Item>();
+
+    Iterator<Item> iter = _cache.values();
+    while (iter.hasNext()) {
+      items.add(iter.next());
+    }
+
+    _cache.setEnableListeners(false);
+    _cache.clear();
+    _cache.setEnableListeners(true);
+
+    for (Item item : items) {
+      if (! item._isTaken)
+        item.close();
+    }
+  }
+
+  int size()
+  {
+    return _cache.size();
+  }
+
+  long getHitCount()
+  {
+    return _hitCount;
+  }
+
+  long getMissCount()
+  {
+    return _missCount;
+  }
+
+  long getEvictionCount()
+  {
+    return _evictionCount;
+  }
+
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[size=" + size()
+            + ",hit=" + _hitCount
+            + ",miss=" + _missCount
+            + ",evict=" + _evictionCount + "]");
+  }
+
+  private final class Item implements CacheListener
+  {
+    private final PreparedStatement _stmt;
+    private boolean _isTaken;
+    private boolean _isClosed;
+
+    Item(PreparedStatement stmt)
+    {
+      _stmt = stmt;
+    }
+
+    @Override
+    public void removeEvent()
+    {
+      _evictionCount++;
+
+      // a taken statement is closed by release() once it comes back
+      if (! _isTaken)
+        close();
+    }
+
+    void close()
+    {
+      if (! _isClosed) {
+        _isClosed = true;
+        JdbcUtil.close(_stmt);
+      }
+    }
+  }
+}
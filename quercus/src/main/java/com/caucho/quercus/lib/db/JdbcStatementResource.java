@@ -214,6 +214,10 @@ public class JdbcStatementResource
       return false;
     }
 
+    if (! _conn.checkIsolated(env)) {
+      return false;
+    }
+
     try {
       prepareForExecute(env);
 
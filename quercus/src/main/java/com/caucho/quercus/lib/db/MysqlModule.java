@@ -35,8 +35,11 @@ import com.caucho.quercus.env.*;
 import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.util.L10N;
 import com.caucho.util.Log;
+import de.fosd.typechef.featureexpr.FeatureExpr;
 import edu.cmu.cs.varex.V;
 import edu.cmu.cs.varex.VHelper;
+import edu.cmu.cs.varex.annotation.VParamType;
+import edu.cmu.cs.varex.annotation.VVariational;
 
 import java.sql.*;
 import java.util.logging.Level;
@@ -291,7 +294,7 @@ public class MysqlModule extends AbstractQuercusModule {
       return false;
 
     StringValue query = env.createString("DROP DATABASE " + databaseName);
-    Value value = mysql_query(env, query, conn);
+    Value value = query(env, query, conn);
 
     return (value != null && value.toBoolean());
   }
@@ -601,11 +604,30 @@ public class MysqlModule extends AbstractQuercusModule {
    * Executes a query and returns a result set.
    *
    * Returns true on update success, false on failure, and a result set
-   * for a successful select
+   * for a successful select.  Configurations sharing the same query and
+   * database state share a single execution.
    */
-  public static Value mysql_query(Env env,
-                                  StringValue sql,
-                                  @Optional Mysqli conn)
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> mysql_query(Env env,
+                                               FeatureExpr ctx,
+                                               @VParamType(StringValue.class)
+                                               V<? extends StringValue> sql,
+                                               @Optional
+                                               @VParamType(Mysqli.class)
+                                               V<? extends Mysqli> conn)
+  {
+    return conn.sflatMap(ctx, (c, link) -> {
+      Mysqli mysqli = link != null ? link : getConnection(env);
+
+      if (mysqli == null)
+        return V.one(BooleanValue.FALSE);
+
+      return mysqli.getVariational().query(env, c, sql);
+    });
+  }
+
+  private static Value query(Env env, StringValue sql, Mysqli conn)
   {
     if (conn == null)
       conn = getConnection(env);
@@ -930,11 +952,11 @@ public class MysqlModule extends AbstractQuercusModule {
     //
     // MySQL Connector/J 5.x returns 'SCHEME_NAME' as the column name
     // for "SHOW DATABASES", while 3.x returns 'Database'
-    return mysql_query(env,
-                       env.createString(
-                           "SELECT SCHEMA_NAME AS 'Database' "
-                               + "FROM information_schema.SCHEMATA"),
-                       conn);
+    return query(env,
+                 env.createString(
+                     "SELECT SCHEMA_NAME AS 'Database' "
+                         + "FROM information_schema.SCHEMATA"),
+                 conn);
   }
 
   /**
@@ -1028,9 +1050,9 @@ public class MysqlModule extends AbstractQuercusModule {
                                          StringValue databaseName,
                                          @Optional Mysqli conn)
   {
-    return mysql_query(env,
-                       env.createString("SHOW TABLES FROM " + databaseName),
-                       conn);
+    return query(env,
+                 env.createString("SHOW TABLES FROM " + databaseName),
+                 conn);
   }
 
   /**
@@ -1243,7 +1265,7 @@ public class MysqlModule extends AbstractQuercusModule {
     // It is unclear how this would be implemented on top
     // of Connector/J.
 
-    return mysql_query(env, name, conn);
+    return query(env, name, conn);
   }
 
   /**
@@ -853,11 +853,20 @@ public class Mysqli extends JdbcConnectionResource
                      StringValue sqlV,
                      @Optional("MYSQLI_STORE_RESULT") int resultMode)
   {
+    if (! checkIsolated(env))
+      return BooleanValue.FALSE;
+
     String sql = toBinarySafeString(sqlV);
 
     return realQuery(env, sql);
   }
 
+  @Override
+  protected Value executeQuery(Env env, StringValue sql)
+  {
+    return realQuery(env, toBinarySafeString(sql));
+  }
+
   private static final String toBinarySafeString(StringValue str)
   {
     StringBuilder sb = new StringBuilder();
@@ -1710,6 +1719,9 @@ public class Mysqli extends JdbcConnectionResource
    */
   private boolean multiQuery(Env env, StringValue sql)
   {
+    if (! checkIsolated(env))
+      return false;
+
     clearErrors();
 
     // Empty _resultValues on new call to query
@@ -37,7 +37,10 @@ import com.caucho.quercus.env.*;
 import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.util.L10N;
 import com.caucho.util.Log;
+import de.fosd.typechef.featureexpr.FeatureExpr;
 import edu.cmu.cs.varex.V;
+import edu.cmu.cs.varex.annotation.VParamType;
+import edu.cmu.cs.varex.annotation.VVariational;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -919,23 +922,42 @@ public class MysqliModule extends AbstractQuercusModule {
   }
 
   /**
-   * Executes a query and returns the result.
-   *
+   * Executes a query and returns the result.  Configurations sharing
+   * the same query and database state share a single execution.
    */
-  public static Value mysqli_query(Env env,
-                                   @NotNull Mysqli conn,
-                                   StringValue sql,
-                                   @Optional("MYSQLI_STORE_RESULT") int resultMode) {
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> mysqli_query(Env env,
+                                                FeatureExpr ctx,
+                                                @NotNull
+                                                @VParamType(Mysqli.class)
+                                                V<? extends Mysqli> conn,
+                                                @VParamType(StringValue.class)
+                                                V<? extends StringValue> sql,
+                                                @Optional("MYSQLI_STORE_RESULT")
+                                                @VParamType(int.class)
+                                                V<? extends Integer> resultMode) {
     // ERRATUM: <i>resultMode</i> is ignored, MYSQLI_USE_RESULT would represent
     //  an unbuffered query, but that is not supported.
 
-    Value value = query(env, conn, sql);
+    return conn.sflatMap(ctx, (c, link) -> {
+      if (link == null)
+        return V.one(BooleanValue.FALSE);
 
-    if (value == null) {
-      return BooleanValue.FALSE;
-    }
+      V<? extends Value> value = null;
 
-    return value;
+      try {
+        value = link.getVariational().query(env, c, sql);
+      } catch (Exception e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+
+      if (value == null) {
+        return V.one(BooleanValue.FALSE);
+      }
+
+      return value;
+    });
   }
 
   private static Value query(Env env,
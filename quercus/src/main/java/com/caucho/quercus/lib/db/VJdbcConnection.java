@@ -0,0 +1,782 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.db;
+
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.util.L10N;
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.V;
+import edu.cmu.cs.varex.VHelper;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Variational view on a JDBC connection.
+ *
+ * Each distinct SQL string of a variational query is executed once for
+ * all configurations that share the same database state.  The state is
+ * shared until a write happens in only part of the configuration space;
+ * from then on the configuration space is split into partitions, each
+ * with its own log of writes.
+ *
+ * All partitions use the single underlying connection.  The first split
+ * opens a transaction, and a savepoint is taken after every logged
+ * write.  Switching to a partition rolls back to the savepoint after
+ * the writes it shares with the current state and replays only the
+ * rest of its log.
+ *
+ * Replay must reproduce the original writes, so AUTO_INCREMENT ids
+ * generated by a logged INSERT are pinned with SET INSERT_ID, and
+ * writes using functions like NOW() or RAND() or session variables are
+ * rejected once they would be logged.  DDL and transaction control
+ * implicitly commit or end the transaction, so they are rejected once
+ * the state has been split.
+ *
+ * When the connection is cleaned up, the transaction is committed if
+ * all configurations ended in the same state, and rolled back
+ * otherwise, since there is no single state to commit.
+ *
+ * Only mysql_query() and mysqli_query() go through this view.  Other
+ * entry points, e.g. the mysqli object API, prepared statements and
+ * multi_query(), fail with a warning once the state has been split.
+ */
+class VJdbcConnection
+{
+  private static final Logger log
+    = Logger.getLogger(VJdbcConnection.class.getName());
+  private static final L10N L = new L10N(VJdbcConnection.class);
+
+  // functions and variables whose value changes when a write is replayed
+  private static final HashSet<String> NON_DETERMINISTIC
+    = new HashSet<String>();
+
+  private final JdbcConnectionResource _conn;
+
+  private final ArrayList<Partition> _partitions = new ArrayList<Partition>();
+
+  // partition whose writes are currently applied on the connection
+  private Partition _current;
+
+  // writes applied on the connection since the first split
+  private final ArrayList<Entry> _applied = new ArrayList<Entry>();
+
+  // _savepoints.get(i) is the state with the first i writes applied
+  private final ArrayList<Savepoint> _savepoints = new ArrayList<Savepoint>();
+
+  private boolean _isAutoCommit;
+
+  private long _queryCount;
+  private long _executeCount;
+  private long _replayCount;
+
+  VJdbcConnection(JdbcConnectionResource conn)
+  {
+    _conn = conn;
+
+    _current = new Partition(VHelper.True(), new ArrayList<Entry>());
+    _partitions.add(_current);
+  }
+
+  /**
+   * Returns true once writes have been isolated per configuration.
+   */
+  boolean isSplit()
+  {
+    return ! _savepoints.isEmpty();
+  }
+
+  /**
+   * Returns the number of partitions with a distinct database state.
+   */
+  int getPartitionCount()
+  {
+    return _partitions.size();
+  }
+
+  /**
+   * Executes a variational query.  Configurations with the same SQL and
+   * the same database state share a single execution.
+   */
+  V<? extends Value> query(Env env,
+                           FeatureExpr ctx,
+                           V<? extends StringValue> sql)
+  {
+    return sql.sflatMap(ctx, (c, s) -> queryOne(env, c, s));
+  }
+
+  private V<? extends Value> queryOne(Env env,
+                                      FeatureExpr ctx,
+                                      StringValue sql)
+  {
+    _queryCount++;
+
+    StatementKind kind = getStatementKind(sql);
+
+    switch (kind) {
+    case DDL:
+    case TRANSACTION:
+      if (isSplit()) {
+        env.warning(L.l("'{0}' cannot be isolated per configuration after "
+                        + "a conditional write", sql));
+
+        return V.one(BooleanValue.FALSE);
+      }
+
+      return V.one(executeShared(env, ctx, sql));
+
+    case SESSION:
+      return V.one(executeShared(env, ctx, sql));
+
+    case WRITE:
+      if (isSplit() || isPartial(ctx)) {
+        if (! isDeterministic(sql)) {
+          env.warning(L.l("'{0}' cannot be isolated per configuration, "
+                          + "because replaying it gives a different result",
+                          sql));
+
+          return V.one(BooleanValue.FALSE);
+        }
+
+        try {
+          split(ctx);
+        } catch (SQLException e) {
+          log.log(Level.FINE, e.toString(), e);
+          env.warning(L.l("cannot isolate '{0}' for {1}: {2}", sql, ctx, e));
+
+          return V.one(BooleanValue.FALSE);
+        }
+      }
+      break;
+
+    default:
+      break;
+    }
+
+    boolean isInsert = kind == StatementKind.WRITE && isInsert(sql);
+
+    V<? extends Value> result = null;
+
+    for (Partition partition : new ArrayList<Partition>(_partitions)) {
+      FeatureExpr cond = partition._cond.and(ctx);
+
+      if (! cond.isSatisfiable())
+        continue;
+
+      Value value;
+
+      try {
+        switchTo(env, partition);
+
+        if (kind == StatementKind.WRITE && isSplit())
+          value = write(env, partition, sql, isInsert);
+        else
+          value = execute(env, sql);
+      } catch (SQLException e) {
+        log.log(Level.FINE, e.toString(), e);
+        env.warning(L.l("cannot switch to configuration {0}: {1}",
+                        partition._cond, e));
+
+        value = BooleanValue.FALSE;
+      }
+
+      if (result == null)
+        result = V.one(value);
+      else
+        result = V.choice(cond, V.one(value), result);
+    }
+
+    if (kind == StatementKind.WRITE)
+      merge();
+
+    if (result == null)
+      return V.one(BooleanValue.FALSE);
+    else
+      return result;
+  }
+
+  /**
+   * Executes a statement once for all configurations, e.g. DDL before
+   * the first split or a session variable.
+   */
+  private Value executeShared(Env env, FeatureExpr ctx, StringValue sql)
+  {
+    if (! VHelper.isTrue(ctx)) {
+      log.warning(L.l("'{0}' is applied to all configurations, "
+                      + "not only to {1}", sql, ctx));
+    }
+
+    return execute(env, sql);
+  }
+
+  /**
+   * Executes a write on the current partition and logs it, with the
+   * AUTO_INCREMENT id it generated so replay gives the same rows.
+   */
+  private Value write(Env env,
+                      Partition partition,
+                      StringValue sql,
+                      boolean isInsert)
+    throws SQLException
+  {
+    if (isInsert)
+      resetInsertId();
+
+    Value value = execute(env, sql);
+
+    // a failed write does not change the state
+    if (value == BooleanValue.FALSE)
+      return value;
+
+    long insertId = isInsert ? getInsertId() : 0;
+
+    Entry entry = new Entry(sql, insertId);
+
+    partition._log.add(entry);
+    _applied.add(entry);
+    _savepoints.add(setSavepoint());
+
+    return value;
+  }
+
+  /**
+   * Executes a statement on the connection, returning FALSE on failure.
+   */
+  Value execute(Env env, StringValue sql)
+  {
+    _executeCount++;
+
+    Value value = null;
+
+    try {
+      value = _conn.executeQuery(env, sql);
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+
+    if (value == null)
+      return BooleanValue.FALSE;
+    else
+      return value;
+  }
+
+  /**
+   * Returns true if a write under ctx splits a partition.
+   */
+  private boolean isPartial(FeatureExpr ctx)
+  {
+    for (Partition partition : _partitions) {
+      if (partition._cond.and(ctx).isSatisfiable()
+          && partition._cond.and(ctx.not()).isSatisfiable())
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Splits every partition that is only partially covered by ctx, so
+   * that a write under ctx is applied to whole partitions.
+   */
+  private void split(FeatureExpr ctx)
+    throws SQLException
+  {
+    ArrayList<Partition> added = null;
+
+    for (Partition partition : _partitions) {
+      FeatureExpr inside = partition._cond.and(ctx);
+      FeatureExpr outside = partition._cond.and(ctx.not());
+
+      if (! inside.isSatisfiable() || ! outside.isSatisfiable())
+        continue;
+
+      if (! isSplit()) {
+        begin();
+
+        _savepoints.add(setSavepoint());
+      }
+
+      partition._cond = inside;
+
+      if (added == null)
+        added = new ArrayList<Partition>();
+
+      added.add(new Partition(outside,
+                              new ArrayList<Entry>(partition._log)));
+    }
+
+    if (added != null)
+      _partitions.addAll(added);
+  }
+
+  /**
+   * Merges partitions that reached the same state by the same writes.
+   */
+  private void merge()
+  {
+    for (int i = 0; i < _partitions.size(); i++) {
+      Partition a = _partitions.get(i);
+
+      for (int j = _partitions.size() - 1; i < j; j--) {
+        Partition b = _partitions.get(j);
+
+        if (a._log.equals(b._log)) {
+          a._cond = a._cond.or(b._cond);
+
+          if (_current == b)
+            _current = a;
+
+          _partitions.remove(j);
+        }
+      }
+    }
+  }
+
+  /**
+   * Brings the connection to the partition's state.  Only the writes
+   * after the longest prefix shared with the current state are undone
+   * and replayed.
+   */
+  private void switchTo(Env env, Partition partition)
+    throws SQLException
+  {
+    if (_current == partition)
+      return;
+
+    _current = null;
+
+    ArrayList<Entry> log = partition._log;
+
+    int common = 0;
+    int max = Math.min(_applied.size(), log.size());
+
+    while (common < max && _applied.get(common).equals(log.get(common))) {
+      common++;
+    }
+
+    if (common < _applied.size()) {
+      rollback(_savepoints.get(common));
+
+      // later savepoints are released by the rollback
+      while (common < _applied.size()) {
+        _applied.remove(_applied.size() - 1);
+        _savepoints.remove(_savepoints.size() - 1);
+      }
+    }
+
+    for (int i = common; i < log.size(); i++) {
+      Entry entry = log.get(i);
+
+      _replayCount++;
+
+      if (entry._insertId != 0)
+        setInsertId(entry._insertId);
+
+      execute(env, entry._sql);
+
+      _applied.add(entry);
+      _savepoints.add(setSavepoint());
+    }
+
+    _current = partition;
+  }
+
+  /**
+   * Ends the isolation.  The writes are committed if all configurations
+   * share one state, and rolled back otherwise.
+   */
+  void cleanup()
+  {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " queries=" + _queryCount
+               + " executions=" + _executeCount
+               + " replayed=" + _replayCount);
+    }
+
+    if (! isSplit())
+      return;
+
+    boolean isCommit = (_partitions.size() == 1
+                        && _current == _partitions.get(0));
+
+    if (! isCommit) {
+      log.warning(L.l("{0}: rolling back the writes of {1} configurations "
+                      + "that ended in different states",
+                      this, _partitions.size()));
+    }
+
+    _savepoints.clear();
+    _applied.clear();
+
+    try {
+      finish(isCommit);
+    } catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+  }
+
+  //
+  // connection operations, overridden by tests
+  //
+
+  /**
+   * Starts the transaction holding the isolated writes.
+   */
+  void begin()
+    throws SQLException
+  {
+    Connection conn = getConnection();
+
+    _isAutoCommit = conn.getAutoCommit();
+
+    if (_isAutoCommit)
+      conn.setAutoCommit(false);
+  }
+
+  Savepoint setSavepoint()
+    throws SQLException
+  {
+    return getConnection().setSavepoint();
+  }
+
+  void rollback(Savepoint savepoint)
+    throws SQLException
+  {
+    getConnection().rollback(savepoint);
+  }
+
+  /**
+   * Commits or rolls back the transaction and restores auto-commit.
+   */
+  void finish(boolean isCommit)
+    throws SQLException
+  {
+    Connection conn = _conn.getJdbcConnection();
+
+    if (conn == null)
+      return;
+
+    if (isCommit)
+      conn.commit();
+    else
+      conn.rollback();
+
+    if (_isAutoCommit)
+      conn.setAutoCommit(true);
+  }
+
+  /**
+   * Clears LAST_INSERT_ID(), so a following INSERT that generates no
+   * id is recognized.
+   */
+  void resetInsertId()
+    throws SQLException
+  {
+    queryLong("SELECT LAST_INSERT_ID(0)");
+  }
+
+  /**
+   * Returns the first AUTO_INCREMENT id of the last INSERT, or 0.
+   */
+  long getInsertId()
+    throws SQLException
+  {
+    return queryLong("SELECT LAST_INSERT_ID()");
+  }
+
+  /**
+   * Sets the AUTO_INCREMENT id used by the next INSERT.
+   */
+  void setInsertId(long id)
+    throws SQLException
+  {
+    Statement stmt = getConnection().createStatement();
+
+    try {
+      stmt.executeUpdate("SET INSERT_ID = " + id);
+    } finally {
+      stmt.close();
+    }
+  }
+
+  private long queryLong(String sql)
+    throws SQLException
+  {
+    Statement stmt = getConnection().createStatement();
+
+    try {
+      ResultSet rs = stmt.executeQuery(sql);
+
+      return rs.next() ? rs.getLong(1) : 0;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  private Connection getConnection()
+    throws SQLException
+  {
+    Connection conn = _conn.getJdbcConnection();
+
+    if (conn == null)
+      throw new SQLException(L.l("connection is closed"));
+
+    return conn;
+  }
+
+  //
+  // statement classification
+  //
+
+  static StatementKind getStatementKind(StringValue sql)
+  {
+    int start = skipPrefix(sql, 0);
+    String token = getToken(sql, start);
+    int i = start + token.length();
+
+    if (token.equalsIgnoreCase("SELECT")
+        || token.equalsIgnoreCase("SHOW")
+        || token.equalsIgnoreCase("DESCRIBE")
+        || token.equalsIgnoreCase("DESC")
+        || token.equalsIgnoreCase("EXPLAIN")) {
+      return StatementKind.READ;
+    }
+    else if (token.equalsIgnoreCase("BEGIN")
+             || token.equalsIgnoreCase("START")
+             || token.equalsIgnoreCase("COMMIT")
+             || token.equalsIgnoreCase("ROLLBACK")
+             || token.equalsIgnoreCase("SAVEPOINT")
+             || token.equalsIgnoreCase("RELEASE")
+             || token.equalsIgnoreCase("LOCK")
+             || token.equalsIgnoreCase("UNLOCK")
+             || token.equalsIgnoreCase("XA")) {
+      return StatementKind.TRANSACTION;
+    }
+    else if (token.equalsIgnoreCase("SET")) {
+      String rest = sql.substring(i).toString().toLowerCase();
+
+      // autocommit=1 commits, SET TRANSACTION changes the isolation
+      if (rest.indexOf("autocommit") >= 0
+          || rest.trim().startsWith("transaction"))
+        return StatementKind.TRANSACTION;
+      else
+        return StatementKind.SESSION;
+    }
+    else if (token.equalsIgnoreCase("CREATE")
+             || token.equalsIgnoreCase("DROP")
+             || token.equalsIgnoreCase("ALTER")
+             || token.equalsIgnoreCase("TRUNCATE")
+             || token.equalsIgnoreCase("RENAME")
+             || token.equalsIgnoreCase("USE")) {
+      return StatementKind.DDL;
+    }
+    else
+      return StatementKind.WRITE;
+  }
+
+  /**
+   * Skips whitespace, comments and opening parentheses before the first
+   * keyword.  The body of a MySQL executable comment is not skipped.
+   */
+  private static int skipPrefix(StringValue sql, int i)
+  {
+    int len = sql.length();
+
+    while (i < len) {
+      char ch = sql.charAt(i);
+
+      if (Character.isWhitespace(ch) || ch == '(') {
+        i++;
+      }
+      else if (ch == '/' && i + 2 < len && sql.charAt(i + 1) == '*'
+               && sql.charAt(i + 2) == '!') {
+        for (i += 3; i < len && Character.isDigit(sql.charAt(i)); i++) {
+        }
+      }
+      else if (ch == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+
+        i = end < 0 ? len : end + 2;
+      }
+      else if (ch == '#'
+               || (ch == '-' && i + 2 < len && sql.charAt(i + 1) == '-'
+                   && Character.isWhitespace(sql.charAt(i + 2)))) {
+        while (i < len && sql.charAt(i) != '\n') {
+          i++;
+        }
+      }
+      else
+        break;
+    }
+
+    return i;
+  }
+
+  private static String getToken(StringValue sql, int start)
+  {
+    int len = sql.length();
+    int i = start;
+
+    while (i < len && Character.isLetter(sql.charAt(i))) {
+      i++;
+    }
+
+    return sql.substring(start, i).toString();
+  }
+
+  private static boolean isInsert(StringValue sql)
+  {
+    String token = getToken(sql, skipPrefix(sql, 0));
+
+    return token.equalsIgnoreCase("INSERT") || token.equalsIgnoreCase("REPLACE");
+  }
+
+  /**
+   * Returns false if the statement uses a function or a variable whose
+   * value differs when the statement is replayed later.
+   */
+  static boolean isDeterministic(StringValue sql)
+  {
+    int len = sql.length();
+
+    for (int i = 0; i < len; i++) {
+      char ch = sql.charAt(i);
+
+      if (ch == '\'' || ch == '"' || ch == '`') {
+        for (i++; i < len && sql.charAt(i) != ch; i++) {
+          if (sql.charAt(i) == '\\')
+            i++;
+        }
+      }
+      else if (ch == '@') {
+        return false;
+      }
+      else if (Character.isLetter(ch) || ch == '_') {
+        int start = i;
+
+        while (i + 1 < len
+               && (Character.isLetterOrDigit(sql.charAt(i + 1))
+                   || sql.charAt(i + 1) == '_'
+                   || sql.charAt(i + 1) == '$')) {
+          i++;
+        }
+
+        String word = sql.substring(start, i + 1).toString();
+
+        if (NON_DETERMINISTIC.contains(word.toUpperCase()))
+          return false;
+      }
+    }
+
+    return true;
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _conn
+           + ",partitions=" + _partitions.size() + "]";
+  }
+
+  enum StatementKind {
+    READ,
+    WRITE,
+    DDL,
+    TRANSACTION,
+    SESSION
+  }
+
+  static class Partition {
+    private FeatureExpr _cond;
+
+    // writes since the first split, in execution order
+    private final ArrayList<Entry> _log;
+
+    Partition(FeatureExpr cond, ArrayList<Entry> log)
+    {
+      _cond = cond;
+      _log = log;
+    }
+  }
+
+  /**
+   * A logged write and the AUTO_INCREMENT id it generated.
+   */
+  static class Entry {
+    private final StringValue _sql;
+    private final long _insertId;
+
+    Entry(StringValue sql, long insertId)
+    {
+      _sql = sql;
+      _insertId = insertId;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _sql.hashCode() * 65521 + (int) _insertId;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (! (o instanceof Entry))
+        return false;
+
+      Entry entry = (Entry) o;
+
+      return _insertId == entry._insertId && _sql.equals(entry._sql);
+    }
+  }
+
+  static {
+    String []names = new String[] {
+      "NOW", "SYSDATE", "CURDATE", "CURTIME",
+      "CURRENT_DATE", "CURRENT_TIME", "CURRENT_TIMESTAMP",
+      "LOCALTIME", "LOCALTIMESTAMP", "UNIX_TIMESTAMP",
+      "UTC_DATE", "UTC_TIME", "UTC_TIMESTAMP",
+      "RAND", "UUID", "UUID_SHORT",
+      "LAST_INSERT_ID", "FOUND_ROWS", "ROW_COUNT",
+      "SLEEP", "GET_LOCK", "RELEASE_LOCK",
+    };
+
+    for (String name : names) {
+      NON_DETERMINISTIC.add(name);
+    }
+  }
+}
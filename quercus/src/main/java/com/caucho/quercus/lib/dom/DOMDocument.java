@@ -63,11 +63,27 @@ public class DOMDocument
 
   private String _encoding;
 
+  private DOMXPathIndex _xpathIndex;
+  private boolean _isXPathIndexInit;
+
   DOMDocument(DOMImplementation impl, Document document)
   {
     super(impl, document);
   }
 
+  /**
+   * Returns the document's XPath indexes, or null if it has none.
+   */
+  DOMXPathIndex getXPathIndex()
+  {
+    if (! _isXPathIndexInit) {
+      _isXPathIndexInit = true;
+      _xpathIndex = DOMXPathIndex.create(_delegate);
+    }
+
+    return _xpathIndex;
+  }
+
   public static DOMDocument __construct(Env env,
                                         @Optional("'1.0'") String version,
                                         @Optional String encoding)
@@ -606,26 +622,22 @@ public class DOMDocument
 
   private StringValue saveToString(Env env, DOMNode node, boolean isHTML)
   {
-    TempStream tempStream = new TempStream();
+    // the printer's output goes straight into the result, without
+    // a temp buffer chain that would then be copied
+    StringValue result = env.createBinaryBuilder();
 
     try {
-      tempStream.openWrite();
-      WriteStream os = new WriteStream(tempStream);
+      WriteStream os = new WriteStream(new BinaryBuilderStream(result));
 
       saveToStream(node, os, isHTML);
 
       os.close();
     }
     catch (IOException ex) {
-      tempStream.discard();
       env.warning(ex);
       return null;
     }
 
-    StringValue result = env.createBinaryString(tempStream.getHead());
-
-    tempStream.discard();
-
     return result;
   }
 
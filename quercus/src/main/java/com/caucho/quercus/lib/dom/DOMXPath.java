@@ -108,18 +108,24 @@ public class DOMXPath
 
   private NodeList query(Env env, String pattern, Node node)
   {
-    try {
-      if (_context == null) {
-        QuercusContext quercus = env.getQuercus();
+    QuercusContext quercus = env.getQuercus();
 
-        ExpressionCache cache
-          = (ExpressionCache) quercus.getSpecial("caucho.domxpath.cache");
+    ExpressionCache cache
+      = (ExpressionCache) quercus.getSpecial("caucho.domxpath.cache");
 
-        if (cache == null) {
-          cache = new ExpressionCache();
-          quercus.setSpecial("caucho.domxpath.cache", cache);
-        }
+    if (cache == null) {
+      cache = new ExpressionCache();
+      quercus.setSpecial("caucho.domxpath.cache", cache);
+    }
 
+    // simple location paths skip the JDK's XPath
+    XPathProgram program = cache.getProgram(pattern);
+
+    if (program != null)
+      return program.evaluate(node, getIndex(node));
+
+    try {
+      if (_context == null) {
         XPathExpression expr = cache.compile(pattern);
 
         NodeList nodeList
@@ -153,6 +159,19 @@ public class DOMXPath
     }
   }
 
+  /**
+   * Returns the indexes of the document if the node belongs to it.
+   */
+  private DOMXPathIndex getIndex(Node node)
+  {
+    Node doc = _document.getDelegate();
+
+    if (node != doc && node.getOwnerDocument() != doc)
+      return null;
+
+    return _document.getXPathIndex();
+  }
+
   public boolean registerNamespace(String prefix, String namespaceURI)
   {
     if (_context == null)
@@ -223,14 +242,19 @@ public class DOMXPath
     private final LruCache<String,ExpressionEntry> _xpathCache
       = new LruCache<String,ExpressionEntry>(1024);
 
+    /**
+     * Returns the compiled program, or null if the pattern needs the
+     * full XPath implementation.
+     */
+    XPathProgram getProgram(String pattern)
+    {
+      return getEntry(pattern)._program;
+    }
+
     XPathExpression compile(String pattern)
       throws XPathExpressionException
     {
-      ExpressionEntry entry = _xpathCache.get(pattern);
-      XPathExpression expr = null;
-
-      if (entry != null)
-        expr = entry.allocate();
+      XPathExpression expr = getEntry(pattern).allocate();
 
       if (expr == null) {
         XPath xpath = _factory.newXPath();
@@ -241,21 +265,32 @@ public class DOMXPath
     }
 
     void free(String pattern, XPathExpression expr)
+    {
+      getEntry(pattern).free(expr);
+    }
+
+    private ExpressionEntry getEntry(String pattern)
     {
       ExpressionEntry entry = _xpathCache.get(pattern);
 
       if (entry == null) {
-        entry = new ExpressionEntry();
-        _xpathCache.put(pattern, entry);
+        entry = new ExpressionEntry(XPathProgram.compile(pattern));
+        entry = _xpathCache.putIfNew(pattern, entry);
       }
 
-      entry.free(expr);
+      return entry;
     }
   }
 
   static class ExpressionEntry {
+    private final XPathProgram _program;
     private XPathExpression _expr;
 
+    ExpressionEntry(XPathProgram program)
+    {
+      _program = program;
+    }
+
     XPathExpression allocate()
     {
       synchronized (this) {
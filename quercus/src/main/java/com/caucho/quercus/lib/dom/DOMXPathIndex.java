@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+
+package com.caucho.quercus.lib.dom;
+
+import com.caucho.xml.QDocument;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Element-name and attribute-value indexes of a document, used by
+ * XPathProgram for absolute //name and //name[@attr='value'] steps.
+ *
+ * The name index is built by one walk of the document on the first
+ * query.  An attribute index for a name/attribute pair is built from
+ * the name index the first time that pair is queried.  Any change to
+ * the document drops all indexes.
+ */
+class DOMXPathIndex
+{
+  private static final ArrayList<Element> EMPTY = new ArrayList<Element>();
+
+  private final QDocument _document;
+
+  private int _changeCount;
+
+  // element name to elements in document order, "*" for all elements
+  private HashMap<String,ArrayList<Element>> _nameMap;
+
+  // name + '@' + attribute to value to elements in document order
+  private final HashMap<String,HashMap<String,ArrayList<Element>>> _attrMap
+    = new HashMap<String,HashMap<String,ArrayList<Element>>>();
+
+  private DOMXPathIndex(QDocument document)
+  {
+    _document = document;
+  }
+
+  /**
+   * Returns an index for the document, or null if its changes cannot
+   * be tracked.
+   */
+  static DOMXPathIndex create(Node document)
+  {
+    if (document instanceof QDocument)
+      return new DOMXPathIndex((QDocument) document);
+    else
+      return null;
+  }
+
+  /**
+   * Returns the elements with the name, or all elements for "*".
+   */
+  ArrayList<Element> getElements(String name)
+  {
+    if (_nameMap == null || _changeCount != _document.getChangeCount())
+      build();
+
+    ArrayList<Element> list = _nameMap.get(name);
+
+    return list != null ? list : EMPTY;
+  }
+
+  /**
+   * Returns the elements with the name whose attribute has the value.
+   */
+  ArrayList<Element> getElements(String name, String attrName, String value)
+  {
+    ArrayList<Element> elements = getElements(name);
+
+    String key = name + '@' + attrName;
+
+    HashMap<String,ArrayList<Element>> valueMap = _attrMap.get(key);
+
+    if (valueMap == null) {
+      valueMap = new HashMap<String,ArrayList<Element>>();
+
+      for (Element elt : elements) {
+        Attr attr = elt.getAttributeNode(attrName);
+
+        if (attr == null)
+          continue;
+
+        ArrayList<Element> list = valueMap.get(attr.getValue());
+
+        if (list == null) {
+          list = new ArrayList<Element>();
+          valueMap.put(attr.getValue(), list);
+        }
+
+        list.add(elt);
+      }
+
+      _attrMap.put(key, valueMap);
+    }
+
+    ArrayList<Element> list = valueMap.get(value);
+
+    return list != null ? list : EMPTY;
+  }
+
+  private void build()
+  {
+    HashMap<String,ArrayList<Element>> nameMap
+      = new HashMap<String,ArrayList<Element>>();
+
+    ArrayList<Element> all = new ArrayList<Element>();
+    nameMap.put("*", all);
+
+    Node top = _document;
+    Node node = top.getFirstChild();
+
+    while (node != null) {
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        Element elt = (Element) node;
+
+        all.add(elt);
+
+        if (XPathProgram.isNoNamespace(elt)) {
+          ArrayList<Element> list = nameMap.get(elt.getNodeName());
+
+          if (list == null) {
+            list = new ArrayList<Element>();
+            nameMap.put(elt.getNodeName(), list);
+          }
+
+          list.add(elt);
+        }
+      }
+
+      node = XPathProgram.nextPreorder(top, node);
+    }
+
+    _nameMap = nameMap;
+    _attrMap.clear();
+    _changeCount = _document.getChangeCount();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _document + "]";
+  }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+
+package com.caucho.quercus.lib.dom;
+
+import com.caucho.xml.NodeListImpl;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * An XPath location path compiled to a flat instruction program.
+ *
+ * Only abbreviated paths of unprefixed name tests are compiled, e.g.
+ * /a/b, //item, //item[@id='x'], a/*[@href][2].  The program is run
+ * by a single loop over the instructions, each one mapping the current
+ * node list to the next, so evaluation never recurses.  compile()
+ * returns null for anything else, which is left to the JDK's XPath.
+ */
+final class XPathProgram
+{
+  // context := the document
+  private static final int OP_ROOT = 0;
+  // context := child elements matching the name
+  private static final int OP_CHILD = 1;
+  // context := descendant elements matching the name
+  private static final int OP_DESCENDANT = 2;
+  // keep elements with the attribute
+  private static final int OP_HAS_ATTR = 3;
+  // keep elements whose attribute has the value
+  private static final int OP_ATTR_EQ = 4;
+  // keep the n'th element among the selected children of each parent
+  private static final int OP_POSITION = 5;
+
+  private final String _pattern;
+
+  private final int []_ops;
+  private final String []_names;
+  private final String []_values;
+  private final int []_positions;
+
+  private XPathProgram(String pattern,
+                       int []ops,
+                       String []names,
+                       String []values,
+                       int []positions)
+  {
+    _pattern = pattern;
+    _ops = ops;
+    _names = names;
+    _values = values;
+    _positions = positions;
+  }
+
+  /**
+   * Compiles the pattern, returning null if it is outside the subset.
+   */
+  static XPathProgram compile(String pattern)
+  {
+    return new Compiler(pattern).compile();
+  }
+
+  /**
+   * Evaluates the program from the context node.
+   *
+   * @param index the document's indexes, or null to walk the tree
+   */
+  NodeList evaluate(Node context, DOMXPathIndex index)
+  {
+    ArrayList<Node> nodes = new ArrayList<Node>();
+    nodes.add(context);
+
+    int []ops = _ops;
+    int pc = 0;
+
+    if (index != null
+        && ops.length > 1
+        && ops[0] == OP_ROOT
+        && ops[1] == OP_DESCENDANT) {
+      // //name[@attr='value'] is answered by the indexes
+      if (ops.length > 2 && ops[2] == OP_ATTR_EQ) {
+        nodes = new ArrayList<Node>(index.getElements(_names[1],
+                                                      _names[2],
+                                                      _values[2]));
+        pc = 3;
+      }
+      else {
+        nodes = new ArrayList<Node>(index.getElements(_names[1]));
+        pc = 2;
+      }
+    }
+
+    for (; pc < ops.length && nodes.size() > 0; pc++) {
+      switch (ops[pc]) {
+      case OP_ROOT:
+        nodes = selectRoot(nodes);
+        break;
+
+      case OP_CHILD:
+        nodes = selectChildren(nodes, _names[pc]);
+        break;
+
+      case OP_DESCENDANT:
+        nodes = selectDescendants(nodes, _names[pc]);
+        break;
+
+      case OP_HAS_ATTR:
+      case OP_ATTR_EQ:
+        nodes = filterAttribute(nodes, _names[pc], _values[pc]);
+        break;
+
+      case OP_POSITION:
+        nodes = filterPosition(nodes, _positions[pc]);
+        break;
+
+      default:
+        throw new IllegalStateException(String.valueOf(ops[pc]));
+      }
+    }
+
+    return new NodeListImpl(nodes);
+  }
+
+  private static ArrayList<Node> selectRoot(ArrayList<Node> nodes)
+  {
+    Node node = nodes.get(0);
+
+    Node doc;
+
+    if (node.getNodeType() == Node.DOCUMENT_NODE)
+      doc = node;
+    else
+      doc = node.getOwnerDocument();
+
+    ArrayList<Node> result = new ArrayList<Node>();
+    result.add(doc);
+
+    return result;
+  }
+
+  private static ArrayList<Node> selectChildren(ArrayList<Node> nodes,
+                                                String name)
+  {
+    ArrayList<Node> result = new ArrayList<Node>();
+
+    for (Node node : nodes) {
+      for (Node child = node.getFirstChild();
+           child != null;
+           child = child.getNextSibling()) {
+        if (isMatch(child, name))
+          result.add(child);
+      }
+    }
+
+    return result;
+  }
+
+  private static ArrayList<Node> selectDescendants(ArrayList<Node> nodes,
+                                                   String name)
+  {
+    ArrayList<Node> result = new ArrayList<Node>();
+
+    // a context node inside an earlier one was already walked
+    IdentityHashMap<Node,Boolean> visited = null;
+
+    if (nodes.size() > 1)
+      visited = new IdentityHashMap<Node,Boolean>();
+
+    for (Node top : nodes) {
+      if (visited != null && visited.containsKey(top))
+        continue;
+
+      for (Node node = top.getFirstChild();
+           node != null;
+           node = nextPreorder(top, node)) {
+        if (visited != null)
+          visited.put(node, Boolean.TRUE);
+
+        if (isMatch(node, name))
+          result.add(node);
+      }
+    }
+
+    return result;
+  }
+
+  private static ArrayList<Node> filterAttribute(ArrayList<Node> nodes,
+                                                 String attrName,
+                                                 String value)
+  {
+    ArrayList<Node> result = new ArrayList<Node>();
+
+    for (Node node : nodes) {
+      Attr attr = ((Element) node).getAttributeNode(attrName);
+
+      if (attr != null && (value == null || value.equals(attr.getValue())))
+        result.add(node);
+    }
+
+    return result;
+  }
+
+  /**
+   * Keeps the n'th node of each parent, relying on the nodes being in
+   * document order.
+   */
+  private static ArrayList<Node> filterPosition(ArrayList<Node> nodes,
+                                                int position)
+  {
+    ArrayList<Node> result = new ArrayList<Node>();
+
+    IdentityHashMap<Node,Integer> countMap
+      = new IdentityHashMap<Node,Integer>();
+
+    for (Node node : nodes) {
+      Node parent = node.getParentNode();
+
+      Integer count = countMap.get(parent);
+      int n = count != null ? count + 1 : 1;
+
+      countMap.put(parent, n);
+
+      if (n == position)
+        result.add(node);
+    }
+
+    return result;
+  }
+
+  private static boolean isMatch(Node node, String name)
+  {
+    if (node.getNodeType() != Node.ELEMENT_NODE)
+      return false;
+    else if ("*".equals(name))
+      return true;
+    else
+      return name.equals(node.getNodeName()) && isNoNamespace(node);
+  }
+
+  /**
+   * An unprefixed XPath name test only matches elements in no namespace.
+   */
+  static boolean isNoNamespace(Node node)
+  {
+    String uri = node.getNamespaceURI();
+
+    return uri == null || uri.length() == 0;
+  }
+
+  /**
+   * Returns the next node after node in document order that is still
+   * below top, or null at the end of top's subtree.
+   */
+  static Node nextPreorder(Node top, Node node)
+  {
+    Node next = node.getFirstChild();
+
+    if (next != null)
+      return next;
+
+    for (; node != top && node != null; node = node.getParentNode()) {
+      next = node.getNextSibling();
+
+      if (next != null)
+        return next;
+    }
+
+    return null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _pattern + "]";
+  }
+
+  /**
+   * Parser for the supported subset.
+   */
+  static class Compiler {
+    private final String _pattern;
+    private int _offset;
+
+    private final ArrayList<Integer> _ops = new ArrayList<Integer>();
+    private final ArrayList<String> _names = new ArrayList<String>();
+    private final ArrayList<String> _values = new ArrayList<String>();
+    private final ArrayList<Integer> _positions = new ArrayList<Integer>();
+
+    Compiler(String pattern)
+    {
+      _pattern = pattern;
+    }
+
+    XPathProgram compile()
+    {
+      String pattern = _pattern;
+      int len = pattern.length();
+
+      if (len == 0)
+        return null;
+
+      int op = OP_CHILD;
+
+      if (pattern.startsWith("//")) {
+        add(OP_ROOT, null, null, 0);
+        op = OP_DESCENDANT;
+        _offset = 2;
+      }
+      else if (pattern.startsWith("/")) {
+        add(OP_ROOT, null, null, 0);
+        _offset = 1;
+      }
+
+      while (true) {
+        String name = parseName();
+
+        if (name == null)
+          return null;
+
+        add(op, name, null, 0);
+
+        while (_offset < len && pattern.charAt(_offset) == '[') {
+          _offset++;
+
+          if (! parsePredicate())
+            return null;
+        }
+
+        if (_offset == len)
+          break;
+        else if (pattern.startsWith("//", _offset)) {
+          op = OP_DESCENDANT;
+          _offset += 2;
+        }
+        else if (pattern.charAt(_offset) == '/') {
+          op = OP_CHILD;
+          _offset += 1;
+        }
+        else
+          return null;
+      }
+
+      int size = _ops.size();
+      int []ops = new int[size];
+      int []positions = new int[size];
+
+      for (int i = 0; i < size; i++) {
+        ops[i] = _ops.get(i);
+        positions[i] = _positions.get(i);
+      }
+
+      return new XPathProgram(pattern, ops,
+                              _names.toArray(new String[size]),
+                              _values.toArray(new String[size]),
+                              positions);
+    }
+
+    /**
+     * Parses [@attr], [@attr='value'] or [n] after the '['.
+     */
+    private boolean parsePredicate()
+    {
+      String pattern = _pattern;
+
+      if (_offset < pattern.length() && pattern.charAt(_offset) == '@') {
+        _offset++;
+
+        String attrName = parseName();
+
+        if (attrName == null || "*".equals(attrName)
+            || attrName.startsWith("xmlns")) {
+          return false;
+        }
+
+        if (pattern.startsWith("]", _offset)) {
+          _offset++;
+          add(OP_HAS_ATTR, attrName, null, 0);
+
+          return true;
+        }
+
+        if (! pattern.startsWith("=", _offset))
+          return false;
+
+        _offset++;
+
+        String value = parseLiteral();
+
+        if (value == null || ! pattern.startsWith("]", _offset))
+          return false;
+
+        _offset++;
+        add(OP_ATTR_EQ, attrName, value, 0);
+
+        return true;
+      }
+
+      int start = _offset;
+
+      while (_offset < pattern.length()
+             && '0' <= pattern.charAt(_offset)
+             && pattern.charAt(_offset) <= '9') {
+        _offset++;
+      }
+
+      if (start == _offset || _offset - start > 9
+          || ! pattern.startsWith("]", _offset)) {
+        return false;
+      }
+
+      int position = Integer.parseInt(pattern.substring(start, _offset));
+
+      _offset++;
+
+      if (position < 1)
+        return false;
+
+      add(OP_POSITION, null, null, position);
+
+      return true;
+    }
+
+    private String parseLiteral()
+    {
+      String pattern = _pattern;
+
+      if (_offset >= pattern.length())
+        return null;
+
+      char quote = pattern.charAt(_offset);
+
+      if (quote != '\'' && quote != '"')
+        return null;
+
+      int end = pattern.indexOf(quote, _offset + 1);
+
+      if (end < 0)
+        return null;
+
+      String value = pattern.substring(_offset + 1, end);
+      _offset = end + 1;
+
+      return value;
+    }
+
+    /**
+     * Parses an unprefixed name or '*'.
+     */
+    private String parseName()
+    {
+      String pattern = _pattern;
+      int len = pattern.length();
+
+      if (_offset < len && pattern.charAt(_offset) == '*') {
+        _offset++;
+
+        return "*";
+      }
+
+      int start = _offset;
+
+      while (_offset < len && isNameChar(pattern.charAt(_offset))) {
+        _offset++;
+      }
+
+      if (start == _offset
+          || ! Character.isLetter(pattern.charAt(start))
+             && pattern.charAt(start) != '_') {
+        return null;
+      }
+
+      // axes, node tests and functions all continue with ':' or '('
+      if (_offset < len
+          && (pattern.charAt(_offset) == ':'
+              || pattern.charAt(_offset) == '(')) {
+        return null;
+      }
+
+      return pattern.substring(start, _offset);
+    }
+
+    private static boolean isNameChar(char ch)
+    {
+      return (Character.isLetterOrDigit(ch)
+              || ch == '_' || ch == '-' || ch == '.');
+    }
+
+    private void add(int op, String name, String value, int position)
+    {
+      _ops.add(op);
+      _names.add(name);
+      _values.add(value);
+      _positions.add(position);
+    }
+  }
+}
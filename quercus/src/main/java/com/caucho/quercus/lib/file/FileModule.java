@@ -106,6 +106,9 @@ public class FileModule extends AbstractQuercusModule {
   public static final int PATHINFO_EXTENSION = 4;
   public static final int PATHINFO_FILENAME = 8;
 
+  // smaller files are read into the chunked large builder
+  private static final long PRESIZE_MIN_LENGTH = 256 * 1024;
+
   public static final int SEEK_SET = BinaryStream.SEEK_SET;
   public static final int SEEK_CUR = BinaryStream.SEEK_CUR;
   public static final int SEEK_END = BinaryStream.SEEK_END;
@@ -1178,6 +1181,15 @@ public class FileModule extends AbstractQuercusModule {
 
     BinaryInput is = (BinaryInput) s;
 
+    if (is instanceof FileInput && ! env.isUnicodeSemantics()) {
+      StringValue contents = readContents((FileInput) is, maxLen);
+
+      if (contents != null) {
+        s.close();
+        return contents;
+      }
+    }
+
     StringValue bb = env.createLargeBinaryBuilder();
     bb.appendReadAll(is, maxLen);
 
@@ -1185,6 +1197,27 @@ public class FileModule extends AbstractQuercusModule {
     return bb;
   }
 
+  /**
+   * Reads the rest of a large local file into a heap string sized from
+   * the file's length, or returns null if the file should be read into
+   * the large builder.  The file isn't mapped, since a mapping held by
+   * the string would see later truncation of the file and, on Windows,
+   * keep the file from being deleted.
+   */
+  private static StringValue readContents(FileInput is, long maxLen)
+  {
+    long position = is.getPosition();
+    long length = Math.min(is.getLength() - position, maxLen);
+
+    if (position < 0 || length < PRESIZE_MIN_LENGTH || Integer.MAX_VALUE < length)
+      return null;
+
+    StringBuilderValue sb = new StringBuilderValue((int) length);
+    sb.appendReadAll((BinaryInput) is, maxLen);
+
+    return sb;
+  }
+
   /**
    * Writes data to a file.
    */
@@ -1774,6 +1807,24 @@ public class FileModule extends AbstractQuercusModule {
 
       VWriteStream out = env.getOut();
 
+      if (is instanceof FileInput) {
+        // local files are written from the file itself instead of
+        // being copied through the input stream's buffer
+        FileInput file = (FileInput) is;
+
+        long position = file.getPosition();
+        long length = file.getLength() - position;
+
+        if (0 <= position && 0 < length) {
+          long writeLength = out.writeFile(VHelper.noCtx(), file.getPath(),
+                                           position, length);
+
+          file.setPosition(position + writeLength);
+
+          return LongValue.create(writeLength);
+        }
+      }
+
       long writeLength = out.writeStream(VHelper.noCtx(), is.getInputStream());
 
       return LongValue.create(writeLength);
@@ -34,16 +34,45 @@ import com.caucho.util.L10N;
 
 import java.util.logging.Logger;
 
+/**
+ * Decodes JSON into PHP values.
+ *
+ * Binary strings are scanned directly on their byte buffer, and other
+ * strings on a copy of their characters, so the hot loops never go
+ * through StringValue.charAt().
+ */
 class JsonDecoder {
   private static final L10N L = new L10N(JsonDecoder.class);
   private static final Logger log = Logger.getLogger(JsonDecoder.class.getName());
 
+  // number of object keys remembered for sharing, must be a power of 2
+  private static final int KEY_CACHE_SIZE = 256;
+
+  // nesting depth up to which array sizes are remembered
+  private static final int MAX_HINT_DEPTH = 32;
+
+  // powers of ten that are exact doubles
+  private static final double []POW10 = new double[23];
+
   private StringValue _str;
   private int _len;
   private int _offset;
 
+  // exactly one of _bytes and _chars is the scanned input
+  private byte []_bytes;
+  private char []_chars;
+
   private boolean _isAssociative;
 
+  private ConstStringValue []_keyCache;
+  private String []_keyNameCache;
+  private int _keyBucket;
+
+  // size of the last array decoded at each depth, used to presize
+  // the next one, e.g. the rows of a result set
+  private final int []_sizeHint = new int[MAX_HINT_DEPTH];
+  private int _depth;
+
   public Value jsonDecode(Env env,
                           StringValue s,
                           boolean assoc)
@@ -52,6 +81,15 @@ class JsonDecoder {
     _len = _str.length();
     _offset = 0;
 
+    if (s instanceof StringBuilderValue) {
+      _bytes = ((StringBuilderValue) s).getBuffer();
+      _chars = null;
+    }
+    else {
+      _bytes = null;
+      _chars = s.toCharArray();
+    }
+
     _isAssociative = assoc;
 
     Value val = jsonDecodeImpl(env, true);
@@ -77,7 +115,7 @@ class JsonDecoder {
     if (_len <= _offset)
       return errorReturn(env);
 
-    char ch = _str.charAt(_offset);
+    char ch = charAt(_offset);
 
     switch (ch) {
     case '"': {
@@ -90,15 +128,15 @@ class JsonDecoder {
       if (isTop && _offset + 4 < _len)
         return decodeString(env, false);
       else if (_offset + 3 < _len) {
-        char ch2 = _str.charAt(_offset + 1);
-        char ch3 = _str.charAt(_offset + 2);
-        char ch4 = _str.charAt(_offset + 3);
+        char ch2 = charAt(_offset + 1);
+        char ch3 = charAt(_offset + 2);
+        char ch4 = charAt(_offset + 3);
 
         if ((ch2 == 'r' || ch2 == 'R')
             && (ch3 == 'u' || ch3 == 'U')
             && (ch4 == 'e' || ch4 == 'E')) {
           if (_offset + 4 < _len
-              && (ch = _str.charAt(_offset + 4)) != ','
+              && (ch = charAt(_offset + 4)) != ','
               && ch != ']'
               && ch != '}'
               && ! Character.isWhitespace(ch))
@@ -121,17 +159,17 @@ class JsonDecoder {
       if (isTop && _offset + 5 < _len)
         return decodeString(env, false);
       else if (_offset + 4 < _len) {
-        char ch2 = _str.charAt(_offset + 1);
-        char ch3 = _str.charAt(_offset + 2);
-        char ch4 = _str.charAt(_offset + 3);
-        char ch5 = _str.charAt(_offset + 4);
+        char ch2 = charAt(_offset + 1);
+        char ch3 = charAt(_offset + 2);
+        char ch4 = charAt(_offset + 3);
+        char ch5 = charAt(_offset + 4);
 
         if ((ch2 == 'a' || ch2 == 'A')
             && (ch3 == 'l' || ch3 == 'L')
             && (ch4 == 's' || ch4 == 'S')
             && (ch5 == 'e' || ch5 == 'E')) {
           if (_offset + 5 < _len
-              && (ch = _str.charAt(_offset + 5)) != ','
+              && (ch = charAt(_offset + 5)) != ','
               && ch != ']'
               && ch != '}'
               && ! Character.isWhitespace(ch))
@@ -154,15 +192,15 @@ class JsonDecoder {
       if (isTop && _offset + 4 < _len)
         return decodeString(env, false);
       else if (_offset + 3 < _len) {
-        char ch2 = _str.charAt(_offset + 1);
-        char ch3 = _str.charAt(_offset + 2);
-        char ch4 = _str.charAt(_offset + 3);
+        char ch2 = charAt(_offset + 1);
+        char ch3 = charAt(_offset + 2);
+        char ch4 = charAt(_offset + 3);
 
         if ((ch2 == 'u' || ch2 == 'U')
             && (ch3 == 'l' || ch3 == 'L')
             && (ch4 == 'l' || ch4 == 'L')) {
           if (_offset + 4 < _len
-              && (ch = _str.charAt(_offset + 4)) != ','
+              && (ch = charAt(_offset + 4)) != ','
               && ch != ']'
               && ch != '}'
               && ! Character.isWhitespace(ch))
@@ -181,11 +219,19 @@ class JsonDecoder {
     }
 
     case '[': { // ["foo", "bar", "baz"]
-      return decodeArray(env);
+      _depth++;
+      Value value = decodeArray(env);
+      _depth--;
+
+      return value;
     }
 
     case  '{': {
-      return decodeObject(env);
+      _depth++;
+      Value value = decodeObject(env);
+      _depth--;
+
+      return value;
     }
 
     case '-':
@@ -203,19 +249,28 @@ class JsonDecoder {
 
   /**
    * Checks to see if there is a valid number per JSON Internet Draft.
+   *
+   * The digits are accumulated while scanning.  Doubles whose digits
+   * and exponent are small enough to be exact are computed directly,
+   * other doubles and integers that overflow a long are parsed from
+   * their text.
    */
   private Value decodeNumber(Env env)
   {
     int startOffset = _offset;
 
     long value = 0;
-    int sign = 1;
+    boolean isNegative = false;
+
+    // significant digits in value, and the digits that were dropped
+    int digits = 0;
+    boolean isExact = true;
 
     char ch;
 
     // (-)?
-    if ((ch = _str.charAt(_offset)) == '-') {
-      sign = -1;
+    if (charAt(_offset) == '-') {
+      isNegative = true;
 
       _offset++;
     }
@@ -223,66 +278,111 @@ class JsonDecoder {
     if (_len <= _offset)
       return errorReturn(env, "expected 1-9");
 
-    ch = _str.charAt(_offset++);
+    ch = charAt(_offset++);
 
     // (0) | ([1-9] [0-9]*)
     if (ch == '0') {
     }
     else if ('1' <= ch && ch <= '9') {
       value = ch - '0';
+      digits = 1;
 
       while (_offset < _len
-             && '0' <= (ch = _str.charAt(_offset)) && ch <= '9') {
+             && '0' <= (ch = charAt(_offset)) && ch <= '9') {
         _offset++;
 
-        value = 10 * value + ch - '0';
+        if (digits < 18
+            || value <= (Long.MAX_VALUE - (ch - '0')) / 10) {
+          value = 10 * value + ch - '0';
+          digits++;
+        }
+        else
+          isExact = false;
       }
     }
 
     boolean isDouble = false;
+    int exp = 0;
 
     // ((decimalPoint) [0-9]+)?
-    if (_offset < _len && (ch = _str.charAt(_offset)) == '.') {
+    if (_offset < _len && charAt(_offset) == '.') {
       _offset++;
 
       isDouble = true;
 
       while (_offset < _len
-             && '0' <= (ch = _str.charAt(_offset)) && ch <= '9') {
+             && '0' <= (ch = charAt(_offset)) && ch <= '9') {
         _offset++;
+
+        if (digits < 18 && (value != 0 || ch != '0')) {
+          value = 10 * value + ch - '0';
+          digits++;
+          exp--;
+        }
+        else if (value == 0)
+          exp--;
+        else if (ch != '0')
+          isExact = false;
       }
     }
 
     // ((e | E) (+ | -)? [0-9]+)
-    if (_offset < _len && (ch = _str.charAt(_offset)) == 'e' || ch == 'E') {
+    if (_offset < _len
+        && ((ch = charAt(_offset)) == 'e' || ch == 'E')) {
       _offset++;
 
       isDouble = true;
 
-      if (_offset < _len && (ch = _str.charAt(_offset)) == '+' || ch == '-') {
+      boolean isNegativeExp = false;
+
+      if (_offset < _len && ((ch = charAt(_offset)) == '+' || ch == '-')) {
+        isNegativeExp = ch == '-';
+
         _offset++;
       }
 
+      int e = 0;
+
       while (_offset < _len
-             && '0' <= (ch = _str.charAt(_offset)) && ch <= '9') {
+             && '0' <= (ch = charAt(_offset)) && ch <= '9') {
         _offset++;
+
+        if (e < 10000)
+          e = 10 * e + ch - '0';
       }
 
-      /*
-      if (_offset < _len)
-        return errorReturn(env,
-                           L.l("expected 0-9 exponent at '{0}'", (char) ch));
-      */
+      exp += isNegativeExp ? -e : e;
     }
 
-    if (isDouble) {
-      String strValue
-        = _str.stringSubstring(startOffset, _offset);
+    if (! isDouble) {
+      if (isExact)
+        return LongValue.create(isNegative ? -value : value);
 
-      return DoubleValue.create(Double.parseDouble(strValue));
+      // -9223372036854775808 is a long although its digits overflow
+      if (isNegative
+          && value == Long.MAX_VALUE / 10
+          && _offset - startOffset == 20
+          && charAt(_offset - 1) == '8') {
+        return LongValue.create(Long.MIN_VALUE);
+      }
     }
-    else
-      return LongValue.create(sign * value);
+
+    if (isExact && digits <= 15 && -22 <= exp && exp <= 22) {
+      // both the mantissa and the power of ten are exact doubles, so a
+      // single multiplication or division is correctly rounded
+      double d = value;
+
+      if (exp < 0)
+        d /= POW10[-exp];
+      else
+        d *= POW10[exp];
+
+      return DoubleValue.create(isNegative ? -d : d);
+    }
+
+    String strValue = _str.stringSubstring(startOffset, _offset);
+
+    return DoubleValue.create(Double.parseDouble(strValue));
   }
 
   /**
@@ -290,7 +390,8 @@ class JsonDecoder {
    */
   private Value decodeArray(Env env)
   {
-    ArrayValueImpl array = new ArrayValueImpl();
+    ArrayValueImpl array = createArray();
+    int size = 0;
 
     _offset++;
 
@@ -300,19 +401,20 @@ class JsonDecoder {
       if (_offset >= _len)
         return errorReturn(env, "expected either ',' or ']'");
 
-      if (_str.charAt(_offset) == ']') {
+      if (charAt(_offset) == ']') {
         _offset++;
         break;
       }
 
       array.append(jsonDecodeImpl(env, false));
+      size++;
 
       skipWhitespace();
 
       if (_offset >= _len)
         return errorReturn(env, "expected either ',' or ']'");
 
-      char ch = _str.charAt(_offset++);
+      char ch = charAt(_offset++);
 
       if (ch == ',') {
       }
@@ -322,6 +424,8 @@ class JsonDecoder {
         return errorReturn(env, "expected either ',' or ']'");
     }
 
+    setSizeHint(size);
+
     return array;
   }
 
@@ -338,26 +442,28 @@ class JsonDecoder {
    */
   private Value decodeObjectToArray(Env env)
   {
-    ArrayValue array = new ArrayValueImpl();
+    ArrayValueImpl array = createArray();
+    int size = 0;
 
     _offset++;
 
     while (true) {
       skipWhitespace();
 
-      if (_len <= _offset || _str.charAt(_offset) == '}') {
+      if (_len <= _offset || charAt(_offset) == '}') {
         _offset++;
         break;
       }
 
-      Value name = jsonDecodeImpl(env, false);
+      Value name = decodeKey(env);
 
       skipWhitespace();
 
-      if (_offset >= _len || _str.charAt(_offset++) != ':')
+      if (_offset >= _len || charAt(_offset++) != ':')
         return errorReturn(env, "expected ':'");
 
       array.append(name, jsonDecodeImpl(env, false));
+      size++;
 
       skipWhitespace();
 
@@ -365,7 +471,7 @@ class JsonDecoder {
 
       if (_offset >= _len)
         return errorReturn(env, "expected either ',' or '}'");
-      else if ((ch = _str.charAt(_offset++)) == ',') {
+      else if ((ch = charAt(_offset++)) == ',') {
       }
       else if (ch == '}')
         break;
@@ -373,6 +479,8 @@ class JsonDecoder {
         return errorReturn(env, "expected either ',' or '}'");
     }
 
+    setSizeHint(size);
+
     return array;
   }
 
@@ -388,19 +496,19 @@ class JsonDecoder {
     while (true) {
       skipWhitespace();
 
-      if (_len <= _offset || _str.charAt(_offset) == '}') {
+      if (_len <= _offset || charAt(_offset) == '}') {
         _offset++;
         break;
       }
 
-      Value name = jsonDecodeImpl(env, false);
+      Value name = decodeKey(env);
 
       skipWhitespace();
 
-      if (_len <= _offset || _str.charAt(_offset++) != ':')
+      if (_len <= _offset || charAt(_offset++) != ':')
         return errorReturn(env, "expected ':'");
 
-      object.putField(env, name.toString(), jsonDecodeImpl(env, false));
+      object.putField(env, toFieldName(name), jsonDecodeImpl(env, false));
 
       skipWhitespace();
 
@@ -408,7 +516,7 @@ class JsonDecoder {
 
       if (_offset >= _len)
         return errorReturn(env, "expected either ',' or '}'");
-      else if ((ch = _str.charAt(_offset++)) == ',') {
+      else if ((ch = charAt(_offset++)) == ',') {
       }
       else if (ch == '}')
         break;
@@ -426,8 +534,21 @@ class JsonDecoder {
   {
     StringValue sb = env.createUnicodeBuilder();
 
+    // copy the run up to the first escape or the closing quote at once
+    int start = _offset;
+    int end = isQuoted ? scanPlain(start) : start;
+
+    if (end < _len && charAt(end) == '"') {
+      _offset = end + 1;
+
+      return appendRange(sb, start, end);
+    }
+
+    appendRange(sb, start, end);
+    _offset = end;
+
     while (_offset < _len) {
-      char ch = _str.charAt(_offset++);
+      char ch = charAt(_offset++);
 
       switch (ch) {
 
@@ -436,7 +557,7 @@ class JsonDecoder {
         if (_offset >= _len)
           return errorReturn(env, "invalid escape character");
 
-        ch = _str.charAt(_offset++);
+        ch = charAt(_offset++);
 
         switch (ch) {
           case '"':
@@ -469,7 +590,7 @@ class JsonDecoder {
 
             for (int i = 0; _offset < _len && i < 4; i++) {
               hex = hex << 4;
-              ch = _str.charAt(_offset++);
+              ch = charAt(_offset++);
 
               if ('0' <= ch && ch <= '9')
                 hex += ch - '0';
@@ -518,7 +639,7 @@ class JsonDecoder {
     StringValue sb = env.createUnicodeBuilder();
 
     while (_offset < _len) {
-      char ch = _str.charAt(_offset++);
+      char ch = charAt(_offset++);
 
       if (! Character.isJavaIdentifierPart(ch)) {
         _offset--;
@@ -532,6 +653,158 @@ class JsonDecoder {
     return sb;
   }
 
+  /**
+   * Decodes an object key.  Keys without escapes are shared between the
+   * objects of a document, so the rows of a large result set don't each
+   * allocate their own copies.
+   */
+  private Value decodeKey(Env env)
+  {
+    if (_bytes == null
+        || env.isUnicodeSemantics()
+        || _len <= _offset
+        || charAt(_offset) != '"') {
+      return jsonDecodeImpl(env, false);
+    }
+
+    int start = _offset + 1;
+    int end = scanPlain(start);
+
+    if (_len <= end || charAt(end) != '"')
+      return jsonDecodeImpl(env, false);
+
+    _offset = end + 1;
+
+    byte []bytes = _bytes;
+    int length = end - start;
+
+    int hash = length;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+
+    if (_keyCache == null) {
+      _keyCache = new ConstStringValue[KEY_CACHE_SIZE];
+      _keyNameCache = new String[KEY_CACHE_SIZE];
+    }
+
+    int bucket = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+    _keyBucket = bucket;
+
+    ConstStringValue key = _keyCache[bucket];
+
+    if (key != null && key.length() == length) {
+      byte []keyBytes = key.getBuffer();
+
+      int i = 0;
+      for (; i < length && keyBytes[i] == bytes[start + i]; i++) {
+      }
+
+      if (i == length)
+        return key;
+    }
+
+    key = new ConstStringValue(bytes, start, length);
+
+    _keyCache[bucket] = key;
+    _keyNameCache[bucket] = null;
+
+    return key;
+  }
+
+  /**
+   * Returns the field name for a key, sharing the name of cached keys.
+   */
+  private String toFieldName(Value name)
+  {
+    if (_keyCache != null && _keyCache[_keyBucket] == name) {
+      String fieldName = _keyNameCache[_keyBucket];
+
+      if (fieldName == null) {
+        fieldName = name.toString();
+        _keyNameCache[_keyBucket] = fieldName;
+      }
+
+      return fieldName;
+    }
+
+    return name.toString();
+  }
+
+  /**
+   * Returns the offset of the first quote, backslash or end of input.
+   */
+  private int scanPlain(int offset)
+  {
+    int len = _len;
+
+    if (_bytes != null) {
+      byte []bytes = _bytes;
+
+      for (; offset < len; offset++) {
+        byte ch = bytes[offset];
+
+        if (ch == '"' || ch == '\\')
+          return offset;
+      }
+    }
+    else {
+      char []chars = _chars;
+
+      for (; offset < len; offset++) {
+        char ch = chars[offset];
+
+        if (ch == '"' || ch == '\\')
+          return offset;
+      }
+    }
+
+    return offset;
+  }
+
+  private StringValue appendRange(StringValue sb, int start, int end)
+  {
+    if (start < end) {
+      if (_bytes != null)
+        sb.append(_bytes, start, end - start);
+      else
+        sb.append(_chars, start, end - start);
+    }
+
+    return sb;
+  }
+
+  /**
+   * Creates an array sized for the last array at the same depth.
+   */
+  private ArrayValueImpl createArray()
+  {
+    int size = _depth < MAX_HINT_DEPTH ? _sizeHint[_depth] : 0;
+
+    if (size > 8) {
+      // the table is resized when it is 3/4 full
+      return new ArrayValueImpl(size + size / 3 + 1);
+    }
+    else
+      return new ArrayValueImpl();
+  }
+
+  private void setSizeHint(int size)
+  {
+    if (_depth < MAX_HINT_DEPTH)
+      _sizeHint[_depth] = size;
+  }
+
+  private char charAt(int offset)
+  {
+    if (_len <= offset)
+      return 0;
+    else if (_bytes != null)
+      return (char) (_bytes[offset] & 0xff);
+    else
+      return _chars[offset];
+  }
+
   private Value errorReturn(Env env)
   {
     return errorReturn(env, null);
@@ -580,7 +853,7 @@ class JsonDecoder {
   private void skipWhitespace()
   {
     while (_offset < _len) {
-      char ch = _str.charAt(_offset);
+      char ch = charAt(_offset);
 
       if (ch == ' '
           || ch == '\n'
@@ -592,4 +865,13 @@ class JsonDecoder {
       }
     }
   }
+
+  static {
+    double value = 1;
+
+    for (int i = 0; i < POW10.length; i++) {
+      POW10[i] = value;
+      value *= 10;
+    }
+  }
 }
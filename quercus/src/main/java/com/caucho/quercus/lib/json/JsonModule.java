@@ -32,6 +32,10 @@ package com.caucho.quercus.lib.json;
 import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.env.*;
 import com.caucho.quercus.module.AbstractQuercusModule;
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.V;
+import edu.cmu.cs.varex.annotation.VParamType;
+import edu.cmu.cs.varex.annotation.VVariational;
 
 public class JsonModule extends AbstractQuercusModule
 {
@@ -67,31 +71,29 @@ public class JsonModule extends AbstractQuercusModule
    *
    * @param env
    * @param val to encode into json format
-   * @return String JSON-encoded String
+   * @return String JSON-encoded String, which differs per configuration
+   *   only if a value in val does
    */
-  public static StringValue json_encode(Env env,
-                                        Value val,
-                                        @Optional int options)
+  @VVariational
+  @VParamType(StringValue.class)
+  public static V<? extends StringValue> json_encode(Env env,
+                                                     FeatureExpr ctx,
+                                                     @VParamType(Value.class)
+                                                     V<? extends Value> val,
+                                                     @Optional
+                                                     @VParamType(int.class)
+                                                     V<? extends Integer> options)
   {
-    boolean isEscapeTag = (options & JSON_HEX_TAG) > 0;
-    boolean isEscapeAmp = (options & JSON_HEX_AMP) > 0;
-    boolean isEscapeApos = (options & JSON_HEX_APOS) > 0;
-    boolean isEscapeQuote = (options & JSON_HEX_QUOT) > 0;
-    boolean isNumericCheck = (options & JSON_NUMERIC_CHECK) > 0;
-    boolean isBigIntAsString = (options & JSON_BIGINT_AS_STRING) > 0;
+    return options.sflatMap(ctx, (c, option) -> {
+      JsonEncodeContext context = JsonEncodeContext.create(option);
+      context.setContext(c);
 
-    JsonEncodeContext context = new JsonEncodeContext(isEscapeTag,
-                                                      isEscapeAmp,
-                                                      isEscapeApos,
-                                                      isEscapeQuote,
-                                                      isNumericCheck,
-                                                      isBigIntAsString);
+      StringValue sb = env.createStringBuilder();
 
-    StringValue sb = env.createStringBuilder();
+      context.encode(env, val, sb);
 
-    val.jsonEncode(env, context, sb);
-
-    return sb;
+      return context.getResult(sb);
+    });
   }
 
   /**
@@ -36,7 +36,7 @@ import com.caucho.quercus.env.*;
 import com.caucho.quercus.lib.i18n.MbstringModule;
 import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
+import com.caucho.util.ConcurrentLruCache;
 import edu.cmu.cs.varex.VHelper;
 
 import java.util.ArrayList;
@@ -78,23 +78,23 @@ public class RegexpModule
 
   public static final boolean [] PREG_QUOTE = new boolean[256];
 
-  private static LruCache<StringValue, RegexpCacheItem> _regexpCache
-    = new LruCache<StringValue, RegexpCacheItem>(1024);
+  private static ConcurrentLruCache<StringValue, RegexpCacheItem> _regexpCache
+    = new ConcurrentLruCache<StringValue, RegexpCacheItem>(1024);
 
-  private static LruCache<StringValue, Ereg> _eregCache
-    = new LruCache<StringValue, Ereg>(1024);
+  private static ConcurrentLruCache<StringValue, Ereg> _eregCache
+    = new ConcurrentLruCache<StringValue, Ereg>(1024);
 
-  private static LruCache<StringValue, Eregi> _eregiCache
-    = new LruCache<StringValue, Eregi>(1024);
+  private static ConcurrentLruCache<StringValue, Eregi> _eregiCache
+    = new ConcurrentLruCache<StringValue, Eregi>(1024);
 
-  private static LruCache<UnicodeEregKey, UnicodeEreg> _unicodeEregCache
-    = new LruCache<UnicodeEregKey, UnicodeEreg>(1024);
+  private static ConcurrentLruCache<UnicodeEregKey, UnicodeEreg> _unicodeEregCache
+    = new ConcurrentLruCache<UnicodeEregKey, UnicodeEreg>(1024);
 
-  private static LruCache<UnicodeEregKey, UnicodeEregi> _unicodeEregiCache
-    = new LruCache<UnicodeEregKey, UnicodeEregi>(1024);
+  private static ConcurrentLruCache<UnicodeEregKey, UnicodeEregi> _unicodeEregiCache
+    = new ConcurrentLruCache<UnicodeEregKey, UnicodeEregi>(1024);
 
-  private static LruCache<StringValue, ArrayList<Replacement>> _replacementCache
-    = new LruCache<StringValue, ArrayList<Replacement>>(1024);
+  private static ConcurrentLruCache<StringValue, ArrayList<Replacement>> _replacementCache
+    = new ConcurrentLruCache<StringValue, ArrayList<Replacement>>(1024);
 
   @Override
   public String []getLoadedExtensions()
@@ -114,18 +114,18 @@ public class RegexpModule
     if (size < 0 || size == _regexpCache.getCapacity())
       return;
 
-    _regexpCache = new LruCache<StringValue, RegexpCacheItem>(size);
+    _regexpCache = new ConcurrentLruCache<StringValue, RegexpCacheItem>(size);
 
-    _eregCache = new LruCache<StringValue, Ereg>(size);
+    _eregCache = new ConcurrentLruCache<StringValue, Ereg>(size);
 
-    _eregiCache = new LruCache<StringValue, Eregi>(size);
+    _eregiCache = new ConcurrentLruCache<StringValue, Eregi>(size);
 
-    _unicodeEregCache = new LruCache<UnicodeEregKey, UnicodeEreg>(size);
+    _unicodeEregCache = new ConcurrentLruCache<UnicodeEregKey, UnicodeEreg>(size);
 
-    _unicodeEregiCache = new LruCache<UnicodeEregKey, UnicodeEregi>(size);
+    _unicodeEregiCache = new ConcurrentLruCache<UnicodeEregKey, UnicodeEregi>(size);
 
     _replacementCache
-      = new LruCache<StringValue, ArrayList<Replacement>>(size);
+      = new ConcurrentLruCache<StringValue, ArrayList<Replacement>>(size);
   }
 
   /**
@@ -153,6 +153,8 @@ public class DocumentView extends SimpleView
   @Override
   public boolean toXml(Env env, StringBuilder sb)
   {
+    SimpleUtil.complete(getOwnerDocument());
+
     SimpleUtil.toXml(env, sb, getOwnerDocument());
 
     return true;
@@ -72,7 +72,7 @@ public class ElementView extends SimpleView
 
     Node node = getNode();
 
-    Node child = node.getFirstChild();
+    Node child = SimpleUtil.getFirstChild(node);
     while (child != null) {
       String childName = child.getNodeName();
 
@@ -84,7 +84,7 @@ public class ElementView extends SimpleView
         childList.add(view);
       }
 
-      child = child.getNextSibling();
+      child = SimpleUtil.getNextSibling(child);
     }
 
     ArrayList<AttributeView> attrList = new ArrayList<AttributeView>();
@@ -170,6 +170,9 @@ public class ElementView extends SimpleView
                              String value,
                              String namespace)
   {
+    // the new child goes after all of the parsed ones
+    SimpleUtil.complete(_node);
+
     Document doc = _node.getOwnerDocument();
 
     Element e;
@@ -325,11 +328,11 @@ public class ElementView extends SimpleView
       }
     }
 
-    Node child = node.getFirstChild();
+    Node child = SimpleUtil.getFirstChild(node);
     while (child != null) {
       getNamespaces(newMap, usedMap, child, isRecursive, isCheckUsage, false);
 
-      child = child.getNextSibling();
+      child = SimpleUtil.getNextSibling(child);
     }
   }
 
@@ -338,6 +341,8 @@ public class ElementView extends SimpleView
                                 SimpleNamespaceContext context,
                                 String expression)
   {
+    SimpleUtil.complete(_node);
+
     try {
       return SimpleView.xpath(_node, context, expression);
     }
@@ -378,7 +383,7 @@ public class ElementView extends SimpleView
         return this;
       }
 
-      Node next = _node.getNextSibling();
+      Node next = SimpleUtil.getNextSibling(_node);
 
       while (next != null && i >= 0) {
         if (next.getNodeName().equals(_node.getNodeName())
@@ -389,7 +394,7 @@ public class ElementView extends SimpleView
           return view;
         }
 
-        next = next.getNextSibling();
+        next = SimpleUtil.getNextSibling(next);
       }
 
       return null;
@@ -404,6 +409,7 @@ public class ElementView extends SimpleView
   {
     String str = value.toString();
 
+    SimpleUtil.complete(_node);
 
     Node node = _node;
     Document doc = node.getOwnerDocument();
@@ -427,42 +433,22 @@ public class ElementView extends SimpleView
   {
     String nodeName = indexV.toStringValue(env).toString();
 
-    ArrayList<SimpleView> childList = new ArrayList<SimpleView>();
-
-    Node child = getNode().getFirstChild();
-
-    while (child != null) {
-      if (child.getNodeType() == Node.ELEMENT_NODE) {
-        String childName = child.getNodeName();
-
-        if (nodeName.equals(childName)) {
-          ElementView view = new ElementView(child);
-
-          childList.add(view);
-        }
-      }
-
-      child = child.getNextSibling();
-    }
-
-    ArrayList<AttributeView> attrList = new ArrayList<AttributeView>();
-
-    SelectedView view
-      = new SelectedView(this, nodeName, childList, attrList);
+    // the matching children are looked up as they are used
+    SelectedView view = new SelectedView(this, nodeName, getNode());
 
     return view;
   }
 
   private Node getChild(String name)
   {
-    Node child = _node.getFirstChild();
+    Node child = SimpleUtil.getFirstChild(_node);
 
     while (child != null) {
       if (child.getNodeName().equals(name)) {
         return child;
       }
 
-      child = child.getNextSibling();
+      child = SimpleUtil.getNextSibling(child);
     }
 
     return null;
@@ -482,6 +468,8 @@ public class ElementView extends SimpleView
   {
     String name = indexV.toString();
 
+    SimpleUtil.complete(_node);
+
     Node child = getChild(name);
 
     if (child == null) {
@@ -504,14 +492,14 @@ public class ElementView extends SimpleView
   {
     int count = 0;
 
-    Node child = _node.getFirstChild();
+    Node child = SimpleUtil.getFirstChild(_node);
 
     while (child != null) {
       if (child.getNodeType() == Node.ELEMENT_NODE) {
         count++;
       }
 
-      child = child.getNextSibling();
+      child = SimpleUtil.getNextSibling(child);
     }
 
     return count;
@@ -522,7 +510,7 @@ public class ElementView extends SimpleView
   {
     StringBuilder sb = new StringBuilder();
 
-    Node child = _node.getFirstChild();
+    Node child = SimpleUtil.getFirstChild(_node);
 
     while (child != null) {
       if (child.getNodeType() == Node.TEXT_NODE) {
@@ -543,7 +531,7 @@ public class ElementView extends SimpleView
         }
       }
 
-      child = child.getNextSibling();
+      child = SimpleUtil.getNextSibling(child);
     }
 
     return sb.toString();
@@ -582,14 +570,14 @@ public class ElementView extends SimpleView
 
     ArrayList<Element> elementList = new ArrayList<Element>();
 
-    Node child = _node.getFirstChild();
+    Node child = SimpleUtil.getFirstChild(_node);
 
     while (child != null) {
       if (child.getNodeType() == Node.ELEMENT_NODE) {
         elementList.add((Element) child);
       }
 
-      child = child.getNextSibling();
+      child = SimpleUtil.getNextSibling(child);
     }
 
     if (elementList.size() == 0) {
@@ -643,6 +631,8 @@ public class ElementView extends SimpleView
   @Override
   public boolean toXml(Env env, StringBuilder sb)
   {
+    SimpleUtil.complete(_node);
+
     SimpleUtil.toXml(env, sb, _node);
 
     return true;
@@ -654,7 +644,7 @@ public class ElementView extends SimpleView
     ArrayList<ElementView> elementList = new ArrayList<ElementView>();
     ArrayList<AttributeView> attrList = new ArrayList<AttributeView>();
 
-    Node child = _node.getFirstChild();
+    Node child = SimpleUtil.getFirstChild(_node);
 
     while (child != null) {
       if (child.getNodeType() == Node.ELEMENT_NODE) {
@@ -663,7 +653,7 @@ public class ElementView extends SimpleView
         elementList.add(view);
       }
 
-      child = child.getNextSibling();
+      child = SimpleUtil.getNextSibling(child);
     }
 
     NamedNodeMap attrMap = _node.getAttributes();
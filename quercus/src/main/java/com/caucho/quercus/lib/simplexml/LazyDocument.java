@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.simplexml;
+
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.EnvCleanup;
+import com.caucho.util.L10N;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A SimpleXML document that is parsed on demand.
+ *
+ * The DOM is built by the same SimpleHandler as an eagerly parsed
+ * document, but the handler is driven from a StAX reader only as far as
+ * the views have traversed.  A node is complete once the reader has
+ * passed its end tag; its children and next sibling are parsed when
+ * they are first asked for.
+ */
+class LazyDocument implements EnvCleanup
+{
+  private static final Logger log
+    = Logger.getLogger(LazyDocument.class.getName());
+  private static final L10N L = new L10N(LazyDocument.class);
+
+  private static final String KEY = "caucho.simplexml.lazy";
+
+  private static final XMLInputFactory _factory;
+
+  private final Env _env;
+  private final Closeable _is;
+  private final XMLStreamReader _reader;
+  private final SimpleHandler _handler;
+  private final boolean _isRelease;
+
+  private final AttributesImpl _attributes = new AttributesImpl();
+
+  private boolean _isDone;
+
+  private LazyDocument(Env env,
+                       Closeable is,
+                       XMLStreamReader reader,
+                       DOMImplementation impl,
+                       boolean isRelease)
+  {
+    _env = env;
+    _is = is;
+    _reader = reader;
+    _handler = new SimpleHandler(impl);
+    _isRelease = isRelease;
+  }
+
+  /**
+   * Starts parsing a document from a stream, which is closed when the
+   * document is complete or the request ends.
+   *
+   * The prolog and the start tag of the root element are parsed before
+   * returning, so a document that is not xml at all fails here.
+   */
+  static Document parse(Env env,
+                        InputStream is,
+                        DOMImplementation impl,
+                        boolean isRelease)
+    throws IOException, XMLStreamException, SAXException
+  {
+    XMLStreamReader reader;
+
+    try {
+      reader = _factory.createXMLStreamReader(is);
+    } catch (XMLStreamException e) {
+      is.close();
+
+      throw e;
+    }
+
+    return start(new LazyDocument(env, is, reader, impl, isRelease));
+  }
+
+  static Document parse(Env env,
+                        Reader is,
+                        DOMImplementation impl,
+                        boolean isRelease)
+    throws IOException, XMLStreamException, SAXException
+  {
+    XMLStreamReader reader;
+
+    try {
+      reader = _factory.createXMLStreamReader(is);
+    } catch (XMLStreamException e) {
+      is.close();
+
+      throw e;
+    }
+
+    return start(new LazyDocument(env, is, reader, impl, isRelease));
+  }
+
+  private static Document start(LazyDocument lazy)
+    throws XMLStreamException, SAXException
+  {
+    lazy._handler.startDocument();
+
+    Document doc = lazy._handler.getDocument();
+
+    try {
+      while (doc.getDocumentElement() == null && lazy.next()) {
+      }
+    } catch (XMLStreamException e) {
+      lazy.close();
+
+      throw e;
+    } catch (SAXException e) {
+      lazy.close();
+
+      throw e;
+    }
+
+    if (doc.getDocumentElement() == null) {
+      throw new SAXException(L.l("xml document has no root element"));
+    }
+
+    if (! lazy._isDone) {
+      doc.setUserData(KEY, lazy, null);
+      lazy._env.addCleanup(lazy);
+    }
+
+    return doc;
+  }
+
+  /**
+   * Returns the parser of the node's document, or null if the document
+   * is already complete.
+   */
+  static LazyDocument getLazyDocument(Node node)
+  {
+    Document doc;
+
+    if (node.getNodeType() == Node.DOCUMENT_NODE)
+      doc = (Document) node;
+    else
+      doc = node.getOwnerDocument();
+
+    if (doc != null)
+      return (LazyDocument) doc.getUserData(KEY);
+    else
+      return null;
+  }
+
+  /**
+   * Returns the node's first child, parsing until it is known.
+   */
+  Node getFirstChild(Node node)
+  {
+    Node child;
+
+    while ((child = node.getFirstChild()) == null
+           && isOpen(node)
+           && advance()) {
+    }
+
+    return child;
+  }
+
+  /**
+   * Returns the node's next sibling, parsing until it is known.
+   */
+  Node getNextSibling(Node node)
+  {
+    Node parent = node.getParentNode();
+    Node next;
+
+    while ((next = node.getNextSibling()) == null
+           && parent != null
+           && isOpen(parent)
+           && advance()) {
+    }
+
+    return next;
+  }
+
+  /**
+   * Parses the rest of the document, e.g. before xpath or serialization,
+   * which work on the raw DOM.
+   */
+  void complete()
+  {
+    while (advance()) {
+    }
+  }
+
+  /**
+   * Drops an element that a forward-only iteration has moved past, if
+   * the document was loaded with simplexml.lazy_release.
+   */
+  void release(Node node)
+  {
+    Node parent = node.getParentNode();
+
+    if (_isRelease && parent != null && ! isOpen(node))
+      parent.removeChild(node);
+  }
+
+  /**
+   * Returns true if the node's end tag has not been parsed yet.
+   */
+  private boolean isOpen(Node node)
+  {
+    if (_isDone)
+      return false;
+
+    for (Node open = _handler.getNode();
+         open != null;
+         open = open.getParentNode()) {
+      if (open == node)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Parses the next event.  A parse error ends the document where it
+   * occurred; the nodes built so far remain.
+   */
+  private boolean advance()
+  {
+    if (_isDone)
+      return false;
+
+    try {
+      return next();
+    } catch (XMLStreamException e) {
+      error(e);
+    } catch (SAXException e) {
+      error(e);
+    }
+
+    return false;
+  }
+
+  private boolean next()
+    throws XMLStreamException, SAXException
+  {
+    XMLStreamReader reader = _reader;
+
+    switch (reader.next()) {
+    case XMLStreamConstants.START_ELEMENT:
+      startElement();
+      break;
+
+    case XMLStreamConstants.END_ELEMENT:
+      _handler.endElement(getURI(), reader.getLocalName(),
+                          getQName(reader.getPrefix(),
+                                   reader.getLocalName()));
+      break;
+
+    case XMLStreamConstants.CHARACTERS:
+    case XMLStreamConstants.CDATA:
+    case XMLStreamConstants.SPACE:
+      _handler.characters(reader.getTextCharacters(),
+                          reader.getTextStart(),
+                          reader.getTextLength());
+      break;
+
+    case XMLStreamConstants.COMMENT:
+      _handler.comment(reader.getTextCharacters(),
+                       reader.getTextStart(),
+                       reader.getTextLength());
+      break;
+
+    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+      _handler.processingInstruction(reader.getPITarget(),
+                                     reader.getPIData());
+      break;
+
+    case XMLStreamConstants.DTD:
+      startDTD(reader.getText());
+      break;
+
+    case XMLStreamConstants.END_DOCUMENT:
+      _handler.endDocument();
+      close();
+      return false;
+    }
+
+    return true;
+  }
+
+  private void startElement()
+  {
+    XMLStreamReader reader = _reader;
+    AttributesImpl attributes = _attributes;
+
+    attributes.clear();
+
+    // namespace-prefixes: the declarations are attributes, as with SAX
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      String prefix = reader.getNamespacePrefix(i);
+      String qName;
+
+      if (prefix == null || prefix.length() == 0)
+        qName = "xmlns";
+      else
+        qName = "xmlns:" + prefix;
+
+      attributes.addAttribute("", "", qName, "CDATA",
+                              reader.getNamespaceURI(i));
+    }
+
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      String uri = reader.getAttributeNamespace(i);
+      String localName = reader.getAttributeLocalName(i);
+
+      attributes.addAttribute(uri != null ? uri : "",
+                              localName,
+                              getQName(reader.getAttributePrefix(i),
+                                       localName),
+                              reader.getAttributeType(i),
+                              reader.getAttributeValue(i));
+    }
+
+    _handler.startElement(getURI(), reader.getLocalName(),
+                          getQName(reader.getPrefix(), reader.getLocalName()),
+                          attributes);
+  }
+
+  /**
+   * Creates the DocumentType from the text of the declaration, which is
+   * all that StAX reports.
+   */
+  private void startDTD(String text)
+  {
+    String []tokens = text.split("[\\s\\[>]+");
+
+    if (tokens.length < 2)
+      return;
+
+    String name = tokens[1];
+    String publicId = null;
+    String systemId = null;
+
+    if (tokens.length > 3 && tokens[2].equals("SYSTEM")) {
+      systemId = unquote(tokens[3]);
+    }
+    else if (tokens.length > 4 && tokens[2].equals("PUBLIC")) {
+      publicId = unquote(tokens[3]);
+      systemId = unquote(tokens[4]);
+    }
+
+    _handler.startDTD(name, publicId, systemId);
+  }
+
+  private static String unquote(String value)
+  {
+    int len = value.length();
+
+    if (len >= 2
+        && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+        && value.charAt(len - 1) == value.charAt(0)) {
+      return value.substring(1, len - 1);
+    }
+    else
+      return value;
+  }
+
+  private String getURI()
+  {
+    String uri = _reader.getNamespaceURI();
+
+    return uri != null ? uri : "";
+  }
+
+  private static String getQName(String prefix, String localName)
+  {
+    if (prefix == null || prefix.length() == 0)
+      return localName;
+    else
+      return prefix + ":" + localName;
+  }
+
+  private void error(Exception e)
+  {
+    log.log(Level.FINE, e.toString(), e);
+
+    _env.warning(L.l("simplexml: {0}", e.getMessage()));
+
+    close();
+  }
+
+  private void close()
+  {
+    if (_isDone)
+      return;
+
+    _isDone = true;
+
+    Document doc = _handler.getDocument();
+
+    if (doc.getUserData(KEY) == this) {
+      doc.setUserData(KEY, null, null);
+      _env.removeCleanup(this);
+    }
+
+    try {
+      _reader.close();
+    } catch (XMLStreamException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    try {
+      _is.close();
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  /**
+   * Closes the input of a document that was never fully traversed.
+   */
+  @Override
+  public void cleanup()
+  {
+    close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _handler.getNode()
+           + ",done=" + _isDone + "]";
+  }
+
+  static {
+    _factory = XMLInputFactory.newInstance();
+
+    _factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    _factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    _factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES,
+                         Boolean.TRUE);
+    _factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                         Boolean.FALSE);
+
+    // like SimpleHandler, external DTDs resolve to nothing
+    _factory.setXMLResolver((publicId, systemId, baseURI, namespace)
+                            -> new ByteArrayInputStream(new byte[0]));
+  }
+}
@@ -31,6 +31,7 @@ package com.caucho.quercus.lib.simplexml;
 
 import com.caucho.quercus.env.*;
 import edu.cmu.cs.varex.VHelper;
+import org.w3c.dom.Node;
 
 import java.util.*;
 
@@ -42,6 +43,11 @@ public class SelectedView extends SimpleView
   private final ArrayList<SimpleView> _childList;
   private final ArrayList<AttributeView> _attrList;
 
+  // with a parent node, the matching children are found on demand
+  private final Node _parentNode;
+  private Node _lastNode;
+  private boolean _isComplete;
+
   public SelectedView(SimpleView parent,
                       String nodeName,
                       ArrayList<SimpleView> childList,
@@ -54,13 +60,99 @@ public class SelectedView extends SimpleView
 
     _childList = childList;
     _attrList = attrList;
+
+    _parentNode = null;
+    _isComplete = true;
+  }
+
+  public SelectedView(SimpleView parent,
+                      String nodeName,
+                      Node parentNode)
+  {
+    super(parent.getOwnerDocument());
+
+    _parent = parent;
+    _nodeName = nodeName;
+
+    _childList = new ArrayList<SimpleView>();
+    _attrList = new ArrayList<AttributeView>();
+
+    _parentNode = parentNode;
+  }
+
+  /**
+   * Returns the index'th matching child, scanning only as far as needed.
+   */
+  private SimpleView getChild(int index)
+  {
+    while (_childList.size() <= index && findNext()) {
+    }
+
+    if (index < _childList.size())
+      return _childList.get(index);
+    else
+      return null;
+  }
+
+  private ArrayList<SimpleView> getChildList()
+  {
+    while (findNext()) {
+    }
+
+    return _childList;
+  }
+
+  private boolean findNext()
+  {
+    if (_isComplete)
+      return false;
+
+    Node node = findNext(_lastNode);
+
+    if (node == null) {
+      _isComplete = true;
+
+      return false;
+    }
+
+    _lastNode = node;
+    _childList.add(new ElementView(node));
+
+    return true;
+  }
+
+  /**
+   * Returns the next matching child after the given one, or the first
+   * one if prev is null.
+   */
+  private Node findNext(Node prev)
+  {
+    Node node;
+
+    if (prev == null)
+      node = SimpleUtil.getFirstChild(_parentNode);
+    else
+      node = SimpleUtil.getNextSibling(prev);
+
+    while (node != null) {
+      if (node.getNodeType() == Node.ELEMENT_NODE
+          && _nodeName.equals(node.getNodeName())) {
+        return node;
+      }
+
+      node = SimpleUtil.getNextSibling(node);
+    }
+
+    return null;
   }
 
   @Override
   public String getNodeName()
   {
-    if (_childList.size() > 0) {
-      return _childList.get(0).getNodeName();
+    SimpleView firstChild = getChild(0);
+
+    if (firstChild != null) {
+      return firstChild.getNodeName();
     }
     else {
       return null;
@@ -70,8 +162,10 @@ public class SelectedView extends SimpleView
   @Override
   public ChildrenView getChildren(String namespace, String prefix)
   {
-    if (_childList.size() > 0) {
-      return _childList.get(0).getChildren(namespace, prefix);
+    SimpleView firstChild = getChild(0);
+
+    if (firstChild != null) {
+      return firstChild.getChildren(namespace, prefix);
     }
     else {
       return null;
@@ -81,8 +175,10 @@ public class SelectedView extends SimpleView
   @Override
   public AttributeListView getAttributes(String namespace)
   {
-    if (_childList.size() > 0) {
-      return _childList.get(0).getAttributes(namespace);
+    SimpleView firstChild = getChild(0);
+
+    if (firstChild != null) {
+      return firstChild.getAttributes(namespace);
     }
     else {
       return null;
@@ -95,8 +191,10 @@ public class SelectedView extends SimpleView
                              String value,
                              String namespace)
   {
-    if (_childList.size() > 0) {
-      return _childList.get(0).addChild(env, name, value, namespace);
+    SimpleView firstChild = getChild(0);
+
+    if (firstChild != null) {
+      return firstChild.addChild(env, name, value, namespace);
     }
     else {
       return null;
@@ -108,8 +206,10 @@ public class SelectedView extends SimpleView
                                               boolean isFromRoot,
                                               boolean isCheckUsage)
   {
-    if (_childList.size() > 0) {
-      return _childList.get(0).getNamespaces(isRecursive, isFromRoot, isCheckUsage);
+    SimpleView firstChild = getChild(0);
+
+    if (firstChild != null) {
+      return firstChild.getNamespaces(isRecursive, isFromRoot, isCheckUsage);
     }
     else {
       return null;
@@ -120,8 +220,10 @@ public class SelectedView extends SimpleView
   public SimpleView getIndex(Env env, Value indexV)
   {
     if (indexV.isString()) {
-      if (_childList.size() > 0) {
-        return _childList.get(0).getIndex(env, indexV);
+      SimpleView firstChild = getChild(0);
+
+      if (firstChild != null) {
+        return firstChild.getIndex(env, indexV);
       }
       else {
         return null;
@@ -130,8 +232,8 @@ public class SelectedView extends SimpleView
     else {
       int index = indexV.toInt();
 
-      if (index < _childList.size()) {
-        return _childList.get(index);
+      if (index >= 0) {
+        return getChild(index);
       }
       else {
         return null;
@@ -148,8 +250,10 @@ public class SelectedView extends SimpleView
   @Override
   public SimpleView getField(Env env, Value indexV)
   {
-    if (_childList.size() > 0) {
-      return _childList.get(0).getField(env, indexV);
+    SimpleView firstChild = getChild(0);
+
+    if (firstChild != null) {
+      return firstChild.getField(env, indexV);
     }
     else {
       return null;
@@ -159,9 +263,9 @@ public class SelectedView extends SimpleView
   @Override
   public SimpleView setField(Env env, Value indexV, Value value)
   {
-    if (_childList.size() > 0) {
-      SimpleView firstChild = _childList.get(0);
+    SimpleView firstChild = getChild(0);
 
+    if (firstChild != null) {
       return firstChild.setField(env, indexV, value);
     }
     else {
@@ -172,7 +276,7 @@ public class SelectedView extends SimpleView
   @Override
   public int getCount()
   {
-    return _childList.size();
+    return getChildList().size();
   }
 
   @Override
@@ -180,9 +284,9 @@ public class SelectedView extends SimpleView
                                 SimpleNamespaceContext context,
                                 String expression)
   {
-    if (_childList.size() > 0) {
-      SimpleView firstChild = _childList.get(0);
+    SimpleView firstChild = getChild(0);
 
+    if (firstChild != null) {
       return firstChild.xpath(env, context, expression);
     }
     else {
@@ -193,9 +297,9 @@ public class SelectedView extends SimpleView
   @Override
   public String toString(Env env)
   {
-    if (_childList.size() > 0) {
-      SimpleView firstChild = _childList.get(0);
+    SimpleView firstChild = getChild(0);
 
+    if (firstChild != null) {
       return firstChild.toString(env);
     }
     else {
@@ -206,11 +310,18 @@ public class SelectedView extends SimpleView
   @Override
   public Iterator<Map.Entry<IteratorIndex,SimpleView>> getIterator()
   {
+    if (_parentNode != null
+        && LazyDocument.getLazyDocument(_parentNode) != null) {
+      return new LazyIterator();
+    }
+
     LinkedHashMap<IteratorIndex,SimpleView> map
       = new LinkedHashMap<IteratorIndex,SimpleView>();
 
-    for (int i = 0; i < _childList.size(); i++) {
-      SimpleView view = _childList.get(i);
+    ArrayList<SimpleView> childList = getChildList();
+
+    for (int i = 0; i < childList.size(); i++) {
+      SimpleView view = childList.get(i);
 
       map.put(IteratorIndex.create(view.getNodeName()), view);
     }
@@ -227,9 +338,9 @@ public class SelectedView extends SimpleView
   @Override
   public boolean toXml(Env env, StringBuilder sb)
   {
-    if (_childList.size() > 0) {
-      SimpleView firstChild = _childList.get(0);
+    SimpleView firstChild = getChild(0);
 
+    if (firstChild != null) {
       firstChild.toXml(env, sb);
 
       return true;
@@ -242,10 +353,11 @@ public class SelectedView extends SimpleView
   @Override
   public Value toDumpValue(Env env, QuercusClass cls, boolean isChildren)
   {
-    int childSize = _childList.size();
+    ArrayList<SimpleView> childList = getChildList();
+    int childSize = childList.size();
 
     if (_nodeName != null && childSize == 1) {
-      SimpleView child = _childList.get(0);
+      SimpleView child = childList.get(0);
       Value childValue = child.toDumpValue(env, cls, true);
 
       return childValue;
@@ -256,7 +368,7 @@ public class SelectedView extends SimpleView
 
     if (childSize > 0) {
       for (int i = 0; i < childSize; i++) {
-        SimpleView child = _childList.get(i);
+        SimpleView child = childList.get(i);
 
         Value childValue = child.toDumpValue(env, cls, false);
 
@@ -316,4 +428,56 @@ public class SelectedView extends SimpleView
 
     return getClass().getSimpleName() + "[name=" + _nodeName + ",first=" + firstChild + ",parent=" + _parent + "]";
   }
+
+  /**
+   * Forward-only iteration over a document that is still being parsed.
+   * Each element is parsed when the iteration reaches it, and the one
+   * before it is released from the tree.
+   */
+  class LazyIterator implements Iterator<Map.Entry<IteratorIndex,SimpleView>>
+  {
+    private Node _prev;
+    private Node _next;
+
+    LazyIterator()
+    {
+      _next = findNext(null);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return _next != null;
+    }
+
+    @Override
+    public Map.Entry<IteratorIndex,SimpleView> next()
+    {
+      if (_next == null)
+        throw new NoSuchElementException();
+
+      Node node = _next;
+
+      if (_prev != null) {
+        LazyDocument lazy = LazyDocument.getLazyDocument(_prev);
+
+        if (lazy != null)
+          lazy.release(_prev);
+      }
+
+      _prev = node;
+      _next = findNext(node);
+
+      SimpleView view = new ElementView(node);
+
+      return new AbstractMap.SimpleEntry<IteratorIndex,SimpleView>(
+        IteratorIndex.create(view.getNodeName()), view);
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -68,6 +68,14 @@ public class SimpleHandler extends DefaultHandler2
     return _doc;
   }
 
+  /**
+   * Returns the innermost open node.
+   */
+  Node getNode()
+  {
+    return _node;
+  }
+
   //
   // ContentHandler start
   //
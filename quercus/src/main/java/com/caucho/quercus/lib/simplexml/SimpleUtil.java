@@ -34,6 +34,43 @@ import org.w3c.dom.*;
 
 public class SimpleUtil
 {
+  /**
+   * Returns the first child, parsing a lazy document as far as needed.
+   */
+  static Node getFirstChild(Node node)
+  {
+    LazyDocument lazy = LazyDocument.getLazyDocument(node);
+
+    if (lazy != null)
+      return lazy.getFirstChild(node);
+    else
+      return node.getFirstChild();
+  }
+
+  /**
+   * Returns the next sibling, parsing a lazy document as far as needed.
+   */
+  static Node getNextSibling(Node node)
+  {
+    LazyDocument lazy = LazyDocument.getLazyDocument(node);
+
+    if (lazy != null)
+      return lazy.getNextSibling(node);
+    else
+      return node.getNextSibling();
+  }
+
+  /**
+   * Parses the rest of a lazy document before the raw DOM is used.
+   */
+  static void complete(Node node)
+  {
+    LazyDocument lazy = LazyDocument.getLazyDocument(node);
+
+    if (lazy != null)
+      lazy.complete();
+  }
+
   public static void toXml(Env env, StringBuilder sb, Node node)
   {
     int nodeType = node.getNodeType();
@@ -48,6 +48,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import javax.xml.parsers.*;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.AbstractMap.SimpleEntry;
@@ -93,7 +94,15 @@ public class SimpleXMLElement extends SimpleXMLNode
         namespace = namespaceV.toString();
       }
 
-      Document doc = parse2(env, data, options, dataIsUrl, namespace, isPrefix);
+      Document doc;
+
+      if (isLazy(env, options, namespace, isPrefix)) {
+        doc = parseLazy(env, data, dataIsUrl,
+                        SimpleXMLModule.INI_LAZY_RELEASE.getAsBoolean(env));
+      }
+      else {
+        doc = parse2(env, data, options, dataIsUrl, namespace, isPrefix);
+      }
 
       if (doc == null) {
         return BooleanValue.FALSE;
@@ -120,6 +129,13 @@ public class SimpleXMLElement extends SimpleXMLNode
 
       env.warning(e);
 
+      return BooleanValue.FALSE;
+    }
+    catch (XMLStreamException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      env.warning(e);
+
       return BooleanValue.FALSE;
     }
   }
@@ -263,6 +279,60 @@ public class SimpleXMLElement extends SimpleXMLNode
     return doc;
   }
 
+  /**
+   * Returns true if the document can be parsed lazily.  The lazy parser
+   * has no libxml options and no namespace selection, so a call with any
+   * of them uses the eager parser.
+   */
+  private static boolean isLazy(Env env,
+                                int options,
+                                String namespace,
+                                boolean isPrefix)
+  {
+    return (SimpleXMLModule.INI_LAZY.getAsBoolean(env)
+            && options == 0
+            && namespace == null
+            && ! isPrefix);
+  }
+
+  /**
+   * Parses only the prolog and the root start tag.  The rest of the
+   * document is parsed as the views traverse it.
+   */
+  private static Document parseLazy(Env env,
+                                    Value data,
+                                    boolean dataIsUrl,
+                                    boolean isRelease)
+    throws IOException,
+           ParserConfigurationException,
+           SAXException,
+           XMLStreamException
+  {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+
+    DocumentBuilder builder = factory.newDocumentBuilder();
+    DOMImplementation impl = builder.getDOMImplementation();
+
+    if (dataIsUrl) {
+      Path path = env.lookup(data.toStringValue());
+
+      // PHP throws an Exception instead
+      if (path == null) {
+        log.log(Level.FINE, L.l("Cannot read file/URL '{0}'", data));
+        env.warning(L.l("Cannot read file/URL '{0}'", data));
+
+        return null;
+      }
+
+      return LazyDocument.parse(env, path.openRead(), impl, isRelease);
+    }
+    else {
+      StringReader reader = new StringReader(data.toString());
+
+      return LazyDocument.parse(env, reader, impl, isRelease);
+    }
+  }
+
   private static DocumentView buildNode(Env env,
                                         QuercusClass cls,
                                         Document doc,
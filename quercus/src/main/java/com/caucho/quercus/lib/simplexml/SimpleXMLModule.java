@@ -33,6 +33,8 @@ import com.caucho.quercus.annotation.NotNull;
 import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.env.*;
 import com.caucho.quercus.module.AbstractQuercusModule;
+import com.caucho.quercus.module.IniDefinition;
+import com.caucho.quercus.module.IniDefinitions;
 import com.caucho.util.L10N;
 
 import java.util.logging.Logger;
@@ -47,12 +49,23 @@ public class SimpleXMLModule
     = Logger.getLogger(SimpleXMLModule.class.getName());
   private static final L10N L = new L10N(SimpleXMLModule.class);
 
+  private static final IniDefinitions _iniDefinitions = new IniDefinitions();
+
   @Override
   public String []getLoadedExtensions()
   {
     return new String[] { "SimpleXML" };
   }
 
+  /**
+   * Returns the default php.ini values.
+   */
+  @Override
+  public IniDefinitions getIniDefinitions()
+  {
+    return _iniDefinitions;
+  }
+
   public Value simplexml_load_string(Env env,
                                      Value data,
                                      @Optional String className,
@@ -96,4 +109,13 @@ public class SimpleXMLModule
     // XXX: DOMNode needs to be able to export partial documents
     throw new UnimplementedException("simplexml_import_dom");
   }
+
+  // parse documents as they are traversed instead of up front, unless
+  // the load has libxml options or a namespace
+  static final IniDefinition INI_LAZY
+    = _iniDefinitions.add("simplexml.lazy", false, PHP_INI_ALL);
+
+  // let a foreach over a lazy document drop the elements it has passed
+  static final IniDefinition INI_LAZY_RELEASE
+    = _iniDefinitions.add("simplexml.lazy_release", false, PHP_INI_ALL);
 }
@@ -41,7 +41,12 @@ import com.caucho.util.*;
 import com.caucho.vfs.ByteToChar;
 import com.caucho.vfs.Path;
 import com.caucho.vfs.TempBuffer;
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import edu.cmu.cs.varex.One;
+import edu.cmu.cs.varex.V;
 import edu.cmu.cs.varex.VHelper;
+import edu.cmu.cs.varex.annotation.VParamType;
+import edu.cmu.cs.varex.annotation.VVariational;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -218,6 +223,9 @@ public class StringModule extends AbstractQuercusModule {
    */
   public static StringValue addslashes(StringValue source)
   {
+    if (source instanceof StringBuilderValue)
+      return addslashes((StringBuilderValue) source);
+
     StringValue sb = source.createStringBuilder(source.length() * 5 / 4);
 
     int length = source.length();
@@ -246,6 +254,41 @@ public class StringModule extends AbstractQuercusModule {
     return sb;
   }
 
+  private static StringValue addslashes(StringBuilderValue source)
+  {
+    byte []buffer = source.getBuffer();
+    int length = source.length();
+
+    int i = StringKernel.indexOf(buffer, 0, length, ADDSLASHES_SET);
+
+    if (i < 0)
+      return source;
+
+    StringValue sb = source.createStringBuilder(length * 5 / 4);
+
+    int head = 0;
+
+    for (; i >= 0; i = StringKernel.indexOf(buffer, head, length,
+                                            ADDSLASHES_SET)) {
+      sb.append(buffer, head, i - head);
+
+      int ch = buffer[i];
+
+      if (ch == 0x0)
+        sb.append("\\0");
+      else {
+        sb.append('\\');
+        sb.append((char) ch);
+      }
+
+      head = i + 1;
+    }
+
+    sb.append(buffer, head, length - head);
+
+    return sb;
+  }
+
   /**
    * Converts a binary value to a hex value.
    */
@@ -581,6 +624,7 @@ public class StringModule extends AbstractQuercusModule {
     }
 
     int head = 0;
+    int count = 0;
     ArrayValue array = new ArrayValueImpl();
 
     int separatorLength = separator.length();
@@ -593,28 +637,25 @@ public class StringModule extends AbstractQuercusModule {
       ulimit = 0x7fffffff;
     }
 
-    for (int i = 0; i < stringLength; ++i) {
+    // the pieces are slices sharing the string's buffer
+    while (count + 1 < ulimit) {
+      int next = string.indexOf(separator, head);
 
-      if (ulimit <= array.getSize().getOne() + 1) {
+      if (next < 0)
         break;
-      }
-
-      if (string.regionMatches(i, separator, 0, separatorLength)) {
 
-        StringValue chunk = string.substring(head, i);
-        array.append(chunk);
+      array.append(string.slice(head, next));
+      count++;
 
-        head = i + separatorLength;
-        i = head - 1;
-      }
+      head = next + separatorLength;
     }
 
-    StringValue chunk = string.substring(head);
-
-    array.append(chunk);
+    array.append(string.slice(head, stringLength));
+    count++;
 
-    while (array.getSize().getOne() > 0 && limit++ < 0) {
+    while (count > 0 && limit++ < 0) {
       array.pop(env, VHelper.noCtx());
+      count--;
     }
 
     return array;
@@ -705,11 +746,31 @@ public class StringModule extends AbstractQuercusModule {
       return NullValue.NULL;
     }
 
-    final StringValue[] sb = {glue.createStringBuilder()};
-    boolean isFirst = true;
+    // presize for the common case of plain string pieces.  Other pieces
+    // are not converted here, since an object's __toString() must only
+    // run once
+    int length = 0;
+    int count = 0;
 
     Iterator<EnvVar> iter = pieces.getValueIterator(env);
 
+    while (iter.hasNext()) {
+      V<? extends Value> value = iter.next().getValue();
+
+      if (value instanceof One && value.getOne() instanceof StringValue)
+        length += value.getOne().length();
+
+      count++;
+    }
+
+    if (count > 1)
+      length += (count - 1) * glue.length();
+
+    final StringValue[] sb = {glue.createStringBuilder(length)};
+    boolean isFirst = true;
+
+    iter = pieces.getValueIterator(env);
+
     while (iter.hasNext()) {
       if (! isFirst)
         sb[0] = sb[0].append(VHelper.noCtx(), glue);
@@ -808,6 +869,20 @@ public class StringModule extends AbstractQuercusModule {
     else
       trim = parseCharsetBitmap(env, characters);
 
+    if (string instanceof StringBuilderValue) {
+      byte []buffer = ((StringBuilderValue) string).getBuffer();
+      int length = string.length();
+
+      int head = StringKernel.skip(buffer, 0, length, trim);
+
+      if (head == 0)
+        return string;
+      else if (head == length)
+        return env.getEmptyString();
+      else
+        return string.slice(head, length);
+    }
+
     for (int i = 0; i < string.length(); i++) {
       char ch = string.charAt(i);
 
@@ -1567,6 +1642,9 @@ public class StringModule extends AbstractQuercusModule {
 
   private static final boolean[]TRIM_WHITESPACE = new boolean[256];
 
+  private static final StringKernel.ByteSet ADDSLASHES_SET
+    = new StringKernel.ByteSet('\0', '\'', '"', '\\');
+
   static {
     TRIM_WHITESPACE['\0'] = true;
     TRIM_WHITESPACE['\b'] = true;
@@ -1599,6 +1677,20 @@ public class StringModule extends AbstractQuercusModule {
     else
       trim = parseCharsetBitmap(env, characters);
 
+    if (string instanceof StringBuilderValue) {
+      byte []buffer = ((StringBuilderValue) string).getBuffer();
+      int length = string.length();
+
+      int tail = StringKernel.skipBackward(buffer, 0, length, trim);
+
+      if (tail == length)
+        return string;
+      else if (tail == 0)
+        return env.getEmptyString();
+      else
+        return string.slice(0, tail);
+    }
+
     for (int i = string.length() - 1; i >= 0; i--) {
       char ch = string.charAt(i);
 
@@ -3279,7 +3371,7 @@ public class StringModule extends AbstractQuercusModule {
 
     while (head <= (next = indexOf(subject, search, head, isInsensitive))) {
       if (result == null) {
-        result = subject.createStringBuilder();
+        result = subject.createStringBuilder(subject.length() + 16);
       }
 
       result = result.append(subject, head, next);
@@ -3969,9 +4061,13 @@ public class StringModule extends AbstractQuercusModule {
    *
    * @param value the argument value
    */
-  public static Value strlen(Value value)
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> strlen(FeatureExpr ctx,
+                                          @VParamType(Value.class)
+                                          V<? extends Value> value)
   {
-    return LongValue.create(value.length());
+    return value.smap(ctx, v -> LongValue.create(v.length()));
   }
 
   /**
@@ -4186,10 +4282,46 @@ public class StringModule extends AbstractQuercusModule {
    * @param haystack the string to search in
    * @param needleV the string to search for
    */
+  @VVariational
+  @VParamType(Value.class)
+  public static V<? extends Value> strpos(Env env,
+                                          FeatureExpr ctx,
+                                          @VParamType(StringValue.class)
+                                          V<? extends StringValue> haystack,
+                                          @VParamType(Value.class)
+                                          V<? extends Value> needleV,
+                                          @Optional
+                                          @VParamType(int.class)
+                                          V<? extends Integer> offsetV)
+  {
+    if (needleV instanceof One && offsetV instanceof One) {
+      // a variational haystack searches its shared prefix once
+      VStringValue string = VStringValue.create(ctx, haystack);
+
+      Value needleValue = needleV.getOne(ctx);
+      int offset = offsetV.getOne(ctx);
+
+      if (string != null && offset <= string.getPrefixLength()) {
+        StringValue needle = toNeedle(env, needleValue);
+
+        return string.indexOf(ctx, needle, offset).map(
+          pos -> pos < 0 ? BooleanValue.FALSE : LongValue.create(pos));
+      }
+    }
+
+    return haystack.sflatMap(ctx, (c, h) ->
+      needleV.sflatMap(c, (c2, n) ->
+        offsetV.smap(c2, offset -> strpos(env, h, n, offset))));
+  }
+
+  /**
+   * Returns the position of a substring.
+   */
+  @Hide
   public static Value strpos(Env env,
                              StringValue haystack,
                              Value needleV,
-                             @Optional int offset)
+                             int offset)
   {
     StringValue needle;
 
@@ -4199,10 +4331,7 @@ public class StringModule extends AbstractQuercusModule {
       return BooleanValue.FALSE;
     }
 
-    if (needleV.isString())
-      needle = needleV.toStringValue(env);
-    else
-      needle = StringValue.create((char) needleV.toInt());
+    needle = toNeedle(env, needleV);
 
     int pos = haystack.indexOf(needle, offset);
 
@@ -4212,6 +4341,14 @@ public class StringModule extends AbstractQuercusModule {
       return LongValue.create(pos);
   }
 
+  private static StringValue toNeedle(Env env, Value needleV)
+  {
+    if (needleV.isString())
+      return needleV.toStringValue(env);
+    else
+      return StringValue.create((char) needleV.toInt());
+  }
+
   /**
    * Finds the last instance of a substring
    *
@@ -4744,7 +4881,7 @@ public class StringModule extends AbstractQuercusModule {
       return BooleanValue.FALSE;
 
     if (lenV.isDefault())
-      return string.substring(start);
+      return string.slice(start, strLen);
     else if (len == 0)
       return StringValue.EMPTY;
     else {
@@ -4758,9 +4895,9 @@ public class StringModule extends AbstractQuercusModule {
       if (end <= start)
         return BooleanValue.FALSE;
       else if (strLen <= end)
-        return string.substring(start);
+        return string.slice(start, strLen);
       else
-        return string.substring(start, end);
+        return string.slice(start, end);
     }
   }
 
@@ -4961,6 +5098,20 @@ public class StringModule extends AbstractQuercusModule {
 
     int len = string.length();
 
+    if (string instanceof StringBuilderValue) {
+      byte []buffer = ((StringBuilderValue) string).getBuffer();
+
+      int head = StringKernel.skip(buffer, 0, len, trim);
+      int tail = StringKernel.skipBackward(buffer, head, len, trim);
+
+      if (head == 0 && tail == len)
+        return string;
+      else if (tail <= head)
+        return env.getEmptyString();
+      else
+        return string.slice(head, tail);
+    }
+
     int head = 0;
     for (; head < len; head++) {
       char ch = string.charAt(head);
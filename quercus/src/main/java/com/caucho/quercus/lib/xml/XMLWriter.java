@@ -73,11 +73,14 @@ public class XMLWriter {
   }
 
   /**
-   * Flushes the output and returns the result.
+   * Flushes the output and returns the result.  A memory writer returns
+   * the buffered text, a uri writer the number of characters written.
+   *
+   * @param isEmpty if true, the memory buffer is emptied
    */
-  public Value flush()
+  public Value flush(@Optional("true") boolean isEmpty)
   {
-    return _s.flush();
+    return _s.flush(isEmpty);
   }
 
   /**
@@ -87,6 +90,7 @@ public class XMLWriter {
   {
     StringValue s = env.createUnicodeBuilder();
     
+    _s.close();
     _s = new MemoryXMLWriterStream(s);
 
     _nsMap.clear();
@@ -99,33 +103,61 @@ public class XMLWriter {
   }
 
   /**
-   * Opens the writer for a uri target
+   * Opens the writer for a uri target.  php://output writes to the
+   * script's output.
    */
-  public boolean openURI(Env env, Path path)
+  public boolean openURI(Env env, StringValue uri)
   {
-    try {
-      WriteStream out = path.openWrite();
+    int threshold
+      = (int) XMLWriterModule.INI_FLUSH_THRESHOLD.getAsLong(env);
 
-      _s = new PathXMLWriterStream(out);
+    if (threshold <= 0)
+      threshold = 1;
 
-      _nsMap.clear();
-      _elementStack.clear();
-      _nsStack.clear();
-      
-      _state = WriterState.TOP;
-    } catch (IOException e) {
-      log.log(Level.WARNING, e.toString(), e);
+    XMLWriterStream s;
+
+    if (uri.toString().equals("php://output")) {
+      s = new OutputXMLWriterStream(env, threshold);
     }
-    
+    else {
+      Path path = env.lookupPwd(uri);
+
+      if (path == null) {
+        env.warning(L.l("'{0}' is an invalid uri", uri));
+
+        return false;
+      }
+
+      try {
+        s = new PathXMLWriterStream(env, path.openWrite(), threshold);
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+        env.warning(L.l("cannot open '{0}': {1}", uri, e));
+
+        return false;
+      }
+    }
+
+    _s.close();
+    _s = s;
+
+    _nsMap.clear();
+    _elementStack.clear();
+    _nsStack.clear();
+
+    _state = WriterState.TOP;
+
     return true;
   }
 
   /**
    * Returns the memory result
+   *
+   * @param isFlush if true, the memory buffer is emptied
    */
-  public Value outputMemory()
+  public Value outputMemory(@Optional("true") boolean isFlush)
   {
-    return flush();
+    return flush(isFlush);
   }
 
   /**
@@ -780,7 +812,9 @@ public class XMLWriter {
     
     XMLWriterStream append(String v) { return this; }
 
-    Value flush() { return NullValue.NULL; }
+    Value flush(boolean isEmpty) { return NullValue.NULL; }
+
+    void close() {}
   }
 
   static class MemoryXMLWriterStream extends XMLWriterStream {
@@ -816,28 +850,50 @@ public class XMLWriter {
     }
 
     @Override
-    Value flush()
+    Value flush(boolean isEmpty)
     {
-      return _v;
+      StringValue v = _v;
+
+      // the caller owns the text, so a streamed document is never
+      // held in memory twice
+      if (isEmpty) {
+        _v = v.createStringBuilder();
+
+        return v;
+      }
+      else {
+        // later writes must not change the returned string
+        StringValue copy = v.createStringBuilder();
+        copy.append(VHelper.noCtx(), v);
+
+        return copy;
+      }
     }
   }
 
-  static class PathXMLWriterStream extends XMLWriterStream {
-    private WriteStream _out;
+  /**
+   * Collects the written characters in a reused buffer, which is passed
+   * to the target whenever it fills up.  The buffer size is the flush
+   * threshold.
+   */
+  abstract static class BufferedXMLWriterStream extends XMLWriterStream {
+    private final char []_buffer;
+    private int _length;
+
+    private long _count;
 
-    PathXMLWriterStream(WriteStream out)
+    BufferedXMLWriterStream(int threshold)
     {
-      _out = out;
+      _buffer = new char[threshold];
     }
-    
+
     @Override
     XMLWriterStream append(char v)
     {
-      try {
-        _out.print(v);
-      } catch (IOException e) {
-        log.log(Level.WARNING, e.toString(), e);
-      }
+      if (_buffer.length <= _length)
+        writeBuffer();
+
+      _buffer[_length++] = v;
 
       return this;
     }
@@ -845,33 +901,164 @@ public class XMLWriter {
     @Override
     XMLWriterStream append(Env env, StringValue v)
     {
-      v.print(env, _out);
+      int len = v.length();
+      int offset = 0;
+
+      while (offset < len) {
+        if (_buffer.length <= _length)
+          writeBuffer();
+
+        int sublen = Math.min(len - offset, _buffer.length - _length);
+
+        v.getChars(offset, _buffer, _length, sublen);
+
+        _length += sublen;
+        offset += sublen;
+      }
 
       return this;
     }
-    
+
     @Override
-    XMLWriterStream append(String text)
+    XMLWriterStream append(String v)
+    {
+      int len = v.length();
+      int offset = 0;
+
+      while (offset < len) {
+        if (_buffer.length <= _length)
+          writeBuffer();
+
+        int sublen = Math.min(len - offset, _buffer.length - _length);
+
+        v.getChars(offset, offset + sublen, _buffer, _length);
+
+        _length += sublen;
+        offset += sublen;
+      }
+
+      return this;
+    }
+
+    @Override
+    Value flush(boolean isEmpty)
+    {
+      writeBuffer();
+      flushTarget();
+
+      long count = _count;
+      _count = 0;
+
+      return LongValue.create(count);
+    }
+
+    private void writeBuffer()
+    {
+      if (_length > 0) {
+        write(_buffer, _length);
+
+        _count += _length;
+        _length = 0;
+      }
+    }
+
+    abstract void write(char []buffer, int length);
+
+    void flushTarget()
+    {
+    }
+  }
+
+  /**
+   * php://output
+   */
+  static class OutputXMLWriterStream extends BufferedXMLWriterStream {
+    private final Env _env;
+
+    OutputXMLWriterStream(Env env, int threshold)
+    {
+      super(threshold);
+
+      _env = env;
+    }
+
+    @Override
+    void write(char []buffer, int length)
+    {
+      // the current output, which may be an ob_start buffer
+      _env.getOut().print(VHelper.noCtx(), buffer, 0, length);
+    }
+
+    @Override
+    void close()
+    {
+      flush(true);
+    }
+  }
+
+  static class PathXMLWriterStream extends BufferedXMLWriterStream
+    implements EnvCleanup
+  {
+    private final Env _env;
+    private WriteStream _out;
+
+    PathXMLWriterStream(Env env, WriteStream out, int threshold)
+    {
+      super(threshold);
+
+      _env = env;
+      _out = out;
+
+      env.addCleanup(this);
+    }
+
+    @Override
+    void write(char []buffer, int length)
     {
       try {
-        _out.print(text);
+        if (_out != null)
+          _out.print(buffer, 0, length);
       } catch (IOException e) {
         log.log(Level.WARNING, e.toString(), e);
       }
+    }
 
-      return this;
+    @Override
+    void flushTarget()
+    {
+      try {
+        if (_out != null)
+          _out.flush();
+      } catch (IOException e) {
+        log.log(Level.WARNING, e.toString(), e);
+      }
+    }
+
+    @Override
+    void close()
+    {
+      cleanup();
+
+      _env.removeCleanup(this);
     }
 
+    /**
+     * Closes the file when the request ends.
+     */
     @Override
-    Value flush()
+    public void cleanup()
     {
+      flush(true);
+
+      WriteStream out = _out;
+      _out = null;
+
       try {
-        _out.close();
+        if (out != null)
+          out.close();
       } catch (IOException e) {
         log.log(Level.WARNING, e.toString(), e);
       }
-      
-      return LongValue.create(1);
     }
   }
 }
@@ -32,9 +32,11 @@ package com.caucho.quercus.lib.xml;
 import com.caucho.quercus.annotation.NotNull;
 import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.env.*;
+import com.caucho.quercus.annotation.ReturnNullAsFalse;
 import com.caucho.quercus.module.AbstractQuercusModule;
+import com.caucho.quercus.module.IniDefinition;
+import com.caucho.quercus.module.IniDefinitions;
 import com.caucho.util.L10N;
-import com.caucho.vfs.Path;
 
 import java.util.logging.Logger;
 
@@ -46,21 +48,33 @@ public class XMLWriterModule extends AbstractQuercusModule {
     = Logger.getLogger(XMLWriterModule.class.getName());
   private static final L10N L = new L10N(XMLWriterModule.class);
 
+  private static final IniDefinitions _iniDefinitions = new IniDefinitions();
+
   @Override
   public String []getLoadedExtensions()
   {
     return new String[] { "XMLWriter" };
   }
 
+  /**
+   * Returns the default php.ini values.
+   */
+  @Override
+  public IniDefinitions getIniDefinitions()
+  {
+    return _iniDefinitions;
+  }
+
   /**
    * Flushes the output and returns the result.
    */
-  public static Value xmlwriter_flush(@NotNull XMLWriter w)
+  public static Value xmlwriter_flush(@NotNull XMLWriter w,
+                                      @Optional("true") boolean isEmpty)
   {
     if (w == null)
       return BooleanValue.FALSE;
     
-    return w.flush();
+    return w.flush(isEmpty);
   }
 
   /**
@@ -78,11 +92,13 @@ public class XMLWriterModule extends AbstractQuercusModule {
   /**
    * Opens the writer for a uri target
    */
-  public static XMLWriter xmlwriter_open_uri(Env env, Path path)
+  @ReturnNullAsFalse
+  public static XMLWriter xmlwriter_open_uri(Env env, StringValue uri)
   {
     XMLWriter w = new XMLWriter();
 
-    w.openURI(env, path);
+    if (! w.openURI(env, uri))
+      return null;
     
     return w;
   }
@@ -90,12 +106,13 @@ public class XMLWriterModule extends AbstractQuercusModule {
   /**
    * Returns the memory result
    */
-  public static Value xmlwriter_output_memory(@NotNull XMLWriter w)
+  public static Value xmlwriter_output_memory(@NotNull XMLWriter w,
+                                              @Optional("true") boolean isFlush)
   {
     if (w == null)
       return NullValue.NULL;
     
-    return w.outputMemory();
+    return w.outputMemory(isFlush);
   }
 
   /**
@@ -596,4 +613,8 @@ public class XMLWriterModule extends AbstractQuercusModule {
 
     return w.writeRaw(env, value);
   }
+
+  // characters buffered by a uri writer before they are written out
+  static final IniDefinition INI_FLUSH_THRESHOLD
+    = _iniDefinitions.add("xmlwriter.flush_threshold", 8192, PHP_INI_ALL);
 }
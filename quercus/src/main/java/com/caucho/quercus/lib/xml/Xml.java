@@ -104,11 +104,26 @@ public class Xml {
   private Value _parser;
   private ObjectValue _obj;
 
-  SAXParserFactory _factory = SAXParserFactory.newInstance();
+  private static final SAXParserFactory _factory
+    = SAXParserFactory.newInstance();
+
+  // parsers are reset and reused by the next parse on the same thread
+  private static final ThreadLocal<SAXParser> _saxParserLocal
+    = new ThreadLocal<SAXParser>();
 
   private StringValue _xmlString;
   private XmlHandler _xmlHandler;
 
+  // incremental parser once xml_parse is called with isFinal=false
+  private XmlPushParser _pushParser;
+
+  // true when an internal DTD subset needs the whole document for SAX
+  private boolean _isSaxRequired;
+
+  // element and attribute names after case folding
+  private final HashMap<String,StringValue> _nameMap
+    = new HashMap<String,StringValue>();
+
   public Xml(Env env,
              String outputEncoding,
              String separator)
@@ -373,61 +388,174 @@ public class Xml {
                        @Optional("true") boolean isFinal)
     throws Exception
   {
+    if (! _isSaxRequired && (! isFinal || _pushParser != null))
+      return parseIncremental(env, data, isFinal);
+
     if (_xmlString == null)
       _xmlString = data.createStringBuilder();
 
     _xmlString.append(VHelper.noCtx(), data);
 
-    if (isFinal) {
-      InputSource is;
+    if (! isFinal)
+      return 1;
 
-      if (_xmlString.isUnicode()) {
-        // since it's unicode, doesn't matter what encoding we pass in
-        is = new InputSource(_xmlString.toReader("utf-8"));
-      }
-      else {
-        // php/1h0t
-        is = new InputSource(_xmlString.toInputStream());
-      }
+    return parseDocument(env);
+  }
 
-      try {
-        _errorCode = XmlModule.XML_ERROR_NONE;
-        _errorString = null;
+  /**
+   * Parses the buffered document with the SAX parser.
+   */
+  private int parseDocument(Env env)
+  {
+    InputSource is;
 
-        _xmlHandler = new XmlHandler(env);
+    if (_xmlString.isUnicode()) {
+      // since it's unicode, doesn't matter what encoding we pass in
+      is = new InputSource(_xmlString.toReader("utf-8"));
+    }
+    else {
+      // php/1h0t
+      is = new InputSource(_xmlString.toInputStream());
+    }
 
-        SAXParser saxParser = _factory.newSAXParser();
-        saxParser.parse(is, _xmlHandler);
-      }
-      catch (SAXParseException e) {
-        XmlModule.recordError(env, XmlModule.LIBXML_ERR_FATAL, 0,
-                              e.getColumnNumber(), e.toString(), "",
-                              e.getLineNumber());
+    SAXParser saxParser = null;
 
-        _errorCode = XmlModule.XML_ERROR_SYNTAX;
-        _errorString = e.toString();
+    try {
+      _errorCode = XmlModule.XML_ERROR_NONE;
+      _errorString = null;
 
-        log.log(Level.FINE, e.getMessage(), e);
-        return 0;
-      }
-      catch (Exception e) {
-        XmlModule.recordError(env, XmlModule.LIBXML_ERR_FATAL, 0,
-                              0, e.toString(), "", 0);
+      _xmlHandler = new XmlHandler(env);
+
+      saxParser = allocateSAXParser();
+      saxParser.parse(is, _xmlHandler);
+    }
+    catch (SAXParseException e) {
+      XmlModule.recordError(env, XmlModule.LIBXML_ERR_FATAL, 0,
+                            e.getColumnNumber(), e.toString(), "",
+                            e.getLineNumber());
+
+      _errorCode = XmlModule.XML_ERROR_SYNTAX;
+      _errorString = e.toString();
+
+      log.log(Level.FINE, e.getMessage(), e);
+      return 0;
+    }
+    catch (Exception e) {
+      XmlModule.recordError(env, XmlModule.LIBXML_ERR_FATAL, 0,
+                            0, e.toString(), "", 0);
+
+      _errorCode = XmlModule.XML_ERROR_SYNTAX;
+      _errorString = e.toString();
+
+      log.log(Level.FINE, e.toString(), e);
+      return 0;
+    }
+    finally {
+      _xmlHandler = null;
+
+      if (saxParser != null)
+        freeSAXParser(saxParser);
+    }
+
+    return 1;
+  }
+
+  /**
+   * Feeds a chunk to the incremental parser, which calls the handlers
+   * for the complete part of the data right away.
+   */
+  private int parseIncremental(Env env, StringValue data, boolean isFinal)
+  {
+    if (_pushParser == null) {
+      _errorCode = XmlModule.XML_ERROR_NONE;
+      _errorString = null;
+
+      _xmlHandler = new XmlHandler(env);
+      _pushParser = new XmlPushParser(_xmlHandler);
+    }
+
+    // the prolog is kept in case a DTD sends the document to SAX
+    if (_pushParser.isPrologPending()) {
+      if (_xmlString == null)
+        _xmlString = data.createStringBuilder();
+
+      _xmlString.append(VHelper.noCtx(), data);
+    }
 
+    try {
+      _pushParser.parse(data, isFinal);
+    }
+    catch (SAXParseException e) {
+      XmlModule.recordError(env, XmlModule.LIBXML_ERR_FATAL, 0,
+                            e.getColumnNumber(), e.toString(), "",
+                            e.getLineNumber());
+
+      if (_pushParser.getErrorCode() != XmlModule.XML_ERROR_NONE)
+        _errorCode = _pushParser.getErrorCode();
+      else
         _errorCode = XmlModule.XML_ERROR_SYNTAX;
-        _errorString = e.toString();
 
-        log.log(Level.FINE, e.toString(), e);
-        return 0;
-      }
-      finally {
+      _errorString = e.getMessage();
+
+      log.log(Level.FINE, e.getMessage(), e);
+      return 0;
+    }
+    catch (Exception e) {
+      XmlModule.recordError(env, XmlModule.LIBXML_ERR_FATAL, 0,
+                            0, e.toString(), "", 0);
+
+      _errorCode = XmlModule.XML_ERROR_SYNTAX;
+      _errorString = e.toString();
+
+      log.log(Level.FINE, e.toString(), e);
+      return 0;
+    }
+    finally {
+      if (_pushParser.isFinished())
         _xmlHandler = null;
-      }
     }
 
+    if (_pushParser.hasInternalSubset()) {
+      _isSaxRequired = true;
+      _pushParser = null;
+      _xmlHandler = null;
+
+      return isFinal ? parseDocument(env) : 1;
+    }
+    else if (! _pushParser.isPrologPending())
+      _xmlString = null;
+
     return 1;
   }
 
+  private static SAXParser allocateSAXParser()
+    throws ParserConfigurationException, SAXException
+  {
+    SAXParser parser = _saxParserLocal.get();
+
+    if (parser != null) {
+      // a handler may start another parse on this thread
+      _saxParserLocal.set(null);
+
+      return parser;
+    }
+
+    synchronized (_factory) {
+      return _factory.newSAXParser();
+    }
+  }
+
+  private static void freeSAXParser(SAXParser parser)
+  {
+    try {
+      parser.reset();
+    } catch (UnsupportedOperationException e) {
+      return;
+    }
+
+    _saxParserLocal.set(parser);
+  }
+
   /**
    * Parses data into 2 parallel array structures.
    *
@@ -461,8 +589,10 @@ public class Xml {
     else
       is = new InputSource(_xmlString.toInputStream());
 
+    SAXParser saxParser = null;
+
     try {
-      SAXParser saxParser = _factory.newSAXParser();
+      saxParser = allocateSAXParser();
       saxParser.parse(is, new StructHandler(env, valueArray, indexArray));
     } catch (SAXException e) {
       _errorCode = XmlModule.XML_ERROR_SYNTAX;
@@ -485,6 +615,9 @@ public class Xml {
       log.log(Level.FINE, e.toString(), e);
 
       return 0;
+    } finally {
+      if (saxParser != null)
+        freeSAXParser(saxParser);
     }
 
     return 1;
@@ -509,6 +642,7 @@ public class Xml {
     switch(option) {
       case XmlModule.XML_OPTION_CASE_FOLDING:
         _xmlOptionCaseFolding = value.toBoolean();
+        _nameMap.clear();
         return true;
       case XmlModule.XML_OPTION_SKIP_TAGSTART:
         _xmlOptionSkipTagstart = value.toLong();
@@ -545,6 +679,25 @@ public class Xml {
     }
   }
 
+  /**
+   * Returns the handler argument for an element or attribute name.
+   */
+  private StringValue createName(Env env, String name)
+  {
+    StringValue value = _nameMap.get(name);
+
+    if (value == null) {
+      if (_xmlOptionCaseFolding)
+        value = env.createString(name.toUpperCase(Locale.ENGLISH));
+      else
+        value = env.createString(name);
+
+      _nameMap.put(name, value);
+    }
+
+    return value;
+  }
+
   public String toString()
   {
     return "Xml[]";
@@ -868,10 +1021,7 @@ public class Xml {
         return;
       }
 
-      if (_xmlOptionCaseFolding)
-        eName = eName.toUpperCase(Locale.ENGLISH);
-
-      args[1] = _env.createString(eName);
+      args[1] = createName(_env, eName);
 
       // turn attrs into an array of name, value pairs
       args[2] = new ArrayValueImpl();
@@ -881,10 +1031,7 @@ public class Xml {
         if ("".equals(aName))
           aName = attrs.getQName(i);
 
-        if (_xmlOptionCaseFolding)
-          aName = aName.toUpperCase(Locale.ENGLISH);
-
-        args[2].put(_env.createString(aName),
+        args[2].put(createName(_env, aName),
                     _env.createString(attrs.getValue(i)));
       }
 
@@ -923,11 +1070,7 @@ public class Xml {
           eName = qName;
 
         if (_endElementHandler != null) {
-          if (_xmlOptionCaseFolding) {
-            eName = eName.toUpperCase(Locale.ENGLISH);
-          }
-
-          _endElementHandler.call(_env, VHelper.noCtx(),_parser, _env.createString(eName));
+          _endElementHandler.call(_env, VHelper.noCtx(),_parser, createName(_env, eName));
         }
         else if (_defaultHandler != null) {
           StringValue sb = _env.createStringBuilder();
@@ -0,0 +1,946 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Charles Reich
+ */
+
+package com.caucho.quercus.lib.xml;
+
+import com.caucho.quercus.env.StringValue;
+import com.caucho.util.L10N;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+
+/**
+ * Incremental parser behind xml_parse($parser, $data, false).
+ *
+ * Each chunk is decoded and tokenized when it arrives, and the events of
+ * every complete token go to the handler right away.  An incomplete
+ * token at the end of a chunk is kept for the next one, so no data is
+ * parsed twice.  Like the default SAX parser, it is not namespace aware.
+ *
+ * A DOCTYPE without an internal subset is skipped, so only the
+ * predefined and character entities are known.  A document with an
+ * internal subset needs a DTD-aware parser: the push parser stops at the
+ * DOCTYPE and hasInternalSubset() tells the caller to parse the whole
+ * document with SAX instead.  Until the prolog is past that point,
+ * processing instructions are held back, so the SAX parse does not
+ * repeat them.
+ */
+class XmlPushParser implements Locator
+{
+  private static final L10N L = new L10N(XmlPushParser.class);
+
+  private final DefaultHandler _handler;
+
+  // null until the encoding is known from the xml declaration
+  private CharsetDecoder _decoder;
+  private byte []_bytes = new byte[0];
+  private int _bytesLength;
+
+  private char []_buf = new char[256];
+  private int _offset;
+  private int _length;
+  private boolean _isCR;
+
+  private final StringBuilder _text = new StringBuilder();
+
+  // chars parsed so far
+  private long _position;
+  private int _line = 1;
+  private int _column = 1;
+
+  private final ArrayList<String> _tags = new ArrayList<String>();
+  private boolean _isStarted;
+  private boolean _hasRoot;
+  private boolean _isFinished;
+
+  // true once the DOCTYPE or the root element is parsed
+  private boolean _isDoctypeDone;
+  private boolean _hasInternalSubset;
+
+  // prolog processing instructions, as target and data
+  private final ArrayList<String> _prologPis = new ArrayList<String>();
+
+  private int _errorCode = XmlModule.XML_ERROR_NONE;
+
+  XmlPushParser(DefaultHandler handler)
+  {
+    _handler = handler;
+  }
+
+  /**
+   * Returns the XML_ERROR code of the last error.
+   */
+  int getErrorCode()
+  {
+    return _errorCode;
+  }
+
+  boolean isFinished()
+  {
+    return _isFinished;
+  }
+
+  /**
+   * Returns true until the parser knows whether the document needs the
+   * SAX parser, i.e. until the DOCTYPE or the root element.
+   */
+  boolean isPrologPending()
+  {
+    return ! _isDoctypeDone;
+  }
+
+  /**
+   * Returns true if the parser stopped at a DOCTYPE with an internal
+   * subset, which it cannot parse.
+   */
+  boolean hasInternalSubset()
+  {
+    return _hasInternalSubset;
+  }
+
+  /**
+   * Parses the next chunk.
+   */
+  void parse(StringValue data, boolean isFinal)
+    throws SAXException
+  {
+    if (_isFinished)
+      throw error(XmlModule.XML_ERROR_SYNTAX, L.l("parsing is finished"));
+
+    if (! _isStarted) {
+      _isStarted = true;
+
+      _handler.setDocumentLocator(this);
+      _handler.startDocument();
+    }
+
+    if (data.isUnicode())
+      appendChars(data);
+    else
+      appendBytes(data.toBytes(), isFinal);
+
+    parseTokens(isFinal);
+
+    if (_hasInternalSubset)
+      return;
+
+    if (isFinal) {
+      _isFinished = true;
+
+      if (_offset < _length)
+        throw error(XmlModule.XML_ERROR_UNCLOSED_TOKEN,
+                    L.l("unclosed token"));
+      else if (! _hasRoot)
+        throw error(XmlModule.XML_ERROR_NO_ELEMENTS,
+                    L.l("no element found"));
+      else if (_tags.size() > 0)
+        throw error(XmlModule.XML_ERROR_UNCLOSED_TOKEN,
+                    L.l("<{0}> is not closed", _tags.get(_tags.size() - 1)));
+
+      _handler.endDocument();
+    }
+  }
+
+  private void appendChars(StringValue data)
+  {
+    int len = data.length();
+
+    ensureCapacity(len);
+
+    for (int i = 0; i < len; i++) {
+      _buf[_length++] = data.charAt(i);
+    }
+
+    normalizeNewlines(_length - len);
+  }
+
+  private void appendBytes(byte []data, boolean isFinal)
+    throws SAXException
+  {
+    byte []bytes = data;
+    int length = data.length;
+
+    if (_bytesLength > 0) {
+      bytes = new byte[_bytesLength + length];
+      System.arraycopy(_bytes, 0, bytes, 0, _bytesLength);
+      System.arraycopy(data, 0, bytes, _bytesLength, length);
+      length = bytes.length;
+
+      _bytesLength = 0;
+    }
+
+    int offset = 0;
+
+    if (_decoder == null) {
+      Charset charset = getCharset(bytes, length, isFinal);
+
+      if (charset == null) {
+        saveBytes(bytes, 0, length);
+        return;
+      }
+
+      _decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+      // UTF-8 byte order mark
+      if (length >= 3
+          && bytes[0] == (byte) 0xef
+          && bytes[1] == (byte) 0xbb
+          && bytes[2] == (byte) 0xbf) {
+        offset = 3;
+      }
+    }
+
+    ByteBuffer in = ByteBuffer.wrap(bytes, offset, length - offset);
+
+    // compacts the buffer, so start stays valid while decoding
+    ensureCapacity(length - offset);
+
+    int start = _length;
+
+    while (true) {
+      ensureCapacity(Math.max(in.remaining(), 16));
+
+      CharBuffer out = CharBuffer.wrap(_buf, _length, _buf.length - _length);
+      CoderResult result = _decoder.decode(in, out, isFinal);
+
+      _length = out.position();
+
+      if (result.isOverflow())
+        continue;
+      else if (result.isError())
+        throw error(XmlModule.XML_ERROR_INVALID_TOKEN,
+                    L.l("invalid byte sequence for {0}",
+                        _decoder.charset().name()));
+
+      break;
+    }
+
+    if (isFinal) {
+      CharBuffer out = CharBuffer.wrap(_buf, _length, _buf.length - _length);
+
+      _decoder.flush(out);
+      _length = out.position();
+    }
+    else if (in.hasRemaining()) {
+      // a character split between chunks
+      saveBytes(bytes, in.position(), in.remaining());
+    }
+
+    normalizeNewlines(start);
+  }
+
+  private void saveBytes(byte []bytes, int offset, int length)
+  {
+    if (_bytes.length < length)
+      _bytes = new byte[length];
+
+    System.arraycopy(bytes, offset, _bytes, 0, length);
+    _bytesLength = length;
+  }
+
+  /**
+   * Returns the charset from the xml declaration, or null if the
+   * declaration is still incomplete.
+   */
+  private Charset getCharset(byte []bytes, int length, boolean isFinal)
+    throws SAXException
+  {
+    String prefix = "<?xml";
+    int i = 0;
+
+    for (; i < prefix.length() && i < length; i++) {
+      if (bytes[i] != prefix.charAt(i))
+        return Charset.forName("UTF-8");
+    }
+
+    int end = -1;
+
+    for (; i + 1 < length; i++) {
+      if (bytes[i] == '?' && bytes[i + 1] == '>') {
+        end = i;
+        break;
+      }
+    }
+
+    if (end < 0) {
+      if (isFinal)
+        return Charset.forName("UTF-8");
+      else
+        return null;
+    }
+
+    String decl = new String(bytes, 0, end, Charset.forName("ISO-8859-1"));
+    int p = decl.indexOf("encoding");
+
+    if (p < 0)
+      return Charset.forName("UTF-8");
+
+    p = decl.indexOf('=', p);
+
+    int q = p + 1;
+    for (; q < decl.length() && Character.isWhitespace(decl.charAt(q)); q++) {
+    }
+
+    if (p < 0 || decl.length() <= q)
+      return Charset.forName("UTF-8");
+
+    char quote = decl.charAt(q);
+    int tail = decl.indexOf(quote, q + 1);
+
+    if (tail < 0)
+      return Charset.forName("UTF-8");
+
+    String encoding = decl.substring(q + 1, tail);
+
+    try {
+      return Charset.forName(encoding);
+    } catch (IllegalArgumentException e) {
+      throw error(XmlModule.XML_ERROR_UNKNOWN_ENCODING,
+                  L.l("unknown encoding '{0}'", encoding));
+    }
+  }
+
+  /**
+   * Converts CR and CRLF to LF as the XML spec requires.
+   */
+  private void normalizeNewlines(int start)
+  {
+    char []buf = _buf;
+    int length = _length;
+    int j = start;
+
+    for (int i = start; i < length; i++) {
+      char ch = buf[i];
+
+      if (ch == '\r') {
+        buf[j++] = '\n';
+        _isCR = true;
+      }
+      else if (ch == '\n' && _isCR) {
+        _isCR = false;
+      }
+      else {
+        buf[j++] = ch;
+        _isCR = false;
+      }
+    }
+
+    _length = j;
+  }
+
+  private void ensureCapacity(int len)
+  {
+    if (_offset > 0) {
+      System.arraycopy(_buf, _offset, _buf, 0, _length - _offset);
+      _length -= _offset;
+      _offset = 0;
+    }
+
+    if (_buf.length < _length + len) {
+      char []buf = new char[Math.max(2 * _buf.length, _length + len)];
+      System.arraycopy(_buf, 0, buf, 0, _length);
+      _buf = buf;
+    }
+  }
+
+  private void parseTokens(boolean isFinal)
+    throws SAXException
+  {
+    while (_offset < _length && ! _hasInternalSubset) {
+      if (_buf[_offset] == '<') {
+        if (! parseMarkup())
+          return;
+      }
+      else if (! parseText(isFinal))
+        return;
+    }
+  }
+
+  /**
+   * Parses character data up to the next '<', or as much of it as is
+   * complete.
+   */
+  private boolean parseText(boolean isFinal)
+    throws SAXException
+  {
+    char []buf = _buf;
+    int start = _offset;
+    int end = start;
+    int length = _length;
+
+    for (; end < length && buf[end] != '<'; end++) {
+    }
+
+    if (end == length && ! isFinal) {
+      // keep an entity reference that may continue in the next chunk
+      for (int i = end - 1; start <= i && end - i < 32; i--) {
+        if (buf[i] == ';')
+          break;
+        else if (buf[i] == '&') {
+          end = i;
+          break;
+        }
+      }
+
+      if (end == start)
+        return false;
+    }
+
+    if (_tags.size() == 0) {
+      for (int i = start; i < end; i++) {
+        if (! isWhitespace(buf[i])) {
+          throw error(_hasRoot
+                      ? XmlModule.XML_ERROR_JUNK_AFTER_DOC_ELEMENT
+                      : XmlModule.XML_ERROR_SYNTAX,
+                      L.l("content is not allowed outside of the root element"));
+        }
+      }
+
+      consume(end);
+
+      return true;
+    }
+
+    int amp = indexOf(buf, '&', start, end);
+
+    if (amp < 0) {
+      consume(end);
+
+      _handler.characters(buf, start, end - start);
+
+      return true;
+    }
+
+    StringBuilder text = _text;
+    text.setLength(0);
+
+    decodeEntities(text, start, end);
+
+    consume(end);
+
+    char []chars = new char[text.length()];
+    text.getChars(0, chars.length, chars, 0);
+
+    _handler.characters(chars, 0, chars.length);
+
+    return true;
+  }
+
+  /**
+   * Parses a tag, comment, CDATA section, processing instruction or
+   * DOCTYPE starting at '<'.
+   *
+   * @return false if the token is not yet complete
+   */
+  private boolean parseMarkup()
+    throws SAXException
+  {
+    int start = _offset;
+
+    if (_length <= start + 1)
+      return false;
+
+    char ch = _buf[start + 1];
+
+    if (ch == '/') {
+      int end = indexOf(_buf, '>', start, _length);
+
+      if (end < 0)
+        return false;
+
+      String name = new String(_buf, start + 2, end - start - 2).trim();
+
+      consume(end + 1);
+
+      endElement(name);
+    }
+    else if (ch == '?') {
+      int end = indexOf("?>", start + 2);
+
+      if (end < 0)
+        return false;
+
+      parseProcessingInstruction(start + 2, end);
+
+      consume(end + 2);
+    }
+    else if (ch == '!') {
+      int match;
+
+      if ((match = startsWith("<!--", start)) < 0)
+        return false;
+      else if (match > 0) {
+        int end = indexOf("-->", start + 4);
+
+        if (end < 0)
+          return false;
+
+        consume(end + 3);
+      }
+      else if ((match = startsWith("<![CDATA[", start)) < 0)
+        return false;
+      else if (match > 0) {
+        int end = indexOf("]]>", start + 9);
+
+        if (end < 0)
+          return false;
+
+        if (_tags.size() == 0)
+          throw error(XmlModule.XML_ERROR_SYNTAX,
+                      L.l("CDATA is not allowed outside of the root element"));
+
+        consume(end + 3);
+
+        _handler.characters(_buf, start + 9, end - start - 9);
+      }
+      else if ((match = startsWith("<!DOCTYPE", start)) < 0)
+        return false;
+      else if (match > 0) {
+        if (indexOfSubset(start + 9) >= 0) {
+          _hasInternalSubset = true;
+          return false;
+        }
+
+        int end = findTagEnd(start + 9, true);
+
+        if (end < 0)
+          return false;
+
+        consume(end + 1);
+
+        endProlog();
+      }
+      else
+        throw error(XmlModule.XML_ERROR_INVALID_TOKEN,
+                    L.l("unknown markup '<!'"));
+    }
+    else {
+      int end = findTagEnd(start + 1, false);
+
+      if (end < 0)
+        return false;
+
+      parseStartTag(start + 1, end);
+    }
+
+    return true;
+  }
+
+  private void parseProcessingInstruction(int start, int end)
+    throws SAXException
+  {
+    int i = start;
+
+    for (; i < end && ! isWhitespace(_buf[i]); i++) {
+    }
+
+    String target = new String(_buf, start, i - start);
+
+    for (; i < end && isWhitespace(_buf[i]); i++) {
+    }
+
+    String data = new String(_buf, i, end - i);
+
+    if (target.equalsIgnoreCase("xml")) {
+      if (_position != 0)
+        throw error(XmlModule.XML_ERROR_MISPLACED_XML_PI,
+                    L.l("the xml declaration must start the document"));
+    }
+    else if (! _isDoctypeDone) {
+      _prologPis.add(target);
+      _prologPis.add(data);
+    }
+    else
+      _handler.processingInstruction(target, data);
+  }
+
+  /**
+   * Sends the held processing instructions once the document is known
+   * not to need the SAX parser.
+   */
+  private void endProlog()
+    throws SAXException
+  {
+    _isDoctypeDone = true;
+
+    for (int i = 0; i < _prologPis.size(); i += 2) {
+      _handler.processingInstruction(_prologPis.get(i), _prologPis.get(i + 1));
+    }
+
+    _prologPis.clear();
+  }
+
+  private void parseStartTag(int start, int end)
+    throws SAXException
+  {
+    char []buf = _buf;
+
+    boolean isEmpty = buf[end - 1] == '/';
+    int tail = isEmpty ? end - 1 : end;
+
+    int i = start;
+
+    for (; i < tail && ! isWhitespace(buf[i]); i++) {
+    }
+
+    if (i == start)
+      throw error(XmlModule.XML_ERROR_INVALID_TOKEN,
+                  L.l("expected an element name"));
+
+    String name = new String(buf, start, i - start);
+
+    AttributesImpl attrs = new AttributesImpl();
+
+    while (true) {
+      for (; i < tail && isWhitespace(buf[i]); i++) {
+      }
+
+      if (tail <= i)
+        break;
+
+      int nameStart = i;
+
+      for (; i < tail && buf[i] != '=' && ! isWhitespace(buf[i]); i++) {
+      }
+
+      String attrName = new String(buf, nameStart, i - nameStart);
+
+      for (; i < tail && isWhitespace(buf[i]); i++) {
+      }
+
+      if (tail <= i || buf[i] != '=')
+        throw error(XmlModule.XML_ERROR_SYNTAX,
+                    L.l("attribute '{0}' expects '='", attrName));
+
+      for (i++; i < tail && isWhitespace(buf[i]); i++) {
+      }
+
+      char quote = i < tail ? buf[i] : 0;
+
+      if (quote != '"' && quote != '\'')
+        throw error(XmlModule.XML_ERROR_SYNTAX,
+                    L.l("attribute '{0}' expects a quoted value", attrName));
+
+      int valueStart = ++i;
+      int valueEnd = indexOf(buf, quote, valueStart, tail);
+
+      if (attrs.getIndex(attrName) >= 0)
+        throw error(XmlModule.XML_ERROR_DUPLICATE_ATTRIBUTE,
+                    L.l("duplicate attribute '{0}'", attrName));
+
+      StringBuilder value = _text;
+      value.setLength(0);
+
+      decodeEntities(value, valueStart, valueEnd);
+
+      // attribute value normalization
+      for (int j = value.length() - 1; j >= 0; j--) {
+        char ch = value.charAt(j);
+
+        if (ch == '\n' || ch == '\t')
+          value.setCharAt(j, ' ');
+      }
+
+      attrs.addAttribute("", "", attrName, "CDATA", value.toString());
+
+      i = valueEnd + 1;
+    }
+
+    if (_tags.size() == 0 && _hasRoot)
+      throw error(XmlModule.XML_ERROR_JUNK_AFTER_DOC_ELEMENT,
+                  L.l("junk after document element"));
+
+    consume(end + 1);
+
+    if (! _isDoctypeDone)
+      endProlog();
+
+    _hasRoot = true;
+    _tags.add(name);
+
+    _handler.startElement("", "", name, attrs);
+
+    if (isEmpty)
+      endElement(name);
+  }
+
+  private void endElement(String name)
+    throws SAXException
+  {
+    int size = _tags.size();
+
+    if (size == 0 || ! _tags.get(size - 1).equals(name))
+      throw error(XmlModule.XML_ERROR_TAG_MISMATCH,
+                  L.l("mismatched tag </{0}>", name));
+
+    _tags.remove(size - 1);
+
+    _handler.endElement("", "", name);
+  }
+
+  /**
+   * Returns the index of the '[' opening the DOCTYPE's internal subset,
+   * or -1 if the DOCTYPE ends first or the '[' has not arrived yet.
+   */
+  private int indexOfSubset(int start)
+  {
+    char []buf = _buf;
+    char quote = 0;
+
+    for (int i = start; i < _length; i++) {
+      char ch = buf[i];
+
+      if (quote != 0) {
+        if (ch == quote)
+          quote = 0;
+      }
+      else if (ch == '"' || ch == '\'')
+        quote = ch;
+      else if (ch == '[')
+        return i;
+      else if (ch == '>')
+        return -1;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the index of the '>' closing a tag or DOCTYPE, skipping
+   * quoted values and the DOCTYPE's internal subset, or -1.
+   */
+  private int findTagEnd(int start, boolean isDoctype)
+  {
+    char []buf = _buf;
+    char quote = 0;
+    int depth = 0;
+
+    for (int i = start; i < _length; i++) {
+      char ch = buf[i];
+
+      if (quote != 0) {
+        if (ch == quote)
+          quote = 0;
+      }
+      else if (ch == '"' || ch == '\'')
+        quote = ch;
+      else if (isDoctype && ch == '[')
+        depth++;
+      else if (isDoctype && ch == ']')
+        depth--;
+      else if (ch == '>' && depth <= 0)
+        return i;
+    }
+
+    return -1;
+  }
+
+  private void decodeEntities(StringBuilder sb, int start, int end)
+    throws SAXException
+  {
+    char []buf = _buf;
+
+    for (int i = start; i < end; i++) {
+      char ch = buf[i];
+
+      if (ch != '&') {
+        sb.append(ch);
+        continue;
+      }
+
+      int tail = indexOf(buf, ';', i + 1, end);
+
+      if (tail < 0)
+        throw error(XmlModule.XML_ERROR_INVALID_TOKEN,
+                    L.l("unterminated entity reference"));
+
+      String name = new String(buf, i + 1, tail - i - 1);
+
+      if (name.equals("amp"))
+        sb.append('&');
+      else if (name.equals("lt"))
+        sb.append('<');
+      else if (name.equals("gt"))
+        sb.append('>');
+      else if (name.equals("quot"))
+        sb.append('"');
+      else if (name.equals("apos"))
+        sb.append('\'');
+      else if (name.startsWith("#")) {
+        try {
+          int code;
+
+          if (name.startsWith("#x"))
+            code = Integer.parseInt(name.substring(2), 16);
+          else
+            code = Integer.parseInt(name.substring(1));
+
+          sb.appendCodePoint(code);
+        } catch (IllegalArgumentException e) {
+          throw error(XmlModule.XML_ERROR_BAD_CHAR_REF,
+                      L.l("bad character reference '&{0};'", name));
+        }
+      }
+      else
+        throw error(XmlModule.XML_ERROR_UNDEFINED_ENTITY,
+                    L.l("undefined entity '&{0};'", name));
+
+      i = tail;
+    }
+  }
+
+  /**
+   * Returns 1 if the buffer matches the prefix at offset, 0 if it does
+   * not, and -1 if there is not enough data to tell.
+   */
+  private int startsWith(String prefix, int offset)
+  {
+    int len = prefix.length();
+
+    for (int i = 0; i < len; i++) {
+      if (_length <= offset + i)
+        return -1;
+      else if (_buf[offset + i] != prefix.charAt(i))
+        return 0;
+    }
+
+    return 1;
+  }
+
+  private int indexOf(String s, int offset)
+  {
+    char []buf = _buf;
+    int len = s.length();
+    int end = _length - len;
+    char first = s.charAt(0);
+
+    loop:
+    for (int i = offset; i <= end; i++) {
+      if (buf[i] != first)
+        continue;
+
+      for (int j = 1; j < len; j++) {
+        if (buf[i + j] != s.charAt(j))
+          continue loop;
+      }
+
+      return i;
+    }
+
+    return -1;
+  }
+
+  private static int indexOf(char []buf, char ch, int offset, int end)
+  {
+    for (int i = offset; i < end; i++) {
+      if (buf[i] == ch)
+        return i;
+    }
+
+    return -1;
+  }
+
+  private static boolean isWhitespace(char ch)
+  {
+    return ch == ' ' || ch == '\n' || ch == '\t' || ch == '\r';
+  }
+
+  /**
+   * Marks the data up to end as parsed, updating the location.
+   */
+  private void consume(int end)
+  {
+    char []buf = _buf;
+
+    for (int i = _offset; i < end; i++) {
+      if (buf[i] == '\n') {
+        _line++;
+        _column = 1;
+      }
+      else
+        _column++;
+    }
+
+    _position += end - _offset;
+    _offset = end;
+  }
+
+  private SAXParseException error(int code, String msg)
+  {
+    _errorCode = code;
+    _isFinished = true;
+
+    return new SAXParseException(msg, this);
+  }
+
+  //
+  // Locator
+  //
+
+  @Override
+  public String getPublicId()
+  {
+    return null;
+  }
+
+  @Override
+  public String getSystemId()
+  {
+    return null;
+  }
+
+  @Override
+  public int getLineNumber()
+  {
+    return _line;
+  }
+
+  @Override
+  public int getColumnNumber()
+  {
+    return _column;
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[line=" + _line + "]";
+  }
+}
@@ -30,22 +30,29 @@
 package com.caucho.quercus.lib.zlib;
 
 import com.caucho.quercus.QuercusModuleException;
+import com.caucho.quercus.annotation.Hide;
 import com.caucho.quercus.annotation.NotNull;
 import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.annotation.ReturnNullAsFalse;
 import com.caucho.quercus.env.*;
+import com.caucho.quercus.lib.HttpModule;
 import com.caucho.quercus.lib.OutputModule;
 import com.caucho.quercus.lib.file.BinaryInput;
 import com.caucho.quercus.lib.file.BinaryOutput;
 import com.caucho.quercus.lib.file.BinaryStream;
 import com.caucho.quercus.lib.file.FileModule;
 import com.caucho.quercus.module.AbstractQuercusModule;
+import com.caucho.quercus.module.IniDefinition;
+import com.caucho.quercus.module.IniDefinitions;
+import com.caucho.quercus.module.ModuleStartupListener;
 import com.caucho.util.L10N;
 import com.caucho.vfs.StreamImplOutputStream;
 import com.caucho.vfs.TempBuffer;
 import com.caucho.vfs.TempStream;
+import com.caucho.vfs.WriteStream;
 import edu.cmu.cs.varex.VHelper;
 import edu.cmu.cs.varex.VWriteStream;
+import edu.cmu.cs.varex.vio.PlainWriteStreamAdapter;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -59,20 +66,174 @@ import java.util.zip.InflaterInputStream;
 /**
  * PHP Zlib
  */
-public class ZlibModule extends AbstractQuercusModule {
+public class ZlibModule extends AbstractQuercusModule
+  implements ModuleStartupListener {
   private static final Logger log
     = Logger.getLogger(ZlibModule.class.getName());
   private static final L10N L = new L10N(ZlibModule.class);
 
+  private static final IniDefinitions _iniDefinitions = new IniDefinitions();
+
   public static final int FORCE_GZIP = 0x1;
   public static final int FORCE_DEFLATE = 0x2;
 
+  // flush interval for zlib.output_compression=On, as in PHP
+  private static final int OUTPUT_COMPRESSION_INTERVAL = 4096;
+
+  private static final String OUTPUT_FILTER = "caucho.zlib.output_filter";
+
   @Override
   public String []getLoadedExtensions()
   {
     return new String[] { "zlib" };
   }
 
+  /**
+   * Returns the default php.ini values.
+   */
+  @Override
+  public IniDefinitions getIniDefinitions()
+  {
+    return _iniDefinitions;
+  }
+
+  /**
+   * Starts zlib.output_compression by pushing a compressing filter
+   * under the output buffers, directly on the response stream.
+   *
+   * The settings are only read here, so they come from php.ini or the
+   * server configuration; an ini_set() from the page is ignored because
+   * the Content-Encoding is already decided.
+   */
+  @Override
+  @Hide
+  public void startup(Env env)
+  {
+    int flushInterval = getOutputCompressionInterval(env);
+
+    if (flushInterval <= 0
+        || env.getResponse() == null
+        || env.getResponse().isCommitted()
+        || env.getDuplex() != null) {
+      return;
+    }
+
+    VWriteStream out = env.getOriginalOut();
+
+    if (! (out instanceof PlainWriteStreamAdapter))
+      return;
+
+    String codingType = getCodingType(env);
+
+    if (codingType == null)
+      return;
+
+    int level = (int) INI_OUTPUT_COMPRESSION_LEVEL.getAsLong(env);
+
+    if (level < Deflater.DEFAULT_COMPRESSION || Deflater.BEST_COMPRESSION < level)
+      level = Deflater.DEFAULT_COMPRESSION;
+
+    final WriteStream ws = ((PlainWriteStreamAdapter) out).getWriteStream();
+    final ZlibOutputFilter filter
+      = new ZlibOutputFilter(codingType.equals("gzip"), level, flushInterval);
+
+    try {
+      ws.flushBuffer();
+    } catch (IOException e) {
+      throw new QuercusModuleException(e);
+    }
+
+    ws.pushFilter(filter);
+
+    HttpModule.header(
+        env, env.createString("Vary: Accept-Encoding"), true, 0);
+    HttpModule.header(
+        env, env.createString("Content-Encoding: " + codingType), true, 0);
+
+    env.setSpecialValue(OUTPUT_FILTER, filter);
+
+    // runs after the output buffers and destructors have written out
+    env.addCleanup(new EnvCleanup() {
+      public void cleanup()
+        throws Exception
+      {
+        ws.flushBuffer();
+        filter.finish();
+      }
+    });
+  }
+
+  /**
+   * Returns true if zlib.output_compression is active for the request.
+   */
+  @Hide
+  public static boolean isOutputCompression(Env env)
+  {
+    return env.getSpecialValue(OUTPUT_FILTER) != null;
+  }
+
+  /**
+   * Returns the flush interval for zlib.output_compression, or 0 if it
+   * is off.  A number larger than 1 is the interval in bytes.
+   */
+  private static int getOutputCompressionInterval(Env env)
+  {
+    String ini = INI_OUTPUT_COMPRESSION.getAsString(env);
+
+    if (ini == null)
+      return 0;
+
+    ini = ini.trim();
+
+    if (ini.equalsIgnoreCase("on")
+        || ini.equalsIgnoreCase("true")
+        || ini.equalsIgnoreCase("yes")) {
+      return OUTPUT_COMPRESSION_INTERVAL;
+    }
+
+    int len = ini.length();
+    long value = 0;
+
+    for (int i = 0; i < len; i++) {
+      char ch = ini.charAt(i);
+
+      if (ch < '0' || '9' < ch)
+        return 0;
+
+      value = 10 * value + ch - '0';
+
+      if (Integer.MAX_VALUE < value)
+        return Integer.MAX_VALUE;
+    }
+
+    if (len == 0)
+      return 0;
+    else if (value == 1)
+      return OUTPUT_COMPRESSION_INTERVAL;
+    else
+      return (int) value;
+  }
+
+  /**
+   * Returns the encoding accepted by the client, or null.
+   */
+  private static String getCodingType(Env env)
+  {
+    ServerArrayValue sav = new ServerArrayValue(env);
+    Value val = sav.get(env.createString("HTTP_ACCEPT_ENCODING")).getOne();
+
+    if (!val.isset())
+      return null;
+
+    String s = val.toString();
+    if (s.contains("gzip"))
+      return "gzip";
+    else if (s.contains("deflate"))
+      return "deflate";
+    else
+      return null;
+  }
+
   /**
    *
    * @param env
@@ -395,30 +556,13 @@ public class ZlibModule extends AbstractQuercusModule {
    */
   public Value zlib_get_coding_type(Env env)
   {
-    String ini = env.getIniString("zlib.output_compression");
-
-    if (ini == null || ini == "")
+    if (getOutputCompressionInterval(env) <= 0)
       return BooleanValue.FALSE;
 
-    //zlib_get_coding_type can also be an integer > 0
-    if (! ini.equalsIgnoreCase("on")) {
-      int ch = ini.charAt(0);
-
-      if (ch < '0' || ch > '9')
-        return BooleanValue.FALSE;
-    }
-
-    ServerArrayValue sav = new ServerArrayValue(env);
-    Value val = sav.get(env.createString("HTTP_ACCEPT_ENCODING")).getOne();
+    String codingType = getCodingType(env);
 
-    if (!val.isset())
-      return BooleanValue.FALSE;
-
-    String s = val.toString();
-    if (s.contains("gzip"))
-      return env.createString("gzip");
-    else if (s.contains("deflate"))
-      return env.createString("deflate");
+    if (codingType != null)
+      return env.createString(codingType);
     else
       return BooleanValue.FALSE;
   }
@@ -797,4 +941,10 @@ public class ZlibModule extends AbstractQuercusModule {
 
     return Deflater.DEFAULT_STRATEGY;
   }
+
+  // read once at request startup, so ini_set() cannot change them
+  static final IniDefinition INI_OUTPUT_COMPRESSION
+    = _iniDefinitions.add("zlib.output_compression", "0", PHP_INI_PERDIR);
+  static final IniDefinition INI_OUTPUT_COMPRESSION_LEVEL
+    = _iniDefinitions.add("zlib.output_compression_level", -1, PHP_INI_PERDIR);
 }
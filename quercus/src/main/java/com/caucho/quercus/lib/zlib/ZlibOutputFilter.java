@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.zlib;
+
+import com.caucho.vfs.StreamFilter;
+import com.caucho.vfs.TempBuffer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the response stream for zlib.output_compression.
+ *
+ * Each write is deflated as it arrives, so the page is never held
+ * uncompressed as a whole.  A sync flush after every flush interval of
+ * input and on an explicit flush() lets the client decompress what it
+ * has received so far.  The Deflater is kept per thread and reused by
+ * the next request on the same worker.
+ *
+ * Nothing is written until the page writes its first byte, so an empty
+ * body, e.g. for HEAD, 204 or 304, stays empty instead of becoming an
+ * empty compressed stream.
+ */
+class ZlibOutputFilter extends StreamFilter
+{
+  private static final Logger log
+    = Logger.getLogger(ZlibOutputFilter.class.getName());
+
+  private static final ThreadMXBean THREAD_BEAN
+    = ManagementFactory.getThreadMXBean();
+
+  private static final boolean IS_CPU_TIME
+    = THREAD_BEAN.isCurrentThreadCpuTimeSupported()
+      && THREAD_BEAN.isThreadCpuTimeEnabled();
+
+  // gzip uses raw deflate (nowrap), deflate uses the zlib wrapper
+  private static final ThreadLocal<Deflater> _gzipDeflaterLocal
+    = new ThreadLocal<Deflater>();
+  private static final ThreadLocal<Deflater> _zlibDeflaterLocal
+    = new ThreadLocal<Deflater>();
+
+  private static final byte []GZIP_HEADER = {
+    (byte) 0x1f, (byte) 0x8b,   // gzip file identifier (ID1, ID2)
+    (byte) 0x8,                 // Deflate compression method (CM)
+    0,                          // optional flags (FLG)
+    0, 0, 0, 0,                 // modification time (MTIME)
+    0,                          // extra optional flags (XFL)
+    (byte) 0x3                  // operating system (OS)
+  };
+
+  private final boolean _isGzip;
+  private final int _flushInterval;
+
+  private Deflater _deflater;
+  private final CRC32 _crc;
+
+  private TempBuffer _tempBuffer;
+  private byte []_buffer;
+
+  // true once the first byte is compressed
+  private boolean _isHeaderWritten;
+  private boolean _isFinished;
+
+  // input bytes since the last sync flush
+  private int _pendingLength;
+
+  private long _inputLength;
+  private long _outputLength;
+  private long _cpuTime;
+
+  ZlibOutputFilter(boolean isGzip, int level, int flushInterval)
+  {
+    _isGzip = isGzip;
+    _flushInterval = flushInterval;
+
+    _deflater = allocateDeflater(isGzip, level);
+
+    if (isGzip)
+      _crc = new CRC32();
+    else
+      _crc = null;
+
+    _tempBuffer = TempBuffer.allocate();
+    _buffer = _tempBuffer.getBuffer();
+  }
+
+  private static Deflater allocateDeflater(boolean isGzip, int level)
+  {
+    ThreadLocal<Deflater> local
+      = isGzip ? _gzipDeflaterLocal : _zlibDeflaterLocal;
+
+    Deflater deflater = local.get();
+
+    if (deflater != null) {
+      local.set(null);
+      deflater.setLevel(level);
+
+      return deflater;
+    }
+    else
+      return new Deflater(level, isGzip);
+  }
+
+  private static void freeDeflater(boolean isGzip, Deflater deflater)
+  {
+    ThreadLocal<Deflater> local
+      = isGzip ? _gzipDeflaterLocal : _zlibDeflaterLocal;
+
+    deflater.reset();
+
+    if (local.get() == null)
+      local.set(deflater);
+    else
+      deflater.end();
+  }
+
+  @Override
+  public void write(byte []buffer, int offset, int length, boolean atEnd)
+    throws IOException
+  {
+    if (_isFinished) {
+      if (length > 0)
+        log.fine(this + " dropping " + length + " bytes written after finish");
+
+      return;
+    }
+
+    long start = getTime();
+
+    if (length > 0) {
+      writeHeader();
+
+      if (_crc != null)
+        _crc.update(buffer, offset, length);
+
+      _deflater.setInput(buffer, offset, length);
+
+      while (! _deflater.needsInput()) {
+        deflate(Deflater.NO_FLUSH);
+      }
+
+      _inputLength += length;
+      _pendingLength += length;
+    }
+
+    if (atEnd)
+      finishImpl();
+    else if (_flushInterval <= _pendingLength)
+      syncFlush();
+
+    _cpuTime += getTime() - start;
+  }
+
+  @Override
+  public void flush()
+    throws IOException
+  {
+    if (! _isFinished && _pendingLength > 0) {
+      long start = getTime();
+
+      syncFlush();
+
+      _cpuTime += getTime() - start;
+    }
+
+    next.flush();
+  }
+
+  /**
+   * Writes the remaining compressed data and the trailer.  Writes after
+   * this are dropped.
+   */
+  void finish()
+    throws IOException
+  {
+    if (_isFinished)
+      return;
+
+    long start = getTime();
+
+    finishImpl();
+
+    _cpuTime += getTime() - start;
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    try {
+      finish();
+    } finally {
+      next.close();
+    }
+  }
+
+  private void writeHeader()
+    throws IOException
+  {
+    if (! _isHeaderWritten) {
+      _isHeaderWritten = true;
+
+      if (_isGzip) {
+        next.write(GZIP_HEADER, 0, GZIP_HEADER.length, false);
+        _outputLength += GZIP_HEADER.length;
+      }
+    }
+  }
+
+  private void syncFlush()
+    throws IOException
+  {
+    _pendingLength = 0;
+
+    // a full buffer means the deflater may have more pending output
+    while (deflate(Deflater.SYNC_FLUSH) == _buffer.length) {
+    }
+  }
+
+  private void finishImpl()
+    throws IOException
+  {
+    _isFinished = true;
+
+    Deflater deflater = _deflater;
+    _deflater = null;
+
+    try {
+      if (_isHeaderWritten) {
+        deflater.finish();
+
+        while (! deflater.finished()) {
+          int len = deflater.deflate(_buffer, 0, _buffer.length);
+
+          if (len > 0) {
+            next.write(_buffer, 0, len, false);
+            _outputLength += len;
+          }
+        }
+
+        if (_isGzip) {
+          writeInt(_buffer, 0, (int) _crc.getValue());
+          writeInt(_buffer, 4, (int) _inputLength);
+
+          next.write(_buffer, 0, 8, false);
+          _outputLength += 8;
+        }
+      }
+    } finally {
+      freeDeflater(_isGzip, deflater);
+
+      TempBuffer tempBuffer = _tempBuffer;
+      _tempBuffer = null;
+      _buffer = null;
+
+      TempBuffer.free(tempBuffer);
+    }
+
+    if (log.isLoggable(Level.FINE)) {
+      long ratio = _inputLength > 0 ? 100 * _outputLength / _inputLength : 100;
+
+      log.fine(this + " in=" + _inputLength
+               + " out=" + _outputLength
+               + " ratio=" + ratio + "%"
+               + (IS_CPU_TIME ? " cpu=" : " time=")
+               + (_cpuTime / 1000) + "us");
+    }
+  }
+
+  private int deflate(int flush)
+    throws IOException
+  {
+    int len = _deflater.deflate(_buffer, 0, _buffer.length, flush);
+
+    if (len > 0) {
+      next.write(_buffer, 0, len, false);
+      _outputLength += len;
+    }
+
+    return len;
+  }
+
+  private static void writeInt(byte []buffer, int offset, int v)
+  {
+    // gzip trailer fields are little-endian
+    buffer[offset + 0] = (byte) v;
+    buffer[offset + 1] = (byte) (v >> 8);
+    buffer[offset + 2] = (byte) (v >> 16);
+    buffer[offset + 3] = (byte) (v >> 24);
+  }
+
+  private static long getTime()
+  {
+    if (IS_CPU_TIME)
+      return THREAD_BEAN.getCurrentThreadCpuTime();
+    else
+      return System.nanoTime();
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + (_isGzip ? "gzip" : "deflate")
+           + ",in=" + _inputLength + ",out=" + _outputLength + "]";
+  }
+}
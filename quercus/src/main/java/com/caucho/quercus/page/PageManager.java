@@ -34,7 +34,7 @@ import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.program.QuercusProgram;
 import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
+import com.caucho.util.ConcurrentLruCache;
 import com.caucho.vfs.IOExceptionWrapper;
 import com.caucho.vfs.Path;
 
@@ -66,8 +66,8 @@ public class PageManager
   private ConcurrentHashMap<String,Object> _programLockMap
     = new ConcurrentHashMap<String,Object>();
 
-  protected LruCache<Path,SoftReference<QuercusProgram>> _programCache
-    = new LruCache<Path,SoftReference<QuercusProgram>>(1024);
+  protected ConcurrentLruCache<Path,SoftReference<QuercusProgram>> _programCache
+    = new ConcurrentLruCache<Path,SoftReference<QuercusProgram>>(1024);
 
   private boolean _isClosed;
 
@@ -170,7 +170,7 @@ public class PageManager
   public void setPageCacheSize(int size)
   {
     if (size >= 0 && size != _programCache.getCapacity())
-      _programCache = new LruCache<Path,SoftReference<QuercusProgram>>(size);
+      _programCache = new ConcurrentLruCache<Path,SoftReference<QuercusProgram>>(size);
   }
 
   /**
@@ -293,6 +293,11 @@ public class PageManager
         }
 
         _programCache.put(path, new SoftReference<QuercusProgram>(program));
+
+        PageWatcher watcher = _quercus.getPageWatcher();
+
+        if (watcher != null)
+          watcher.watch(program);
       }
 
       if (program.getCompiledPage() != null)
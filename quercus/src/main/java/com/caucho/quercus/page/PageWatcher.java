@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.page;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Depend;
+import com.caucho.vfs.PersistentDependency;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes source file changes to the page and include caches, so that
+ * requests don't need to check the file system for modified pages.
+ *
+ * The directories of loaded pages and of every location an include
+ * was looked up in are registered with a WatchService.  If the platform can't watch
+ * directories, a background thread polls the dependencies of the
+ * loaded programs instead.  Pages that aren't plain files, e.g. pages
+ * in jars, keep their per-request dependency checks.
+ */
+public class PageWatcher
+{
+  private static final Logger log
+    = Logger.getLogger(PageWatcher.class.getName());
+
+  protected static final L10N L = new L10N(PageWatcher.class);
+
+  private static final long MIN_POLL_INTERVAL = 1000L;
+
+  private final QuercusContext _quercus;
+
+  // null in polling mode
+  private final WatchService _watchService;
+
+  private final long _pollInterval;
+
+  // watched directory -> file name -> program loaded from the file
+  private final ConcurrentHashMap<Path,Map<String,WeakReference<QuercusProgram>>>
+    _dirMap = new ConcurrentHashMap<Path,Map<String,WeakReference<QuercusProgram>>>();
+
+  // programs checked by the polling thread
+  private final Set<QuercusProgram> _pollSet
+    = Collections.synchronizedSet(Collections.newSetFromMap(
+        new WeakHashMap<QuercusProgram,Boolean>()));
+
+  private final AtomicLong _eventCount = new AtomicLong();
+  private final AtomicLong _overflowCount = new AtomicLong();
+  private final AtomicLong _invalidateCount = new AtomicLong();
+  private final AtomicLong _includeInvalidateCount = new AtomicLong();
+  private final AtomicLong _pollCount = new AtomicLong();
+
+  private final WatchThread _thread;
+
+  private volatile boolean _isClosed;
+
+  private PageWatcher(QuercusContext quercus,
+                      WatchService watchService,
+                      long pollInterval)
+  {
+    _quercus = quercus;
+    _watchService = watchService;
+    _pollInterval = pollInterval;
+
+    _thread = new WatchThread();
+    _thread.start();
+  }
+
+  /**
+   * Creates a watcher, falling back to polling if the default file
+   * system can't be watched.
+   */
+  public static PageWatcher create(QuercusContext quercus)
+  {
+    long pollInterval = Math.max(MIN_POLL_INTERVAL,
+                                 quercus.getDependencyCheckInterval());
+
+    WatchService watchService = null;
+
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+    } catch (UnsupportedOperationException e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+
+    if (watchService == null) {
+      log.info(L.l("Quercus watching pages by polling every {0}ms",
+                   pollInterval));
+    }
+
+    return new PageWatcher(quercus, watchService, pollInterval);
+  }
+
+  /**
+   * True if changes are pushed by a WatchService, false when polling.
+   */
+  public boolean isWatchService()
+  {
+    return _watchService != null;
+  }
+
+  /**
+   * Tracks the source files of a newly loaded program.  If the program
+   * can be tracked, its isModified() no longer checks the file system.
+   */
+  public void watch(QuercusProgram program)
+  {
+    if (_isClosed || program.getCompiledPage() != null)
+      return;
+
+    if (_watchService == null) {
+      _pollSet.add(program);
+      program.setWatched(true);
+
+      return;
+    }
+
+    ArrayList<File> fileList = new ArrayList<File>();
+
+    for (PersistentDependency depend : program.getDependencyList()) {
+      if (! (depend instanceof Depend))
+        return;
+
+      File file = toFile(((Depend) depend).getPath());
+
+      if (file == null)
+        return;
+
+      fileList.add(file);
+    }
+
+    if (fileList.size() == 0)
+      return;
+
+    WeakReference<QuercusProgram> programRef
+      = new WeakReference<QuercusProgram>(program);
+
+    for (File file : fileList) {
+      Map<String,WeakReference<QuercusProgram>> fileMap
+        = register(file.getParentFile());
+
+      if (fileMap == null)
+        return;
+
+      fileMap.put(file.getName(), programRef);
+    }
+
+    program.setWatched(true);
+
+    // a change between the parse and the registration has no event
+    if (program.isDependencyModified())
+      invalidate(program);
+  }
+
+  /**
+   * Watches a directory whose contents affect include resolution.
+   */
+  public void watchDirectory(com.caucho.vfs.Path path)
+  {
+    if (_watchService == null || _isClosed || path == null)
+      return;
+
+    File dir = toFile(path);
+
+    if (dir != null && dir.isDirectory())
+      register(dir);
+  }
+
+  /**
+   * Watches the directory a file would be created in.  If that directory
+   * doesn't exist yet, its nearest existing ancestor is watched, since
+   * creating the directory is then the first change.
+   */
+  public void watchParent(com.caucho.vfs.Path path)
+  {
+    if (_watchService == null || _isClosed || path == null)
+      return;
+
+    File file = toFile(path);
+
+    if (file == null)
+      return;
+
+    File dir = file.getParentFile();
+
+    while (dir != null && ! dir.isDirectory()) {
+      dir = dir.getParentFile();
+    }
+
+    if (dir != null)
+      register(dir);
+  }
+
+  private Map<String,WeakReference<QuercusProgram>> register(File dir)
+  {
+    Path dirPath = dir.toPath();
+
+    Map<String,WeakReference<QuercusProgram>> fileMap = _dirMap.get(dirPath);
+
+    if (fileMap != null)
+      return fileMap;
+
+    try {
+      dirPath.register(_watchService,
+                       StandardWatchEventKinds.ENTRY_CREATE,
+                       StandardWatchEventKinds.ENTRY_DELETE,
+                       StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    } catch (ClosedWatchServiceException e) {
+      return null;
+    }
+
+    fileMap = new ConcurrentHashMap<String,WeakReference<QuercusProgram>>();
+
+    Map<String,WeakReference<QuercusProgram>> oldMap
+      = _dirMap.putIfAbsent(dirPath, fileMap);
+
+    return oldMap != null ? oldMap : fileMap;
+  }
+
+  private static File toFile(com.caucho.vfs.Path path)
+  {
+    if (path == null || ! "file".equals(path.getScheme()))
+      return null;
+
+    return new File(path.getNativePath()).getAbsoluteFile();
+  }
+
+  private void invalidate(QuercusProgram program)
+  {
+    _invalidateCount.incrementAndGet();
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(L.l("{0} invalidating {1}", this, program));
+
+    program.invalidate();
+  }
+
+  private void invalidateIncludes()
+  {
+    _includeInvalidateCount.incrementAndGet();
+
+    _quercus.clearIncludeCache();
+  }
+
+  private void handleEvents(WatchKey key)
+  {
+    Path dir = (Path) key.watchable();
+
+    Map<String,WeakReference<QuercusProgram>> fileMap = _dirMap.get(dir);
+
+    boolean isIncludeChange = false;
+
+    for (WatchEvent<?> event : key.pollEvents()) {
+      _eventCount.incrementAndGet();
+
+      WatchEvent.Kind<?> kind = event.kind();
+
+      if (kind == StandardWatchEventKinds.OVERFLOW) {
+        // events were lost, so anything in the directory may have changed
+        _overflowCount.incrementAndGet();
+
+        if (fileMap != null) {
+          for (WeakReference<QuercusProgram> programRef : fileMap.values()) {
+            invalidate(programRef);
+          }
+
+          fileMap.clear();
+        }
+
+        isIncludeChange = true;
+        continue;
+      }
+
+      if (kind != StandardWatchEventKinds.ENTRY_MODIFY)
+        isIncludeChange = true;
+
+      if (fileMap != null) {
+        String name = String.valueOf(event.context());
+
+        invalidate(fileMap.remove(name));
+      }
+    }
+
+    if (! key.reset()) {
+      // the directory itself is gone
+      _dirMap.remove(dir);
+
+      if (fileMap != null) {
+        for (WeakReference<QuercusProgram> programRef : fileMap.values()) {
+          invalidate(programRef);
+        }
+      }
+
+      isIncludeChange = true;
+    }
+
+    if (isIncludeChange)
+      invalidateIncludes();
+  }
+
+  private void invalidate(WeakReference<QuercusProgram> programRef)
+  {
+    QuercusProgram program = programRef != null ? programRef.get() : null;
+
+    if (program != null)
+      invalidate(program);
+  }
+
+  private void poll()
+  {
+    _pollCount.incrementAndGet();
+
+    ArrayList<QuercusProgram> programList;
+
+    synchronized (_pollSet) {
+      programList = new ArrayList<QuercusProgram>(_pollSet);
+    }
+
+    for (QuercusProgram program : programList) {
+      if (program.isDependencyModified()) {
+        _pollSet.remove(program);
+
+        invalidate(program);
+      }
+    }
+  }
+
+  public long getEventCount()
+  {
+    return _eventCount.get();
+  }
+
+  public long getOverflowCount()
+  {
+    return _overflowCount.get();
+  }
+
+  /**
+   * Returns the number of programs marked as modified.
+   */
+  public long getInvalidateCount()
+  {
+    return _invalidateCount.get();
+  }
+
+  /**
+   * Returns the number of times the include cache was cleared.
+   */
+  public long getIncludeInvalidateCount()
+  {
+    return _includeInvalidateCount.get();
+  }
+
+  public long getPollCount()
+  {
+    return _pollCount.get();
+  }
+
+  public int getDirectoryCount()
+  {
+    return _dirMap.size();
+  }
+
+  public void close()
+  {
+    _isClosed = true;
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " events=" + getEventCount()
+               + " overflows=" + getOverflowCount()
+               + " invalidations=" + getInvalidateCount()
+               + " include-invalidations=" + getIncludeInvalidateCount()
+               + " polls=" + getPollCount());
+    }
+
+    _thread.interrupt();
+
+    if (_watchService != null) {
+      try {
+        _watchService.close();
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + (_watchService != null ? "watch" : "poll")
+            + ",dirs=" + getDirectoryCount() + "]");
+  }
+
+  class WatchThread extends Thread {
+    WatchThread()
+    {
+      super("quercus-page-watch");
+
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      while (! _isClosed) {
+        try {
+          if (_watchService != null)
+            handleEvents(_watchService.take());
+          else {
+            Thread.sleep(_pollInterval);
+
+            poll();
+          }
+        } catch (ClosedWatchServiceException e) {
+          break;
+        } catch (InterruptedException e) {
+        } catch (Throwable e) {
+          log.log(Level.WARNING, e.toString(), e);
+        }
+      }
+    }
+  }
+}
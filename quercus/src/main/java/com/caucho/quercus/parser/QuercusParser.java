@@ -5567,7 +5567,7 @@ public class QuercusParser {
       return new UnicodeBuilderValue(lexeme);
     }
     else {
-      return new ConstStringValue(lexeme);
+      return ConstStringValue.intern(new ConstStringValue(lexeme));
     }
   }
 
@@ -95,6 +95,10 @@ public class QuercusProgram {
 
   private final BasicDependencyContainer _topDepend;
 
+  // set when a PageWatcher pushes changes instead of checking _topDepend
+  private volatile boolean _isWatched;
+  private volatile boolean _isInvalidated;
+
   /**
    * Creates a new quercus program
    *
@@ -295,10 +299,38 @@ public class QuercusProgram {
    * Returns true if the function is modified.
    */
   public boolean isModified()
+  {
+    if (_isWatched)
+      return _isInvalidated;
+    else
+      return _topDepend.isModified();
+  }
+
+  /**
+   * Returns true if the function is modified, checking the dependencies
+   * even if the program is watched.
+   */
+  public boolean isDependencyModified()
   {
     return _topDepend.isModified();
   }
 
+  /**
+   * Set true when changes to the source are pushed by invalidate().
+   */
+  public void setWatched(boolean isWatched)
+  {
+    _isWatched = isWatched;
+  }
+
+  /**
+   * Marks the program as modified.
+   */
+  public void invalidate()
+  {
+    _isInvalidated = true;
+  }
+
   /**
    * Returns the compiled page.
    */
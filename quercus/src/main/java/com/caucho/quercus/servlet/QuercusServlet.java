@@ -92,6 +92,7 @@ public class QuercusServlet
   private File _licenseDirectory;
 
   private Long _dependencyCheckInterval;
+  private boolean _isPageWatch;
 
   private ArrayList<QuercusModule> _moduleList
     = new ArrayList<QuercusModule>();
@@ -218,6 +219,15 @@ public class QuercusServlet
     _dependencyCheckInterval = ms;
   }
 
+  /**
+   * Set true if source changes should be pushed by a file watcher
+   * instead of being checked by requests.
+   */
+  public void setPageWatch(boolean isPageWatch)
+  {
+    _isPageWatch = isPageWatch;
+  }
+
   /**
    * Set the default data source.
    */
@@ -459,6 +469,9 @@ public class QuercusServlet
     else if ("dependency-check-interval".equals(paramName)) {
       setDependencyCheckInterval(Long.parseLong(paramValue));
     }
+    else if ("page-watch".equals(paramName)) {
+      setPageWatch("true".equals(paramValue));
+    }
     else if ("license-directory".equals(paramName)) {
       setLicenseDirectory(paramValue);
     }
@@ -521,6 +534,7 @@ public class QuercusServlet
     quercus.setPageCacheSize(_pageCacheSize);
     quercus.setRegexpCacheSize(_regexpCacheSize);
     quercus.setConnectionPool(_isConnectionPool);
+    quercus.setPageWatch(_isPageWatch);
 
     if (_dependencyCheckInterval != null) {
       quercus.setDependencyCheckInterval(_dependencyCheckInterval);
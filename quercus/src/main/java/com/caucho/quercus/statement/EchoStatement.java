@@ -30,14 +30,15 @@
 package com.caucho.quercus.statement;
 
 import com.caucho.quercus.Location;
+import com.caucho.quercus.QuercusException;
 import com.caucho.quercus.env.Env;
-import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.ValueOrVar;
 import com.caucho.quercus.expr.Expr;
 import de.fosd.typechef.featureexpr.FeatureExpr;
 import edu.cmu.cs.varex.V;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 
 /**
  * Represents an echo statement in a PHP program.
@@ -59,9 +60,11 @@ public class EchoStatement extends Statement {
   public @Nonnull
   V<? extends ValueOrVar> execute(Env env, FeatureExpr ctx)
   {
-    V<? extends Value> value = _expr.eval(env, ctx);
-
-    value.sforeach(ctx, (c, a) -> a.print(env, c));
+    try {
+      _expr.print(env, ctx);
+    } catch (IOException e) {
+      throw new QuercusException(e);
+    }
 
     return V.one(null);
   }
@@ -1,11 +1,14 @@
 package edu.cmu.cs.varex;
 
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.WriteStream;
 import de.fosd.typechef.featureexpr.FeatureExpr;
 import edu.cmu.cs.varex.vio.PlainWriteStreamAdapter;
 import edu.cmu.cs.varex.vio.VTempStreamImpl;
 import edu.cmu.cs.varex.vio.VWriteStreamImpl;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
@@ -51,6 +54,33 @@ public interface VWriteStream {
     void write(FeatureExpr ctx, int b);
     long writeStream(FeatureExpr ctx, InputStream inputStream);
 
+    /**
+     * writes a region of a file; streams backed by a plain WriteStream
+     * override this to avoid copying the file through the heap
+     */
+    default long writeFile(FeatureExpr ctx, Path path, long offset, long length) {
+        try (ReadStream is = path.openRead()) {
+            is.skip(offset);
+
+            byte[] buffer = new byte[8192];
+            long total = 0;
+
+            while (total < length) {
+                int sublen = is.read(buffer, 0, (int) Math.min(buffer.length, length - total));
+
+                if (sublen <= 0)
+                    break;
+
+                write(ctx, buffer, 0, sublen);
+                total += sublen;
+            }
+
+            return total;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 
     default void print(FeatureExpr ctx, long v) {
         print(ctx, String.valueOf(v));
@@ -1,5 +1,6 @@
 package edu.cmu.cs.varex.vio;
 
+import com.caucho.vfs.Path;
 import com.caucho.vfs.WriteStream;
 import de.fosd.typechef.featureexpr.FeatureExpr;
 import edu.cmu.cs.varex.VWriteStream;
@@ -25,6 +26,10 @@ public class PlainWriteStreamAdapter implements VWriteStream {
         this.stream = plainStream;
     }
 
+    public WriteStream getWriteStream() {
+        return stream;
+    }
+
     @Override
     public void setEncoding(String encoding) throws UnsupportedEncodingException {
         stream.setEncoding(encoding);
@@ -204,6 +209,16 @@ public class PlainWriteStreamAdapter implements VWriteStream {
         }
     }
 
+    @Override
+    public long writeFile(FeatureExpr ctx, Path path, long offset, long length) {
+        updateCtx(ctx);
+        try {
+            return stream.writeFile(path, offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void updateCtx(FeatureExpr ctx)  {
 
         if (ctx == lastCtx) return;
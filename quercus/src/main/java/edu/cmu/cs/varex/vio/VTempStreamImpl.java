@@ -14,9 +14,21 @@ public class VTempStreamImpl extends VWriteStreamImpl implements VTempStream {
   public void destroy() {
   }
 
+  /**
+   * Writes the content to the stream.  Another buffered stream takes
+   * over the chunks with their conditions instead of copying them; the
+   * content is cleared in that case.
+   */
   @Override
   public void writeToStream(VWriteStream out) {
     doFlush();
+
+    if (out instanceof VWriteStreamImpl) {
+      ((VWriteStreamImpl) out).appendOutput(this._output);
+      this._output.clear();
+      return;
+    }
+
     for (Opt<String> frag: this._output) {
 
       out.print(frag.getCondition(), frag.getValue());
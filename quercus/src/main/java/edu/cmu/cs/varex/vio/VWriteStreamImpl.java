@@ -48,6 +48,14 @@ public class VWriteStreamImpl
         return out.toString();
     }
 
+    /**
+     * Appends the chunks of another stream after the current output.
+     */
+    void appendOutput(List<Opt<String>> output) {
+        doFlush();
+        _output.addAll(output);
+    }
+
     protected void doFlush() {
         if (_buffer.length() > 0) {
             String c = _buffer.toString();
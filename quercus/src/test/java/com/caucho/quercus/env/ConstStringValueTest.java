@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.env;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that interned strings stay equal to, and hash the same as,
+ * plain strings with the same contents.
+ */
+public class ConstStringValueTest
+{
+  @Test
+  public void testIntern()
+  {
+    StringValue interned
+      = ConstStringValue.intern(new ConstStringValue("key"));
+
+    assertTrue(interned instanceof ConstStringValue);
+    assertSame(interned,
+               ConstStringValue.intern(new ConstStringValue("key")));
+    assertSame(interned,
+               ConstStringValue.intern(new StringBuilderValue("key")));
+    assertSame(interned, ConstStringValue.intern(interned));
+
+    StringValue other = ConstStringValue.intern(new StringBuilderValue("kez"));
+
+    assertNotSame(interned, other);
+    assertFalse(interned.equals(other));
+
+    // other string classes are left alone
+    StringValue unicode = new UnicodeValueImpl("key");
+    assertSame(unicode, ConstStringValue.intern(unicode));
+  }
+
+  @Test
+  public void testEquals()
+  {
+    StringValue interned
+      = ConstStringValue.intern(new ConstStringValue("name"));
+    StringValue constValue = new ConstStringValue("name");
+    StringValue builder = new StringBuilderValue("name");
+
+    assertEquals(interned, constValue);
+    assertEquals(constValue, interned);
+    assertEquals(interned, builder);
+    assertEquals(builder, interned);
+
+    assertEquals(interned.hashCode(), constValue.hashCode());
+    assertEquals(interned.hashCode(), builder.hashCode());
+
+    assertFalse(interned.equals(new ConstStringValue("Name")));
+    assertFalse(new ConstStringValue("Name").equals(interned));
+    assertFalse(constValue.equals(new ConstStringValue("names")));
+  }
+
+  /**
+   * The case-insensitive hash of a method name must not replace the
+   * cached hash that equals() compares.
+   */
+  @Test
+  public void testCaseInsensitiveHash()
+  {
+    for (int length : new int[] { 6, 300 }) {
+      StringBuilder sb = new StringBuilder();
+
+      for (int i = 0; i < length; i++) {
+        sb.append((char) ('A' + i % 26));
+      }
+
+      String name = sb.toString();
+
+      StringValue interned
+        = ConstStringValue.intern(new ConstStringValue(name));
+      int hash = interned.hashCode();
+
+      assertEquals(new ConstStringValue(name.toLowerCase()).hashCode(),
+                   interned.hashCodeCaseInsensitive());
+      assertEquals(hash, interned.hashCode());
+      assertEquals(interned, new ConstStringValue(name));
+      assertEquals(new ConstStringValue(name), interned);
+    }
+  }
+
+  @Test
+  public void testArrayKeys()
+  {
+    StringValue interned = ConstStringValue.intern(new ConstStringValue("k"));
+    StringValue constValue = new ConstStringValue("k");
+    StringValue builder = new StringBuilderValue("k");
+
+    ArrayValue array = new ArrayValueImpl();
+
+    array.append(interned, LongValue.create(1));
+    assertEquals(1, array.get(constValue).getOne().toLong());
+    assertEquals(1, array.get(builder).getOne().toLong());
+
+    array.append(builder, LongValue.create(2));
+    array.append(constValue, LongValue.create(3));
+
+    assertEquals(1, array.getSize().getOne().intValue());
+    assertEquals(3, array.get(interned).getOne().toLong());
+
+    HashMap<StringValue,String> map = new HashMap<StringValue,String>();
+
+    map.put(constValue, "const");
+    map.put(interned, "interned");
+    map.put(builder, "builder");
+
+    assertEquals(1, map.size());
+    assertEquals("builder", map.get(interned));
+  }
+
+  /**
+   * A deserialized copy is not interned, and compares by contents.
+   */
+  @Test
+  public void testSerialize()
+    throws Exception
+  {
+    StringValue interned
+      = ConstStringValue.intern(new ConstStringValue("serialized"));
+    StringValue other
+      = ConstStringValue.intern(new ConstStringValue("unrelated!"));
+
+    StringValue copy = (StringValue) copy(interned);
+
+    assertTrue(copy instanceof ConstStringValue);
+    assertNotSame(interned, copy);
+
+    assertEquals(interned, copy);
+    assertEquals(copy, interned);
+    assertEquals(interned.hashCode(), copy.hashCode());
+    assertFalse(copy.equals(other));
+    assertFalse(other.equals(copy));
+
+    // the copy maps back to the live canonical instance
+    assertSame(interned, ConstStringValue.intern(copy));
+
+    ArrayValue array = new ArrayValueImpl();
+
+    array.append(interned, LongValue.create(1));
+    array.append(copy, LongValue.create(2));
+
+    assertEquals(1, array.getSize().getOne().intValue());
+    assertEquals(2, array.get(interned).getOne().toLong());
+  }
+
+  private static Object copy(Object value)
+    throws IOException, ClassNotFoundException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(value);
+    out.close();
+
+    ObjectInputStream in
+      = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+
+    return in.readObject();
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.env;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the word-at-a-time kernels with the scalar String operations
+ * on random ISO-8859-1 buffers, including unaligned heads and tails and
+ * bytes with the high bit set.
+ */
+public class StringKernelTest
+{
+  private static final int ITERATIONS = 2000;
+
+  // a small alphabet with high bytes, so matches and near-misses are common
+  private static final byte []ALPHABET = {
+    'a', 'b', 'A', 'Z', 'z', '@', '[', '`', '{', 0,
+    (byte) 0x80, (byte) 0xc1, (byte) 0xe1, (byte) 0xff
+  };
+
+  private final Random _random = new Random(0x5eed);
+
+  @Test
+  public void testIndexOfByte()
+  {
+    for (int n = 0; n < ITERATIONS; n++) {
+      byte []buffer = randomBytes(_random.nextInt(80));
+      int start = randomStart(buffer);
+      int end = randomEnd(buffer, start);
+      byte b = ALPHABET[_random.nextInt(ALPHABET.length)];
+
+      int expected = string(buffer, 0, end).indexOf((char) (b & 0xff), start);
+
+      assertEquals(expected, StringKernel.indexOf(buffer, start, end, b));
+    }
+  }
+
+  @Test
+  public void testIndexOfNeedle()
+  {
+    for (int n = 0; n < ITERATIONS; n++) {
+      // long enough haystacks to reach the Horspool path
+      byte []buffer = randomBytes(_random.nextInt(n % 4 == 0 ? 1024 : 64));
+      int start = randomStart(buffer);
+      int end = randomEnd(buffer, start);
+
+      byte []needle;
+      int needleOffset;
+      int needleLength;
+
+      if (end - start > 0 && _random.nextBoolean()) {
+        // a needle taken from the haystack, so it matches
+        needleLength = 1 + _random.nextInt(Math.min(end - start, 24));
+        needleOffset = start + _random.nextInt(end - start - needleLength + 1);
+        needle = buffer.clone();
+      }
+      else {
+        needle = randomBytes(1 + _random.nextInt(24));
+        needleOffset = _random.nextInt(needle.length);
+        needleLength = 1 + _random.nextInt(needle.length - needleOffset);
+      }
+
+      String match = string(needle, needleOffset, needleOffset + needleLength);
+      int expected = string(buffer, 0, end).indexOf(match, start);
+
+      assertEquals(expected,
+                   StringKernel.indexOf(buffer, start, end,
+                                        needle, needleOffset, needleLength));
+    }
+  }
+
+  @Test
+  public void testIndexOfEmptyNeedle()
+  {
+    byte []buffer = bytes("abc");
+
+    assertEquals(-1, StringKernel.indexOf(buffer, 0, 3, bytes("x"), 0, 0));
+    assertEquals(-1, StringKernel.indexOf(buffer, 0, 3, new byte[0], 0, 0));
+    assertEquals(-1, StringKernel.indexOf(new byte[0], 0, 0, buffer, 0, 0));
+  }
+
+  @Test
+  public void testIndexOfSet()
+  {
+    StringKernel.ByteSet small = new StringKernel.ByteSet('\0', '\'', '"');
+    StringKernel.ByteSet large
+      = new StringKernel.ByteSet('a', 'b', 'z', '@', '[', '`', '{', 'ÿ');
+
+    for (int n = 0; n < ITERATIONS; n++) {
+      byte []buffer = randomBytes(_random.nextInt(80));
+      int start = randomStart(buffer);
+      int end = randomEnd(buffer, start);
+
+      for (StringKernel.ByteSet set : new StringKernel.ByteSet[] { small, large }) {
+        int expected = -1;
+
+        for (int i = start; i < end; i++) {
+          if (set.contains(buffer[i])) {
+            expected = i;
+            break;
+          }
+        }
+
+        assertEquals(expected, StringKernel.indexOf(buffer, start, end, set));
+      }
+    }
+  }
+
+  @Test
+  public void testCase()
+  {
+    for (int n = 0; n < ITERATIONS; n++) {
+      byte []buffer = randomBytes(_random.nextInt(80));
+      int start = randomStart(buffer);
+      int end = randomEnd(buffer, start);
+
+      byte []expected = new byte[end - start];
+      boolean hasUpper = false;
+
+      for (int i = start; i < end; i++) {
+        byte ch = buffer[i];
+
+        if ('A' <= ch && ch <= 'Z') {
+          hasUpper = true;
+          ch = (byte) (ch + 'a' - 'A');
+        }
+
+        expected[i - start] = ch;
+      }
+
+      assertEquals(hasUpper, StringKernel.hasUpperCase(buffer, start, end));
+
+      // an unaligned destination
+      int dstOffset = _random.nextInt(8);
+      byte []dst = new byte[dstOffset + end - start + _random.nextInt(8)];
+
+      StringKernel.toLowerCase(buffer, start, dst, dstOffset, end - start);
+
+      assertEquals(string(expected, 0, expected.length),
+                   string(dst, dstOffset, dstOffset + end - start));
+    }
+  }
+
+  @Test
+  public void testSkip()
+  {
+    boolean []table = new boolean[256];
+    table[' '] = true;
+    table['\n'] = true;
+    table[0xa0] = true;
+
+    assertEquals(2, StringKernel.skip(bytes("  ab \n"), 0, 6, table));
+    assertEquals(4, StringKernel.skipBackward(bytes("  ab \n"), 0, 6, table));
+    assertEquals(3, StringKernel.skip(bytes("  \n"), 0, 3, table));
+    assertEquals(0, StringKernel.skipBackward(bytes("  \n"), 0, 3, table));
+    assertEquals(0, StringKernel.skip(new byte[0], 0, 0, table));
+  }
+
+  private byte []randomBytes(int length)
+  {
+    byte []buffer = new byte[length];
+
+    for (int i = 0; i < length; i++) {
+      buffer[i] = ALPHABET[_random.nextInt(ALPHABET.length)];
+    }
+
+    return buffer;
+  }
+
+  private int randomStart(byte []buffer)
+  {
+    return _random.nextInt(Math.min(buffer.length, 9) + 1);
+  }
+
+  private int randomEnd(byte []buffer, int start)
+  {
+    return buffer.length - _random.nextInt(Math.min(buffer.length - start, 9) + 1);
+  }
+
+  private static byte []bytes(String s)
+  {
+    return s.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private static String string(byte []buffer, int start, int end)
+  {
+    return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+}
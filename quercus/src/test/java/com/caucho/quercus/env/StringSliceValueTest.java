@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.env;
+
+import edu.cmu.cs.varex.VHelper;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the shared-buffer strings created by substr(), explode() and
+ * concatenation: a slice or rope must keep its own value when its parent
+ * or a copy of it changes.
+ */
+public class StringSliceValueTest
+{
+  @Test
+  public void testCreate()
+  {
+    byte []buffer = bytes(512);
+
+    assertSame(StringBuilderValue.EMPTY, StringSliceValue.create(buffer, 3, 0));
+    assertEquals("d", StringSliceValue.create(buffer, 3, 1).toString());
+
+    // short ranges and small parts of large buffers are copied
+    StringValue small = StringSliceValue.create(buffer, 3, 10);
+    assertTrue(small instanceof StringBuilderValue);
+    assertEquals(string(buffer, 3, 10), small.toString());
+
+    StringValue sparse = StringSliceValue.create(buffer, 0, 63);
+    assertTrue(sparse instanceof StringBuilderValue);
+
+    StringSliceValue slice = (StringSliceValue) StringSliceValue.create(buffer, 8, 128);
+    assertSame(buffer, slice.getBuffer());
+    assertEquals(8, slice.getOffset());
+    assertEquals(128, slice.length());
+    assertEquals(string(buffer, 8, 128), slice.toString());
+  }
+
+  @Test
+  public void testSlice()
+  {
+    byte []buffer = bytes(512);
+
+    StringValue slice = StringSliceValue.create(buffer, 64, 256);
+
+    assertSame(slice, slice.slice(0, 256));
+
+    StringValue inner = slice.slice(16, 144);
+    assertTrue(inner instanceof StringSliceValue);
+    assertSame(buffer, ((StringSliceValue) inner).getBuffer());
+    assertEquals(string(buffer, 80, 128), inner.toString());
+
+    assertEquals(string(buffer, 66, 5), slice.slice(2, 7).toString());
+  }
+
+  @Test
+  public void testOperations()
+  {
+    byte []buffer = bytes(512);
+
+    StringValue slice = StringSliceValue.create(buffer, 100, 200);
+    String expected = string(buffer, 100, 200);
+
+    assertEquals(expected.charAt(5), slice.charAt(5));
+    assertEquals(expected.indexOf('h', 3), slice.indexOf('h', 3));
+    assertEquals(expected.indexOf("cdef", 10),
+                 slice.indexOf(new StringBuilderValue("cdef"), 10));
+    assertEquals(expected.indexOf("cdef", 10), slice.indexOf("cdef", 10));
+    assertEquals(expected.substring(7, 90),
+                 slice.subSequence(7, 90).toString());
+    assertArrayEquals(expected.getBytes(StandardCharsets.ISO_8859_1),
+                      slice.toBytes());
+    assertEquals(UnsetStringValue.UNSET, slice.charValueAt(200));
+
+    try {
+      slice.charAt(200);
+      fail();
+    } catch (ArrayIndexOutOfBoundsException e) {
+    }
+  }
+
+  @Test
+  public void testEqualsBuilder()
+  {
+    byte []buffer = bytes(512);
+
+    StringValue slice = StringSliceValue.create(buffer, 100, 300);
+    StringValue sb = new StringBuilderValue(string(buffer, 100, 300));
+
+    assertEquals(sb, slice);
+    assertEquals(slice, sb);
+    assertEquals(sb.hashCode(), slice.hashCode());
+    assertEquals(sb.toKey(), slice.toKey());
+  }
+
+  /**
+   * Changing a copy of a slice, as $s[0] = 'x' and $s .= 'x' do, must
+   * change neither the slice nor its parent.
+   */
+  @Test
+  public void testCopyOnWrite()
+  {
+    byte []buffer = bytes(512);
+    String parent = string(buffer, 0, 512);
+
+    StringValue slice = StringSliceValue.create(buffer, 8, 128);
+    String expected = slice.toString();
+
+    Value updated = slice.setCharValueAt(0, new StringBuilderValue("x"));
+    assertNotSame(slice, updated);
+    assertEquals("x" + expected.substring(1), updated.toString());
+
+    StringValue appended = slice.toStringBuilder().append("Z");
+    assertEquals(expected + "Z", appended.toString());
+
+    assertEquals(expected, slice.toString());
+    assertEquals(parent, string(buffer, 0, 512));
+  }
+
+  @Test
+  public void testRope()
+  {
+    int size = StringRopeValue.MIN_ROPE_LENGTH;
+
+    StringValue left = new StringBuilderValue(repeat('a', size));
+    StringValue right = new StringBuilderValue(repeat('b', size));
+
+    // short tails are copied
+    assertNull(StringRopeValue.create(left, new StringBuilderValue("c")));
+    assertNull(StringRopeValue.create(left, LongValue.ONE));
+
+    StringValue rope = StringRopeValue.create(left, right);
+    String expected = repeat('a', size) + repeat('b', size);
+
+    assertTrue(rope instanceof StringRopeValue);
+    assertEquals(2 * size, rope.length());
+
+    // slices within a part don't flatten the rope
+    assertEquals(repeat('a', size), rope.slice(0, size).toString());
+    assertEquals(repeat('b', 100), rope.slice(size + 1, size + 101).toString());
+    assertNotNull(((StringRopeValue) rope).getLeft());
+
+    StringBuilderValue sb = new StringBuilderValue();
+    rope.appendTo(VHelper.noCtx(), sb);
+    assertEquals(expected, sb.toString());
+    assertNotNull(((StringRopeValue) rope).getLeft());
+
+    // a slice across the parts flattens it
+    assertEquals("ab", rope.slice(size - 1, size + 1).toString());
+    assertNull(((StringRopeValue) rope).getLeft());
+
+    assertEquals(expected, rope.toString());
+    assertEquals(new StringBuilderValue(expected).hashCode(), rope.hashCode());
+  }
+
+  @Test
+  public void testRopeCopyOnWrite()
+  {
+    int size = StringRopeValue.MIN_ROPE_LENGTH;
+
+    StringValue left = new StringBuilderValue(repeat('a', size));
+    StringValue right = new StringBuilderValue(repeat('b', size));
+
+    StringValue rope = StringRopeValue.create(left, right);
+
+    Value updated = rope.setCharValueAt(size, new StringBuilderValue("x"));
+    assertEquals('x', updated.toStringValue().charAt(size));
+
+    StringValue appended = rope.toStringBuilder().append("c");
+    assertEquals(2 * size + 1, appended.length());
+
+    assertEquals(repeat('a', size) + repeat('b', size), rope.toString());
+    assertEquals(repeat('a', size), left.toString());
+    assertEquals(repeat('b', size), right.toString());
+  }
+
+  private static byte []bytes(int length)
+  {
+    byte []buffer = new byte[length];
+
+    for (int i = 0; i < length; i++) {
+      buffer[i] = (byte) ('a' + i % 8);
+    }
+
+    return buffer;
+  }
+
+  private static String string(byte []buffer, int offset, int length)
+  {
+    return new String(buffer, offset, length, StandardCharsets.ISO_8859_1);
+  }
+
+  private static String repeat(char ch, int length)
+  {
+    char []chars = new char[length];
+
+    Arrays.fill(chars, ch);
+
+    return new String(chars);
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Two caches sharing one spill file, as two JVMs on a host would.
+ */
+public class ApcCacheTest
+{
+  // bytes of spill file, i.e. 4 slots of 4k
+  private static final int SHM_SIZE = 16 * 1024;
+
+  private File _file;
+
+  private QuercusContext _quercusA;
+  private QuercusContext _quercusB;
+
+  private Env _envA;
+  private Env _envB;
+
+  private ApcCache _cacheA;
+  private ApcCache _cacheB;
+
+  @Before
+  public void setUp()
+    throws IOException
+  {
+    _file = File.createTempFile("apc", ".bin");
+
+    _quercusA = createQuercus();
+    _quercusB = createQuercus();
+
+    _envA = new Env(_quercusA);
+    _envB = new Env(_quercusB);
+
+    _cacheA = ApcCache.getInstance(_envA);
+    _cacheB = ApcCache.getInstance(_envB);
+  }
+
+  @After
+  public void tearDown()
+  {
+    _quercusA.close();
+    _quercusB.close();
+
+    _file.delete();
+  }
+
+  private QuercusContext createQuercus()
+  {
+    QuercusContext quercus = new QuercusContext();
+
+    quercus.setIni("apc.mmap_file_mask", _file.getAbsolutePath());
+    quercus.setIni("apc.shm_size", String.valueOf(SHM_SIZE));
+
+    quercus.init();
+    quercus.start();
+
+    return quercus;
+  }
+
+  @Test
+  public void testStoreFetch()
+  {
+    assertTrue(_cacheA.isSpill());
+    assertNotSame(_cacheA, _cacheB);
+
+    assertNull(_cacheA.get(_envA, "a"));
+    assertNull(_cacheB.get(_envB, "a"));
+
+    assertTrue(_cacheA.put(_envA, "a", _envA.createString("first"), 0, false));
+
+    assertEquals("first", _cacheA.get(_envA, "a").toString());
+    assertEquals("first", _cacheB.get(_envB, "a").toString());
+
+    // a store by either cache replaces the other's copy
+    assertTrue(_cacheB.put(_envB, "a", LongValue.create(17), 0, false));
+
+    assertEquals(17, _cacheA.get(_envA, "a").toLong());
+    assertEquals(17, _cacheB.get(_envB, "a").toLong());
+
+    // add() sees the other cache's entry
+    assertFalse(_cacheA.put(_envA, "a", LongValue.create(18), 0, true));
+  }
+
+  @Test
+  public void testStoreArray()
+  {
+    ArrayValue array = new ArrayValueImpl();
+    array.append(LongValue.create(1));
+    array.append(_envA.createString("x"));
+
+    _cacheA.put(_envA, "array", array, 0, false);
+
+    Value value = _cacheB.get(_envB, "array");
+
+    assertTrue(value.isArray());
+
+    ArrayValue copy = value.toArrayValue(_envB);
+
+    assertEquals(1, copy.get(LongValue.ZERO).getOne().toLong());
+    assertEquals("x", copy.get(LongValue.ONE).getOne().toString());
+  }
+
+  @Test
+  public void testDelete()
+  {
+    _cacheA.put(_envA, "a", _envA.createString("first"), 0, false);
+
+    assertEquals("first", _cacheB.get(_envB, "a").toString());
+
+    assertTrue(_cacheB.delete("a"));
+
+    assertNull(_cacheA.get(_envA, "a"));
+    assertNull(_cacheB.get(_envB, "a"));
+
+    assertTrue(_cacheA.put(_envA, "a", _envA.createString("second"), 0, true));
+    assertEquals("second", _cacheB.get(_envB, "a").toString());
+  }
+
+  @Test
+  public void testExpire()
+    throws InterruptedException
+  {
+    _cacheA.put(_envA, "short", _envA.createString("x"), 1, false);
+    _cacheA.put(_envA, "long", _envA.createString("y"), 60, false);
+
+    assertEquals("x", _cacheB.get(_envB, "short").toString());
+
+    Thread.sleep(2500);
+
+    assertNull(_cacheA.get(_envA, "short"));
+    assertNull(_cacheB.get(_envB, "short"));
+
+    assertEquals("y", _cacheA.get(_envA, "long").toString());
+    assertEquals("y", _cacheB.get(_envB, "long").toString());
+  }
+
+  @Test
+  public void testClear()
+  {
+    for (int i = 0; i < 3; i++) {
+      _cacheA.put(_envA, "k" + i, LongValue.create(i), 0, false);
+    }
+
+    assertEquals(2, _cacheB.get(_envB, "k2").toLong());
+
+    _cacheA.clear();
+
+    assertEquals(0, _cacheA.getEntryCount());
+
+    for (int i = 0; i < 3; i++) {
+      assertNull(_cacheA.get(_envA, "k" + i));
+      assertNull(_cacheB.get(_envB, "k" + i));
+    }
+  }
+
+  /**
+   * A key whose slot was taken by another key is no longer trusted,
+   * since the other cache may have changed it in between.
+   */
+  @Test
+  public void testCollision()
+  {
+    String a = "a";
+    String b = findCollision(a);
+
+    _cacheA.put(_envA, a, _envA.createString("1"), 0, false);
+
+    assertEquals("1", _cacheB.get(_envB, a).toString());
+
+    _cacheB.put(_envB, b, _envB.createString("2"), 0, false);
+
+    assertEquals("2", _cacheA.get(_envA, b).toString());
+    assertEquals("2", _cacheB.get(_envB, b).toString());
+
+    assertNull(_cacheA.get(_envA, a));
+    assertNull(_cacheB.get(_envB, a));
+  }
+
+  /**
+   * A value too large for a slot stays in the storing cache only, and
+   * the other cache drops its older copy.
+   */
+  @Test
+  public void testLargeValue()
+  {
+    _cacheB.put(_envB, "big", _envB.createString("small"), 0, false);
+
+    assertEquals("small", _cacheA.get(_envA, "big").toString());
+
+    StringValue big = _envA.createString(
+      repeat('x', ApcSpillFile.getMaxDataSize() + 1));
+
+    assertTrue(_cacheA.put(_envA, "big", big, 0, false));
+
+    assertEquals(big.toString(), _cacheA.get(_envA, "big").toString());
+    assertEquals(big.toString(), _cacheA.get(_envA, "big").toString());
+
+    assertNull(_cacheB.get(_envB, "big"));
+
+    // the spill file holds a tombstone, not the value
+    ApcSpillFile.Slot slot = readSlot("big");
+
+    assertNotNull(slot);
+    assertTrue(slot.isDeleted());
+  }
+
+  @Test
+  public void testCacheInfo()
+  {
+    _cacheA.put(_envA, "a", LongValue.create(1), 0, false);
+
+    // 16k of 4k slots
+    assertEquals(4, _cacheA.getSlotCount());
+
+    Value info = new ApcModule().apc_cache_info(_envA, "user", false);
+
+    assertEquals(4, info.get(_envA.createString("num_slots")).getOne().toLong());
+    assertEquals(1, info.get(_envA.createString("num_entries")).getOne().toLong());
+  }
+
+  private ApcSpillFile.Slot readSlot(String key)
+  {
+    byte []keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+    try {
+      ApcSpillFile spill = ApcSpillFile.open(_file, SHM_SIZE);
+
+      try {
+        return spill.read(keyBytes, ApcSpillFile.hash(keyBytes));
+      } finally {
+        spill.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns a different key with the same slot as the key.
+   */
+  private static String findCollision(String key)
+  {
+    int slot = hash(key) & 3;
+
+    for (int i = 0; ; i++) {
+      String candidate = key + i;
+
+      if ((hash(candidate) & 3) == slot)
+        return candidate;
+    }
+  }
+
+  private static int hash(String key)
+  {
+    return ApcSpillFile.hash(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String repeat(char ch, int length)
+  {
+    StringBuilder sb = new StringBuilder(length);
+
+    for (int i = 0; i < length; i++) {
+      sb.append(ch);
+    }
+
+    return sb.toString();
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ApcSpillFileTest
+{
+  private static final int SLOT_SIZE = 4096;
+
+  private File _file;
+
+  @Before
+  public void setUp()
+    throws IOException
+  {
+    _file = File.createTempFile("apc", ".bin");
+  }
+
+  @After
+  public void tearDown()
+  {
+    _file.delete();
+  }
+
+  @Test
+  public void testWriteRead()
+    throws IOException
+  {
+    ApcSpillFile spill = ApcSpillFile.open(_file, 16 * SLOT_SIZE);
+
+    try {
+      assertEquals(16, spill.getSlotCount());
+
+      byte []key = bytes("key");
+      int hash = ApcSpillFile.hash(key);
+
+      assertNull(spill.read(key, hash));
+
+      int sequence = spill.write(key, hash, 1000L, bytes("value"));
+
+      assertEquals(sequence, spill.getSequence(hash));
+
+      ApcSpillFile.Slot slot = spill.read(key, hash);
+
+      assertEquals(sequence, slot.getSequence());
+      assertEquals(1000L, slot.getExpire());
+      assertFalse(slot.isDeleted());
+      assertArrayEquals(bytes("value"), slot.getValue());
+
+      // a different key of the same length
+      assertNull(spill.read(bytes("kez"), hash));
+
+      int next = spill.write(key, hash, 2000L, bytes("other"));
+
+      assertTrue(sequence != next);
+      assertArrayEquals(bytes("other"), spill.read(key, hash).getValue());
+    } finally {
+      spill.close();
+    }
+  }
+
+  @Test
+  public void testRemove()
+    throws IOException
+  {
+    ApcSpillFile spill = ApcSpillFile.open(_file, 16 * SLOT_SIZE);
+
+    try {
+      byte []key = bytes("key");
+      int hash = ApcSpillFile.hash(key);
+
+      int sequence = spill.write(key, hash, 1000L, bytes("value"));
+      int removed = spill.remove(key, hash);
+
+      assertTrue(sequence != removed);
+
+      ApcSpillFile.Slot slot = spill.read(key, hash);
+
+      assertTrue(slot.isDeleted());
+      assertEquals(removed, slot.getSequence());
+    } finally {
+      spill.close();
+    }
+  }
+
+  /**
+   * Keys of one slot replace each other.
+   */
+  @Test
+  public void testCollision()
+    throws IOException
+  {
+    ApcSpillFile spill = ApcSpillFile.open(_file, SLOT_SIZE);
+
+    try {
+      assertEquals(1, spill.getSlotCount());
+
+      byte []a = bytes("a");
+      byte []b = bytes("b");
+
+      spill.write(a, ApcSpillFile.hash(a), 1000L, bytes("1"));
+      int sequence = spill.write(b, ApcSpillFile.hash(b), 1000L, bytes("2"));
+
+      assertNull(spill.read(a, ApcSpillFile.hash(a)));
+      assertArrayEquals(bytes("2"), spill.read(b, ApcSpillFile.hash(b)).getValue());
+
+      assertEquals(sequence, spill.getSequence(ApcSpillFile.hash(a)));
+    } finally {
+      spill.close();
+    }
+  }
+
+  @Test
+  public void testClear()
+    throws IOException
+  {
+    ApcSpillFile spill = ApcSpillFile.open(_file, 16 * SLOT_SIZE);
+
+    try {
+      for (int i = 0; i < 10; i++) {
+        byte []key = bytes("key-" + i);
+
+        spill.write(key, ApcSpillFile.hash(key), 1000L, bytes("v" + i));
+      }
+
+      byte []key = bytes("key-3");
+      int hash = ApcSpillFile.hash(key);
+      int sequence = spill.getSequence(hash);
+
+      spill.clear();
+
+      assertTrue(sequence != spill.getSequence(hash));
+
+      for (int i = 0; i < 10; i++) {
+        key = bytes("key-" + i);
+
+        assertNull(spill.read(key, ApcSpillFile.hash(key)));
+      }
+    } finally {
+      spill.close();
+    }
+  }
+
+  @Test
+  public void testMaxDataSize()
+    throws IOException
+  {
+    ApcSpillFile spill = ApcSpillFile.open(_file, 16 * SLOT_SIZE);
+
+    try {
+      byte []key = bytes("key");
+      int hash = ApcSpillFile.hash(key);
+
+      int max = ApcSpillFile.getMaxDataSize() - key.length;
+
+      assertTrue(ApcSpillFile.isFit(key, new byte[max]));
+      assertFalse(ApcSpillFile.isFit(key, new byte[max + 1]));
+      assertTrue(ApcSpillFile.isFit(key, null));
+
+      byte []value = new byte[max];
+      value[max - 1] = 7;
+
+      spill.write(key, hash, 1000L, value);
+
+      assertArrayEquals(value, spill.read(key, hash).getValue());
+
+      int sequence = spill.getSequence(hash);
+
+      try {
+        spill.write(key, hash, 1000L, new byte[max + 1]);
+        fail();
+      } catch (IllegalArgumentException e) {
+      }
+
+      // the rejected value left the slot alone
+      assertEquals(sequence, spill.getSequence(hash));
+      assertArrayEquals(value, spill.read(key, hash).getValue());
+
+      // a key too large even for a tombstone clears the slot
+      byte []longKey = new byte[ApcSpillFile.getMaxDataSize() + 1];
+      int longHash = ApcSpillFile.hash(longKey);
+
+      spill.write(longKey, longHash, 1000L, null);
+
+      assertNull(spill.read(longKey, longHash));
+    } finally {
+      spill.close();
+    }
+  }
+
+  /**
+   * Opens of one file share the mapping, and a reopened file keeps its
+   * entries and slot count.
+   */
+  @Test
+  public void testReopen()
+    throws IOException
+  {
+    byte []key = bytes("key");
+    int hash = ApcSpillFile.hash(key);
+
+    ApcSpillFile a = ApcSpillFile.open(_file, 16 * SLOT_SIZE);
+    ApcSpillFile b = ApcSpillFile.open(_file, 64 * SLOT_SIZE);
+
+    assertSame(a, b);
+
+    a.write(key, hash, 1000L, bytes("value"));
+
+    a.close();
+
+    assertArrayEquals(bytes("value"), b.read(key, hash).getValue());
+
+    b.close();
+
+    ApcSpillFile c = ApcSpillFile.open(_file, 64 * SLOT_SIZE);
+
+    try {
+      assertNotSame(a, c);
+      assertEquals(16, c.getSlotCount());
+      assertArrayEquals(bytes("value"), c.read(key, hash).getValue());
+    } finally {
+      c.close();
+    }
+  }
+
+  private static byte []bytes(String s)
+  {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+}
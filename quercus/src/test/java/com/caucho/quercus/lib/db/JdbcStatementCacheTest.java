@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.db;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JdbcStatementCacheTest
+{
+  @Test
+  public void testNormalizeWhitespace()
+  {
+    assertEquals("SELECT * FROM t WHERE a = 1",
+                 JdbcStatementCache.normalize("  SELECT *\n\tFROM   t WHERE a = 1 \n"));
+    assertEquals("SELECT 1", JdbcStatementCache.normalize("SELECT 1"));
+  }
+
+  @Test
+  public void testNormalizeKeepsQuotedText()
+  {
+    assertEquals("SELECT 'a  b' FROM t",
+                 JdbcStatementCache.normalize("SELECT  'a  b'  FROM t"));
+    assertEquals("SELECT 'it''s  ?' FROM t",
+                 JdbcStatementCache.normalize("SELECT  'it''s  ?' FROM t"));
+    assertEquals("SELECT \"a  b\", `c  d` FROM t",
+                 JdbcStatementCache.normalize("SELECT \"a  b\",\n`c  d` FROM t"));
+  }
+
+  /**
+   * Whether a backslash escapes the quote depends on the SQL mode, so
+   * the extent of the literal is unknown.
+   */
+  @Test
+  public void testNormalizeRejectsBackslash()
+  {
+    assertNull(JdbcStatementCache.normalize("SELECT 'it\\'s  ?' FROM t"));
+    assertNull(JdbcStatementCache.normalize("SELECT 'a\\'  ,  '  b'"));
+    assertNull(JdbcStatementCache.normalize("SELECT 'C:\\\\dir'"));
+
+    assertEquals("SELECT a\\b",
+                 JdbcStatementCache.normalize("SELECT  a\\b"));
+  }
+
+  /**
+   * Statements which differ inside a literal or a comment never share a
+   * key.
+   */
+  @Test
+  public void testNormalizeCollisions()
+  {
+    assertNotEquals(JdbcStatementCache.normalize("SELECT 'a  b'"),
+                    JdbcStatementCache.normalize("SELECT 'a b'"));
+    assertNotEquals(JdbcStatementCache.normalize("SELECT 'a''  b'"),
+                    JdbcStatementCache.normalize("SELECT 'a'' b'"));
+    assertNotEquals(JdbcStatementCache.normalize("SELECT \"a\n b\""),
+                    JdbcStatementCache.normalize("SELECT \"a b\""));
+
+    Random random = new Random(0x5eed);
+
+    for (int n = 0; n < 2000; n++) {
+      String []tokens = createTokens(random);
+
+      String key = JdbcStatementCache.normalize(render(tokens, random));
+
+      assertNotNull(key);
+      assertEquals(key, JdbcStatementCache.normalize(render(tokens, random)));
+
+      // change the spacing inside one literal
+      for (int i = 0; i < tokens.length; i++) {
+        if (tokens[i].indexOf(' ') > 0) {
+          String []changed = tokens.clone();
+          changed[i] = tokens[i].replaceFirst(" ", "  ");
+
+          assertNotEquals(key,
+                          JdbcStatementCache.normalize(render(changed, random)));
+          break;
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNormalizeRejectsUncacheable()
+  {
+    assertNull(JdbcStatementCache.normalize("SELECT * FROM t WHERE a = ?"));
+    assertNull(JdbcStatementCache.normalize("SELECT {fn NOW()}"));
+    assertNull(JdbcStatementCache.normalize("SELECT 1 -- comment\n FROM t"));
+    assertNull(JdbcStatementCache.normalize("SELECT 1 # comment\n FROM t"));
+    assertNull(JdbcStatementCache.normalize("SELECT 1 /* a  b */ FROM t"));
+    assertNull(JdbcStatementCache.normalize("SELECT /*+ INDEX(t i) */ 1 FROM t"));
+    assertNull(JdbcStatementCache.normalize("SELECT 1 /* ' */ FROM t"));
+    assertNull(JdbcStatementCache.normalize("   "));
+  }
+
+  @Test
+  public void testHit()
+  {
+    JdbcStatementCache cache = new JdbcStatementCache(4);
+    TestStatement a = new TestStatement();
+
+    assertNull(cache.take("a"));
+    cache.release("a", a.getStatement());
+
+    assertSame(a.getStatement(), cache.take("a"));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertFalse(a.isClosed());
+  }
+
+  @Test
+  public void testTakenStatementIsNotShared()
+  {
+    JdbcStatementCache cache = new JdbcStatementCache(4);
+    TestStatement a = new TestStatement();
+    TestStatement b = new TestStatement();
+
+    cache.release("a", a.getStatement());
+
+    assertSame(a.getStatement(), cache.take("a"));
+
+    // a second open result for the same sql needs its own statement
+    assertNull(cache.take("a"));
+
+    cache.release("a", b.getStatement());
+    assertTrue(b.isClosed());
+
+    cache.release("a", a.getStatement());
+    assertFalse(a.isClosed());
+    assertSame(a.getStatement(), cache.take("a"));
+  }
+
+  @Test
+  public void testEviction()
+  {
+    JdbcStatementCache cache = new JdbcStatementCache(2);
+    TestStatement a = new TestStatement();
+    TestStatement b = new TestStatement();
+    TestStatement c = new TestStatement();
+
+    cache.release("a", a.getStatement());
+    cache.release("b", b.getStatement());
+    cache.release("c", c.getStatement());
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+
+    assertTrue(a.isClosed());
+    assertFalse(b.isClosed());
+    assertFalse(c.isClosed());
+
+    assertNull(cache.take("a"));
+    assertSame(c.getStatement(), cache.take("c"));
+  }
+
+  @Test
+  public void testEvictionOfTakenStatement()
+  {
+    JdbcStatementCache cache = new JdbcStatementCache(2);
+    TestStatement a = new TestStatement();
+
+    cache.release("a", a.getStatement());
+    assertSame(a.getStatement(), cache.take("a"));
+
+    cache.release("b", new TestStatement().getStatement());
+    cache.release("c", new TestStatement().getStatement());
+
+    // the evicted statement stays open while its result is in use
+    assertFalse(a.isClosed());
+
+    cache.release("a", a.getStatement());
+    assertFalse(a.isClosed());
+  }
+
+  @Test
+  public void testClose()
+  {
+    JdbcStatementCache cache = new JdbcStatementCache(4);
+    TestStatement idle = new TestStatement();
+    TestStatement taken = new TestStatement();
+
+    cache.release("idle", idle.getStatement());
+    cache.release("taken", taken.getStatement());
+    assertSame(taken.getStatement(), cache.take("taken"));
+
+    cache.close();
+
+    assertTrue(idle.isClosed());
+    assertFalse(taken.isClosed());
+
+    cache.release("taken", taken.getStatement());
+    assertTrue(taken.isClosed());
+  }
+
+  private static final String []WORDS = {
+    "SELECT", "a", "t.b", "FROM", "t", "WHERE", "=", "1", ",", "(", ")"
+  };
+
+  private static final String []LITERALS = {
+    "'x'", "'x y'", "'x  y'", "'it''s'", "'a '' b'", "\"q r\"", "`c d`", "''"
+  };
+
+  private static final String []SPACES = { " ", "  ", "\t", "\n", " \r\n " };
+
+  private static String []createTokens(Random random)
+  {
+    String []tokens = new String[1 + random.nextInt(10)];
+
+    tokens[0] = "SELECT";
+
+    for (int i = 1; i < tokens.length; i++) {
+      if (random.nextBoolean())
+        tokens[i] = WORDS[random.nextInt(WORDS.length)];
+      else
+        tokens[i] = LITERALS[random.nextInt(LITERALS.length)];
+    }
+
+    return tokens;
+  }
+
+  private static String render(String []tokens, Random random)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    if (random.nextBoolean())
+      sb.append(SPACES[random.nextInt(SPACES.length)]);
+
+    for (int i = 0; i < tokens.length; i++) {
+      if (i > 0)
+        sb.append(SPACES[random.nextInt(SPACES.length)]);
+
+      sb.append(tokens[i]);
+    }
+
+    if (random.nextBoolean())
+      sb.append(SPACES[random.nextInt(SPACES.length)]);
+
+    return sb.toString();
+  }
+
+  /**
+   * PreparedStatement stub which records close().
+   */
+  static class TestStatement implements InvocationHandler
+  {
+    private final PreparedStatement _stmt;
+    private boolean _isClosed;
+
+    TestStatement()
+    {
+      _stmt = (PreparedStatement) Proxy.newProxyInstance(
+        PreparedStatement.class.getClassLoader(),
+        new Class<?>[] { PreparedStatement.class },
+        this);
+    }
+
+    PreparedStatement getStatement()
+    {
+      return _stmt;
+    }
+
+    boolean isClosed()
+    {
+      return _isClosed;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object []args)
+    {
+      String name = method.getName();
+
+      if (name.equals("close")) {
+        _isClosed = true;
+        return null;
+      }
+      else if (name.equals("isClosed"))
+        return _isClosed;
+      else if (name.equals("hashCode"))
+        return System.identityHashCode(proxy);
+      else if (name.equals("equals"))
+        return proxy == args[0];
+      else if (name.equals("toString"))
+        return "TestStatement[]";
+      else
+        throw new UnsupportedOperationException(name);
+    }
+  }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.db;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import de.fosd.typechef.featureexpr.FeatureExpr;
+import de.fosd.typechef.featureexpr.FeatureExprFactory;
+import edu.cmu.cs.varex.V;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Savepoint;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class VJdbcConnectionTest
+{
+  private final FeatureExpr foo = FeatureExprFactory.createDefinedExternal("foo");
+  private final FeatureExpr t = FeatureExprFactory.True();
+
+  private Env env;
+
+  @Before
+  public void setUp()
+  {
+    env = new Env(new QuercusContext());
+  }
+
+  @After
+  public void tearDown()
+  {
+    env = null;
+  }
+
+  @Test
+  public void testStatementKind()
+  {
+    assertKind(VJdbcConnection.StatementKind.READ, "SELECT * FROM t");
+    assertKind(VJdbcConnection.StatementKind.READ, "(SELECT 1) UNION (SELECT 2)");
+    assertKind(VJdbcConnection.StatementKind.READ, "/* hint */ select 1");
+    assertKind(VJdbcConnection.StatementKind.READ, "# comment\nSHOW TABLES");
+    assertKind(VJdbcConnection.StatementKind.WRITE, "-- comment\nUPDATE t SET a = 1");
+    assertKind(VJdbcConnection.StatementKind.WRITE, "INSERT INTO t VALUES (1)");
+
+    assertKind(VJdbcConnection.StatementKind.TRANSACTION, "BEGIN");
+    assertKind(VJdbcConnection.StatementKind.TRANSACTION, "START TRANSACTION");
+    assertKind(VJdbcConnection.StatementKind.TRANSACTION, "commit");
+    assertKind(VJdbcConnection.StatementKind.TRANSACTION, " ROLLBACK");
+    assertKind(VJdbcConnection.StatementKind.TRANSACTION, "LOCK TABLES t WRITE");
+    assertKind(VJdbcConnection.StatementKind.TRANSACTION, "SET autocommit = 1");
+    assertKind(VJdbcConnection.StatementKind.TRANSACTION,
+               "SET TRANSACTION ISOLATION LEVEL SERIALIZABLE");
+
+    assertKind(VJdbcConnection.StatementKind.SESSION, "SET NAMES utf8");
+    assertKind(VJdbcConnection.StatementKind.SESSION,
+               "/*!40101 SET NAMES utf8 */");
+
+    assertKind(VJdbcConnection.StatementKind.DDL, "CREATE TABLE t (a INT)");
+    assertKind(VJdbcConnection.StatementKind.DDL, "DROP TABLE t");
+  }
+
+  @Test
+  public void testIsDeterministic()
+  {
+    assertTrue(VJdbcConnection.isDeterministic(
+      str("INSERT INTO t VALUES (1, 'now()')")));
+    assertTrue(VJdbcConnection.isDeterministic(
+      str("UPDATE t SET random = 1")));
+
+    assertFalse(VJdbcConnection.isDeterministic(
+      str("INSERT INTO t VALUES (NOW())")));
+    assertFalse(VJdbcConnection.isDeterministic(
+      str("UPDATE t SET a = rand()")));
+    assertFalse(VJdbcConnection.isDeterministic(
+      str("UPDATE t SET a = @counter")));
+  }
+
+  @Test
+  public void testWriteThenReadAfterSplit()
+  {
+    TestConnection conn = new TestConnection();
+
+    assertEquals(BooleanValue.TRUE, conn.query(env, foo, "INSERT a").getOne());
+
+    V<? extends Value> result = conn.query(env, t, "SELECT");
+
+    assertEquals("1:a", result.getOne(foo).toString());
+    assertEquals("", result.getOne(foo.not()).toString());
+    assertEquals(2, conn.getPartitionCount());
+  }
+
+  @Test
+  public void testSharedQueryRunsOnce()
+  {
+    TestConnection conn = new TestConnection();
+
+    conn.query(env, t, "INSERT a");
+    conn.query(env, t, "SELECT");
+
+    assertFalse(conn.isSplit());
+    assertEquals(1, conn.getPartitionCount());
+    assertEquals(2, conn._executeCount);
+  }
+
+  @Test
+  public void testReplayKeepsInsertId()
+  {
+    TestConnection conn = new TestConnection();
+
+    conn.query(env, foo, "INSERT a");
+    conn.query(env, foo.not(), "INSERT b");
+
+    // each switch replays the other partition's insert, and the
+    // auto-increment counter is not reset by the rollback
+    for (int i = 0; i < 3; i++) {
+      V<? extends Value> result = conn.query(env, t, "SELECT");
+
+      assertEquals("1:a", result.getOne(foo).toString());
+      assertEquals("2:b", result.getOne(foo.not()).toString());
+    }
+  }
+
+  @Test
+  public void testNonDeterministicWriteRefused()
+  {
+    TestConnection conn = new TestConnection();
+
+    conn.query(env, foo, "INSERT a");
+
+    int count = conn._executeCount;
+
+    assertEquals(BooleanValue.FALSE,
+                 conn.query(env, t, "INSERT NOW()").getOne(foo));
+    assertEquals(count, conn._executeCount);
+  }
+
+  @Test
+  public void testTransactionRefusedAfterSplit()
+  {
+    TestConnection conn = new TestConnection();
+
+    assertEquals(BooleanValue.TRUE, conn.query(env, t, "COMMIT").getOne());
+
+    conn.query(env, foo, "INSERT a");
+
+    int count = conn._executeCount;
+
+    assertEquals(BooleanValue.FALSE, conn.query(env, t, "COMMIT").getOne());
+    assertEquals(BooleanValue.FALSE, conn.query(env, t, "BEGIN").getOne());
+    assertEquals(count, conn._executeCount);
+  }
+
+  @Test
+  public void testCleanupCommitsMergedState()
+  {
+    TestConnection conn = new TestConnection();
+
+    conn.query(env, t, "INSERT a");
+    conn.query(env, foo, "UPDATE 1 b");
+    conn.query(env, foo.not(), "UPDATE 1 b");
+
+    assertEquals(1, conn.getPartitionCount());
+
+    conn.cleanup();
+
+    assertEquals(Boolean.TRUE, conn._isCommit);
+    assertEquals("1:b", conn._committed.toString());
+  }
+
+  @Test
+  public void testCleanupRollsBackDivergentState()
+  {
+    TestConnection conn = new TestConnection();
+
+    conn.query(env, t, "INSERT a");
+    conn.query(env, foo, "UPDATE 1 b");
+
+    conn.cleanup();
+
+    assertEquals(Boolean.FALSE, conn._isCommit);
+    assertEquals("1:a", conn._committed.toString());
+  }
+
+  private static void assertKind(VJdbcConnection.StatementKind kind,
+                                 String sql)
+  {
+    assertEquals(sql, kind, VJdbcConnection.getStatementKind(str(sql)));
+  }
+
+  private static StringValue str(String s)
+  {
+    return new ConstStringValue(s);
+  }
+
+  /**
+   * In-memory table with auto-increment ids.  The statements are
+   * "INSERT value", "UPDATE id value" and "SELECT".
+   */
+  static class TestConnection extends VJdbcConnection
+  {
+    private Table _table = new Table();
+    private Table _committed;
+
+    // like InnoDB, a rollback does not reset the counter
+    private long _autoIncrement = 1;
+    private long _nextInsertId;
+    private long _lastInsertId;
+
+    private Boolean _isCommit;
+    private int _executeCount;
+
+    TestConnection()
+    {
+      super(null);
+    }
+
+    V<? extends Value> query(Env env, FeatureExpr ctx, String sql)
+    {
+      return query(env, ctx, V.one(str(sql)));
+    }
+
+    @Override
+    Value execute(Env env, StringValue sqlV)
+    {
+      _executeCount++;
+
+      String []args = sqlV.toString().split(" ");
+      String op = args[0];
+
+      if (op.equals("SELECT")) {
+        return str(_table.toString());
+      }
+      else if (op.equals("INSERT")) {
+        long id = _nextInsertId != 0 ? _nextInsertId : _autoIncrement++;
+
+        _nextInsertId = 0;
+        _lastInsertId = id;
+        _table._rows.put(id, args[1]);
+
+        return BooleanValue.TRUE;
+      }
+      else if (op.equals("UPDATE")) {
+        _table._rows.put(Long.parseLong(args[1]), args[2]);
+
+        return BooleanValue.TRUE;
+      }
+      else if (op.equals("COMMIT")) {
+        _committed = new Table(_table);
+
+        return BooleanValue.TRUE;
+      }
+      else
+        return BooleanValue.FALSE;
+    }
+
+    @Override
+    void begin()
+    {
+      _committed = new Table(_table);
+    }
+
+    @Override
+    Savepoint setSavepoint()
+    {
+      return new Table(_table);
+    }
+
+    @Override
+    void rollback(Savepoint savepoint)
+    {
+      _table = new Table((Table) savepoint);
+    }
+
+    @Override
+    void finish(boolean isCommit)
+    {
+      _isCommit = isCommit;
+
+      if (isCommit)
+        _committed = new Table(_table);
+      else
+        _table = new Table(_committed);
+    }
+
+    @Override
+    void resetInsertId()
+    {
+      _lastInsertId = 0;
+    }
+
+    @Override
+    long getInsertId()
+    {
+      return _lastInsertId;
+    }
+
+    @Override
+    void setInsertId(long id)
+    {
+      _nextInsertId = id;
+    }
+  }
+
+  static class Table implements Savepoint
+  {
+    private final TreeMap<Long,String> _rows = new TreeMap<Long,String>();
+
+    Table()
+    {
+    }
+
+    Table(Table table)
+    {
+      _rows.putAll(table._rows);
+    }
+
+    @Override
+    public int getSavepointId()
+    {
+      return 0;
+    }
+
+    @Override
+    public String getSavepointName()
+    {
+      return null;
+    }
+
+    @Override
+    public String toString()
+    {
+      StringBuilder sb = new StringBuilder();
+
+      for (Map.Entry<Long,String> entry : _rows.entrySet()) {
+        if (sb.length() > 0)
+          sb.append(",");
+
+        sb.append(entry.getKey()).append(":").append(entry.getValue());
+      }
+
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.dom;
+
+import com.caucho.xml.QDocument;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares documents parsed from UTF-8 by the Quercus DOM factory with
+ * the JDK parser, with the input delivered in small chunks so names,
+ * text and multi-byte characters are split across buffer boundaries.
+ */
+public class QDOMFactoryTest
+{
+  private static final int []CHUNKS = { 1, 2, 3, 7, 64, Integer.MAX_VALUE };
+
+  @Test
+  public void testAsciiText()
+    throws Exception
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; sb.length() < 20000; i++) {
+      sb.append("word").append(i);
+      sb.append(i % 7 == 0 ? "\t" : " ");
+
+      if (i % 13 == 0)
+        sb.append("a/b > c; ");
+    }
+
+    checkParse("<r>" + sb + "</r>");
+    checkParse("<r><a>" + sb + "</a><b>" + sb + "x</b></r>");
+    checkParse("<r>  leading and trailing  </r>");
+  }
+
+  @Test
+  public void testMultiByteText()
+    throws Exception
+  {
+    String text = "caf\u00e9 \u20ac100 \ud83d\ude00 \u65e5\u672c\u8a9e end";
+
+    checkParse("<r>" + text + "</r>");
+    checkParse("<r>\u00e9</r>");
+    checkParse("<r>x\u00e9y\u20acz</r>");
+
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < 3000; i++) {
+      sb.append("ascii ").append(text.charAt(i % text.length()));
+    }
+
+    checkParse("<r>" + sb + "</r>");
+  }
+
+  @Test
+  public void testMultiByteNames()
+    throws Exception
+  {
+    checkParse("<caf\u00e9 \u00fcn\u00ef='v\u00e9'>"
+               + "<\u65e5\u672c\u8a9e>x</\u65e5\u672c\u8a9e>"
+               + "<a\u00e9b a\u00e9b='1' b='2'/>"
+               + "<name.with-punct_1>y</name.with-punct_1>"
+               + "</caf\u00e9>");
+
+    StringBuilder name = new StringBuilder();
+
+    for (int i = 0; i < 600; i++) {
+      name.append((char) ('a' + i % 26));
+
+      if (i == 300)
+        name.append('\u00e9');
+    }
+
+    checkParse("<" + name + " " + name + "='v'>t</" + name + ">");
+  }
+
+  @Test
+  public void testEntities()
+    throws Exception
+  {
+    checkParse("<r a='&lt;&amp;&#233;&gt;'>x &amp; y &lt;z&gt; "
+               + "&quot;q&quot; &apos;s&apos; &#233;&#xe9;&#x20AC;"
+               + "&#128512; tail&amp;</r>");
+    checkParse("<r>&amp;&amp;&lt;</r>");
+    checkParse("<r>caf&#233;\u00e9&amp;\u00e9</r>");
+  }
+
+  @Test
+  public void testMarkup()
+    throws Exception
+  {
+    checkParse("<?xml version='1.0' encoding='UTF-8'?>\n"
+               + "<r>a\r\nb\rc\nd<![CDATA[<raw> & \u00e9]]>e"
+               + "<!-- comment \u00e9 --><?pi data?>f<e/>g</r>");
+  }
+
+  private static void checkParse(String xml)
+    throws Exception
+  {
+    byte []data = xml.getBytes(StandardCharsets.UTF_8);
+
+    String expected = dump(parseJdk(data));
+
+    for (int chunk : CHUNKS) {
+      QDocument doc = new QDocument();
+
+      new QDOMFactory().parseXMLDocument(doc,
+                                         new ChunkedInputStream(data, chunk),
+                                         "test.xml");
+
+      assertEquals("chunk " + chunk, expected, dump(doc));
+    }
+  }
+
+  private static Document parseJdk(byte []data)
+    throws Exception
+  {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+
+    return factory.newDocumentBuilder().parse(new ByteArrayInputStream(data));
+  }
+
+  private static String dump(Document doc)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    dump(sb, doc.getDocumentElement());
+
+    return sb.toString();
+  }
+
+  /**
+   * Writes the tree with adjacent text and CDATA merged, since parsers
+   * may split text into several nodes.
+   */
+  private static void dump(StringBuilder sb, Node node)
+  {
+    sb.append('<').append(node.getNodeName());
+
+    TreeMap<String,String> attributes = new TreeMap<String,String>();
+    NamedNodeMap attrs = node.getAttributes();
+
+    for (int i = 0; i < attrs.getLength(); i++) {
+      Node attr = attrs.item(i);
+
+      attributes.put(attr.getNodeName(), attr.getNodeValue());
+    }
+
+    sb.append(attributes).append('>');
+
+    StringBuilder text = new StringBuilder();
+
+    for (Node child = node.getFirstChild();
+         child != null;
+         child = child.getNextSibling()) {
+      switch (child.getNodeType()) {
+      case Node.TEXT_NODE:
+      case Node.CDATA_SECTION_NODE:
+        text.append(child.getNodeValue());
+        continue;
+      }
+
+      appendText(sb, text);
+
+      switch (child.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        dump(sb, child);
+        break;
+
+      case Node.COMMENT_NODE:
+        sb.append("<!--").append(child.getNodeValue()).append("-->");
+        break;
+
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        sb.append("<?").append(child.getNodeName());
+        sb.append(' ').append(child.getNodeValue()).append("?>");
+        break;
+
+      default:
+        sb.append("<#").append(child.getNodeType()).append('>');
+        break;
+      }
+    }
+
+    appendText(sb, text);
+
+    sb.append("</").append(node.getNodeName()).append('>');
+  }
+
+  private static void appendText(StringBuilder sb, StringBuilder text)
+  {
+    if (text.length() > 0) {
+      sb.append('[').append(text).append(']');
+      text.setLength(0);
+    }
+  }
+
+  /**
+   * Returns at most a fixed number of bytes from each read.
+   */
+  static class ChunkedInputStream extends InputStream {
+    private final byte []_data;
+    private final int _chunk;
+    private int _offset;
+
+    ChunkedInputStream(byte []data, int chunk)
+    {
+      _data = data;
+      _chunk = chunk;
+    }
+
+    @Override
+    public int read()
+    {
+      if (_offset < _data.length)
+        return _data[_offset++] & 0xff;
+      else
+        return -1;
+    }
+
+    @Override
+    public int read(byte []buffer, int offset, int length)
+    {
+      if (_data.length <= _offset)
+        return -1;
+
+      int sublen = Math.min(Math.min(length, _chunk), _data.length - _offset);
+
+      System.arraycopy(_data, _offset, buffer, offset, sublen);
+      _offset += sublen;
+
+      return sublen;
+    }
+  }
+}
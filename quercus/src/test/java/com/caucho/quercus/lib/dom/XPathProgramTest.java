@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.dom;
+
+import com.caucho.xml.QDocument;
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares compiled location paths with the JDK XPath engine on the
+ * same QDocument, with and without the document indexes.
+ */
+public class XPathProgramTest
+{
+  private static final String XML
+    = "<r xmlns:n='urn:n'>"
+      + "<item id='1'><item id='2'/><b/><item id='3'><x>t</x></item></item>"
+      + "<item id='2'/><n:item id='9'/>"
+      + "<d xmlns='urn:d'><item id='1'/></d>"
+      + "<c><item/><item id='1' k=''/></c>"
+      + "</r>";
+
+  private static final String []PATTERNS = {
+    "//item",
+    "//item[@id='1']",
+    "//item[@id='2']",
+    "/r/item",
+    "r/item/item",
+    "//item[2]",
+    "//item[@id][1]",
+    "//item[1][@id='2']",
+    "//*[@id='1']",
+    "//*",
+    "/r//item",
+    "//item//item",
+    "//c/item[@k]",
+    "//item[@id=\"3\"]/x",
+    "//nosuch",
+    "/r/c/item[2]",
+    "//*[2]",
+  };
+
+  private static final String []UNSUPPORTED = {
+    "//n:item",
+    "count(//item)",
+    "//item[@id = '1']",
+    "//item/text()",
+    "/",
+    "..",
+    "//item[last()]",
+  };
+
+  private final XPath _xpath = XPathFactory.newInstance().newXPath();
+
+  @Test
+  public void testCompile()
+  {
+    for (String pattern : PATTERNS) {
+      assertNotNull(pattern, XPathProgram.compile(pattern));
+    }
+
+    for (String pattern : UNSUPPORTED) {
+      assertNull(pattern, XPathProgram.compile(pattern));
+    }
+  }
+
+  @Test
+  public void testMatchesJdk()
+    throws Exception
+  {
+    QDocument doc = parse(XML);
+    DOMXPathIndex index = DOMXPathIndex.create(doc);
+
+    assertNotNull(index);
+
+    for (String pattern : PATTERNS) {
+      assertQuery(doc, pattern, null);
+      assertQuery(doc, pattern, index);
+    }
+
+    // from an element context
+    Node item = doc.getDocumentElement().getFirstChild();
+
+    for (String pattern : new String[] { "item", "item[@id='3']/x", "*[2]" }) {
+      assertQuery(item, pattern, null);
+    }
+  }
+
+  /**
+   * A cached index is rebuilt after the tree or an attribute changes.
+   */
+  @Test
+  public void testIndexInvalidation()
+    throws Exception
+  {
+    QDocument doc = parse(XML);
+    DOMXPathIndex index = DOMXPathIndex.create(doc);
+
+    String pattern = "//item[@id='1']";
+
+    assertEquals(2, assertQuery(doc, pattern, index));
+
+    int count = assertQuery(doc, "//item", index);
+
+    Element b = (Element) doc.getElementsByTagName("b").item(0);
+    Element item = doc.createElement("item");
+
+    b.appendChild(item);
+    assertEquals(count + 1, assertQuery(doc, "//item", index));
+
+    item.setAttribute("id", "1");
+    assertEquals(3, assertQuery(doc, pattern, index));
+
+    Attr attr = item.getAttributeNode("id");
+    attr.setValue("7");
+    assertEquals(2, assertQuery(doc, pattern, index));
+
+    attr.setNodeValue("1");
+    assertEquals(3, assertQuery(doc, pattern, index));
+
+    item.removeAttribute("id");
+    assertEquals(2, assertQuery(doc, pattern, index));
+
+    Attr newAttr = doc.createAttribute("id");
+    newAttr.setValue("1");
+    item.setAttributeNode(newAttr);
+    assertEquals(3, assertQuery(doc, pattern, index));
+
+    item.removeAttributeNode(newAttr);
+    assertEquals(2, assertQuery(doc, pattern, index));
+
+    b.removeChild(item);
+    assertEquals(count, assertQuery(doc, "//item", index));
+  }
+
+  @Test
+  public void testIndexOnlyForQDocument()
+    throws Exception
+  {
+    assertNull(DOMXPathIndex.create(parseJdk(XML)));
+  }
+
+  /**
+   * Checks the compiled result against the JDK, returning its length.
+   */
+  private int assertQuery(Node context, String pattern, DOMXPathIndex index)
+    throws Exception
+  {
+    NodeList expected
+      = (NodeList) _xpath.evaluate(pattern, context, XPathConstants.NODESET);
+
+    NodeList result = XPathProgram.compile(pattern).evaluate(context, index);
+
+    String message = pattern + (index != null ? " (indexed)" : "");
+
+    assertEquals(message, expected.getLength(), result.getLength());
+
+    for (int i = 0; i < expected.getLength(); i++) {
+      assertSame(message + " " + i, expected.item(i), result.item(i));
+    }
+
+    return result.getLength();
+  }
+
+  /**
+   * Parses with the JDK and copies the tree into a QDocument.
+   */
+  private static QDocument parse(String xml)
+    throws Exception
+  {
+    QDocument doc = new QDocument();
+
+    copy(doc, doc, parseJdk(xml).getDocumentElement());
+
+    return doc;
+  }
+
+  private static void copy(QDocument doc, Node parent, Node node)
+  {
+    if (node.getNodeType() == Node.TEXT_NODE) {
+      parent.appendChild(doc.createTextNode(node.getNodeValue()));
+
+      return;
+    }
+
+    Element elt = doc.createElementNS(node.getNamespaceURI(),
+                                      node.getNodeName());
+
+    NamedNodeMap attrs = node.getAttributes();
+
+    for (int i = 0; i < attrs.getLength(); i++) {
+      Attr attr = (Attr) attrs.item(i);
+
+      elt.setAttributeNS(attr.getNamespaceURI(), attr.getName(),
+                         attr.getValue());
+    }
+
+    parent.appendChild(elt);
+
+    for (Node child = node.getFirstChild();
+         child != null;
+         child = child.getNextSibling()) {
+      copy(doc, elt, child);
+    }
+  }
+
+  private static Document parseJdk(String xml)
+    throws Exception
+  {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+
+    return factory.newDocumentBuilder()
+                  .parse(new InputSource(new StringReader(xml)));
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.json;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.UnicodeValueImpl;
+import com.caucho.quercus.env.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the number scanner against Java's parsers, and that binary
+ * and unicode input decode the same.
+ */
+public class JsonDecoderTest
+{
+  private Env _env;
+
+  @Before
+  public void setUp()
+  {
+    _env = new Env(new QuercusContext());
+  }
+
+  @After
+  public void tearDown()
+  {
+    _env = null;
+  }
+
+  @Test
+  public void testLongBoundaries()
+  {
+    assertLong(0, "0");
+    assertLong(0, "-0");
+    assertLong(Long.MAX_VALUE, "9223372036854775807");
+    assertLong(-Long.MAX_VALUE, "-9223372036854775807");
+    assertLong(Long.MIN_VALUE, "-9223372036854775808");
+    assertLong(-922337203685477580L, "-922337203685477580");
+    assertLong(999999999999999999L, "999999999999999999");
+
+    // integers that overflow a long are floats
+    assertDouble(9223372036854775808.0, "9223372036854775808");
+    assertDouble(-9223372036854775809.0, "-9223372036854775809");
+    assertDouble(-92233720368547758080.0, "-92233720368547758080");
+    assertDouble(1e20, "100000000000000000000");
+
+    // a fraction or exponent makes a float even when the value fits
+    assertDouble(-9223372036854775808.0, "-9223372036854775808.0");
+    assertDouble(-9223372036854775808.0, "-9223372036854775808e0");
+    assertDouble(1.0, "1.0");
+
+    Value array = decode("[-9223372036854775808,9223372036854775807]");
+
+    Value min = array.get(LongValue.ZERO).getOne();
+    Value max = array.get(LongValue.ONE).getOne();
+
+    assertTrue(min instanceof LongValue);
+    assertEquals(Long.MIN_VALUE, min.toLong());
+    assertEquals(Long.MAX_VALUE, max.toLong());
+  }
+
+  /**
+   * Mantissas of up to 15 digits with exponents up to 22 are computed
+   * with a single power of ten, and must round the same as parsing.
+   */
+  @Test
+  public void testPow10()
+  {
+    String []values = {
+      "0.1", "0.2", "0.3", "1.5", "-2.5e3", "3.14159", "0.000001",
+      "1e22", "1e-22", "9e22", "123456789012345e22", "123456789012345e-22",
+      "0.123456789012345", "1234567890.12345", "1e0", "-0.0", "0.0e5",
+    };
+
+    for (String value : values) {
+      assertDouble(Double.parseDouble(value), value);
+    }
+
+    Random random = new Random(0x15);
+
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder sb = new StringBuilder();
+
+      if (random.nextBoolean())
+        sb.append('-');
+
+      sb.append(1 + random.nextInt(9));
+
+      int digits = random.nextInt(20);
+      int point = random.nextInt(digits + 1);
+
+      for (int j = 0; j < digits; j++) {
+        if (j == point)
+          sb.append('.');
+
+        sb.append(random.nextInt(10));
+      }
+
+      if (random.nextBoolean()) {
+        sb.append('e');
+        sb.append(random.nextInt(50) - 25);
+      }
+
+      String value = sb.toString();
+
+      if (value.indexOf('.') < 0 && value.indexOf('e') < 0)
+        value = value + ".0";
+
+      assertDouble(Double.parseDouble(value), value);
+    }
+  }
+
+  @Test
+  public void testExponentLimits()
+  {
+    assertDouble(1e23, "1e23");
+    assertDouble(1e-23, "1e-23");
+    assertDouble(100.0, "1E+2");
+    assertDouble(1.0, "1e-0");
+    assertDouble(1e308, "1e308");
+    assertDouble(Double.MAX_VALUE, "1.7976931348623157e308");
+    assertDouble(Double.MIN_VALUE, "4.9e-324");
+    assertDouble(Double.POSITIVE_INFINITY, "1e309");
+    assertDouble(Double.NEGATIVE_INFINITY, "-1e309");
+    assertDouble(0.0, "1e-400");
+
+    // exponents too large for an int
+    assertDouble(Double.POSITIVE_INFINITY, "1e99999999999");
+    assertDouble(0.0, "1e-99999999999");
+
+    // many digits, some of them dropped from the mantissa
+    assertDouble(Double.parseDouble("1234567890123456789012345"),
+                 "1234567890123456789012345");
+    assertDouble(Double.parseDouble("0.000000000000000000000000001"),
+                 "0.000000000000000000000000001");
+    assertDouble(Double.parseDouble("1.00000000000000000000000001e22"),
+                 "1.00000000000000000000000001e22");
+  }
+
+  /**
+   * Binary strings are scanned on their bytes and other strings on
+   * their characters.
+   */
+  @Test
+  public void testByteCharScanning()
+  {
+    Value value = decode(" {\"a\" : [1, -2.5, true, false, null],\n"
+                         + "\t\"b\":{\"c\":\"\\u00e9\\n\\\"x\\\"\"},"
+                         + "\r\"caf\u00e9\":\"\u00ff\"} ");
+
+    assertTrue(value instanceof ArrayValue);
+    assertEquals(3, value.getSize());
+
+    Value a = value.get(_env.createString("a")).getOne();
+    assertEquals(5, a.getSize());
+    assertEquals(1, a.get(LongValue.create(0)).getOne().toLong());
+    assertEquals(-2.5, a.get(LongValue.create(1)).getOne().toDouble(), 0);
+    assertTrue(a.get(LongValue.create(2)).getOne().toBoolean());
+    assertFalse(a.get(LongValue.create(3)).getOne().toBoolean());
+    assertTrue(a.get(LongValue.create(4)).getOne().isNull());
+
+    Value key = _env.createString("caf\u00e9");
+
+    assertEquals("\u00ff", value.get(key).getOne().toString());
+
+    assertLong(17, " 17 ");
+    assertEquals("text", decode("\"text\"").toString());
+
+    // malformed input fails the same either way
+    String []errors = {
+      "", "-", "[1,", "[1 2]", "{\"a\" 1}", "01", "1 2", "\"open",
+    };
+
+    for (String error : errors) {
+      assertSame(error, NullValue.NULL, decode(error));
+    }
+  }
+
+  private void assertLong(long expected, String text)
+  {
+    Value value = decode(text);
+
+    assertTrue(text + ": " + value.getClass().getSimpleName(),
+               value instanceof LongValue);
+    assertEquals(text, expected, value.toLong());
+  }
+
+  private void assertDouble(double expected, String text)
+  {
+    Value value = decode(text);
+
+    assertTrue(text + ": " + value.getClass().getSimpleName(),
+               value instanceof DoubleValue);
+    assertEquals(text,
+                 Double.doubleToLongBits(expected),
+                 Double.doubleToLongBits(value.toDouble()));
+  }
+
+  /**
+   * Decodes from binary and unicode input, which must agree.
+   */
+  private Value decode(String text)
+  {
+    Value bytes = new JsonDecoder().jsonDecode(_env,
+                                               new StringBuilderValue(text),
+                                               true);
+    Value chars = new JsonDecoder().jsonDecode(_env,
+                                               new UnicodeValueImpl(text),
+                                               true);
+
+    assertTrue(text, bytes.eql(chars));
+
+    return bytes;
+  }
+}
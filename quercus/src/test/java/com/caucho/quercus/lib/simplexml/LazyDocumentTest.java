@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.simplexml;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.Env;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class LazyDocumentTest
+{
+  private static final String []DOCUMENTS = {
+    "<r/>",
+    "<?xml version='1.0'?>\n<!-- head --><?pi data?>\n<r a='1' b=\"x &amp; y\">"
+      + "text<c>1</c><!-- c --><c>2</c><d><e/></d>tail</r>\n<!-- end -->",
+    "<!DOCTYPE r SYSTEM \"r.dtd\"><r><![CDATA[<raw> & ]]><s/> </r>",
+    "<r xmlns='urn:a' xmlns:b='urn:b'><b:c b:d='1'>x</b:c><c/></r>",
+    "<r>\n  <item>a</item>\n  <other/>\n  <item><item>b</item></item>\n</r>",
+  };
+
+  private Env env;
+
+  @Before
+  public void setUp()
+  {
+    env = new Env(new QuercusContext());
+  }
+
+  @After
+  public void tearDown()
+  {
+    env = null;
+  }
+
+  /**
+   * A lazily parsed document has the same tree as an eager one once
+   * it is traversed.
+   */
+  @Test
+  public void testMatchesEager()
+    throws Exception
+  {
+    for (String xml : DOCUMENTS) {
+      Document eager = parseEager(xml);
+      Document lazy = parseLazy(xml, false);
+
+      assertEquals(xml, dump(eager), dump(lazy));
+      assertNull(LazyDocument.getLazyDocument(lazy));
+    }
+  }
+
+  /**
+   * Only the root start tag is parsed up front, and each child is parsed
+   * when it is first asked for.
+   */
+  @Test
+  public void testParseOnDemand()
+    throws Exception
+  {
+    Document doc = parseLazy("<r a='1'><c>1</c><c>2</c><c>3</c></r>", false);
+    Node root = doc.getDocumentElement();
+
+    assertEquals("r", root.getNodeName());
+    assertEquals("1", ((Element) root).getAttribute("a"));
+    assertNull(root.getFirstChild());
+
+    Node first = SimpleUtil.getFirstChild(root);
+
+    assertEquals("c", first.getNodeName());
+    assertSame(first, root.getLastChild());
+
+    Node second = SimpleUtil.getNextSibling(first);
+
+    assertSame(second, root.getLastChild());
+    assertNull(second.getFirstChild());
+    assertEquals("2", SimpleUtil.getFirstChild(second).getNodeValue());
+    assertNotNull(LazyDocument.getLazyDocument(doc));
+
+    SimpleUtil.complete(root);
+
+    assertEquals(3, root.getChildNodes().getLength());
+    assertNull(LazyDocument.getLazyDocument(doc));
+  }
+
+  /**
+   * The input is closed when the document is complete, or by the
+   * request cleanup if it never is.
+   */
+  @Test
+  public void testClose()
+    throws Exception
+  {
+    DOMImplementation impl = createImpl();
+
+    TestInputStream is = new TestInputStream("<r><c/><c/></r>");
+    Document doc = LazyDocument.parse(env, is, impl, false);
+
+    assertFalse(is._isClosed);
+
+    SimpleUtil.complete(doc);
+
+    assertTrue(is._isClosed);
+
+    is = new TestInputStream("<r><c/><c/></r>");
+    doc = LazyDocument.parse(env, is, impl, false);
+
+    LazyDocument.getLazyDocument(doc).cleanup();
+
+    assertTrue(is._isClosed);
+    assertNull(LazyDocument.getLazyDocument(doc));
+    assertNull(SimpleUtil.getFirstChild(doc.getDocumentElement()));
+  }
+
+  /**
+   * A parse error ends the document where it occurred.
+   */
+  @Test
+  public void testTruncated()
+    throws Exception
+  {
+    Document doc = parseLazy("<r><c>1</c><c>2</d></r>", false);
+    Node root = doc.getDocumentElement();
+
+    Node first = SimpleUtil.getFirstChild(root);
+
+    assertEquals("1", SimpleUtil.getFirstChild(first).getNodeValue());
+
+    Node second = SimpleUtil.getNextSibling(first);
+
+    assertNotNull(second);
+    assertNull(SimpleUtil.getFirstChild(second));
+    assertNull(SimpleUtil.getNextSibling(second));
+    assertNull(LazyDocument.getLazyDocument(doc));
+  }
+
+  /**
+   * Unlike the eager parser, which keeps an EntityReference, the
+   * entities are replaced in the text.
+   */
+  @Test
+  public void testEntity()
+    throws Exception
+  {
+    Document doc = parseLazy("<r>a &lt; b</r>", false);
+
+    assertEquals("1:r{}(3:#text=a < b())",
+                 dump(doc.getDocumentElement()));
+  }
+
+  @Test
+  public void testNoRoot()
+  {
+    try {
+      parseLazy("<!-- nothing -->", false);
+      fail();
+    } catch (Exception e) {
+    }
+
+    try {
+      parseLazy("not xml", false);
+      fail();
+    } catch (Exception e) {
+    }
+  }
+
+  /**
+   * With release, an element is dropped once it has been passed, but
+   * only after its end tag is parsed.
+   */
+  @Test
+  public void testRelease()
+    throws Exception
+  {
+    Document doc = parseLazy("<r><c><d/></c><c/><c/></r>", true);
+    Node root = doc.getDocumentElement();
+    LazyDocument lazy = LazyDocument.getLazyDocument(doc);
+
+    Node first = SimpleUtil.getFirstChild(root);
+    Node child = SimpleUtil.getFirstChild(first);
+
+    // still open
+    lazy.release(first);
+    assertSame(root, first.getParentNode());
+
+    assertEquals("d", child.getNodeName());
+
+    Node second = SimpleUtil.getNextSibling(first);
+
+    lazy.release(first);
+    assertNull(first.getParentNode());
+    assertSame(second, root.getFirstChild());
+
+    // without release, nothing is dropped
+    doc = parseLazy("<r><c/><c/></r>", false);
+    root = doc.getDocumentElement();
+    lazy = LazyDocument.getLazyDocument(doc);
+
+    first = SimpleUtil.getFirstChild(root);
+    SimpleUtil.getNextSibling(first);
+
+    lazy.release(first);
+    assertSame(root, first.getParentNode());
+  }
+
+  Document parseLazy(String xml, boolean isRelease)
+    throws Exception
+  {
+    return LazyDocument.parse(env, new StringReader(xml),
+                              createImpl(), isRelease);
+  }
+
+  /**
+   * Parses like SimpleXMLElement without simplexml.lazy.
+   */
+  static Document parseEager(String xml)
+    throws Exception
+  {
+    SimpleHandler handler = new SimpleHandler(createImpl());
+
+    SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+    saxFactory.setNamespaceAware(true);
+
+    SAXParser parser = saxFactory.newSAXParser();
+
+    parser.getXMLReader().setFeature(
+      "http://xml.org/sax/features/namespace-prefixes", true);
+    parser.getXMLReader().setProperty(
+      "http://xml.org/sax/properties/lexical-handler", handler);
+
+    parser.parse(new InputSource(new StringReader(xml)), handler);
+
+    return handler.getDocument();
+  }
+
+  static DOMImplementation createImpl()
+    throws Exception
+  {
+    return DocumentBuilderFactory.newInstance()
+                                 .newDocumentBuilder()
+                                 .getDOMImplementation();
+  }
+
+  /**
+   * Returns the tree as a string, traversing a lazy document as the
+   * views would.
+   */
+  static String dump(Node node)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    dump(sb, node);
+
+    return sb.toString();
+  }
+
+  private static void dump(StringBuilder sb, Node node)
+  {
+    sb.append(node.getNodeType()).append(':').append(node.getNodeName());
+
+    if (node.getNamespaceURI() != null)
+      sb.append('{').append(node.getNamespaceURI()).append('}');
+
+    if (node.getNodeValue() != null)
+      sb.append('=').append(node.getNodeValue());
+
+    NamedNodeMap attrs = node.getAttributes();
+
+    if (attrs != null) {
+      // attribute order is not significant
+      TreeMap<String,String> map = new TreeMap<String,String>();
+
+      for (int i = 0; i < attrs.getLength(); i++) {
+        Attr attr = (Attr) attrs.item(i);
+
+        map.put(attr.getName(), attr.getValue());
+      }
+
+      sb.append(map);
+    }
+
+    sb.append('(');
+
+    for (Node child = SimpleUtil.getFirstChild(node);
+         child != null;
+         child = SimpleUtil.getNextSibling(child)) {
+      dump(sb, child);
+    }
+
+    sb.append(')');
+  }
+
+  static class TestInputStream extends ByteArrayInputStream
+  {
+    private boolean _isClosed;
+
+    TestInputStream(String xml)
+    {
+      super(xml.getBytes());
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      _isClosed = true;
+
+      super.close();
+    }
+  }
+}
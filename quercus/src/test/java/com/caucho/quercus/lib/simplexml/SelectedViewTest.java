@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.simplexml;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SelectedViewTest
+{
+  private static final String XML
+    = "<r>\n  <item>a</item>\n  <other>x</other>\n  <item>b</item>"
+      + "<!-- c --><item><item>nested</item></item>\n  <items/>\n</r>";
+
+  private Env env;
+
+  @Before
+  public void setUp()
+  {
+    env = new Env(new QuercusContext());
+  }
+
+  @After
+  public void tearDown()
+  {
+    env = null;
+  }
+
+  @Test
+  public void testIndex()
+    throws Exception
+  {
+    for (Document doc : new Document[] { parseEager(), parseLazy(false) }) {
+      SelectedView items = select(doc, "item");
+
+      assertEquals("a", getText(items.getIndex(env, LongValue.create(0))));
+      assertEquals("b", getText(items.getIndex(env, LongValue.create(1))));
+
+      SimpleView third = items.getIndex(env, LongValue.create(2));
+
+      assertEquals("item", third.getNodeName());
+      assertEquals("nested", getText(third.getField(env, env.createString("item"))
+                                          .getIndex(env, LongValue.create(0))));
+
+      assertNull(items.getIndex(env, LongValue.create(3)));
+      assertNull(items.getIndex(env, LongValue.create(-1)));
+
+      // an earlier index after a later one
+      assertEquals("a", getText(items.getIndex(env, LongValue.create(0))));
+
+      assertEquals(3, items.getCount());
+      assertEquals(0, select(doc, "missing").getCount());
+      assertNull(select(doc, "missing").getIndex(env, LongValue.create(0)));
+    }
+  }
+
+  /**
+   * On a lazy document, an index parses only as far as its element.
+   */
+  @Test
+  public void testIndexOnDemand()
+    throws Exception
+  {
+    Document doc = parseLazy(false);
+    Node root = doc.getDocumentElement();
+
+    SelectedView items = select(doc, "item");
+
+    assertNull(root.getFirstChild());
+
+    SimpleView second = items.getIndex(env, LongValue.create(1));
+    Node last = root.getLastChild();
+
+    assertEquals("item", last.getNodeName());
+    assertNull(SimpleUtil.getFirstChild(last).getNextSibling());
+    assertEquals("b", getText(second));
+
+    assertEquals(3, items.getCount());
+    assertEquals("items", root.getLastChild().getPreviousSibling()
+                              .getNodeName());
+  }
+
+  @Test
+  public void testIterator()
+    throws Exception
+  {
+    for (boolean isRelease : new boolean[] { false, true }) {
+      for (Document doc : new Document[] { parseEager(),
+                                           parseLazy(isRelease) }) {
+        ArrayList<String> names = new ArrayList<String>();
+
+        Iterator<Map.Entry<IteratorIndex,SimpleView>> iter
+          = select(doc, "item").getIterator();
+
+        while (iter.hasNext()) {
+          SimpleView view = iter.next().getValue();
+
+          names.add(view.getNodeName() + ":" + getText(view));
+        }
+
+        assertEquals("[item:a, item:b, item:]", names.toString());
+      }
+    }
+  }
+
+  /**
+   * A foreach with release keeps only the elements it has not passed.
+   */
+  @Test
+  public void testIteratorRelease()
+    throws Exception
+  {
+    Document doc = parseLazy(true);
+    Node root = doc.getDocumentElement();
+
+    Iterator<Map.Entry<IteratorIndex,SimpleView>> iter
+      = select(doc, "item").getIterator();
+
+    Node first = ((ElementView) iter.next().getValue()).getNode();
+
+    assertSame(root, first.getParentNode());
+
+    Node second = ((ElementView) iter.next().getValue()).getNode();
+
+    assertNull(first.getParentNode());
+    assertSame(root, second.getParentNode());
+
+    iter.next();
+
+    assertNull(second.getParentNode());
+    assertFalse(iter.hasNext());
+
+    int count = 0;
+
+    for (Node node = root.getFirstChild();
+         node != null;
+         node = node.getNextSibling()) {
+      if ("item".equals(node.getNodeName()))
+        count++;
+    }
+
+    assertEquals(1, count);
+  }
+
+  private SelectedView select(Document doc, String name)
+  {
+    ElementView root = new ElementView(doc.getDocumentElement());
+
+    return (SelectedView) root.getField(env, env.createString(name));
+  }
+
+  private Document parseLazy(boolean isRelease)
+    throws Exception
+  {
+    return LazyDocument.parse(env, new StringReader(XML),
+                              LazyDocumentTest.createImpl(), isRelease);
+  }
+
+  private static Document parseEager()
+    throws Exception
+  {
+    return LazyDocumentTest.parseEager(XML);
+  }
+
+  private String getText(SimpleView view)
+  {
+    return view.toString(env);
+  }
+}
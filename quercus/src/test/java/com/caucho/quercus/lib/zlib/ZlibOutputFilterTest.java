@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.lib.zlib;
+
+import com.caucho.vfs.StreamImpl;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class ZlibOutputFilterTest
+{
+  @Test
+  public void testGzip()
+    throws IOException
+  {
+    TestStream out = new TestStream();
+    ZlibOutputFilter filter = createFilter(true, 4096, out);
+
+    byte []page = createPage(100000);
+
+    write(filter, page, 1000);
+    filter.finish();
+
+    assertArrayEquals(page, readAll(new GZIPInputStream(out.getInput())));
+  }
+
+  @Test
+  public void testDeflate()
+    throws IOException
+  {
+    TestStream out = new TestStream();
+    ZlibOutputFilter filter = createFilter(false, 4096, out);
+
+    byte []page = createPage(100000);
+
+    write(filter, page, 777);
+    filter.write(new byte[0], 0, 0, true);
+
+    assertArrayEquals(page, readAll(new InflaterInputStream(out.getInput())));
+  }
+
+  /**
+   * A flush sends everything written so far in decompressible form.
+   */
+  @Test
+  public void testFlush()
+    throws Exception
+  {
+    TestStream out = new TestStream();
+    ZlibOutputFilter filter = createFilter(false, Integer.MAX_VALUE, out);
+
+    byte []head = "<html><head>".getBytes("UTF-8");
+
+    filter.write(head, 0, head.length, false);
+    filter.flush();
+
+    Inflater inflater = new Inflater();
+    byte []compressed = out.toByteArray();
+    inflater.setInput(compressed);
+
+    byte []buffer = new byte[256];
+    int len = inflater.inflate(buffer);
+
+    assertEquals("<html><head>", new String(buffer, 0, len, "UTF-8"));
+    assertEquals(1, out._flushCount);
+
+    filter.finish();
+  }
+
+  /**
+   * An empty page has an empty body, not an empty compressed stream.
+   */
+  @Test
+  public void testEmpty()
+    throws IOException
+  {
+    for (boolean isGzip : new boolean[] { true, false }) {
+      TestStream out = new TestStream();
+      ZlibOutputFilter filter = createFilter(isGzip, 4096, out);
+
+      filter.write(new byte[0], 0, 0, false);
+      filter.flush();
+      filter.finish();
+
+      assertEquals(0, out.size());
+    }
+  }
+
+  @Test
+  public void testWriteAfterFinish()
+    throws IOException
+  {
+    TestStream out = new TestStream();
+    ZlibOutputFilter filter = createFilter(true, 4096, out);
+
+    byte []page = createPage(1000);
+
+    filter.write(page, 0, page.length, false);
+    filter.finish();
+
+    int size = out.size();
+
+    filter.write(page, 0, page.length, false);
+    filter.finish();
+
+    assertEquals(size, out.size());
+    assertArrayEquals(page, readAll(new GZIPInputStream(out.getInput())));
+  }
+
+  private static ZlibOutputFilter createFilter(boolean isGzip,
+                                               int flushInterval,
+                                               TestStream out)
+  {
+    ZlibOutputFilter filter
+      = new ZlibOutputFilter(isGzip, Deflater.DEFAULT_COMPRESSION,
+                             flushInterval);
+
+    filter.init(out);
+
+    return filter;
+  }
+
+  private static void write(ZlibOutputFilter filter, byte []page, int chunk)
+    throws IOException
+  {
+    for (int i = 0; i < page.length; i += chunk) {
+      filter.write(page, i, Math.min(chunk, page.length - i), false);
+
+      if (i % (10 * chunk) == 0)
+        filter.flush();
+    }
+  }
+
+  private static byte []createPage(int length)
+  {
+    Random random = new Random(length);
+    StringBuilder sb = new StringBuilder();
+
+    while (sb.length() < length) {
+      sb.append("<tr><td>").append(random.nextInt(1000)).append("</td></tr>\n");
+    }
+
+    byte []page = new byte[length];
+
+    for (int i = 0; i < length; i++) {
+      page[i] = (byte) sb.charAt(i);
+    }
+
+    return page;
+  }
+
+  private static byte []readAll(InputStream is)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte []buffer = new byte[1024];
+    int len;
+
+    while ((len = is.read(buffer)) > 0) {
+      bos.write(buffer, 0, len);
+    }
+
+    return bos.toByteArray();
+  }
+
+  /**
+   * Response stream which records the bytes and flushes.
+   */
+  static class TestStream extends StreamImpl
+  {
+    private final ByteArrayOutputStream _out = new ByteArrayOutputStream();
+    private int _flushCount;
+
+    @Override
+    public boolean canWrite()
+    {
+      return true;
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length, boolean isEnd)
+    {
+      _out.write(buffer, offset, length);
+    }
+
+    @Override
+    public void flush()
+    {
+      _flushCount++;
+    }
+
+    int size()
+    {
+      return _out.size();
+    }
+
+    byte []toByteArray()
+    {
+      return _out.toByteArray();
+    }
+
+    InputStream getInput()
+    {
+      return new ByteArrayInputStream(_out.toByteArray());
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ */
+
+package com.caucho.quercus.page;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.Vfs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that cached include resolutions are dropped when a file is
+ * created that an include would now resolve to.
+ */
+public class PageWatcherTest
+{
+  private static final long TIMEOUT = 10000L;
+
+  private QuercusContext _quercus;
+  private Env _env;
+  private File _root;
+
+  @Before
+  public void setUp()
+    throws IOException
+  {
+    _root = Files.createTempDirectory("page-watcher").toFile();
+
+    _quercus = new QuercusContext();
+    _quercus.setPageWatch(true);
+    _quercus.init();
+    _quercus.start();
+
+    _env = new Env(_quercus);
+
+    Path root = lookup(_root);
+
+    _env.setPwd(root);
+    _env.setSelfPath(root.lookup("index.php"));
+    _env.setIni("include_path",
+                "first" + File.pathSeparator + "second");
+  }
+
+  @After
+  public void tearDown()
+  {
+    _quercus.close();
+
+    delete(_root);
+  }
+
+  /**
+   * The shadowing file is created in an existing subdirectory of an
+   * include path root.
+   */
+  @Test
+  public void testShadowInSubdirectory()
+    throws Exception
+  {
+    if (! _quercus.getPageWatcher().isWatchService())
+      return;
+
+    mkdirs("first/lib");
+    File second = create("second/lib/util.php");
+
+    StringValue include = _env.createString("lib/util.php");
+
+    assertEquals(second, lookupInclude(include));
+
+    // the cached resolution is used until something changes
+    assertEquals(second, lookupInclude(include));
+
+    File first = create("first/lib/util.php");
+
+    waitForInclude(include, first);
+  }
+
+  /**
+   * The shadowing file is created in a new subdirectory.
+   */
+  @Test
+  public void testShadowInNewDirectory()
+    throws Exception
+  {
+    if (! _quercus.getPageWatcher().isWatchService())
+      return;
+
+    mkdirs("first");
+    File second = create("second/lib/util.php");
+
+    StringValue include = _env.createString("lib/util.php");
+
+    assertEquals(second, lookupInclude(include));
+
+    File first = create("first/lib/util.php");
+
+    waitForInclude(include, first);
+  }
+
+  private void waitForInclude(StringValue include, File expected)
+    throws InterruptedException
+  {
+    long expires = System.currentTimeMillis() + TIMEOUT;
+
+    while (! expected.equals(lookupInclude(include))) {
+      assertTrue("include not re-resolved to " + expected,
+                 System.currentTimeMillis() < expires);
+
+      Thread.sleep(50);
+    }
+
+    assertTrue(_quercus.getPageWatcher().getIncludeInvalidateCount() > 0);
+  }
+
+  private File lookupInclude(StringValue include)
+  {
+    Path path = _env.lookupInclude(include);
+
+    if (path == null)
+      return null;
+
+    return new File(path.getNativePath()).getAbsoluteFile();
+  }
+
+  private void mkdirs(String name)
+  {
+    assertTrue(new File(_root, name).mkdirs());
+  }
+
+  private File create(String name)
+    throws IOException
+  {
+    File file = new File(_root, name).getAbsoluteFile();
+
+    file.getParentFile().mkdirs();
+
+    FileOutputStream os = new FileOutputStream(file);
+
+    try {
+      os.write("<?php\n".getBytes("ISO-8859-1"));
+    } finally {
+      os.close();
+    }
+
+    return file;
+  }
+
+  private static Path lookup(File file)
+  {
+    return Vfs.lookup(file.getAbsolutePath());
+  }
+
+  private static void delete(File file)
+  {
+    File []children = file.listFiles();
+
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+
+    file.delete();
+  }
+}
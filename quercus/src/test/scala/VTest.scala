@@ -40,6 +40,231 @@ class VTest extends AbstractPhpTest {
         eval("echo create_conditional('foo')?'x':'y';") to c(foo, "x") ~ c(foo.not(), "y")
     }
 
+    @Test
+    def testVJsonEncode() {
+        eval("echo json_encode(array(1, 2));") to "[1,2]"
+        eval("$a = array('x' => 1, 'y' => 1 + create_conditional('foo')); echo json_encode($a);") to
+            "{\"x\":1,\"y\":" ~ c(foo, "2") ~ c(foo.not(), "1") ~ "}"
+
+        eval("$s = json_encode(array(1, create_conditional('foo') ? 2 : 3)); echo $s;") to
+            "[1," ~ c(foo, "2") ~ c(foo.not(), "3") ~ "]"
+        eval("$a = array('a' => create_conditional('foo') ? 'x' : 'y', 'b' => 1); echo json_encode($a, 0) . '.';") to
+            "{\"a\":\"" ~ c(foo, "x") ~ c(foo.not(), "y") ~ "\",\"b\":1}."
+    }
+
+    @Test
+    def testJsonEncodeStreaming() {
+        // larger than the streaming encoder's flush size
+        val big = "a" * 9000
+
+        eval("echo json_encode(array(str_repeat('a', 9000), array('x' => 1)));") to
+            "[\"" + big + "\",{\"x\":1}]"
+        eval("class P { public $a; } $p = new P(); $p->a = str_repeat('a', 9000); echo json_encode(array($p, 2));") to
+            "[{\"a\":\"" + big + "\"},2]"
+
+        // jsonSerialize() runs before anything of the encoding is written
+        eval("class J implements JsonSerializable { function jsonSerialize() { echo 'side'; return 1; } } " +
+             "echo json_encode(array(str_repeat('a', 9000), new J()));") to
+            "side[\"" + big + "\",1]"
+        eval("class T implements JsonSerializable { function jsonSerialize() { throw new Exception('x'); } } " +
+             "try { echo json_encode(array(str_repeat('a', 9000), new T())); } catch (Exception $e) { echo 'caught'; }") to
+            "caught"
+    }
+
+    @Test
+    def testStringSlices() {
+        // substr() and explode() share the parent's buffer for long results
+        val setup = "$s = str_repeat('abcdefgh', 64); "
+
+        eval(setup + "$t = substr($s, 8, 128); $t[0] = 'x'; echo $t[0], $t[1], $s[8], strlen($t);") to
+            "xba128"
+        eval(setup + "$t = substr($s, 0, 100); $t .= 'Z'; echo strlen($t), $t[100], strlen($s), $s[100];") to
+            "101Z512e"
+        eval(setup + "$t = substr($s, 8, 128); $u = substr($t, 64, 64); $t[64] = 'x'; echo $u[0], $t[64], substr($s, 72, 1);") to
+            "axa"
+        eval("$p = explode(',', str_repeat('a', 100) . ',' . str_repeat('b', 100)); " +
+             "$p[0][0] = 'x'; $p[1] .= 'c'; echo $p[0][0], $p[0][1], strlen($p[1]), $p[1][100];") to
+            "xa101c"
+
+        // long concatenations share both parts
+        eval("$a = str_repeat('a', 5000); $r = $a . str_repeat('b', 5000); $q = $r; $q .= 'c'; $r[0] = 'x'; " +
+             "echo strlen($r), substr($r, 4998, 4), $r[0], $a[0], strlen($q), $q[0];") to
+            "10000aabbxa10001a"
+    }
+
+    @Test
+    def testImplodeToString() {
+        eval("class S { public $n = 0; function __toString() { $this->n++; return 's'; } } " +
+             "$o = new S(); echo implode(',', array('a', $o, 1, 'b')), $o->n;") to
+            "a,s,1,b1"
+    }
+
+    // logs the callbacks of a whole-document parse, and any chunk size
+    // whose callbacks differ
+    val xmlParse = """
+        |function flush_text() { global $log, $text; if ($text !== '') { $log .= 'C:' . $text . '|'; $text = ''; } }
+        |function start_h($p, $name, $attrs) {
+        |  global $log; flush_text(); $log .= 'S:' . $name;
+        |  foreach ($attrs as $k => $v) $log .= ' ' . $k . '=' . $v;
+        |  $log .= '|';
+        |}
+        |function end_h($p, $name) { global $log; flush_text(); $log .= 'E:' . $name . '|'; }
+        |function text_h($p, $data) { global $text; $text .= $data; }
+        |function pi_h($p, $target, $data) { global $log; flush_text(); $log .= 'P:' . $target . ' ' . $data . '|'; }
+        |function parse_doc($doc, $size) {
+        |  global $log, $text;
+        |  $log = ''; $text = '';
+        |  $p = xml_parser_create();
+        |  xml_parser_set_option($p, XML_OPTION_CASE_FOLDING, 0);
+        |  xml_set_element_handler($p, 'start_h', 'end_h');
+        |  xml_set_character_data_handler($p, 'text_h');
+        |  xml_set_processing_instruction_handler($p, 'pi_h');
+        |  if ($size == 0)
+        |    xml_parse($p, $doc, true);
+        |  else {
+        |    foreach (str_split($doc, $size) as $chunk)
+        |      xml_parse($p, $chunk, false);
+        |    xml_parse($p, '', true);
+        |  }
+        |  xml_parser_free($p);
+        |  flush_text();
+        |  return $log;
+        |}
+        |function check($doc) {
+        |  $whole = parse_doc($doc, 0);
+        |  echo strtr($whole, array("\xc3\xa9" => '[e]', "\n" => '[n]'));
+        |  for ($size = 1; $size <= strlen($doc); $size++) {
+        |    if (parse_doc($doc, $size) !== $whole)
+        |      echo " differs at $size";
+        |  }
+        |}
+        |""".stripMargin
+
+    @Test
+    def testXmlParseChunked() {
+        eval(xmlParse + """check('<?xml version="1.0" encoding="UTF-8"?>' . "\r\n"
+            . '<?pi some data?><!-- c --><root a="x &amp; y" b="&#65;&#x42;' . "\n" . 'z">'
+            . "t&lt;ext \xc3\xa9<![CDATA[<raw>&amp;]]>\r\n"
+            . '<br/><f g="1">in</f><?pi2 x?></root>' . "\n");""") to
+            "P:pi some data|S:root a=x & y b=AB z|C:t<ext [e]<raw>&amp;[n]|S:br|E:br|S:f g=1|C:in|E:f|P:pi2 x|E:root|"
+
+        // an internal DTD subset sends the chunks to the SAX parser
+        eval(xmlParse + """check('<?p0 z?><!DOCTYPE r [<!ENTITY e "ent"><!ATTLIST r d CDATA "def">]>'
+            . '<?p1 q?><r>a&e;b</r>');""") to
+            "P:p0 z|P:p1 q|S:r d=def|C:aentb|E:r|"
+    }
+
+    @Test
+    def testXmlWriterFlush() {
+        // a kept memory buffer is returned as a copy, an emptied one handed over
+        eval("""$w = xmlwriter_open_memory(); xmlwriter_write_element($w, 'a', 'x');
+            |$s1 = xmlwriter_flush($w, false); xmlwriter_write_element($w, 'b', 'y');
+            |$s2 = xmlwriter_output_memory($w, false); $s3 = xmlwriter_output_memory($w);
+            |$s4 = xmlwriter_output_memory($w, true); xmlwriter_write_element($w, 'c');
+            |echo $s1, '|', $s2, '|', $s3, '|', $s4, '|', xmlwriter_flush($w), '|', xmlwriter_flush($w);""".stripMargin) to
+            "<a>x</a>|<a>x</a><b>y</b>|<a>x</a><b>y</b>||<c/>|"
+
+        // php://output is written when the threshold fills, and flush()
+        // returns the characters written since the last flush
+        eval("""ob_start(); $w = xmlwriter_open_uri('php://output');
+            |xmlwriter_write_element($w, 'item', 'abc'); $p = ob_get_contents();
+            |$n = xmlwriter_flush($w); $all = ob_get_clean();
+            |echo strlen($p), '|', $n, '|', $all;""".stripMargin) to
+            "0|16|<item>abc</item>"
+        eval("""ini_set('xmlwriter.flush_threshold', 4); ob_start();
+            |$w = xmlwriter_open_uri('php://output');
+            |xmlwriter_write_element($w, 'item', 'abc'); $p = ob_get_contents();
+            |$n = xmlwriter_flush($w); $all = ob_get_clean();
+            |echo $p, '|', $n, '|', $all;""".stripMargin) to
+            "<item>abc</i|16|<item>abc</item>"
+
+        // a uri writer stays open across flushes
+        eval("""ini_set('xmlwriter.flush_threshold', 8); $f = tempnam(sys_get_temp_dir(), 'xw');
+            |$w = xmlwriter_open_uri($f); xmlwriter_write_element($w, 'item', 'abc');
+            |$n = xmlwriter_flush($w); $first = file_get_contents($f);
+            |xmlwriter_write_element($w, 'x', 'y'); $n2 = xmlwriter_flush($w);
+            |echo $n, '|', $first, '|', $n2, '|', file_get_contents($f); unlink($f);""".stripMargin) to
+            "16|<item>abc</item>|8|<item>abc</item><x>y</x>"
+    }
+
+    // a temporary page that echoes 'run' and returns 5
+    val includePage = """$f = tempnam(sys_get_temp_dir(), 'inc');
+        |file_put_contents($f, '<?php echo "run"; return 5;');
+        |""".stripMargin
+
+    @Test
+    def testIncludeOnce() {
+        // relative and absolute paths to the same file are one page
+        eval(includePage + """$a = include_once $f; chdir(dirname($f));
+            |$b = include_once basename($f); $c = include_once './' . basename($f);
+            |$d = include_once dirname($f) . '/../' . basename(dirname($f)) . '/' . basename($f);
+            |unlink($f); echo '|', $a, $b, $c, $d;""".stripMargin) to
+            "run|5111"
+        eval(includePage + """chdir(dirname($f)); $a = include_once basename($f);
+            |$b = include_once $f; unlink($f); echo '|', $a, $b;""".stripMargin) to
+            "run|51"
+
+        // include_once after include, and include after include_once
+        eval(includePage + """$a = include $f; $b = include_once $f; $c = include $f;
+            |unlink($f); echo '|', $a, $b, $c;""".stripMargin) to
+            "runrun|515"
+
+        // a page included in some configurations still runs once in the others
+        eval(includePage + """if (create_conditional('foo')) include_once $f; echo '|';
+            |include_once $f; echo '|'; include_once $f; unlink($f);""".stripMargin) to
+            c(foo, "run") ~ "|" ~ c(foo.not(), "run") ~ "|"
+    }
+
+    // writes $d to a temporary file, then reads it back whole, with readfile()
+    // and with fpassthru() after a short fread()
+    val fileContents = """$f = tempnam(sys_get_temp_dir(), 'fc'); $n = file_put_contents($f, $d);
+        |$s = file_get_contents($f); ob_start(); $r = readfile($f); $o = ob_get_clean();
+        |$h = fopen($f, 'r'); $head = fread($h, 10); ob_start(); $p = fpassthru($h);
+        |$t = ob_get_clean(); fclose($h);
+        |echo $n, '|', $s === $d ? 'same' : 'diff', '|', $r, '|', $o === $d ? 'same' : 'diff',
+        |  '|', $p, '|', $head . $t === $d ? 'same' : 'diff', '|';
+        |""".stripMargin
+
+    @Test
+    def testFileContents() {
+        eval("$d = '';" + fileContents + "unlink($f);") to
+            "0|same|0|same|0|same|"
+
+        // larger than the size file_get_contents presizes its string from
+        eval("$d = str_repeat('0123456789abcdef', 20000);" + fileContents +
+            """$m = file_get_contents($f, false, null, 0, 300000);
+              |$a = file_put_contents($f, array('ab', 'cd'), FILE_APPEND);
+              |echo $m === substr($d, 0, 300000) ? 'same' : 'diff', '|', $a, '|',
+              |  file_get_contents($f) === $d . 'abcd' ? 'same' : 'diff'; unlink($f);""".stripMargin) to
+            "320000|same|320000|same|319990|same|same|4|same"
+
+        // devices report no length and are read as streams, directories fail
+        eval("""echo file_put_contents('/dev/null', 'abc'), '|';
+            |var_export(file_get_contents('/dev/null')); echo '|', readfile('/dev/null'), '|';
+            |echo strlen(file_get_contents('/dev/zero', false, null, 0, 300000)), '|';
+            |$h = fopen('/dev/zero', 'r'); echo strlen(fread($h, 5)), '|'; fclose($h);
+            |$dir = sys_get_temp_dir(); var_export(@file_get_contents($dir)); echo '|';
+            |var_export(@readfile($dir)); echo '|'; var_export(@file_put_contents($dir, 'x'));""".stripMargin) to
+            "3|''|0|300000|5|false|false|false"
+    }
+
+    @Test
+    def testVString() {
+        eval("$a = 'head' . (create_conditional('foo') ? 'x' : 'yy') . 'tail'; echo $a;") to
+            "head" ~ c(foo, "x") ~ c(foo.not(), "yy") ~ "tail"
+        eval("$a = 'head' . (create_conditional('foo') ? 'x' : 'yy') . 'tail'; echo strlen($a);") to
+            c(foo, "9") ~ c(foo.not(), "10")
+        eval("$a = 'head' . (create_conditional('foo') ? 'x' : 'yy') . 'tail'; echo strpos($a, 'ad');") to "2"
+    }
+
+    @Test
+    def testVOutputBuffer() {
+        eval("ob_start(); ob_start(); echo 'x'; if (create_conditional('foo')) echo 'y'; ob_end_flush(); ob_end_flush();") to
+            "x" ~ c(foo, "y")
+        eval("ob_start(); echo 'a'; if (create_conditional('foo')) echo 'b'; echo 'c'; $x = ob_get_clean(); echo strlen($x);") to
+            c(foo, "3") ~ c(foo.not(), "2")
+    }
+
     @Test
     def testVIf() {
         eval("if (create_conditional('foo')) echo 'x'; else echo 'y'; echo 'z';") to c(foo, "x") ~ c(foo.not(), "y") ~ "z"